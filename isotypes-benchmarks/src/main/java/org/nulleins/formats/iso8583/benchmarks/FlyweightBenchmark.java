@@ -0,0 +1,78 @@
+package org.nulleins.formats.iso8583.benchmarks;
+
+import org.nulleins.formats.iso8583.config.SampleMessages;
+import org.nulleins.formats.iso8583.flyweight.MessageEncoder;
+import org.nulleins.formats.iso8583.flyweight.MessageFlyweight;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput of the flyweight decoder and encoder, for comparison with the factory parse
+  * and format paths measured by {@link MessageFactoryBenchmark} */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlyweightBenchmark {
+  @Param({"TEXT_HEX_PRIMARY", "TEXT_HEX_SECONDARY", "TEXT_HEX_TERTIARY", "TEXT_BINARY_TERTIARY",
+          "BCD_BINARY_PRIMARY", "BCD_BINARY_SECONDARY"})
+  public SampleMessages.Scenario scenario;
+
+  private MessageFlyweight flyweight;
+  private MessageEncoder encoder;
+  private ByteBuffer input;
+  private ByteBuffer output;
+
+  @Setup
+  public void setup() {
+    final SampleMessages.Sample sample = SampleMessages.create(scenario);
+    flyweight = new MessageFlyweight(sample.getFactory());
+    encoder = new MessageEncoder(sample.getFactory());
+    input = ByteBuffer.allocateDirect(sample.getData().length);
+    input.put(sample.getData()).flip();
+    output = ByteBuffer.allocateDirect(1024);
+  }
+
+  @Benchmark
+  public boolean wrap() {
+    return flyweight.wrap(input, 0);
+  }
+
+  /** wrap, and read every field as characters */
+  @Benchmark
+  public void read(final Blackhole blackhole) {
+    flyweight.wrap(input, 0);
+    for (int number = 2; number <= 192; number++) {
+      if (flyweight.hasField(number)) {
+        blackhole.consume(flyweight.getCharSequence(number).length());
+      }
+    }
+  }
+
+  /** re-encode every field of the wrapped message */
+  @Benchmark
+  public int transcode() {
+    flyweight.wrap(input, 0);
+    encoder.wrap(output, 0, flyweight.getMTI());
+    for (int number = 2; number <= 192; number++) {
+      if (flyweight.hasField(number)) {
+        encoder.putChars(number, flyweight.getCharSequence(number));
+      }
+    }
+    return encoder.finish();
+  }
+}
@@ -0,0 +1,169 @@
+package org.nulleins.formats.iso8583.benchmarks;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalTime;
+import org.nulleins.formats.iso8583.TrackData;
+import org.nulleins.formats.iso8583.formatters.CardAcceptorLocationFormatter;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.formatters.TypeFormatters;
+import org.nulleins.formats.iso8583.types.CardAcceptorLocation;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.Dimension;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+
+/** Parse and format throughput of each of the standard type formatters, and of a custom
+  * formatter (the card acceptor location formatter used in the test schemas) */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatterBenchmark {
+  private static final Dimension FIXED4 = Dimension.parse("fixed(4)");
+  private static final Dimension FIXED6 = Dimension.parse("fixed(6)");
+  private static final Dimension FIXED9 = Dimension.parse("fixed(9)");
+  private static final Dimension FIXED10 = Dimension.parse("fixed(10)");
+  private static final Dimension FIXED12 = Dimension.parse("fixed(12)");
+  private static final Dimension FIXED40 = Dimension.parse("fixed(40)");
+  private static final Dimension LLVAR80 = Dimension.parse("llvar(80)");
+
+  private final TypeFormatters formatters = new TypeFormatters(CharEncoder.ASCII);
+  private final TypeFormatter<?> alpha = formatters.getFormatter(FieldType.ALPHANUMSYMBOL);
+  private final TypeFormatter<?> number = formatters.getFormatter(FieldType.NUMERIC);
+  private final TypeFormatter<?> date = formatters.getFormatter(FieldType.DATE);
+  private final TypeFormatter<?> time = formatters.getFormatter(FieldType.TIME);
+  private final TypeFormatter<?> track = formatters.getFormatter(FieldType.TRACKDATA);
+  private final TypeFormatter<?> location = new CardAcceptorLocationFormatter();
+
+  private final String alphaValue = "CIB-57357HOSPITAL     CAIRO          EG0";
+  private final byte[] alphaData = alphaValue.getBytes();
+  private final BigInteger numberValue = BigInteger.valueOf(32000);
+  private final byte[] numberData = "000000032000".getBytes();
+  private final BigInteger signedValue = BigInteger.valueOf(-1000);
+  private final byte[] signedData = "D00001000".getBytes();
+  private final DateTime dateValue = DateTime.parse("2012-12-10T22:02:13");
+  private final byte[] date10Data = "1210220213".getBytes();
+  private final byte[] date4Data = "1211".getBytes();
+  private final LocalTime timeValue = LocalTime.parse("00:02:13");
+  private final byte[] timeData = "000213".getBytes();
+  private final String track1 = "%B1234567890123445^EARIBUG/HUW.              ^99011200000000000000**XXX******?";
+  private final String track2 = "1234567890123456789=1015123";
+  private final byte[] track1Data = track1.getBytes();
+  private final byte[] track2Data = track2.getBytes();
+  private final TrackData track1Value = TrackData.Builder()
+      .type(TrackData.Track.TRACK1)
+      .name(new String[]{"EARIBUG", "HUW", "", ""})
+      .primaryAccountNumber(1234567890123445L)
+      .expirationDate(9901)
+      .serviceCode(120)
+      .discretionaryData("0000000000000**XXX******").build();
+  private final TrackData track2Value = TrackData.Builder()
+      .type(TrackData.Track.TRACK2)
+      .primaryAccountNumber(1234567890123456789L)
+      .expirationDate(1015)
+      .serviceCode(123)
+      .discretionaryData("").build();
+  private final CardAcceptorLocation locationValue
+      = new CardAcceptorLocation("PH Rumukrushi", "Porthar", "PH", "NG");
+  private final byte[] locationData = "PH Rumukrushi          Porthar      PHNG".getBytes();
+
+  @Benchmark
+  public Object alphaParse() throws ParseException {
+    return alpha.parse(FieldType.ALPHANUMSYMBOL, FIXED40, alphaData.length, alphaData);
+  }
+
+  @Benchmark
+  public byte[] alphaFormat() {
+    return alpha.format(FieldType.ALPHANUMSYMBOL, alphaValue, FIXED40);
+  }
+
+  @Benchmark
+  public Object numericParse() throws ParseException {
+    return number.parse(FieldType.NUMERIC, FIXED12, numberData.length, numberData);
+  }
+
+  @Benchmark
+  public byte[] numericFormat() {
+    return number.format(FieldType.NUMERIC, numberValue, FIXED12);
+  }
+
+  @Benchmark
+  public Object signedNumericParse() throws ParseException {
+    return number.parse(FieldType.NUMSIGNED, FIXED9, signedData.length, signedData);
+  }
+
+  @Benchmark
+  public byte[] signedNumericFormat() {
+    return number.format(FieldType.NUMSIGNED, signedValue, FIXED9);
+  }
+
+  @Benchmark
+  public Object date10Parse() throws ParseException {
+    return date.parse(FieldType.DATE, FIXED10, date10Data.length, date10Data);
+  }
+
+  @Benchmark
+  public Object date4Parse() throws ParseException {
+    return date.parse(FieldType.DATE, FIXED4, date4Data.length, date4Data);
+  }
+
+  @Benchmark
+  public byte[] date10Format() {
+    return date.format(FieldType.DATE, dateValue, FIXED10);
+  }
+
+  @Benchmark
+  public Object timeParse() throws ParseException {
+    return time.parse(FieldType.TIME, FIXED6, timeData.length, timeData);
+  }
+
+  @Benchmark
+  public byte[] timeFormat() {
+    return time.format(FieldType.TIME, timeValue, FIXED6);
+  }
+
+  @Benchmark
+  public Object track1Parse() throws ParseException {
+    return track.parse(FieldType.TRACKDATA, LLVAR80, track1Data.length, track1Data);
+  }
+
+  @Benchmark
+  public byte[] track1Format() {
+    return track.format(FieldType.TRACKDATA, track1Value, LLVAR80);
+  }
+
+  @Benchmark
+  public Object track2Parse() throws ParseException {
+    return track.parse(FieldType.TRACKDATA, LLVAR80, track2Data.length, track2Data);
+  }
+
+  @Benchmark
+  public byte[] track2Format() {
+    return track.format(FieldType.TRACKDATA, track2Value, LLVAR80);
+  }
+
+  @Benchmark
+  public Object cardAcceptorLocationParse() throws ParseException {
+    return location.parse("CALf", FIXED40, locationData.length, locationData);
+  }
+
+  @Benchmark
+  public byte[] cardAcceptorLocationFormat() {
+    return location.format("CALf", locationValue, FIXED40);
+  }
+
+}
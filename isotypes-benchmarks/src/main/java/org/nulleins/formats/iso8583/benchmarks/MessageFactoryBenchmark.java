@@ -0,0 +1,82 @@
+package org.nulleins.formats.iso8583.benchmarks;
+
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.ParseResult;
+import org.nulleins.formats.iso8583.config.SampleMessages;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput of the message factory parse and format (write) paths, for each combination
+  * of content type, bitmap type and bitmap extent defined in {@link SampleMessages.Scenario} */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageFactoryBenchmark {
+  @Param({"TEXT_HEX_PRIMARY", "TEXT_HEX_SECONDARY", "TEXT_HEX_TERTIARY", "TEXT_BINARY_TERTIARY",
+          "BCD_BINARY_PRIMARY", "BCD_BINARY_SECONDARY"})
+  public SampleMessages.Scenario scenario;
+
+  private MessageFactory factory;
+  private Message message;
+  private byte[] data;
+  private byte[] truncated;
+
+  @Setup
+  public void setup() {
+    final SampleMessages.Sample sample = SampleMessages.create(scenario);
+    factory = sample.getFactory();
+    message = sample.getMessage();
+    data = sample.getData();
+    truncated = Arrays.copyOf(data, data.length - 1);
+  }
+
+  @Benchmark
+  public Message parse() throws ParseException, IOException {
+    return factory.parse(data);
+  }
+
+  @Benchmark
+  public ParseResult tryParse() {
+    return factory.tryParse(data);
+  }
+
+  /** cost of rejecting malformed data with the throwing API */
+  @Benchmark
+  public Object parseRejected() {
+    try {
+      return factory.parse(truncated);
+    } catch (final Exception e) {
+      return e;
+    }
+  }
+
+  /** cost of rejecting malformed data with {@link MessageFactory#tryParse(byte[])} */
+  @Benchmark
+  public ParseResult tryParseRejected() {
+    return factory.tryParse(truncated);
+  }
+
+  @Benchmark
+  public byte[] getMessageData() {
+    return factory.getMessageData(message);
+  }
+
+}
@@ -0,0 +1,51 @@
+package org.nulleins.formats.iso8583.benchmarks;
+
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.config.BankMessageConfiguration;
+import org.nulleins.formats.iso8583.config.SampleMessages;
+import org.nulleins.formats.iso8583.types.MTI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput of transforming a bank transaction request (0200) into its response (0210) */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+  private static final MTI RESPONSE = MTI.create(0x0210);
+
+  private MessageFactory factory;
+  private Message request;
+  private HashMap<String, Object> extraFields;
+
+  @Setup
+  public void setup() {
+    factory = BankMessageConfiguration.createMessageFactory();
+    request = SampleMessages.bankRequest(factory);
+    extraFields = new HashMap<String, Object>() {{
+      put("addAmounts", "1001818C000000032000");
+      put("accountId1", "01191817233372");
+    }};
+  }
+
+  @Benchmark
+  public Message transform() {
+    return factory.transform(RESPONSE, request, extraFields);
+  }
+
+}
@@ -0,0 +1,120 @@
+package org.nulleins.formats.iso8583.benchmarks;
+
+import org.nulleins.formats.iso8583.types.BCD;
+import org.nulleins.formats.iso8583.types.Bitmap;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.MTI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Micro-benchmarks of the value types used on every message: BCD packing, bitmap
+  * parsing/formatting, character encoding and MTI creation */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypesBenchmark {
+  private static final CharEncoder EBCDIC = new CharEncoder("IBM1047");
+
+  private final String pan = "5264391220494002";
+  private final byte[] bcdPan = BCD.valueOf(pan);
+  private final String hexBitmap = "F220000000000001C0000000000000014000000000000001";
+  private final byte[] binaryBitmap = {
+      (byte) 0xf2, 0x20, 0, 0, 0, 0, 0, 1, (byte) 0xc0, 0, 0, 0, 0, 0, 0, 1, 0x40, 0, 0, 0, 0, 0, 0, 1};
+  private final Bitmap bitmap = Bitmap.parse(hexBitmap);
+  private final String text = "CIB-57357HOSPITAL     CAIRO          EG0";
+  private final byte[] asciiText = CharEncoder.ASCII.getBytes(text);
+  private final byte[] ebcdicText = EBCDIC.getBytes(text);
+
+  @Benchmark
+  public byte[] bcdFromString() {
+    return BCD.valueOf(pan);
+  }
+
+  @Benchmark
+  public byte[] bcdFromLong() {
+    return BCD.valueOf(937278626262L);
+  }
+
+  @Benchmark
+  public String bcdToString() {
+    return BCD.toString(bcdPan);
+  }
+
+  @Benchmark
+  public Bitmap bitmapParseHex() {
+    return Bitmap.parse(hexBitmap);
+  }
+
+  @Benchmark
+  public Bitmap bitmapFromBinary() {
+    return new Bitmap(binaryBitmap);
+  }
+
+  @Benchmark
+  public String bitmapToString() {
+    return bitmap.toString();
+  }
+
+  @Benchmark
+  public void bitmapAsBinary(final Blackhole blackhole) {
+    blackhole.consume(bitmap.asBinary(Bitmap.Id.PRIMARY));
+    blackhole.consume(bitmap.asBinary(Bitmap.Id.SECONDARY));
+    blackhole.consume(bitmap.asBinary(Bitmap.Id.TERTIARY));
+  }
+
+  @Benchmark
+  public void bitmapIterate(final Blackhole blackhole) {
+    for (final Integer field : bitmap) {
+      blackhole.consume(field);
+    }
+  }
+
+  @Benchmark
+  public Bitmap bitmapWithField() {
+    return bitmap.withField(102);
+  }
+
+  @Benchmark
+  public String charEncoderAsciiDecode() {
+    return CharEncoder.ASCII.getString(asciiText);
+  }
+
+  @Benchmark
+  public byte[] charEncoderAsciiEncode() {
+    return CharEncoder.ASCII.getBytes(text);
+  }
+
+  @Benchmark
+  public String charEncoderEbcdicDecode() {
+    return EBCDIC.getString(ebcdicText);
+  }
+
+  @Benchmark
+  public byte[] charEncoderEbcdicEncode() {
+    return EBCDIC.getBytes(text);
+  }
+
+  @Benchmark
+  public MTI mtiFromString() {
+    return MTI.create("0200");
+  }
+
+  @Benchmark
+  public MTI mtiFromInt() {
+    return MTI.create(0x0210);
+  }
+
+}
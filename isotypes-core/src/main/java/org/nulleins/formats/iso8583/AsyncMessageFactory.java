@@ -0,0 +1,169 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** Asynchronous facade of a {@link MessageFactory}, running its operations on an executor and
+  * returning their results as futures, which fail with unchecked exceptions (a
+  * {@link MessageException}, wrapping any parse or I/O failure):
+  * <pre>
+  *   final AsyncMessageFactory async = new AsyncMessageFactory(factory, executor);
+  *   final ListenableFuture&lt;Message&gt; message = async.parseAsync(data);
+  * </pre>
+  * Operations are queued, and run in batches by a bounded number of drain tasks submitted to the
+  * executor, so that each operation does not incur the cost of a hand-off to the executor; if the
+  * executor rejects a drain task, the operations are run on the calling thread
+  * @author phillipsr */
+public final class AsyncMessageFactory {
+  private final MessageFactory factory;
+  private final Executor executor;
+  private final int parallelism;
+  private final int batchSize;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger drains = new AtomicInteger();
+
+  private final Runnable drain = new Runnable() {
+    @Override
+    public void run() {
+      while (true) {
+        for (int i = 0; i < batchSize; i++) {
+          final Runnable task = tasks.poll();
+          if (task == null) {
+            break;
+          }
+          task.run();
+        }
+        if (!tasks.isEmpty()) {
+          // yield the executor's thread to other work, continuing in a new drain task
+          try {
+            executor.execute(this);
+            return;
+          } catch (final RejectedExecutionException e) {
+            // keep draining on this thread, which still holds its count in the drains started
+            continue;
+          }
+        }
+        drains.decrementAndGet();
+        // an operation may have been queued after the last poll, without a drain being started
+        if (tasks.isEmpty() || !start()) {
+          return;
+        }
+      }
+    }
+  };
+
+  /** Create a facade of the <code>factory</code>, running up to one batch per available
+    * processor at a time on the <code>executor</code>, in batches of up to 64 operations */
+  public AsyncMessageFactory(final MessageFactory factory, final Executor executor) {
+    this(factory, executor, Runtime.getRuntime().availableProcessors(), 64);
+  }
+
+  /** Create a facade of the <code>factory</code>, running up to <code>parallelism</code> batches
+    * at a time on the <code>executor</code>, in batches of up to <code>batchSize</code> operations */
+  public AsyncMessageFactory(final MessageFactory factory, final Executor executor, final int parallelism, final int batchSize) {
+    Preconditions.checkNotNull(factory, "Message factory cannot be null");
+    Preconditions.checkNotNull(executor, "Executor cannot be null");
+    Preconditions.checkArgument(parallelism > 0, "Parallelism must be positive");
+    Preconditions.checkArgument(batchSize > 0, "Batch size must be positive");
+    this.factory = factory;
+    this.executor = executor;
+    this.parallelism = parallelism;
+    this.batchSize = batchSize;
+  }
+
+  public MessageFactory getFactory() {
+    return factory;
+  }
+
+  /** @return the future message parsed from the <code>data</code>
+    * @see MessageFactory#parse(byte[]) */
+  public ListenableFuture<Message> parseAsync(final byte[] data) {
+    return schedule(new Callable<Message>() {
+      @Override
+      public Message call() throws ParseException, IOException {
+        return factory.parse(data);
+      }
+    });
+  }
+
+  /** @return the future byte representation of the <code>message</code>
+    * @see MessageFactory#getMessageData(Message) */
+  public ListenableFuture<byte[]> writeAsync(final Message message) {
+    return schedule(new Callable<byte[]>() {
+      @Override
+      public byte[] call() {
+        return factory.getMessageData(message);
+      }
+    });
+  }
+
+  /** @return the future message of <code>type</code> transformed from the <code>original</code>
+    * @see MessageFactory#transform(MTI, Message, HashMap) */
+  public ListenableFuture<Message> transformAsync(final MTI type, final Message original, final Map<String, Object> extraFields) {
+    final HashMap<String, Object> fields = new HashMap<>(extraFields);
+    return schedule(new Callable<Message>() {
+      @Override
+      public Message call() {
+        return factory.transform(type, original, fields);
+      }
+    });
+  }
+
+  /** @return the future result of the <code>operation</code>, queued to be run on the executor */
+  private <T> ListenableFuture<T> schedule(final Callable<T> operation) {
+    final SettableFuture<T> result = SettableFuture.create();
+    tasks.add(new Runnable() {
+      @Override
+      public void run() {
+        if (result.isCancelled()) {
+          return;
+        }
+        try {
+          result.set(operation.call());
+        } catch (final ParseException | IOException e) {
+          result.setException(new MessageException("Failed to process message: " + e.getMessage(), e));
+        } catch (final Exception | Error e) {
+          result.setException(e);
+        }
+      }
+    });
+    if (start()) {
+      submit();
+    }
+    return result;
+  }
+
+  /** @return true if a drain may be started, without exceeding the parallelism */
+  private boolean start() {
+    for (int current = drains.get(); current < parallelism; current = drains.get()) {
+      if (drains.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** submit a drain task, already counted in the drains started, running it on the calling
+    * thread if the executor rejects it */
+  private void submit() {
+    try {
+      executor.execute(drain);
+    } catch (final RejectedExecutionException e) {
+      drain.run();
+    }
+  }
+}
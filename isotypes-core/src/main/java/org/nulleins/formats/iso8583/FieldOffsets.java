@@ -0,0 +1,132 @@
+package org.nulleins.formats.iso8583;
+
+import org.nulleins.formats.iso8583.io.MessageLayout;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+
+/** Static offset and length tables for the fixed prefix of a message template: the fields
+  * (in field number order) preceding its first variable-length field, whose position in a
+  * message body is known from the template alone, provided the message's bitmap has exactly
+  * the template's fields in that region. Offsets are relative to the start of the message
+  * body, i.e., the first byte after the bitmap(s); bitmaps are represented as (up to) three
+  * 64-bit words, field 1 being the most significant bit of the first
+  * @author phillipsr */
+public final class FieldOffsets {
+  /** highest field number, plus one */
+  private static final int FIELDS = 193;
+  private static final int WORDS = 3;
+
+  private final int[] offsets = new int[FIELDS];
+  private final int[] lengths = new int[FIELDS];
+  /** bitmap words of the template fields in the prefix, and of all (data) field numbers in the prefix */
+  private final long[] fields = new long[WORDS];
+  private final long[] range = new long[WORDS];
+  private final int lastField;
+  private final int size;
+
+  private FieldOffsets(final Map<Integer, FieldTemplate> template, final ContentType contentType) {
+    Arrays.fill(offsets, -1);
+    int offset = 0;
+    int last = 0;
+    final SortedMap<Integer, FieldTemplate> sorted = new TreeMap<>(template);
+    for (final FieldTemplate field : sorted.values()) {
+      final Dimension dimension = field.getDimension();
+      if (dimension.getType() != Dimension.Type.FIXED) {
+        break;
+      }
+      final int encoded = MessageLayout.encodedSize(contentType, field.getType(), dimension.getLength());
+      if (encoded < 0) {
+        break;
+      }
+      final int number = field.getNumber();
+      offsets[number] = offset;
+      lengths[number] = encoded;
+      fields[word(number)] |= bit(number);
+      offset += encoded;
+      last = number;
+    }
+    for (int number = 2; number <= last; number++) {
+      if (!isIndicator(number)) {
+        range[word(number)] |= bit(number);
+      }
+    }
+    lastField = last;
+    size = offset;
+  }
+
+  /** @return the fixed prefix tables of the <code>fields</code> of a template, as encoded in
+    * messages of <code>contentType</code> */
+  static FieldOffsets create(final Map<Integer, FieldTemplate> fields, final ContentType contentType) {
+    return new FieldOffsets(fields, contentType);
+  }
+
+  /** @return the highest numbered field in the fixed prefix, or zero if the prefix is empty */
+  public int getLastField() {
+    return lastField;
+  }
+
+  /** @return the number of bytes occupied by the fixed prefix fields */
+  public int getSize() {
+    return size;
+  }
+
+  /** @return true if field <code>number</code> is in the fixed prefix */
+  public boolean contains(final int number) {
+    return number > 0 && number < FIELDS && offsets[number] >= 0;
+  }
+
+  /** @return the offset of field <code>number</code> from the start of the message body, or -1
+    * if the field is not in the fixed prefix */
+  public int getOffset(final int number) {
+    return contains(number) ? offsets[number] : -1;
+  }
+
+  /** @return the number of bytes holding field <code>number</code>, or -1 if the field is not
+    * in the fixed prefix */
+  public int getLength(final int number) {
+    return contains(number) ? lengths[number] : -1;
+  }
+
+  /** @return true if <code>bitmap</code> has exactly the template's fields numbered below
+    * <code>number</code> (excluding the bitmap indicators), so that the static offset of
+    * <code>number</code> applies to the message it describes */
+  public boolean appliesTo(final long[] bitmap, final int number) {
+    final int last = Math.min(number - 1, lastField);
+    if (last < 2) {
+      return true;
+    }
+    for (int word = 0; word <= word(last); word++) {
+      // the bits of fields up to and including last in this word
+      final long upTo = word < word(last) || (last & 63) == 0 ? -1L : ~(-1L >>> (last & 63));
+      final long mask = range[word] & upTo;
+      if ((bitmap[word] & mask) != (fields[word] & mask)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return true if <code>bitmap</code> has exactly the template's fields in the fixed prefix,
+    * so that all the static offsets apply to the message it describes */
+  public boolean appliesTo(final long[] bitmap) {
+    return appliesTo(bitmap, lastField + 1);
+  }
+
+  static int word(final int field) {
+    return (field - 1) >> 6;
+  }
+
+  static long bit(final int field) {
+    return 1L << 63 - ((field - 1) & 63);
+  }
+
+  static boolean isIndicator(final int field) {
+    return ((field - 1) & 63) == 0;
+  }
+}
@@ -1,10 +1,14 @@
 package org.nulleins.formats.iso8583;
 
 import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.formatters.FieldCodec;
 import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.MTI;
 
+import java.nio.ByteBuffer;
+
 /** Definition of an ISO8583 messageTemplate field, capable for formatting and parsing messageTemplate
  * fields, based upon its configuration
  * <p/>
@@ -82,6 +86,49 @@ public class FieldTemplate {
     return result.getBytes();
   }
 
+  /**
+   * Use this field definition to encode the data supplied at the position of <code>output</code>
+   * @param value
+   * @param codec
+   * @param output
+   * @return the number of bytes written
+   * @throws MessageException if the codec failed to write a field of the correct size
+   */
+  public int encode(final Object value, final FieldCodec<?> codec, final ByteBuffer output) {
+    return encode(value, codec, output, null);
+  }
+
+  /**
+   * Use this field definition to encode the data supplied at the position of <code>output</code>,
+   * where the codec writes in <code>charset</code>: if that encodes characters in more than one
+   * byte, the field's length is checked in characters, rather than bytes, as by {@link #format}
+   * @return the number of bytes written
+   * @throws MessageException if the codec failed to write a field of the correct size
+   */
+  public int encode(final Object value, final FieldCodec<?> codec, final ByteBuffer output, final CharEncoder charset) {
+    final int start = output.position();
+    final int result;
+    try {
+      result = codec.encode(type, value, this.dimension, output);
+    } catch (final Exception e) {
+      throw new MessageException("Could not format data [" + value + "] for field " + this, e);
+    }
+
+    int length = result;
+    if (charset != null && length != dimension.getLength() && charset.maxBytesPerChar() > 1) {
+      final ByteBuffer written = output.duplicate();
+      written.position(start);
+      length = charset.getString(written, result).length();
+    }
+    if (this.dimension.getType() == Dimension.Type.FIXED && length != dimension.getLength()) {
+      throw new MessageException(this + ": Formatter did not format fixed field to specified length, value=[" + value + "]");
+    }
+    if (this.dimension.getType() == Dimension.Type.VARIABLE && length > dimension.getLength() + dimension.getVSize()) {
+      throw new MessageException(this + ": Formatter exceeded maximum length for variable field; value=[" + value + "]");
+    }
+    return result;
+  }
+
   @Override
   public String toString() {
     return "Field nb=" + this.getNumber()
@@ -9,12 +9,15 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Maps.EntryTransformer;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import org.apache.commons.beanutils.PropertyUtils;
 import org.nulleins.formats.iso8583.formatters.TypeFormatter;
 import org.nulleins.formats.iso8583.formatters.TypeFormatters;
 import org.nulleins.formats.iso8583.io.BCDMessageWriter;
 import org.nulleins.formats.iso8583.io.CharMessageWriter;
 import org.nulleins.formats.iso8583.io.MessageWriter;
+import org.nulleins.formats.iso8583.metrics.MessageMetrics;
 import org.nulleins.formats.iso8583.types.BitmapType;
 import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.ContentType;
@@ -27,6 +30,9 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -35,6 +41,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
 
@@ -50,6 +57,8 @@ import java.util.TreeSet;
  * <dt>contentType</dt><dd>Enumeration specifying the content type of templates
  * created or parsed (one of BCD, ASCII, EBCDIC)</dd>
  * <dt>bitmapType</dt><dd>Type of bitmap to be used, one of BINARY, HEX</dd>
+ * <dt>metrics</dt><dd>Optional {@link MessageMetrics} to which the time taken, bytes processed
+ * and errors of each parse, validate, format and transform are reported</dd>
  * </dl>
  * @author phillipsr */
 public class MessageFactory {
@@ -62,12 +71,16 @@ public class MessageFactory {
   private final String id;
   private final TypeFormatters formatters;
   private final MessageParser parser;
+  private final Optional<MessageMetrics> metrics;
+  /** constant segments of the messages of each template, rendered on creation */
+  private final Map<MTI, RenderedTemplate> renderings = new HashMap<>();
 
   private Optional<AutoGeneratorFactory> autoGenerator = Optional.absent();
 
   private MessageFactory(
       final String id, final String description, final String header, final ContentType contentType,
-      final BitmapType bitmapType, final CharEncoder charset, final AutoGeneratorFactory autogen, final List<MessageTemplate> templates, final Map<String, TypeFormatter<?>> formatterMap) {
+      final BitmapType bitmapType, final CharEncoder charset, final AutoGeneratorFactory autogen, final List<MessageTemplate> templates, final Map<String, TypeFormatter<?>> formatterMap,
+      final MessageMetrics metrics) {
     Preconditions.checkArgument(templates != null && !templates.isEmpty(), "Factory must have message template definitions");
     this.id = id;
     this.description = description;
@@ -76,6 +89,7 @@ public class MessageFactory {
     this.bitmapType = bitmapType;
     this.charset = charset;
     this.autoGenerator = Optional.fromNullable(autogen);
+    this.metrics = Optional.fromNullable(metrics);
     this.formatters = new TypeFormatters(this.charset);
     if ( formatterMap != null) {
       for (final Map.Entry<String, TypeFormatter<?>> item : formatterMap.entrySet()) {
@@ -85,7 +99,7 @@ public class MessageFactory {
     final Iterable<MessageTemplate> localTemplates = Iterables.transform(templates, new Function<MessageTemplate, MessageTemplate>() {
       @Override
       public MessageTemplate apply(MessageTemplate input) {
-        return input.with(formatters);
+        return input.with(formatters, MessageFactory.this.metrics);
       }
     });
     this.templates = Maps.uniqueIndex(localTemplates, new Function<MessageTemplate, MTI>() {
@@ -94,7 +108,15 @@ public class MessageFactory {
         return input.getMessageType();
       }
     });
-    parser = MessageParser.create(header, this.templates, contentType, this.charset, bitmapType);
+    parser = MessageParser.create(header, this.templates, contentType, this.charset, bitmapType, this.metrics);
+    for (final MessageTemplate template : this.templates.values()) {
+      try {
+        renderings.put(template.getMessageType(), new RenderedTemplate(
+            template, this.header, getOutputWriter(contentType, this.charset), bitmapType, formatters));
+      } catch (final IOException e) {
+        throw new MessageException("Failed to render message template: " + template, e);
+      }
+    }
   }
 
   /** @return the default bitmap type used in this factory */
@@ -152,6 +174,22 @@ public class MessageFactory {
    * @param original message to duplicate
    * @param extraFields required for new message */
   public Message transform(final MTI messageType, final Message original, final HashMap<String, Object> extraFields) {
+    if (!metrics.isPresent()) {
+      return transformMessage(messageType, original, extraFields);
+    }
+    final Object context = metrics.get().started(MessageMetrics.Operation.TRANSFORM);
+    final long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      final Message result = transformMessage(messageType, original, extraFields);
+      failed = false;
+      return result;
+    } finally {
+      metrics.get().completed(context, MessageMetrics.Operation.TRANSFORM, messageType, System.nanoTime() - start, 0, failed);
+    }
+  }
+
+  private Message transformMessage(final MTI messageType, final Message original, final HashMap<String, Object> extraFields) {
     final MessageTemplate template = templates.get(messageType);
     final Map<Integer, Object> fieldValues = new HashMap<Integer, Object>() {{
       putAll(Maps.transformEntries(template.getFields(), mapValuesByName(extraFields)));
@@ -192,6 +230,60 @@ public class MessageFactory {
     return writeFromNumberMap(message.getMTI(), message.getFields(), output);
   }
 
+  /** Write the <code>message</code> to the <code>channel</code> in a single gathering write of its
+   * segments: the constant segments rendered for its template (header and MTI, a bitmap with all
+   * of the template's fields, default field values) are shared, read-only, and not copied; only
+   * the remaining bytes are formatted into a per-message buffer
+   * <p/>
+   * The write is repeated until the channel has accepted all of the segments, so the channel must
+   * be in blocking mode
+   * @return the number of bytes written
+   * @throws java.io.IOException      if writing to the channel fails for any reason
+   * @throws IllegalArgumentException if the message type is not defined in this factory's schema,
+   *                                  the channel is null or in non-blocking mode, or the message
+   *                                  has no fields */
+  public long writeGathering(final Message message, final GatheringByteChannel channel) throws IOException {
+    final MTI type = message.getMTI();
+    final Map<Integer, Optional<Object>> params = message.getFields();
+    Preconditions.checkArgument(templates.containsKey(type), "Message not defined for MTI=" + type);
+    Preconditions.checkNotNull(channel, "Output channel cannot be null");
+    // a non-blocking channel may accept nothing, and would be written in a busy loop
+    Preconditions.checkArgument(!(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking(),
+        "Output channel must be in blocking mode");
+    Preconditions.checkArgument(params != null && !params.isEmpty(), "Message parameters are required");
+
+    final SegmentedOutput output = new SegmentedOutput();
+    if (!metrics.isPresent()) {
+      writeMessage(type, params, output, null);
+      return write(output.getSegments(), channel);
+    }
+    final Object context = metrics.get().started(MessageMetrics.Operation.FORMAT);
+    final long start = System.nanoTime();
+    long written = 0;
+    boolean failed = true;
+    try {
+      writeMessage(type, params, output, context);
+      written = write(output.getSegments(), channel);
+      failed = false;
+      return written;
+    } finally {
+      metrics.get().completed(context, MessageMetrics.Operation.FORMAT, type, System.nanoTime() - start, written, failed);
+    }
+  }
+
+  /** @return the number of bytes written, writing all of the <code>segments</code> to the <code>channel</code> */
+  private static long write(final ByteBuffer[] segments, final GatheringByteChannel channel) throws IOException {
+    long length = 0;
+    for (final ByteBuffer segment : segments) {
+      length += segment.remaining();
+    }
+    long written = 0;
+    while (written < length) {
+      written += channel.write(segments);
+    }
+    return written;
+  }
+
   /** Create a message for the type and parameters specified and write it to the <code>output</code> stream
    * @param type   of the message to be written
    * @param params map of field # to field value (maybe updated if autogen or default required)
@@ -205,35 +297,146 @@ public class MessageFactory {
     Preconditions.checkNotNull(output, "Output stream cannot be null");
     Preconditions.checkArgument(params != null && !params.isEmpty(), "Message parameters are required");
 
+    if (!metrics.isPresent()) {
+      return writeMessage(type, params, getDataOutputStream(output), null);
+    }
+    final CountingOutputStream counter = new CountingOutputStream(output);
+    final Object context = metrics.get().started(MessageMetrics.Operation.FORMAT);
+    final long start = System.nanoTime();
+    boolean failed = true;
+    try {
+      final Map<Integer, Optional<Object>> result = writeMessage(type, params, new DataOutputStream(counter), context);
+      failed = false;
+      return result;
+    } finally {
+      metrics.get().completed(context, MessageMetrics.Operation.FORMAT, type, System.nanoTime() - start, counter.getCount(), failed);
+    }
+  }
+
+  private Map<Integer, Optional<Object>> writeMessage(
+      final MTI type, final Map<Integer, Optional<Object>> params, final DataOutputStream dos, final Object context)
+      throws IOException {
     final MessageTemplate template = templates.get(type);
+    final RenderedTemplate rendered = renderings.get(type);
     final MessageWriter writer = getOutputWriter(contentType, charset);
-    final DataOutputStream dos = getDataOutputStream(output);
 
-    writer.appendHeader(header, dos);
-    writer.appendMTI(type, dos);
-    writer.appendBitmap(template.getBitmap(), bitmapType, dos);
+    // resolve the value of each field, setting the bitmap from those present
+    final Map<Integer, Optional<Object>> result = new TreeMap<>();
+    final long[] bitmap = new long[3];
+    final long[] defaulted = new long[3];
+    for (final Integer key : new TreeSet<>(template.getFields().keySet())) {
+      final Optional<Object> param = params.get(key);
+      final Optional<Object> value = getFieldValue(param, template.getFields().get(key));
+      result.put(key, value);
+      if (value.isPresent()) {
+        bitmap[FieldOffsets.word(key)] |= FieldOffsets.bit(key);
+        if (param == null || !param.isPresent()) {
+          defaulted[FieldOffsets.word(key)] |= FieldOffsets.bit(key);
+        }
+      }
+    }
+    // set the indicators of the secondary and tertiary bitmaps, if required
+    if (bitmap[2] != 0) {
+      bitmap[1] |= FieldOffsets.bit(65);
+    }
+    if (bitmap[1] != 0) {
+      bitmap[0] |= FieldOffsets.bit(1);
+    }
+
+    writeConstant(rendered.getPrefix(), dos);
+    final byte[] renderedBitmap = rendered.getBitmap(bitmap);
+    if (renderedBitmap != null) {
+      writeConstant(renderedBitmap, dos);
+    } else {
+      writer.appendBitmap(bitmap, bitmapType, dos);
+    }
 
     // Iterate over the fieldlist in order of field f, appending the field's data to the output stream
-    final Map<Integer, Optional<Object>> result = new HashMap<>();
-    for (final Integer key : new TreeSet<>(template.getFields().keySet())) {
-      final FieldTemplate fieldTemplate = template.getFields().get(key);
-      final Optional<Object> value = params.get(key);
-      result.put(key, writeField(value, writer, dos, fieldTemplate));
+    for (final Map.Entry<Integer, Optional<Object>> entry : result.entrySet()) {
+      final int key = entry.getKey();
+      final byte[] renderedDefault = (defaulted[FieldOffsets.word(key)] & FieldOffsets.bit(key)) != 0
+          && !metrics.isPresent() ? rendered.getDefault(key) : null;
+      if (renderedDefault != null) {
+        writeConstant(renderedDefault, dos);
+      } else if (entry.getValue().isPresent()) {
+        writeField(entry.getValue().get(), writer, dos, template.getFields().get(key), type, context);
+      }
     }
     dos.flush();
 
     return ImmutableMap.copyOf(result);
   }
 
+  /** write the rendered constant <code>data</code> to the output, or share it as a segment of
+    * a gathering write */
+  private static void writeConstant(final byte[] data, final DataOutputStream dos) throws IOException {
+    if (dos instanceof SegmentedOutput) {
+      ((SegmentedOutput) dos).share(data);
+    } else {
+      dos.write(data);
+    }
+  }
+
+  /** Output collecting a message as the segments of a gathering write: the bytes written to it
+    * are held in one buffer, between the shared (constant) segments added */
+  private static final class SegmentedOutput extends DataOutputStream {
+    /** the shared segments (byte[]) and the ends of the runs of written bytes (Integer), in order */
+    private final List<Object> segments = new ArrayList<>();
+    private int mark;
+
+    private SegmentedOutput() {
+      super(new SegmentBuffer());
+    }
+
+    private void share(final byte[] data) {
+      endRun();
+      segments.add(data);
+    }
+
+    private void endRun() {
+      final int end = ((SegmentBuffer) out).size();
+      if (end > mark) {
+        segments.add(end);
+        mark = end;
+      }
+    }
+
+    /** @return the segments of the output, the shared segments read-only */
+    private ByteBuffer[] getSegments() {
+      endRun();
+      final ByteBuffer[] result = new ByteBuffer[segments.size()];
+      int start = 0;
+      for (int i = 0; i < result.length; i++) {
+        final Object segment = segments.get(i);
+        if (segment instanceof Integer) {
+          result[i] = ((SegmentBuffer) out).slice(start, (Integer) segment);
+          start = (Integer) segment;
+        } else {
+          result[i] = ByteBuffer.wrap((byte[]) segment).asReadOnlyBuffer();
+        }
+      }
+      return result;
+    }
+  }
+
+  /** byte array output exposing its content without copying */
+  private static final class SegmentBuffer extends ByteArrayOutputStream {
+    private ByteBuffer slice(final int start, final int end) {
+      return ByteBuffer.wrap(buf, start, end - start).slice();
+    }
+  }
+
   private Optional<Object> getAutoGenValue(final String autogen, final FieldTemplate field) {
       Preconditions.checkArgument(autoGenerator.isPresent(),
             "Message requires AutoGen field, but the (optional) AutoGenerator has not been set in the MessageFactory");
       return autoGenerator.get().generate(autogen, field);
   }
 
-  private Optional<Object> writeField(final Optional<Object> param, final MessageWriter writer, final DataOutputStream dos, final FieldTemplate field)
-      throws IOException {
-    Optional<Object> data = param;
+  /** @return the value of <code>field</code>: the parameter supplied, if any, otherwise, for a mandatory
+    * field, its auto-generated or default value
+    * @throws IllegalStateException if no value can be determined for a mandatory field */
+  private Optional<Object> getFieldValue(final Optional<Object> param, final FieldTemplate field) {
+    Optional<Object> data = param != null ? param : Optional.absent();
     if (!data.isPresent() && !field.isOptional()) {
       // first, try to autogen, and then fall back to default (if any)
       final String autogen = field.getAutogen();
@@ -245,12 +448,34 @@ public class MessageFactory {
       }
       Preconditions.checkState(data.isPresent(),"No value for field: " + field);
     }
-    if (data.isPresent()) {
-      writer.appendField(formatters.getFormatter(field.getType()),field, data.get(), dos);
-    }
     return data;
   }
 
+  private void writeField(final Object data, final MessageWriter writer, final DataOutputStream dos,
+                          final FieldTemplate field, final MTI type, final Object context)
+      throws IOException {
+    if (metrics.isPresent()) {
+      monitoredAppend(writer, formatters.getFormatter(field.getType()), field, data, dos, type, context);
+    } else {
+      writer.appendField(formatters.getFormatter(field.getType()),field, data, dos);
+    }
+  }
+
+  /** append the field to the output, reporting it to the metrics SPI */
+  private void monitoredAppend(final MessageWriter writer, final TypeFormatter<?> formatter, final FieldTemplate field,
+                               final Object value, final DataOutputStream dos, final MTI type, final Object context)
+      throws IOException {
+    final Object fieldContext = metrics.get().fieldStarted(context, MessageMetrics.Operation.FORMAT, field);
+    final int offset = dos.size();
+    boolean failed = true;
+    try {
+      writer.appendField(formatter, field, value, dos);
+      failed = false;
+    } finally {
+      metrics.get().fieldCompleted(fieldContext, MessageMetrics.Operation.FORMAT, type, field, formatter, dos.size() - offset, failed);
+    }
+  }
+
   /** @return the supplied output stream wrapped in a DataOutputStream, if required
    * @param output */
   private DataOutputStream getDataOutputStream(final OutputStream output) {
@@ -310,6 +535,9 @@ public class MessageFactory {
    * @throws java.io.IOException      when an error occurs reading from the input stream */
   public Message parse(final InputStream input) throws ParseException, IOException {
     Preconditions.checkNotNull(input, "Input stream cannot be null");
+    if (metrics.isPresent()) {
+      return monitoredParse(input);
+    }
     final DataInputStream dis;
     if (!(input instanceof DataInputStream)) {
       dis = new DataInputStream(input);
@@ -319,6 +547,57 @@ public class MessageFactory {
     return parser.parse(dis);
   }
 
+  /** @return the value of field <code>number</code> of the message <code>data</code>, or absent
+    * if the field is not present; a field in its template's fixed prefix (see
+    * {@link MessageTemplate#getFixedOffsets}) is read directly, without parsing the fields preceding it
+    * @throws MessageException if the message is not well-formed
+    * @throws java.io.IOException if the message data is truncated */
+  public Optional<Object> parseField(final byte[] data, final int number) throws IOException {
+    Preconditions.checkNotNull(data, "Message data cannot be null");
+    return parser.parseField(data, 0, data.length, number);
+  }
+
+  /** @return the result of parsing the message <code>data</code>: the message, or the reason
+    * it could not be parsed (error code, field number and offset), without an exception being
+    * thrown for malformed data; intended for traffic with a high rate of rejected messages */
+  public ParseResult tryParse(final byte[] data) {
+    Preconditions.checkNotNull(data, "Message data cannot be null");
+    return tryParse(data, 0, data.length);
+  }
+
+  /** @return the result of parsing the <code>length</code> bytes of message data starting at
+    * <code>offset</code> in <code>data</code>; on success, the result's offset is the number of
+    * bytes consumed by the message
+    * @see #tryParse(byte[]) */
+  public ParseResult tryParse(final byte[] data, final int offset, final int length) {
+    if (!metrics.isPresent()) {
+      return parser.tryParse(data, offset, length);
+    }
+    final Object context = metrics.get().started(MessageMetrics.Operation.PARSE);
+    final long start = System.nanoTime();
+    final ParseResult result = parser.tryParse(data, offset, length);
+    metrics.get().completed(context, MessageMetrics.Operation.PARSE,
+        result.isSuccess() ? result.getMessage().getMTI() : null, System.nanoTime() - start,
+        result.isSuccess() ? result.getOffset() : length, !result.isSuccess());
+    return result;
+  }
+
+  /** @return a message parsed from <code>input</code>, reporting the time taken and the
+   * number of bytes read to the metrics SPI */
+  private Message monitoredParse(final InputStream input) throws IOException {
+    final CountingInputStream counter = new CountingInputStream(input);
+    final Object context = metrics.get().started(MessageMetrics.Operation.PARSE);
+    final long start = System.nanoTime();
+    Message result = null;
+    try {
+      result = parser.parse(new DataInputStream(counter), context);
+      return result;
+    } finally {
+      metrics.get().completed(context, MessageMetrics.Operation.PARSE,
+          result != null ? result.getMTI() : null, System.nanoTime() - start, counter.getCount(), result == null);
+    }
+  }
+
   /** @return an ISO8583 message of the type requested, setting the field values
    * from the supplied parameter map, matching the names in the
    * <code>&lt;iso:message&gt;</code> configuration for this message type
@@ -411,6 +690,7 @@ public class MessageFactory {
     private String header;
     private CharEncoder charset;
     private AutoGeneratorFactory autogen;
+    private MessageMetrics metrics;
     private final Map<String, TypeFormatter<?>> formatters = new HashMap<>();
     private final List<MessageTemplate> templates = new ArrayList<>();
 
@@ -449,6 +729,13 @@ public class MessageFactory {
       return this;
     }
 
+    /** report the operations of the factory to <code>metrics</code> (e.g., a
+      * {@link org.nulleins.formats.iso8583.metrics.MetricsRegistry}); not set by default */
+    public Builder metrics(final MessageMetrics metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
     public Builder addFormatter(final String type, final TypeFormatter<?> formatter) {
       formatters.put(type, formatter);
       return this;
@@ -469,7 +756,7 @@ public class MessageFactory {
       Preconditions.checkNotNull(contentType);
       Preconditions.checkNotNull(bitmapType);
       return new MessageFactory(
-          id,description,header,contentType,bitmapType,charset,autogen,templates,formatters);
+          id,description,header,contentType,bitmapType,charset,autogen,templates,formatters,metrics);
     }
   }
 
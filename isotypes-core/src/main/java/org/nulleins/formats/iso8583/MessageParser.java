@@ -1,19 +1,31 @@
 package org.nulleins.formats.iso8583;
 
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
+import org.nulleins.formats.iso8583.ParseResult.ErrorCode;
+import org.nulleins.formats.iso8583.formatters.NumberFormatter;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
 import org.nulleins.formats.iso8583.io.BCDMessageReader;
 import org.nulleins.formats.iso8583.io.CharMessageReader;
+import org.nulleins.formats.iso8583.io.MessageLayout;
 import org.nulleins.formats.iso8583.io.MessageReader;
+import org.nulleins.formats.iso8583.metrics.MessageMetrics;
+import org.nulleins.formats.iso8583.types.Bitmap;
 import org.nulleins.formats.iso8583.types.BitmapType;
 import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.CharTable;
 import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+import org.nulleins.formats.iso8583.types.FieldType;
 import org.nulleins.formats.iso8583.types.MTI;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 
 
@@ -27,21 +39,40 @@ public class MessageParser {
   private final ContentType contentType;
   private final CharEncoder charset;
   private final BitmapType bitmapType;
+  private final Optional<MessageMetrics> metrics;
+  private final Map<Integer, MessageTemplate> codes = new HashMap<>();
+  private final byte[] headerBytes;
+  private final CharTable chars;
 
   private MessageParser(
       final String header, final Map<MTI, MessageTemplate> messages,
-      final ContentType contentType, final CharEncoder charset, final BitmapType bitmapType) {
+      final ContentType contentType, final CharEncoder charset, final BitmapType bitmapType,
+      final Optional<MessageMetrics> metrics) {
     this.header = header;
     this.messages = messages;
     this.contentType = contentType;
     this.charset = charset;
     this.bitmapType = bitmapType;
+    this.metrics = metrics;
+    for (final MessageTemplate template : messages.values()) {
+      codes.put(template.getMessageType().intValue(), template);
+    }
+    headerBytes = header != null ? charset.getBytes(header) : new byte[0];
+    chars = new CharTable(charset);
   }
 
   public static MessageParser create(
       final String header, final Map<MTI, MessageTemplate> messages,
       final ContentType contentType, final CharEncoder charset, final BitmapType bitmapType) {
-    return new MessageParser(header, messages, contentType, charset, bitmapType);
+    return create(header, messages, contentType, charset, bitmapType, Optional.<MessageMetrics>absent());
+  }
+
+  /** @return a parser that reports the type of each field parsed to <code>metrics</code>, if present */
+  public static MessageParser create(
+      final String header, final Map<MTI, MessageTemplate> messages,
+      final ContentType contentType, final CharEncoder charset, final BitmapType bitmapType,
+      final Optional<MessageMetrics> metrics) {
+    return new MessageParser(header, messages, contentType, charset, bitmapType, metrics);
   }
 
   private MessageReader getMessageReader() {
@@ -61,6 +92,12 @@ public class MessageParser {
    * @throws IllegalArgumentException if the supplied input stream is null
    */
   public Message parse(final DataInputStream input) throws IOException {
+    return parse(input, null);
+  }
+
+  /** @return a message read from <code>input</code>, reporting each field parsed to the
+    * metrics SPI (if present) within the operation <code>context</code> */
+  Message parse(final DataInputStream input, final Object context) throws IOException {
     Preconditions.checkNotNull(input, "Input stream for ISO8583 message cannot be null");
     final MessageReader reader = getMessageReader();
     final String header = validateHeader(input, reader);
@@ -70,17 +107,21 @@ public class MessageParser {
     return Message.Builder()
       .template(template)
       .header(header)
-      .fields(Maps.toMap(reader.readBitmap(bitmapType, input), parseMessage(input, reader, template)))
+      .fields(Maps.toMap(reader.readBitmap(bitmapType, input), parseMessage(input, reader, template, metrics, context)))
       .build();
   }
 
   /** @return a function that can parse a message into a map of field numbers to values */
   private static Function<Integer, Object> parseMessage(
-      final DataInputStream input, final MessageReader reader, final MessageTemplate template) {
+      final DataInputStream input, final MessageReader reader, final MessageTemplate template,
+      final Optional<MessageMetrics> metrics, final Object context) {
     return new Function<Integer, Object>() {
       @Override
       public Object apply(final Integer fieldNum) {
         final FieldTemplate field = template.getFields().get(fieldNum);
+        if (metrics.isPresent()) {
+          return monitoredParse(field, input, reader, template, metrics.get(), context);
+        }
         try {
           return template.parse(reader.readField(field, input), field);
         } catch ( Throwable t) {
@@ -90,6 +131,319 @@ public class MessageParser {
     };
   }
 
+  /** @return the value of <code>field</code> read from <code>input</code>, reporting its parse to <code>metrics</code> */
+  private static Object monitoredParse(
+      final FieldTemplate field, final DataInputStream input, final MessageReader reader,
+      final MessageTemplate template, final MessageMetrics metrics, final Object context) {
+    final TypeFormatter<?> formatter = template.getFormatter(field.getType());
+    final Object fieldContext = metrics.fieldStarted(context, MessageMetrics.Operation.PARSE, field);
+    int length = 0;
+    boolean failed = true;
+    try {
+      final byte[] data = reader.readField(field, input);
+      length = data.length;
+      final Object result = template.parse(data, field);
+      failed = false;
+      return result;
+    } catch ( Throwable t) {
+      throw Throwables.propagate(t);
+    } finally {
+      metrics.fieldCompleted(fieldContext, MessageMetrics.Operation.PARSE, template.getMessageType(), field, formatter, length, failed);
+    }
+  }
+
+  /** @return the result of parsing <code>length</code> bytes of message data from <code>offset</code>
+    * in <code>data</code>; the header, MTI, bitmap (which must include all of the template's mandatory
+    * fields), field lengths and numeric field content are
+    * checked before each is read, and alpha values validated as read, so that malformed messages are
+    * reported without an exception being thrown, nor a message including field values being built
+    * (only another formatter rejecting a well-formed field value throws an exception, which is caught) */
+  public ParseResult tryParse(final byte[] data, final int offset, final int length) {
+    Preconditions.checkNotNull(data, "Message data cannot be null");
+    Preconditions.checkPositionIndexes(offset, offset + length, data.length);
+    final int end = offset + length;
+    int pos = offset;
+
+    if (end - pos < headerBytes.length) {
+      return ParseResult.failure(ErrorCode.TRUNCATED, ParseResult.NO_FIELD, 0);
+    }
+    for (int i = 0; i < headerBytes.length; i++) {
+      if (data[pos + i] != headerBytes[i]) {
+        return ParseResult.failure(ErrorCode.BAD_HEADER, ParseResult.NO_FIELD, i);
+      }
+    }
+    pos += headerBytes.length;
+
+    final int mtiSize = MessageLayout.mtiSize(contentType);
+    if (end - pos < mtiSize) {
+      return ParseResult.failure(ErrorCode.TRUNCATED, ParseResult.NO_FIELD, pos - offset);
+    }
+    final int code = contentType == ContentType.TEXT ? decimalCode(data, pos) : bcdCode(data, pos);
+    if (code < 0) {
+      return ParseResult.failure(ErrorCode.BAD_MTI, ParseResult.NO_FIELD, pos - offset);
+    }
+    final MessageTemplate template = codes.get(code);
+    if (template == null) {
+      return ParseResult.failure(ErrorCode.UNKNOWN_MTI, ParseResult.NO_FIELD, pos - offset);
+    }
+    pos += mtiSize;
+
+    final int bitmapSize = bitmapSize(data, pos, end);
+    if (bitmapSize <= 0) {
+      return ParseResult.failure(bitmapSize == 0 ? ErrorCode.TRUNCATED : ErrorCode.BAD_BITMAP, ParseResult.NO_FIELD, pos - offset);
+    }
+
+    final int missing = template.findMissingField(bitmapWords(data, pos, bitmapSize));
+    if (missing != 0) {
+      return ParseResult.failure(ErrorCode.MISSING_FIELD, missing, pos - offset);
+    }
+
+    final MessageReader reader = getMessageReader();
+    final DataInputStream input = new DataInputStream(new ByteArrayInputStream(data, pos, end - pos));
+    final Map<Integer, Object> fields = new HashMap<>();
+    int fieldNumber = ParseResult.NO_FIELD;
+    int start = pos;
+    try {
+      final Bitmap bitmap = reader.readBitmap(bitmapType, input);
+      pos += bitmapSize;
+      for (final Integer number : bitmap) {
+        fieldNumber = number;
+        start = pos;
+        final FieldTemplate field = template.getFields().get(number);
+        if (field == null) {
+          return ParseResult.failure(ErrorCode.UNDEFINED_FIELD, number, start - offset);
+        }
+        final Dimension dimension = field.getDimension();
+        int size = dimension.getLength();
+        if (dimension.getType() == Dimension.Type.VARIABLE) {
+          final int prefix = MessageLayout.prefixSize(contentType, dimension.getVSize());
+          if (end - pos < prefix) {
+            return ParseResult.failure(ErrorCode.TRUNCATED, number, start - offset);
+          }
+          size = contentType == ContentType.TEXT ? decimal(data, pos, prefix) : bcdDecimal(data, pos, prefix);
+          if (size < 0 || size > dimension.getLength()) {
+            return ParseResult.failure(ErrorCode.BAD_LENGTH, number, start - offset);
+          }
+          pos += prefix;
+        }
+        final int encoded = MessageLayout.encodedSize(contentType, field.getType(), size);
+        if (encoded < 0) {
+          return ParseResult.failure(ErrorCode.BAD_LENGTH, number, start - offset);
+        }
+        if (end - pos < encoded) {
+          return ParseResult.failure(ErrorCode.TRUNCATED, number, start - offset);
+        }
+        if (!isValidContent(template, field.getType(), data, pos, encoded)) {
+          return ParseResult.failure(ErrorCode.BAD_VALUE, number, start - offset);
+        }
+        final Object value = template.tryParse(reader.readField(field, input), field);
+        if (value == null) {
+          return ParseResult.failure(ErrorCode.BAD_VALUE, number, start - offset);
+        }
+        fields.put(number, value);
+        pos += encoded;
+      }
+    } catch (final IOException | RuntimeException e) {
+      // well-formed data the reader could not read
+      return ParseResult.failure(ErrorCode.BAD_VALUE, fieldNumber, start - offset);
+    }
+    return ParseResult.success(Message.Builder()
+        .template(template)
+        .header(headerBytes.length > 0 ? header : "")
+        .fields(fields)
+        .build(), pos - offset);
+  }
+
+  /** @return the value of field <code>number</code> of the message in the <code>length</code> bytes
+    * at <code>offset</code> in <code>data</code>, or absent if the field is not present; if the field
+    * is in its template's fixed prefix, and the message has the template's fields in that region,
+    * the field is read directly from its static offset, otherwise the whole message is parsed
+    * @throws MessageException if the message header, MTI or bitmap is not well-formed, or the
+    *                          message is too short to contain the field */
+  public Optional<Object> parseField(final byte[] data, final int offset, final int length, final int number)
+      throws IOException {
+    Preconditions.checkNotNull(data, "Message data cannot be null");
+    Preconditions.checkPositionIndexes(offset, offset + length, data.length);
+    final int end = offset + length;
+    int pos = offset + headerBytes.length;
+    final int mtiSize = MessageLayout.mtiSize(contentType);
+    if (end - pos < mtiSize) {
+      throw new MessageException("Message data too short to contain header and MTI");
+    }
+    for (int i = 0; i < headerBytes.length; i++) {
+      if (data[offset + i] != headerBytes[i]) {
+        throw new MessageException("Message should start with header: [" + header + "]");
+      }
+    }
+    final int code = contentType == ContentType.TEXT ? decimalCode(data, pos) : bcdCode(data, pos);
+    final MessageTemplate template = codes.get(code);
+    if (template == null) {
+      throw new MessageException("Message type not defined in this message set");
+    }
+    pos += mtiSize;
+    final int bitmapSize = bitmapSize(data, pos, end);
+    if (bitmapSize <= 0) {
+      throw new MessageException("Message bitmap " + (bitmapSize == 0 ? "truncated" : "not hexadecimal"));
+    }
+    final long[] bitmap = bitmapWords(data, pos, bitmapSize);
+    final int word = (number - 1) >> 6;
+    // fields 1, 65 and 129 indicate the presence of a further bitmap
+    if (word >= bitmap.length || ((number - 1) & 63) == 0 || (bitmap[word] & 1L << 63 - ((number - 1) & 63)) == 0) {
+      return Optional.absent();
+    }
+    final FieldOffsets offsets = template.getFixedOffsets(contentType);
+    if (!offsets.contains(number) || !offsets.appliesTo(bitmap, number)) {
+      final Optional<Object> result = parse(new DataInputStream(new ByteArrayInputStream(data, offset, length)))
+          .getFields().get(number);
+      return result != null ? result : Optional.absent();
+    }
+    final int start = pos + bitmapSize + offsets.getOffset(number);
+    if (end - start < offsets.getLength(number)) {
+      throw new MessageException("Message data too short to contain field: " + number);
+    }
+    final FieldTemplate field = template.getFields().get(number);
+    final DataInputStream input = new DataInputStream(new ByteArrayInputStream(data, start, end - start));
+    return Optional.of(template.parse(getMessageReader().readField(field, input), field));
+  }
+
+  /** @return the (up to three) 64-bit words of the <code>size</code> byte bitmap at <code>pos</code> */
+  private long[] bitmapWords(final byte[] data, final int pos, final int size) {
+    final long[] result = new long[3];
+    if (bitmapType == BitmapType.BINARY) {
+      for (int i = 0; i < size; i++) {
+        result[i >> 3] = result[i >> 3] << 8 | data[pos + i] & 0xff;
+      }
+    } else {
+      for (int i = 0; i < size; i++) {
+        result[i >> 4] = result[i >> 4] << 4 | chars.hexDigit(data[pos + i]);
+      }
+    }
+    return result;
+  }
+
+  /** @return the MTI code represented by four decimal digits at <code>pos</code>, or -1 if not numeric */
+  private int decimalCode(final byte[] data, final int pos) {
+    int result = 0;
+    for (int i = 0; i < 4; i++) {
+      final int digit = chars.digit(data[pos + i]);
+      if (digit < 0) {
+        return -1;
+      }
+      result = result << 4 | digit;
+    }
+    return result;
+  }
+
+  /** @return the MTI code represented by two BCD bytes at <code>pos</code>, or -1 if not numeric */
+  private static int bcdCode(final byte[] data, final int pos) {
+    final int result = (data[pos] & 0xff) << 8 | data[pos + 1] & 0xff;
+    for (int shift = 0; shift < 16; shift += 4) {
+      if ((result >> shift & 0x0f) > 9) {
+        return -1;
+      }
+    }
+    return result;
+  }
+
+  /** @return the value of the <code>count</code> decimal digits at <code>pos</code>, or -1 if not numeric */
+  private int decimal(final byte[] data, final int pos, final int count) {
+    int result = 0;
+    for (int i = 0; i < count; i++) {
+      final int digit = chars.digit(data[pos + i]);
+      if (digit < 0) {
+        return -1;
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+
+  /** @return the value of the <code>count</code> BCD bytes at <code>pos</code>, or -1 if not numeric */
+  private static int bcdDecimal(final byte[] data, final int pos, final int count) {
+    int result = 0;
+    for (int i = 0; i < count; i++) {
+      final int high = (data[pos + i] & 0xf0) >> 4;
+      final int low = data[pos + i] & 0x0f;
+      if (high > 9 || low > 9) {
+        return -1;
+      }
+      result = result * 100 + high * 10 + low;
+    }
+    return result;
+  }
+
+  /** @return the size in bytes of the bitmap at <code>pos</code> (8, 16 or 24 if binary, twice that
+    * if hex), 0 if the data is truncated or -1 if a hex bitmap contains a non-hex character */
+  private int bitmapSize(final byte[] data, final int pos, final int end) {
+    final int unit = bitmapType == BitmapType.BINARY ? 8 : 16;
+    int result = 0;
+    boolean more = true;
+    while (more && result < unit * 3) {
+      if (end - pos - result < unit) {
+        return 0;
+      }
+      if (bitmapType == BitmapType.BINARY) {
+        more = (data[pos + result] & 0x80) != 0;
+      } else {
+        for (int i = 0; i < unit; i++) {
+          if (chars.hexDigit(data[pos + result + i]) < 0) {
+            return -1;
+          }
+        }
+        more = chars.hexDigit(data[pos + result]) >= 8;
+      }
+      result += unit;
+    }
+    return result;
+  }
+
+  /** @return false if the <code>length</code> bytes at <code>pos</code> cannot be a value of
+    * the numeric <code>type</code>: BCD values must contain only decimal nibbles, text values
+    * parsed by the number formatter must be an optional sign (C/D if signed) followed by digits */
+  private boolean isValidContent(
+      final MessageTemplate template, final String type, final byte[] data, final int pos, final int length) {
+    if (contentType == ContentType.BCD) {
+      if (type.equals(FieldType.NUMSIGNED)) {
+        return isBcdDigits(data, pos + 1, length - 1);
+      }
+      return !MessageLayout.isBcdNumeric(type) || isBcdDigits(data, pos, length);
+    }
+    final boolean signed = type.equals(FieldType.NUMSIGNED);
+    if (!(signed || type.equals(FieldType.NUMERIC)) || !(template.getFormatter(type) instanceof NumberFormatter)) {
+      return true;
+    }
+    int start = pos;
+    if (length > 0 && isSign(data[pos], signed)) {
+      start++;
+    } else if (signed) {
+      return false;
+    }
+    if (start == pos + length) {
+      return false;
+    }
+    for (int i = start; i < pos + length; i++) {
+      if (chars.digit(data[i]) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return true if <code>value</code> is a sign character: C or D for signed fields, otherwise - or + */
+  private boolean isSign(final byte value, final boolean signed) {
+    final char sign = Character.toUpperCase(chars.toChar(value));
+    return signed ? sign == 'C' || sign == 'D' : sign == '-' || sign == '+';
+  }
+
+  private static boolean isBcdDigits(final byte[] data, final int pos, final int length) {
+    for (int i = pos; i < pos + length; i++) {
+      if ((data[i] & 0xf0) > 0x90 || (data[i] & 0x0f) > 9) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /** @return the message template fot the specified message <code>type</code>
     * @throws MessageException if no template is defined for <code>type</code> */
   private MessageTemplate validateMessageTemplate(final MTI type) {
@@ -6,13 +6,18 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import org.nulleins.formats.iso8583.formatters.AlphaFormatter;
 import org.nulleins.formats.iso8583.formatters.TypeFormatter;
 import org.nulleins.formats.iso8583.formatters.TypeFormatters;
+import org.nulleins.formats.iso8583.metrics.MessageMetrics;
 import org.nulleins.formats.iso8583.types.Bitmap;
+import org.nulleins.formats.iso8583.types.ContentType;
 import org.nulleins.formats.iso8583.types.MTI;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -34,8 +39,13 @@ public class MessageTemplate {
   private final Map<String, Integer> nameIndex;
   /** bitmap indicating the fields present in the message */
   private final Bitmap bitmap;
+  /** bitmap words (primary, secondary and tertiary) of the mandatory fields of the message */
+  private final long[] mandatoryFields;
+  /** offsets of the fields preceding the first variable field, for each content type */
+  private final Map<ContentType, FieldOffsets> fixedOffsets;
 
   private Optional<TypeFormatters> formatters = Optional.absent();
+  private Optional<MessageMetrics> metrics = Optional.absent();
 
   /** Factory method to create a message template with the supplied properties
     * @param header     to be output at start of message
@@ -62,6 +72,16 @@ public class MessageTemplate {
     type = mti;
     this.fields = ImmutableMap.copyOf(fields);
     bitmap = createBitmap(fields);
+    mandatoryFields = new long[3];
+    for (final FieldTemplate field : fields.values()) {
+      if (!field.isOptional()) {
+        mandatoryFields[FieldOffsets.word(field.getNumber())] |= FieldOffsets.bit(field.getNumber());
+      }
+    }
+    fixedOffsets = new EnumMap<>(ContentType.class);
+    for (final ContentType contentType : ContentType.values()) {
+      fixedOffsets.put(contentType, FieldOffsets.create(this.fields, contentType));
+    }
     final Map<String, Integer> nameIndex = new HashMap<>();
     for (final FieldTemplate field : fields.values()) {
       if ( field.getName() != null) {
@@ -71,6 +91,19 @@ public class MessageTemplate {
     this.nameIndex = ImmutableMap.copyOf(nameIndex);
   }
 
+  /** instantiate a copy of <code>template</code>, sharing the bitmap, masks and offsets
+    * computed from its (immutable) field list */
+  private MessageTemplate(final MessageTemplate template) {
+    header = template.header;
+    name = template.name;
+    type = template.type;
+    fields = template.fields;
+    nameIndex = template.nameIndex;
+    bitmap = template.bitmap;
+    mandatoryFields = template.mandatoryFields;
+    fixedOffsets = template.fixedOffsets;
+  }
+
   public String getName() {
     return name;
   }
@@ -86,6 +119,25 @@ public class MessageTemplate {
     return fields;
   }
 
+  /** @return the static offsets of the fields in this template's fixed prefix (those preceding
+    * its first variable field), as encoded in messages of <code>contentType</code> */
+  public FieldOffsets getFixedOffsets(final ContentType contentType) {
+    return fixedOffsets.get(contentType);
+  }
+
+  /** @return the number of the first mandatory field of this template that is not set in
+    * <code>bitmap</code> (the primary, secondary and tertiary bitmap words of a message, with
+    * field 1 in the most significant bit), or zero if all of the mandatory fields are set */
+  public int findMissingField(final long[] bitmap) {
+    for (int word = 0; word < mandatoryFields.length; word++) {
+      final long missing = mandatoryFields[word] & ~(word < bitmap.length ? bitmap[word] : 0);
+      if (missing != 0) {
+        return (word << 6) + Long.numberOfLeadingZeros(missing) + 1;
+      }
+    }
+    return 0;
+  }
+
   /** @return a bitmap set from the definition of the fields to be used in this message template,
    * @param fields Field-f keyed map of field templates */
   public Bitmap createBitmap(final Map<Integer, FieldTemplate> fields) {
@@ -107,7 +159,7 @@ public class MessageTemplate {
 
   /** @return a formatter capable of formatting/parsing a field of <code>type</code>
     * @throws MessageException if not formatter registered for the supplied field type */
-  TypeFormatter<?> getFormatter(final String type) {
+  public TypeFormatter<?> getFormatter(final String type) {
     Preconditions.checkState(formatters.isPresent() && formatters.get().hasFormatter(type),
         "Template must have a formatter for field type: " + type);
     return formatters.get().getFormatter(type);
@@ -117,6 +169,23 @@ public class MessageTemplate {
     * Does the supplied message conform to this template?
     * @param message instance to validate against this template */
   List<String> validate(final Message message) {
+    if (!metrics.isPresent()) {
+      return validateFields(message, null);
+    }
+    final Object context = metrics.get().started(MessageMetrics.Operation.VALIDATE);
+    final long start = System.nanoTime();
+    List<String> result = null;
+    try {
+      result = validateFields(message, context);
+      return result;
+    } finally {
+      // an invalid message is reported as a failed validation
+      metrics.get().completed(context, MessageMetrics.Operation.VALIDATE, type, System.nanoTime() - start, 0,
+          result == null || !result.isEmpty());
+    }
+  }
+
+  private List<String> validateFields(final Message message, final Object context) {
     final List<String> result = new ArrayList<>();
     if (!message.getMTI().equals(this.type)) {
       result.add("Message MTI (" + message.getMTI() + ") != Template MTI (" + type + ")");
@@ -131,7 +200,7 @@ public class MessageTemplate {
       final Optional<Object> msgField = message.getFields().get(field.getNumber());
       if (msgField == null || !msgField.isPresent()) {
         result.add("Message field missing (" + field + ")");
-      } else if (!validValue(msgField.get(), field)) {
+      } else if (!validValue(msgField.get(), field, context)) {
         result.add("Message field data invalid (" + msgField.get() + ") for field: " + field);
       }
     }
@@ -139,10 +208,40 @@ public class MessageTemplate {
   }
 
   /** @return true if <code>value</code> is a valid value for the field described herein */
-  private boolean validValue(final Object value, final FieldTemplate field) {
-    Preconditions.checkState(formatters.isPresent() && formatters.get().hasFormatter(field.getType()),
-        "Template must have a formatter for field type: " + field.getType());
-    return formatters.get().getFormatter(field.getType()).isValid(value, field.getType(), field.getDimension());
+  private boolean validValue(final Object value, final FieldTemplate field, final Object context) {
+    final TypeFormatter<?> formatter = getFormatter(field.getType());
+    if (!metrics.isPresent()) {
+      return formatter.isValid(value, field.getType(), field.getDimension());
+    }
+    final Object fieldContext = metrics.get().fieldStarted(context, MessageMetrics.Operation.VALIDATE, field);
+    boolean failed = true;
+    try {
+      final boolean result = formatter.isValid(value, field.getType(), field.getDimension());
+      failed = false;
+      return result;
+    } finally {
+      metrics.get().fieldCompleted(fieldContext, MessageMetrics.Operation.VALIDATE, type, field, formatter, 0, failed);
+    }
+  }
+
+  /** @return the value of <code>field</code> parsed from <code>data</code>, or null if the formatter
+    * rejects it; unlike {@link #parse(byte[], FieldTemplate)}, alpha values are validated without an
+    * exception, and no message including the (possibly sensitive) value is built */
+  Object tryParse(final byte[] data, final FieldTemplate field) {
+    final String type = field.getType();
+    final TypeFormatter<?> formatter = formatters.isPresent() ? formatters.get().getFormatter(type) : null;
+    if (formatter == null) {
+      return null;
+    }
+    final ByteBuffer input = ByteBuffer.wrap(data);
+    if (formatter instanceof AlphaFormatter) {
+      return ((AlphaFormatter) formatter).tryDecode(type, field.getDimension(), input, data.length);
+    }
+    try {
+      return formatter.decode(type, field.getDimension(), input, data.length);
+    } catch (final ParseException | RuntimeException e) {
+      return null;
+    }
   }
 
   Object parse(final byte[] data, final FieldTemplate field) {
@@ -152,7 +251,7 @@ public class MessageTemplate {
         "Template must have a formatter for field type: " + field.getType());
     final String type = field.getType();
     try {
-      return formatters.get().getFormatter(type).parse(type, field.getDimension(), data.length, data);
+      return formatters.get().getFormatter(type).decode(type, field.getDimension(), ByteBuffer.wrap(data), data.length);
     } catch (final ParseException e) {
       final String value = new String(data);
       throw new MessageException("Failed to parse field: " + this + ", with value ["+value+"]", e);
@@ -174,9 +273,17 @@ public class MessageTemplate {
   }
 
   public MessageTemplate with(final TypeFormatters formatters) {
+    return with(formatters, Optional.<MessageMetrics>absent());
+  }
+
+  /** @return a copy of this template using <code>formatters</code>, and reporting
+    * validations to <code>metrics</code> (if present) */
+  MessageTemplate with(final TypeFormatters formatters, final Optional<MessageMetrics> metrics) {
     Preconditions.checkNotNull(formatters);
-    final MessageTemplate result = MessageTemplate.create(header, type, name, fields);
+    Preconditions.checkNotNull(metrics);
+    final MessageTemplate result = new MessageTemplate(this);
     result.formatters = Optional.of(formatters);
+    result.metrics = metrics;
     return result;
   }
 
@@ -0,0 +1,92 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+
+
+/** Outcome of parsing message data with {@link MessageFactory#tryParse(byte[])}: either the
+  * message parsed, or a structured description of why the data could not be parsed (error code,
+  * field number and byte offset), created without throwing an exception or building a message string
+  * @author phillipsr */
+public final class ParseResult {
+  /** reason a message could not be parsed */
+  public enum ErrorCode {
+    /** data ended before the message or field was complete */
+    TRUNCATED,
+    /** the message does not start with the header expected */
+    BAD_HEADER,
+    /** the MTI is not numeric */
+    BAD_MTI,
+    /** no template is defined for the message type */
+    UNKNOWN_MTI,
+    /** the bitmap is not valid hexadecimal */
+    BAD_BITMAP,
+    /** the bitmap specifies a field not defined in the message template */
+    UNDEFINED_FIELD,
+    /** a variable field's length is not numeric, or exceeds its maximum */
+    BAD_LENGTH,
+    /** a field value is not valid for its type */
+    BAD_VALUE,
+    /** the bitmap does not specify a mandatory field of the message template */
+    MISSING_FIELD
+  }
+
+  /** field number reported for errors not specific to a field (header, MTI, bitmap) */
+  public static final int NO_FIELD = 0;
+
+  private final Message message;
+  private final ErrorCode error;
+  private final int field;
+  private final int offset;
+
+  private ParseResult(final Message message, final ErrorCode error, final int field, final int offset) {
+    this.message = message;
+    this.error = error;
+    this.field = field;
+    this.offset = offset;
+  }
+
+  /** @return a successful result, holding the <code>message</code> parsed from <code>length</code> bytes */
+  static ParseResult success(final Message message, final int length) {
+    return new ParseResult(message, null, NO_FIELD, length);
+  }
+
+  /** @return a failed result, for an <code>error</code> detected in <code>field</code> at <code>offset</code> */
+  static ParseResult failure(final ErrorCode error, final int field, final int offset) {
+    return new ParseResult(null, error, field, offset);
+  }
+
+  public boolean isSuccess() {
+    return message != null;
+  }
+
+  /** @return the message parsed
+    * @throws IllegalStateException if the message could not be parsed */
+  public Message getMessage() {
+    Preconditions.checkState(message != null, "Message not parsed");
+    return message;
+  }
+
+  /** @return the reason the message could not be parsed, or null if successful */
+  public ErrorCode getError() {
+    return error;
+  }
+
+  /** @return the number of the field in error, or {@link #NO_FIELD} */
+  public int getField() {
+    return field;
+  }
+
+  /** @return the offset of the error from the start of the message data, or the number of
+    * bytes consumed by the message if successful */
+  public int getOffset() {
+    return offset;
+  }
+
+  @Override
+  public String toString() {
+    if (isSuccess()) {
+      return "ParseResult " + message + " length=" + offset;
+    }
+    return "ParseResult error=" + error + " field=" + field + " offset=" + offset;
+  }
+}
@@ -0,0 +1,79 @@
+package org.nulleins.formats.iso8583;
+
+import org.nulleins.formats.iso8583.formatters.TypeFormatters;
+import org.nulleins.formats.iso8583.io.MessageWriter;
+import org.nulleins.formats.iso8583.types.BitmapType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/** The byte segments that are the same in every message written from a template, rendered once
+  * when the message factory is created: the header and MTI, the bitmap of a message with all
+  * of the template's fields, and the encoded value (with any length prefix) of each mandatory
+  * field whose value is not auto-generated, when it takes its default value
+  * @author phillipsr */
+final class RenderedTemplate {
+  private static final int FIELDS = 193;
+
+  private final byte[] prefix;
+  private final long[] fullBitmap = new long[3];
+  private final byte[] fullBitmapData;
+  private final byte[][] defaults = new byte[FIELDS][];
+
+  /** render the constant segments of messages of <code>template</code> with <code>writer</code>
+    * @throws IOException if the header or MTI cannot be rendered */
+  RenderedTemplate(final MessageTemplate template, final String header, final MessageWriter writer,
+                   final BitmapType bitmapType, final TypeFormatters formatters) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(buffer);
+    writer.appendHeader(header, output);
+    writer.appendMTI(template.getMessageType(), output);
+    prefix = buffer.toByteArray();
+
+    for (final FieldTemplate field : template.getFields().values()) {
+      fullBitmap[FieldOffsets.word(field.getNumber())] |= FieldOffsets.bit(field.getNumber());
+    }
+    if (fullBitmap[2] != 0) {
+      fullBitmap[1] |= FieldOffsets.bit(65);
+    }
+    if (fullBitmap[1] != 0) {
+      fullBitmap[0] |= FieldOffsets.bit(1);
+    }
+    buffer.reset();
+    writer.appendBitmap(fullBitmap, bitmapType, output);
+    fullBitmapData = buffer.toByteArray();
+
+    for (final FieldTemplate field : template.getFields().values()) {
+      final String autogen = field.getAutogen();
+      if (field.isOptional() || field.getDefaultValue() == null || (autogen != null && !autogen.isEmpty())) {
+        continue;
+      }
+      buffer.reset();
+      try {
+        writer.appendField(formatters.getFormatter(field.getType()), field, field.getDefaultValue(), output);
+        defaults[field.getNumber()] = buffer.toByteArray();
+      } catch (final IOException | RuntimeException e) {
+        // not rendered: the default value will be formatted (and fail) when a message is written
+      }
+    }
+  }
+
+  /** @return the header and MTI of the message */
+  byte[] getPrefix() {
+    return prefix;
+  }
+
+  /** @return the rendered bitmap, if <code>bitmap</code> (its words) is that of a message with all
+    * of the template's fields, otherwise null */
+  byte[] getBitmap(final long[] bitmap) {
+    return Arrays.equals(bitmap, fullBitmap) ? fullBitmapData : null;
+  }
+
+  /** @return the rendered default value of field <code>number</code>, or null if not rendered */
+  byte[] getDefault(final int number) {
+    return defaults[number];
+  }
+}
@@ -0,0 +1,371 @@
+package org.nulleins.formats.iso8583.audit;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.ParseResult;
+import org.nulleins.formats.iso8583.metrics.StripedCounter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+
+/** Asynchronous audit log of message data, moving the cost of describing messages off the
+  * processing thread: {@link #log(byte[])} copies the raw message bytes and a timestamp into
+  * a pre-allocated slot of a lock-free ring buffer, and a background thread parses each message,
+  * masks its sensitive fields (by default, the PAN in field 2, and the track 2, 3 and 1 data, carrying
+  * the PAN, in fields 35, 36 and 45) and hands it to an {@link AuditWriter}
+  * <p/>
+  * When the buffer is full, messages are either dropped (and counted) or the caller waits for
+  * space, according to the {@link OverflowPolicy} configured:
+  * <pre>
+  *   final AuditLogger audit = AuditLogger.Builder()
+  *       .factory(factory)
+  *       .writer(new TextAuditWriter(new BufferedWriter(new FileWriter("audit.log"))))
+  *       .capacity(4096)
+  *       .policy(AuditLogger.OverflowPolicy.DROP)
+  *       .build();
+  *   ...
+  *   audit.log(data);
+  * </pre>
+  * @author phillipsr */
+public final class AuditLogger implements Closeable {
+  /** action taken when a message is logged while the buffer is full */
+  public enum OverflowPolicy {
+    /** discard the message, counting it as dropped */
+    DROP,
+    /** wait for the background thread to free a slot */
+    BLOCK
+  }
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+  private static final char MASK = '*';
+  /** fields of card track data, masked entirely: revealing their ends would expose more than the PAN's */
+  private static final Set<Integer> TRACKS = ImmutableSet.of(35, 36, 45);
+
+  private final MessageFactory factory;
+  private final AuditWriter writer;
+  private final OverflowPolicy policy;
+  private final Set<Integer> masked;
+  private final int indexMask;
+  private final Slot[] slots;
+  private final AtomicLongArray published;
+  private final AtomicLong claimed = new AtomicLong();
+  private volatile long consumed;
+  private volatile boolean running = true;
+  private volatile boolean sleeping;
+  private final Thread consumer;
+
+  private final StripedCounter logged = new StripedCounter();
+  private final StripedCounter dropped = new StripedCounter();
+  private final StripedCounter blocked = new StripedCounter();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  private AuditLogger(final MessageFactory factory, final AuditWriter writer, final OverflowPolicy policy,
+                      final Set<Integer> masked, final int capacity, final int slotSize, final String name) {
+    this.factory = factory;
+    this.writer = writer;
+    this.policy = policy;
+    this.masked = masked;
+    this.indexMask = capacity - 1;
+    this.slots = new Slot[capacity];
+    this.published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new Slot(slotSize);
+      published.set(i, -1);
+    }
+    consumer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, name);
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  /** log a copy of the message <code>data</code>
+    * @return true if the message was queued, false if it was dropped because the buffer was full
+    * or the logger has been closed */
+  public boolean log(final byte[] data) {
+    return log(data, 0, data.length);
+  }
+
+  /** log a copy of <code>length</code> bytes of message data, from <code>offset</code> in <code>data</code>
+    * @return true if the message was queued, false if it was dropped because the buffer was full
+    * or the logger has been closed */
+  public boolean log(final byte[] data, final int offset, final int length) {
+    Preconditions.checkNotNull(data, "Data cannot be null");
+    final long timestamp = System.currentTimeMillis();
+    final long sequence = claim();
+    if (sequence < 0) {
+      dropped.increment();
+      return false;
+    }
+    final int index = (int) sequence & indexMask;
+    slots[index].set(timestamp, data, offset, length);
+    published.lazySet(index, sequence);
+    logged.increment();
+    if (sleeping) {
+      LockSupport.unpark(consumer);
+    }
+    return true;
+  }
+
+  /** @return the next sequence to be written, or -1 if the message should be dropped */
+  private long claim() {
+    boolean waited = false;
+    while (running) {
+      final long sequence = claimed.get();
+      if (sequence - consumed >= slots.length) {
+        if (policy == OverflowPolicy.DROP) {
+          return -1;
+        }
+        if (!waited) {
+          waited = true;
+          blocked.increment();
+        }
+        LockSupport.parkNanos(FULL_PARK_NANOS);
+      } else if (claimed.compareAndSet(sequence, sequence + 1)) {
+        return sequence;
+      }
+    }
+    return -1;
+  }
+
+  /** background loop: write each published message in sequence, until closed and drained */
+  private void drain() {
+    long sequence = consumed;
+    boolean unflushed = false;
+    while (running || sequence < claimed.get()) {
+      final int index = (int) sequence & indexMask;
+      if (published.get(index) != sequence) {
+        if (unflushed) {
+          flush();
+          unflushed = false;
+        }
+        sleeping = true;
+        if (published.get(index) != sequence) {
+          LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+        sleeping = false;
+        continue;
+      }
+      write(slots[index]);
+      unflushed = true;
+      consumed = ++sequence;
+    }
+    if (unflushed) {
+      flush();
+    }
+  }
+
+  private void write(final Slot slot) {
+    // parsed without exceptions, whose messages may include field values (e.g., a clear PAN)
+    final ParseResult result = factory.tryParse(slot.data, 0, slot.length);
+    if (!result.isSuccess()) {
+      failed.incrementAndGet();
+      try {
+        writer.writeUnparsed(slot.timestamp, slot.length, result);
+      } catch (final IOException | RuntimeException ignored) {
+        // already counted as failed: continue with the next message
+      }
+      return;
+    }
+    try {
+      writer.write(slot.timestamp, mask(result.getMessage()));
+      written.incrementAndGet();
+    } catch (final Exception e) {
+      failed.incrementAndGet();
+    }
+  }
+
+  private void flush() {
+    try {
+      writer.flush();
+    } catch (final IOException | RuntimeException e) {
+      failed.incrementAndGet();
+    }
+  }
+
+  /** @return <code>message</code> with the value of each field configured to be masked
+    * replaced by its masked string representation */
+  private Message mask(final Message message) {
+    Map<Integer, Optional<Object>> values = null;
+    for (final Integer field : masked) {
+      final Optional<Object> value = message.getFields().get(field);
+      if (value != null && value.isPresent()) {
+        if (values == null) {
+          values = new HashMap<>(message.getFields());
+        }
+        final String text = value.get().toString();
+        values.put(field, Optional.<Object>of(
+            TRACKS.contains(field) ? Strings.repeat(String.valueOf(MASK), text.length()) : mask(text)));
+      }
+    }
+    return values != null ? message.withValues(values) : message;
+  }
+
+  /** @return <code>value</code> with all but the first six and last four characters masked, or
+    * entirely masked if too short to reveal those without exposing the middle digits */
+  static String mask(final String value) {
+    final int length = value.length();
+    final char[] result = value.toCharArray();
+    final int first = length >= 13 ? 6 : 0;
+    final int last = length >= 13 ? 4 : 0;
+    for (int i = first; i < length - last; i++) {
+      result[i] = MASK;
+    }
+    return new String(result);
+  }
+
+  /** stop accepting messages, write those already logged and stop the background thread */
+  @Override
+  public void close() throws IOException {
+    running = false;
+    LockSupport.unpark(consumer);
+    try {
+      consumer.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** @return the number of messages accepted into the buffer */
+  public long getLogged() {
+    return logged.sum();
+  }
+
+  /** @return the number of messages dropped because the buffer was full or the logger closed */
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  /** @return the number of times a caller had to wait for space in the buffer */
+  public long getBlocked() {
+    return blocked.sum();
+  }
+
+  /** @return the number of messages written to the audit writer */
+  public long getWritten() {
+    return written.get();
+  }
+
+  /** @return the number of messages that could not be parsed or written */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /** @return the number of messages logged but not yet written */
+  public long getPending() {
+    return claimed.get() - consumed;
+  }
+
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  /** a pre-allocated buffer for a logged message, grown if a larger message is logged */
+  private static final class Slot {
+    private byte[] data;
+    private int length;
+    private long timestamp;
+
+    private Slot(final int size) {
+      data = new byte[size];
+    }
+
+    private void set(final long timestamp, final byte[] source, final int offset, final int length) {
+      if (length > data.length) {
+        data = new byte[length];
+      }
+      System.arraycopy(source, offset, data, 0, length);
+      this.length = length;
+      this.timestamp = timestamp;
+    }
+  }
+
+  /** @return a new builder, for constructing audit loggers */
+  public static Builder Builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private MessageFactory factory;
+    private AuditWriter writer;
+    private OverflowPolicy policy = OverflowPolicy.DROP;
+    private Set<Integer> masked = ImmutableSet.of(2, 35, 36, 45);
+    private int capacity = 1024;
+    private int slotSize = 512;
+    private String name = "isotypes-audit";
+
+    /** factory used to parse the messages logged */
+    public Builder factory(final MessageFactory factory) {
+      this.factory = factory;
+      return this;
+    }
+
+    public Builder writer(final AuditWriter writer) {
+      this.writer = writer;
+      return this;
+    }
+
+    public Builder policy(final OverflowPolicy policy) {
+      this.policy = policy;
+      return this;
+    }
+
+    /** numbers of the fields whose values are to be masked (default: field 2, the PAN, and
+      * fields 35, 36 and 45, the track data, which are masked entirely) */
+    public Builder mask(final Integer... fields) {
+      this.masked = ImmutableSet.copyOf(fields);
+      return this;
+    }
+
+    /** number of messages that may be buffered, rounded up to a power of two */
+    public Builder capacity(final int capacity) {
+      this.capacity = capacity;
+      return this;
+    }
+
+    /** initial size of the buffer pre-allocated for each message */
+    public Builder slotSize(final int slotSize) {
+      this.slotSize = slotSize;
+      return this;
+    }
+
+    /** name of the background thread */
+    public Builder name(final String name) {
+      this.name = name;
+      return this;
+    }
+
+    /** @return a new audit logger, with its background thread started */
+    public AuditLogger build() {
+      Preconditions.checkNotNull(factory, "Message factory must be set");
+      Preconditions.checkNotNull(writer, "Audit writer must be set");
+      Preconditions.checkNotNull(policy, "Overflow policy must be set");
+      Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "Capacity must be > 0");
+      Preconditions.checkArgument(slotSize > 0, "Slot size must be > 0");
+      return new AuditLogger(factory, writer, policy, masked, powerOfTwo(capacity), slotSize, name);
+    }
+
+    /** @return the smallest power of two not less than <code>value</code> */
+    private static int powerOfTwo(final int value) {
+      final int result = Integer.highestOneBit(value);
+      return result == value ? result : result << 1;
+    }
+  }
+}
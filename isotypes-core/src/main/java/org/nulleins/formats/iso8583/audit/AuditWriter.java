@@ -0,0 +1,25 @@
+package org.nulleins.formats.iso8583.audit;
+
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.ParseResult;
+
+import java.io.IOException;
+
+
+/** Destination for the audit records rendered by an {@link AuditLogger}, called only from the
+  * logger's background thread, so implementations need not be thread-safe
+  * @author phillipsr */
+public interface AuditWriter {
+
+  /** write the audit record of a <code>message</code> logged at <code>timestamp</code>
+    * (milliseconds since the epoch); sensitive field values have already been masked */
+  void write(long timestamp, Message message) throws IOException;
+
+  /** record that <code>length</code> bytes logged at <code>timestamp</code> could not be
+    * parsed as a message, for the reason (error code, field and offset) of the <code>failure</code>;
+    * neither the raw data nor the field values are written, as they may contain a clear PAN */
+  void writeUnparsed(long timestamp, int length, ParseResult failure) throws IOException;
+
+  /** flush any buffered records, called whenever the logger's queue has been drained */
+  void flush() throws IOException;
+}
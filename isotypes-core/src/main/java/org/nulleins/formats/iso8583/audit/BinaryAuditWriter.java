@@ -0,0 +1,70 @@
+package org.nulleins.formats.iso8583.audit;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.ParseResult;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/** Audit writer producing a compact binary record per message, cheaper to write than the
+  * text description; each record is written with a {@link DataOutputStream} as:
+  * <pre>
+  *   byte    kind ({@link #MESSAGE} or {@link #UNPARSED})
+  *   long    timestamp (millis since the epoch)
+  * MESSAGE:
+  *   UTF     mti
+  *   short   field count, followed by, for each field in ascending order:
+  *   short   field number
+  *   UTF     field value as a string (empty if absent)
+  * UNPARSED:
+  *   int     message length
+  *   UTF     error code (a {@link ParseResult.ErrorCode})
+  *   short   number of the field in error (0 if none)
+  *   int     offset of the error in the message
+  * </pre>
+  * @author phillipsr */
+public class BinaryAuditWriter implements AuditWriter {
+  public static final byte MESSAGE = 1;
+  public static final byte UNPARSED = 0;
+
+  private final DataOutputStream output;
+
+  public BinaryAuditWriter(final OutputStream output) {
+    Preconditions.checkNotNull(output, "Output cannot be null");
+    this.output = new DataOutputStream(output);
+  }
+
+  @Override
+  public void write(final long timestamp, final Message message) throws IOException {
+    output.writeByte(MESSAGE);
+    output.writeLong(timestamp);
+    output.writeUTF(message.getMTI().toString());
+    final Map<Integer, Optional<Object>> fields = new TreeMap<>(message.getFields());
+    output.writeShort(fields.size());
+    for (final Map.Entry<Integer, Optional<Object>> field : fields.entrySet()) {
+      output.writeShort(field.getKey());
+      output.writeUTF(field.getValue().isPresent() ? field.getValue().get().toString() : "");
+    }
+  }
+
+  @Override
+  public void writeUnparsed(final long timestamp, final int length, final ParseResult failure) throws IOException {
+    output.writeByte(UNPARSED);
+    output.writeLong(timestamp);
+    output.writeInt(length);
+    output.writeUTF(failure.getError().name());
+    output.writeShort(failure.getField());
+    output.writeInt(failure.getOffset());
+  }
+
+  @Override
+  public void flush() throws IOException {
+    output.flush();
+  }
+}
@@ -0,0 +1,45 @@
+package org.nulleins.formats.iso8583.audit;
+
+import com.google.common.base.Preconditions;
+import org.joda.time.DateTime;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.ParseResult;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/** Audit writer rendering each message as its multi-line description (as per
+  * {@link Message#describe()}), each line prefixed with the time the message was logged
+  * @author phillipsr */
+public class TextAuditWriter implements AuditWriter {
+  private static final String NEWLINE = System.getProperty("line.separator");
+  private final Writer output;
+
+  public TextAuditWriter(final Writer output) {
+    Preconditions.checkNotNull(output, "Output cannot be null");
+    this.output = output;
+  }
+
+  @Override
+  public void write(final long timestamp, final Message message) throws IOException {
+    final String prefix = "[" + new DateTime(timestamp) + "] ";
+    for (final String line : message.describe()) {
+      output.write(prefix);
+      output.write(line);
+      output.write(NEWLINE);
+    }
+  }
+
+  @Override
+  public void writeUnparsed(final long timestamp, final int length, final ParseResult failure) throws IOException {
+    output.write("[" + new DateTime(timestamp) + "] unparseable message, length=" + length
+        + ": error=" + failure.getError() + " field=" + failure.getField() + " offset=" + failure.getOffset());
+    output.write(NEWLINE);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    output.flush();
+  }
+}
@@ -0,0 +1,314 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.primitives.Ints;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.flyweight.MessageEncoder;
+import org.nulleins.formats.iso8583.flyweight.MessageFlyweight;
+import org.nulleins.formats.iso8583.metrics.StripedCounter;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** Admission control for a message processor, shedding load by declining requests immediately,
+  * rather than letting them queue (and time out), while its processing latency or the number
+  * of requests in progress exceed their limits:
+  * <pre>
+  *   if (controller.tryAdmit(data)) {
+  *     final long start = System.nanoTime();
+  *     try {
+  *       ... process the request
+  *     } finally {
+  *       controller.completed(System.nanoTime() - start);
+  *     }
+  *   } else {
+  *     final byte[] response = controller.decline(data);
+  *     ... send the response (if not null)
+  *   }
+  * </pre>
+  * The controller starts shedding when the moving average of the latencies reported, or the
+  * number of requests in progress, exceeds its limit, and stops only when both have fallen
+  * below the resume ratio of their limits, so that it does not switch on and off with each
+  * request. As no latencies are reported while requests are declined, the average decays,
+  * halving for each latency limit elapsed since the last was reported, so that shedding stops
+  * once the requests in progress have drained and the average has decayed. Only requests of the types configured to be
+  * declined are shed (by default, 0100 and 0200): other messages, e.g., network management
+  * and reversals, are always admitted
+  * <p/>
+  * The decline response is written directly from the request data, without parsing it,
+  * copying the values of the echo fields present in the request and defined by the response
+  * template, and setting the response code
+  * @author phillipsr */
+public final class AdmissionController {
+  /** the weight of each latency reported in the moving average, as a shift (1/8) */
+  private static final int SMOOTHING = 3;
+  private static final int MARGIN = 64;
+
+  private final MessageFactory factory;
+  private final long latencyLimit;
+  private final long resumeLatency;
+  private final int depthLimit;
+  private final int resumeDepth;
+  private final int responseField;
+  private final String responseCode;
+  private final Map<MTI, MTI> responseTypes;
+  private final Map<MTI, int[]> responseFields = new HashMap<>();
+  private final AtomicInteger depth = new AtomicInteger();
+  private final AtomicLong latency = new AtomicLong();
+  private final AtomicLong reported;
+  private final Ticker ticker;
+  private final AtomicLong transitions = new AtomicLong();
+  private final StripedCounter admitted = new StripedCounter();
+  private final StripedCounter declined = new StripedCounter();
+  private final AtomicBoolean shedding = new AtomicBoolean();
+
+  private final ThreadLocal<MessageFlyweight> readers = new ThreadLocal<MessageFlyweight>() {
+    @Override
+    protected MessageFlyweight initialValue() {
+      return new MessageFlyweight(factory);
+    }
+  };
+  private final ThreadLocal<MessageEncoder> writers = new ThreadLocal<MessageEncoder>() {
+    @Override
+    protected MessageEncoder initialValue() {
+      return new MessageEncoder(factory);
+    }
+  };
+
+  private AdmissionController(final Builder builder) {
+    factory = builder.factory;
+    latencyLimit = builder.latencyLimit;
+    ticker = builder.ticker;
+    reported = new AtomicLong(ticker.read());
+    resumeLatency = (long) (builder.latencyLimit * builder.resumeRatio);
+    depthLimit = builder.depthLimit;
+    resumeDepth = (int) (builder.depthLimit * builder.resumeRatio);
+    responseField = builder.responseField;
+    responseCode = builder.responseCode;
+    responseTypes = new HashMap<>(builder.responseTypes);
+    for (final MTI type : responseTypes.values()) {
+      final TreeSet<Integer> fields = new TreeSet<>();
+      for (final int field : builder.echoFields) {
+        if (factory.getTemplate(type).getFields().containsKey(field)) {
+          fields.add(field);
+        }
+      }
+      fields.add(responseField);
+      responseFields.put(type, Ints.toArray(fields));
+    }
+  }
+
+  /** @return true if the request <code>data</code> is admitted for processing, in which case
+    * {@link #completed(long)} must be called when it has been processed; false if it is to be declined */
+  public boolean tryAdmit(final byte[] data) {
+    if (isShedding() && isDeclined(data)) {
+      declined.increment();
+      return false;
+    }
+    depth.incrementAndGet();
+    admitted.increment();
+    return true;
+  }
+
+  /** report the completion of a request admitted, which took <code>nanos</code> to process */
+  public void completed(final long nanos) {
+    depth.decrementAndGet();
+    final long now = ticker.read();
+    long average;
+    long decayed;
+    do {
+      average = latency.get();
+      decayed = decay(average, now);
+    } while (!latency.compareAndSet(average, decayed + (nanos - decayed >> SMOOTHING)));
+    reported.set(now);
+  }
+
+  /** @return the moving <code>average</code>, decayed for the time elapsed since a latency was last reported */
+  private long decay(final long average, final long now) {
+    final long halvings = (now - reported.get()) / latencyLimit;
+    return halvings >= Long.SIZE - 1 ? 0 : average >> halvings;
+  }
+
+  /** @return true if requests of the types declined are being shed, having updated the state
+    * from the current latency and depth */
+  public boolean isShedding() {
+    final long average = getLatency();
+    final int current = depth.get();
+    if (!shedding.get()) {
+      if ((average > latencyLimit || current > depthLimit) && shedding.compareAndSet(false, true)) {
+        transitions.incrementAndGet();
+      }
+    } else if (average < resumeLatency && current < resumeDepth && shedding.compareAndSet(true, false)) {
+      transitions.incrementAndGet();
+    }
+    return shedding.get();
+  }
+
+  /** @return true if the request <code>data</code> is of a type that is declined when shedding */
+  private boolean isDeclined(final byte[] data) {
+    final MessageFlyweight reader = readers.get();
+    return reader.wrap(ByteBuffer.wrap(data), 0) && responseTypes.containsKey(reader.getMTI());
+  }
+
+  /** @return the data of the decline response to the request <code>data</code>, or null if the
+    * data is not a well-formed request of a type declined, or lacks a mandatory field of the response */
+  public byte[] decline(final byte[] data) {
+    final MessageFlyweight request = readers.get();
+    if (!request.wrap(ByteBuffer.wrap(data), 0)) {
+      return null;
+    }
+    final MTI type = responseTypes.get(request.getMTI());
+    if (type == null) {
+      return null;
+    }
+    final MessageEncoder encoder = writers.get();
+    for (int capacity = data.length + MARGIN; ; capacity *= 2) {
+      final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+      try {
+        encoder.wrap(buffer, 0, type);
+        for (final int field : responseFields.get(type)) {
+          if (field == responseField) {
+            encoder.putChars(field, responseCode);
+          } else if (request.hasField(field)) {
+            encoder.putChars(field, request.getCharSequence(field));
+          }
+        }
+        return Arrays.copyOf(buffer.array(), encoder.finish());
+      } catch (final IndexOutOfBoundsException e) {
+        // the response is larger than the buffer: retry with a larger one
+      } catch (final IllegalStateException | IllegalArgumentException e) {
+        return null;
+      }
+    }
+  }
+
+  /** @return the moving average of the latencies reported, decayed for the time since the last, in nanoseconds */
+  public long getLatency() {
+    return decay(latency.get(), ticker.read());
+  }
+
+  /** @return the number of requests admitted and not yet completed */
+  public int getDepth() {
+    return depth.get();
+  }
+
+  public long getAdmittedCount() {
+    return admitted.sum();
+  }
+
+  public long getDeclinedCount() {
+    return declined.sum();
+  }
+
+  /** @return the current figures as a flat map, keyed <code>admission.statistic</code> (admitted,
+    * declined, depth, latency, shedding and transitions, into and out of shedding), in key order */
+  public SortedMap<String, Number> snapshot() {
+    final SortedMap<String, Number> result = new TreeMap<>();
+    result.put("admission.admitted", admitted.sum());
+    result.put("admission.declined", declined.sum());
+    result.put("admission.depth", depth.get());
+    result.put("admission.latency", getLatency());
+    result.put("admission.shedding", shedding.get() ? 1 : 0);
+    result.put("admission.transitions", transitions.get());
+    return result;
+  }
+
+  public static Builder Builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private MessageFactory factory;
+    private long latencyLimit = TimeUnit.MILLISECONDS.toNanos(100);
+    private int depthLimit = 1000;
+    private double resumeRatio = 0.8;
+    private int responseField = 39;
+    private String responseCode = "91";
+    private int[] echoFields = {2, 3, 4, 7, 11, 12, 13, 32, 37, 41, 42, 49};
+    private final Map<MTI, MTI> responseTypes = new HashMap<>();
+    private Ticker ticker = Ticker.systemTicker();
+
+    public Builder factory(final MessageFactory factory) {
+      this.factory = factory;
+      return this;
+    }
+
+    /** shed load while the average processing latency exceeds <code>latency</code> (default: 100ms) */
+    public Builder latencyLimit(final long latency, final TimeUnit unit) {
+      this.latencyLimit = unit.toNanos(latency);
+      return this;
+    }
+
+    /** shed load while the number of requests in progress exceeds <code>depth</code> (default: 1000) */
+    public Builder depthLimit(final int depth) {
+      this.depthLimit = depth;
+      return this;
+    }
+
+    /** stop shedding when the latency and depth have fallen below <code>ratio</code> of their limits (default: 0.8) */
+    public Builder resumeRatio(final double ratio) {
+      this.resumeRatio = ratio;
+      return this;
+    }
+
+    /** decline requests by setting <code>field</code> (default: 39) to <code>code</code> (default: "91", issuer unavailable) */
+    public Builder responseCode(final int field, final String code) {
+      this.responseField = field;
+      this.responseCode = code;
+      return this;
+    }
+
+    /** copy the values of <code>fields</code> from the request to its decline response
+      * (default: 2, 3, 4, 7, 11, 12, 13, 32, 37, 41, 42 and 49) */
+    public Builder echoFields(final int... fields) {
+      this.echoFields = fields;
+      return this;
+    }
+
+    /** shed requests of <code>type</code>, declining them with a response of <code>responseType</code>
+      * (by default, 0100 and 0200 requests are declined with 0110 and 0210 responses) */
+    public Builder decline(final MTI type, final MTI responseType) {
+      responseTypes.put(type, responseType);
+      return this;
+    }
+
+    /** measure the time elapsed, to decay the average latency, with <code>ticker</code> (default: the system ticker) */
+    public Builder ticker(final Ticker ticker) {
+      this.ticker = ticker;
+      return this;
+    }
+
+    public AdmissionController build() {
+      Preconditions.checkNotNull(factory, "Message factory is required");
+      Preconditions.checkArgument(latencyLimit > 0 && depthLimit > 0, "Limits must be positive");
+      Preconditions.checkArgument(resumeRatio > 0 && resumeRatio <= 1, "Resume ratio must be in (0, 1]");
+      Preconditions.checkNotNull(responseCode, "Response code is required");
+      Preconditions.checkNotNull(ticker, "Ticker is required");
+      if (responseTypes.isEmpty()) {
+        for (final int code : new int[]{0x0100, 0x0200}) {
+          if (factory.canBuild(MTI.create(code)) && factory.canBuild(MTI.create(code + 0x10))) {
+            responseTypes.put(MTI.create(code), MTI.create(code + 0x10));
+          }
+        }
+      }
+      for (final MTI type : responseTypes.values()) {
+        Preconditions.checkArgument(factory.canBuild(type), "Response type " + type + " not defined by the factory");
+        Preconditions.checkArgument(factory.getTemplate(type).getFields().containsKey(responseField),
+            "Response type " + type + " does not define field " + responseField);
+      }
+      return new AdmissionController(this);
+    }
+  }
+}
@@ -0,0 +1,205 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+/** Executor running tasks in parallel, while running the tasks submitted with the same key in
+  * the order submitted: each key is hashed to one of a fixed number of lanes, each a queue whose
+  * tasks are run by one thread at a time
+  * <p/>
+  * Each lane has a home worker thread, which runs the tasks of its lanes; a worker whose lanes
+  * are empty steals the work of other lanes, by claiming a lane that is not being run, so that
+  * idle threads relieve busy ones without breaking the ordering of a lane (there should therefore
+  * be several lanes per thread). A task that fails is reported to the worker thread's
+  * uncaught exception handler, and does not stop its lane
+  * @author phillipsr */
+public final class KeyOrderedExecutor implements Closeable {
+  /** maximum number of tasks of a lane run before the worker checks its other lanes */
+  private static final int BATCH = 64;
+  private static final AtomicInteger executors = new AtomicInteger();
+
+  private final Lane[] lanes;
+  private final Worker[] workers;
+  private final Queue<Worker> idleWorkers = new ConcurrentLinkedQueue<>();
+  private volatile boolean shutdown;
+
+  /** a queue of tasks, run by one worker at a time */
+  private static final class Lane {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+  }
+
+  /** Create an executor of one thread per available processor, and four lanes per thread */
+  public KeyOrderedExecutor() {
+    this(Runtime.getRuntime().availableProcessors(), 4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Create an executor of <code>threads</code> worker threads, running tasks in <code>lanes</code> lanes */
+  public KeyOrderedExecutor(final int threads, final int lanes) {
+    Preconditions.checkArgument(threads > 0, "Executor requires at least one thread");
+    Preconditions.checkArgument(lanes >= threads, "Executor requires at least one lane per thread");
+    this.lanes = new Lane[lanes];
+    for (int i = 0; i < lanes; i++) {
+      this.lanes[i] = new Lane();
+    }
+    final int executor = executors.incrementAndGet();
+    workers = new Worker[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Worker(i, "isotypes-lanes-" + executor + "-" + i);
+    }
+    for (final Worker worker : workers) {
+      worker.thread.start();
+    }
+  }
+
+  /** run the <code>task</code> after any tasks previously submitted with the same <code>key</code>
+    * (or any key in the same lane)
+    * @throws RejectedExecutionException if the executor has been closed */
+  public void execute(final Object key, final Runnable task) {
+    Preconditions.checkNotNull(task, "Task cannot be null");
+    if (shutdown) {
+      throw new RejectedExecutionException("Executor has been closed");
+    }
+    final int lane = laneOf(key);
+    lanes[lane].tasks.add(task);
+    final Worker home = workers[lane % workers.length];
+    if (home.idle) {
+      LockSupport.unpark(home.thread);
+    } else {
+      final Worker thief = idleWorkers.poll();
+      if (thief != null) {
+        LockSupport.unpark(thief.thread);
+      }
+    }
+  }
+
+  /** @return the lane to which <code>key</code> is hashed (a null key to the first lane) */
+  public int laneOf(final Object key) {
+    if (key == null) {
+      return 0;
+    }
+    final int hash = key.hashCode();
+    return ((hash ^ hash >>> 16) & Integer.MAX_VALUE) % lanes.length;
+  }
+
+  /** @return the number of lanes */
+  public int getLanes() {
+    return lanes.length;
+  }
+
+  /** stop accepting tasks: the tasks already submitted are run before the workers terminate */
+  @Override
+  public void close() {
+    shutdown = true;
+    for (final Worker worker : workers) {
+      LockSupport.unpark(worker.thread);
+    }
+  }
+
+  /** @return true if the workers terminated within the <code>timeout</code>, having been closed */
+  public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (final Worker worker : workers) {
+      final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remaining > 0) {
+        worker.thread.join(remaining);
+      }
+      if (worker.thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** @return true if any lane not being run has tasks queued */
+  private boolean hasWork() {
+    for (final Lane lane : lanes) {
+      if (!lane.tasks.isEmpty() && !lane.running.get()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private final class Worker implements Runnable {
+    private final int index;
+    private final Thread thread;
+    private volatile boolean idle;
+
+    private Worker(final int index, final String name) {
+      this.index = index;
+      this.thread = new Thread(this, name);
+      this.thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        if (runHome() || steal()) {
+          continue;
+        }
+        if (shutdown && !hasWork()) {
+          return;
+        }
+        idle = true;
+        idleWorkers.add(this);
+        // recheck, as work may have been submitted before this worker was seen to be idle
+        if (!hasWork() && !shutdown) {
+          LockSupport.park(this);
+        }
+        idle = false;
+        idleWorkers.remove(this);
+      }
+    }
+
+    /** @return true if any task of this worker's lanes was run */
+    private boolean runHome() {
+      boolean result = false;
+      for (int lane = index; lane < lanes.length; lane += workers.length) {
+        result |= run(lanes[lane]);
+      }
+      return result;
+    }
+
+    /** @return true if any task of another worker's lanes was run */
+    private boolean steal() {
+      for (int i = 1; i < lanes.length; i++) {
+        final int lane = (index + i) % lanes.length;
+        if (lane % workers.length != index && run(lanes[lane])) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** @return true if any task of the <code>lane</code> was run, having claimed it */
+    private boolean run(final Lane lane) {
+      if (lane.tasks.isEmpty() || !lane.running.compareAndSet(false, true)) {
+        return false;
+      }
+      int count = 0;
+      try {
+        for (Runnable task = lane.tasks.poll(); task != null; task = count < BATCH ? lane.tasks.poll() : null) {
+          count++;
+          try {
+            task.run();
+          } catch (final RuntimeException e) {
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+          }
+        }
+      } finally {
+        lane.running.set(false);
+      }
+      return count > 0;
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import org.nulleins.formats.iso8583.Message;
+
+
+/** Call-back interface to which the messages processed by an {@link OrderedMessageProcessor}
+  * are passed, in the order submitted for each key
+  * @author phillipsr */
+public interface MessageConsumer {
+
+  /** process the <code>message</code> parsed */
+  void accept(Message message);
+
+  /** the message <code>data</code> could not be parsed */
+  void failed(byte[] data, Exception cause);
+}
@@ -0,0 +1,327 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.io.MessageLayout;
+import org.nulleins.formats.iso8583.types.CharTable;
+import org.nulleins.formats.iso8583.types.ContentType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/** Queue of message data, scheduling messages by their class of priority, so that (e.g.)
+  * network management messages and reversals are not held behind a flood of financial requests
+  * when a node is saturated:
+  * <pre>
+  *   final MessageScheduler scheduler = MessageScheduler.Builder()
+  *       .factory(factory)
+  *       .priorityClass("network", 8, "08xx")
+  *       .priorityClass("reversal", 4, "04xx")
+  *       .defaultClass("financial", 1)
+  *       .maxWait(100, TimeUnit.MILLISECONDS)
+  *       .build();
+  * </pre>
+  * Each message is classified by the MTI read from the bytes following the factory's header,
+  * without parsing the message, matched against the MTI patterns of each class in turn (digits,
+  * or 'x' to match any digit); messages not matched, or without a valid MTI, are of the default
+  * class
+  * <p/>
+  * Each class has its own bounded queue; messages are taken from the classes in proportion to
+  * their weights (by smooth weighted round-robin over the classes with messages queued), so that
+  * every class with messages queued is served; the weight of a class whose oldest message has
+  * waited longer than the maximum wait is boosted, by its own weight for each maximum wait, up to
+  * four times its weight, so that a class behind on its share catches up, without overriding the
+  * priority of the other classes when all are behind (as under saturation)
+  * @author phillipsr */
+public final class MessageScheduler {
+  /** the maximum boost of the weight of a class whose messages have waited, in multiples of its weight */
+  private static final int MAX_BOOST = 3;
+
+  private final int headerSize;
+  private final ContentType contentType;
+  private final CharTable chars;
+  private final PriorityClass[] classes;
+  private final int capacity;
+  private final long maxWait;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private int size;
+
+  /** a class of messages, with its MTI patterns (digit values and masks) and queue */
+  private static final class PriorityClass {
+    private final String name;
+    private final int weight;
+    private final int[] values;
+    private final int[] masks;
+    private final Queue<Entry> queue = new ArrayDeque<>();
+    private long current;
+
+    private PriorityClass(final String name, final int weight, final String[] patterns) {
+      this.name = name;
+      this.weight = weight;
+      values = new int[patterns.length];
+      masks = new int[patterns.length];
+      for (int i = 0; i < patterns.length; i++) {
+        final String pattern = patterns[i];
+        Preconditions.checkArgument(pattern != null && pattern.length() == 4, "MTI pattern must be four characters");
+        for (int digit = 0; digit < 4; digit++) {
+          final char c = pattern.charAt(digit);
+          Preconditions.checkArgument(c == 'x' || (c >= '0' && c <= '9'), "Invalid MTI pattern: " + pattern);
+          values[i] = values[i] << 4 | (c == 'x' ? 0 : c - '0');
+          masks[i] = masks[i] << 4 | (c == 'x' ? 0 : 0x0f);
+        }
+      }
+    }
+
+    private boolean matches(final int code) {
+      for (int i = 0; i < values.length; i++) {
+        if ((code & masks[i]) == values[i]) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Entry {
+    private final byte[] data;
+    private final long queued;
+
+    private Entry(final byte[] data, final long queued) {
+      this.data = data;
+      this.queued = queued;
+    }
+  }
+
+  private MessageScheduler(final Builder builder) {
+    headerSize = builder.factory.getCharset().getBytes(builder.factory.getHeader()).length;
+    contentType = builder.factory.getContentType();
+    chars = new CharTable(builder.factory.getCharset());
+    final List<PriorityClass> all = new ArrayList<>(builder.classes);
+    all.add(new PriorityClass(builder.defaultName, builder.defaultWeight, new String[0]));
+    classes = all.toArray(new PriorityClass[all.size()]);
+    capacity = builder.capacity;
+    maxWait = builder.maxWait;
+  }
+
+  /** queue the message <code>data</code> in its class, if the class's queue is not full
+    * @return true if the message was queued */
+  public boolean offer(final byte[] data) {
+    Preconditions.checkNotNull(data, "Message data cannot be null");
+    final PriorityClass target = classify(data, 0);
+    lock.lock();
+    try {
+      if (target.queue.size() >= capacity) {
+        return false;
+      }
+      target.queue.add(new Entry(data, System.nanoTime()));
+      size++;
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the next message scheduled, or null if none is queued */
+  public byte[] poll() {
+    lock.lock();
+    try {
+      return size > 0 ? next() : null;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the next message scheduled, waiting up to <code>timeout</code> for one to be queued,
+    * or null if none was */
+  public byte[] poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+    long remaining = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        if (remaining <= 0) {
+          return null;
+        }
+        remaining = notEmpty.awaitNanos(remaining);
+      }
+      return next();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the next message scheduled, waiting for one to be queued */
+  public byte[] take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        notEmpty.await();
+      }
+      return next();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the name of the class of the message <code>data</code> at <code>offset</code> */
+  public String classOf(final byte[] data, final int offset) {
+    return classify(data, offset).name;
+  }
+
+  /** @return the number of messages queued */
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the number of messages queued in the class <code>name</code>
+    * @throws IllegalArgumentException if no class has the name */
+  public int size(final String name) {
+    lock.lock();
+    try {
+      for (final PriorityClass each : classes) {
+        if (each.name.equals(name)) {
+          return each.queue.size();
+        }
+      }
+      throw new IllegalArgumentException("No priority class named " + name);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** @return the class whose patterns match the MTI of the message <code>data</code> */
+  private PriorityClass classify(final byte[] data, final int offset) {
+    final int code = mtiCode(data, offset + headerSize);
+    if (code >= 0) {
+      for (int i = 0; i < classes.length - 1; i++) {
+        if (classes[i].matches(code)) {
+          return classes[i];
+        }
+      }
+    }
+    return classes[classes.length - 1];
+  }
+
+  /** @return the MTI at <code>pos</code> in <code>data</code>, as four BCD digits, or -1 if invalid */
+  private int mtiCode(final byte[] data, final int pos) {
+    if (data.length - pos < MessageLayout.mtiSize(contentType)) {
+      return -1;
+    }
+    if (contentType == ContentType.TEXT) {
+      int result = 0;
+      for (int i = 0; i < 4; i++) {
+        final int digit = chars.digit(data[pos + i]);
+        if (digit < 0) {
+          return -1;
+        }
+        result = result << 4 | digit;
+      }
+      return result;
+    }
+    final int result = (data[pos] & 0xff) << 8 | data[pos + 1] & 0xff;
+    for (int shift = 0; shift < 16; shift += 4) {
+      if ((result >> shift & 0x0f) > 9) {
+        return -1;
+      }
+    }
+    return result;
+  }
+
+  /** @return the data of the message at the head of the class chosen by weighted round-robin,
+    * with the weights of classes whose heads have waited beyond the maximum boosted;
+    * called holding the lock, with messages queued */
+  private byte[] next() {
+    final long now = System.nanoTime();
+    PriorityClass chosen = null;
+    long total = 0;
+    for (final PriorityClass each : classes) {
+      final Entry head = each.queue.peek();
+      if (head != null) {
+        final long weight = each.weight * (1 + boost(now - head.queued));
+        each.current += weight;
+        total += weight;
+        if (chosen == null || each.current > chosen.current) {
+          chosen = each;
+        }
+      }
+    }
+    chosen.current -= total;
+    size--;
+    return chosen.queue.poll().data;
+  }
+
+  /** @return the boost of the weight of a class whose head has <code>waited</code> nanoseconds:
+    * one for each maximum wait exceeded, up to {@link #MAX_BOOST} */
+  private long boost(final long waited) {
+    if (waited <= maxWait) {
+      return 0;
+    }
+    return maxWait == 0 ? MAX_BOOST : Math.min(waited / maxWait, MAX_BOOST);
+  }
+
+  public static Builder Builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private MessageFactory factory;
+    private final List<PriorityClass> classes = new ArrayList<>();
+    private String defaultName = "default";
+    private int defaultWeight = 1;
+    private int capacity = 1024;
+    private long maxWait = TimeUnit.SECONDS.toNanos(1);
+
+    public Builder factory(final MessageFactory factory) {
+      this.factory = factory;
+      return this;
+    }
+
+    /** the capacity of the queue of each class (default: 1024) */
+    public Builder capacity(final int capacity) {
+      this.capacity = capacity;
+      return this;
+    }
+
+    /** add a class, <code>name</code>, of the messages whose MTI matches any of the <code>patterns</code>
+      * (e.g., "08xx"), and not those of a class previously added, taken in proportion to its <code>weight</code> */
+    public Builder priorityClass(final String name, final int weight, final String... patterns) {
+      Preconditions.checkArgument(name != null && weight > 0, "Priority class requires a name and positive weight");
+      classes.add(new PriorityClass(name, weight, patterns));
+      return this;
+    }
+
+    /** the class of the messages not matched by any other (default: "default", with a weight of 1) */
+    public Builder defaultClass(final String name, final int weight) {
+      Preconditions.checkArgument(name != null && weight > 0, "Priority class requires a name and positive weight");
+      this.defaultName = name;
+      this.defaultWeight = weight;
+      return this;
+    }
+
+    /** boost the weight of a class whose oldest message has waited longer than <code>maxWait</code>
+      * (default: one second) */
+    public Builder maxWait(final long maxWait, final TimeUnit unit) {
+      this.maxWait = unit.toNanos(maxWait);
+      return this;
+    }
+
+    public MessageScheduler build() {
+      Preconditions.checkNotNull(factory, "Message factory is required");
+      Preconditions.checkArgument(capacity > 0, "Capacity must be positive");
+      Preconditions.checkArgument(maxWait >= 0, "Maximum wait cannot be negative");
+      return new MessageScheduler(this);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.correlation.CorrelationKeys;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+
+/** Parses and processes messages in parallel on a {@link KeyOrderedExecutor}, keyed by the values
+  * of a set of fields (e.g., the terminal ID, 41, or PAN, 2), so that the messages with the same
+  * key are parsed and processed in the order submitted (e.g., a reversal after its authorization):
+  * <pre>
+  *   final OrderedMessageProcessor processor = new OrderedMessageProcessor(factory, executor, 41);
+  *   ...
+  *   processor.submit(data, consumer);
+  * </pre>
+  * The key of each message is read from its data on submission, without parsing the message
+  * @author phillipsr */
+public final class OrderedMessageProcessor {
+  private final MessageFactory factory;
+  private final KeyOrderedExecutor executor;
+  private final CorrelationKeys keys;
+
+  /** Create a processor of messages of the <code>factory</code>, run on the <code>executor</code>,
+    * keyed by the values of the <code>keyFields</code> */
+  public OrderedMessageProcessor(final MessageFactory factory, final KeyOrderedExecutor executor, final int... keyFields) {
+    Preconditions.checkNotNull(executor, "Executor cannot be null");
+    this.factory = factory;
+    this.executor = executor;
+    this.keys = new CorrelationKeys(factory, keyFields);
+  }
+
+  /** parse the message <code>data</code> and pass the message to the <code>consumer</code>, after
+    * the messages previously submitted with the same key; data that is not a well-formed message
+    * has no key, and is passed to the consumer's <code>failed</code> method in the first lane
+    * @throws java.util.concurrent.RejectedExecutionException if the executor has been closed */
+  public void submit(final byte[] data, final MessageConsumer consumer) {
+    Preconditions.checkNotNull(data, "Message data cannot be null");
+    Preconditions.checkNotNull(consumer, "Consumer cannot be null");
+    executor.execute(keys.of(ByteBuffer.wrap(data), 0), new Runnable() {
+      @Override
+      public void run() {
+        final Message message;
+        try {
+          message = factory.parse(data);
+        } catch (final ParseException | IOException | RuntimeException e) {
+          consumer.failed(data, e);
+          return;
+        }
+        consumer.accept(message);
+      }
+    });
+  }
+}
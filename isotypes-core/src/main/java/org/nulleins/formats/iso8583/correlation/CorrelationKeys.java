@@ -0,0 +1,75 @@
+package org.nulleins.formats.iso8583.correlation;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.flyweight.MessageFlyweight;
+
+import java.nio.ByteBuffer;
+
+
+/** Extracts the key correlating a request with its response from the values of a set of fields
+  * (e.g., STAN, RRN and terminal ID), as formatted in the message: from a message instance, by
+  * formatting only those fields; from message data, by reading only those fields, without
+  * parsing the message; this class is thread-safe
+  * @author phillipsr */
+public final class CorrelationKeys {
+  /** separates the field values in a key */
+  private static final char SEPARATOR = '\u001f';
+  private final MessageFactory factory;
+  private final int[] fields;
+  private final ThreadLocal<MessageFlyweight> readers = new ThreadLocal<MessageFlyweight>() {
+    @Override
+    protected MessageFlyweight initialValue() {
+      return new MessageFlyweight(factory);
+    }
+  };
+
+  /** Create a key extractor for messages of <code>factory</code>, from the <code>fields</code> specified */
+  public CorrelationKeys(final MessageFactory factory, final int... fields) {
+    Preconditions.checkNotNull(factory, "Message factory cannot be null");
+    Preconditions.checkArgument(fields.length > 0, "Correlation key requires at least one field");
+    this.factory = factory;
+    this.fields = fields.clone();
+  }
+
+  /** @return the correlation key of the <code>message</code> */
+  public String of(final Message message) {
+    final MessageTemplate template = factory.getTemplate(message.getMTI());
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        result.append(SEPARATOR);
+      }
+      final FieldTemplate field = template.getFields().get(fields[i]);
+      final Optional<Object> value = message.getFields().get(fields[i]);
+      if (field != null && value != null && value.isPresent()) {
+        // formatters render in the platform charset (see FieldTemplate.format), not the factory's
+        result.append(new String(field.format(value.get(), template.getFormatter(field.getType()))).trim());
+      }
+    }
+    return result.toString();
+  }
+
+  /** @return the correlation key of the message at <code>offset</code> in <code>buffer</code>,
+    * or null if it is not a well-formed message of the factory */
+  public String of(final ByteBuffer buffer, final int offset) {
+    final MessageFlyweight reader = readers.get();
+    if (!reader.wrap(buffer, offset)) {
+      return null;
+    }
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        result.append(SEPARATOR);
+      }
+      if (reader.hasField(fields[i])) {
+        result.append(reader.getCharSequence(fields[i]));
+      }
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,199 @@
+package org.nulleins.formats.iso8583.correlation;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/** Correlates outbound requests with their responses: each request registered is held, keyed by
+  * the values of its correlation fields (by default, STAN, RRN and terminal ID), until the response
+  * with the same key completes it, or its timeout expires:
+  * <pre>
+  *   final ListenableFuture&lt;Message&gt; response = correlator.register(request);
+  *   connection.send(request);
+  *   ...
+  *   // on receipt of a message
+  *   correlator.complete(data);
+  * </pre>
+  * Pending requests are held in a concurrent map, and their timeouts in a {@link HashedWheelTimer},
+  * so that registration, completion and expiry are O(1); on expiry, a request's future fails
+  * with a {@link TimeoutException}, and, if configured, its reversal is transformed from the
+  * request and passed to the {@link ReversalHandler}
+  * @author phillipsr */
+public final class Correlator implements Closeable {
+  private final MessageFactory factory;
+  private final CorrelationKeys keys;
+  private final HashedWheelTimer timer;
+  private final boolean ownTimer;
+  private final long timeout;
+  private final Optional<MTI> reversalType;
+  private final ReversalHandler reversalHandler;
+  private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<>();
+
+  /** a request awaiting its response, expired by its timeout */
+  private final class Pending implements Runnable {
+    private final String key;
+    private final Message request;
+    private final SettableFuture<Message> future = SettableFuture.create();
+    private HashedWheelTimer.Timeout expiry;
+
+    private Pending(final String key, final Message request) {
+      this.key = key;
+      this.request = request;
+    }
+
+    @Override
+    public void run() {
+      pending.remove(key, this);
+      if (future.setException(new TimeoutException("No response to " + request.getMTI() + " [" + key + "]"))
+          && reversalType.isPresent()) {
+        reversalHandler.reverse(request, factory.transform(reversalType.get(), request, new HashMap<String, Object>()));
+      }
+    }
+  }
+
+  private Correlator(final Builder builder) {
+    this.factory = builder.factory;
+    this.keys = new CorrelationKeys(builder.factory, builder.keyFields);
+    this.ownTimer = builder.timer == null;
+    this.timer = ownTimer ? new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 1024) : builder.timer;
+    this.timeout = builder.timeout;
+    this.reversalType = Optional.fromNullable(builder.reversalType);
+    this.reversalHandler = builder.reversalHandler;
+  }
+
+  /** @return the future response to the <code>request</code>, which fails with a
+    * {@link TimeoutException} if no response is received within the timeout, or with an
+    * {@link IllegalStateException} if a request with the same key is already pending */
+  public ListenableFuture<Message> register(final Message request) {
+    final String key = keys.of(request);
+    final Pending entry = new Pending(key, request);
+    entry.expiry = timer.schedule(entry, timeout, TimeUnit.NANOSECONDS);
+    if (pending.putIfAbsent(key, entry) != null) {
+      entry.expiry.cancel();
+      return Futures.immediateFailedFuture(new IllegalStateException("Request already pending for key [" + key + "]"));
+    }
+    if (entry.future.isDone()) {
+      // expired before it was added
+      pending.remove(key, entry);
+    }
+    return entry.future;
+  }
+
+  /** complete the pending request correlated with the response message <code>data</code>
+    * @return true if the response completed a pending request, false if it is not well-formed,
+    * or there is no pending request with its key (e.g., having timed out) */
+  public boolean complete(final byte[] data) {
+    final String key = keys.of(ByteBuffer.wrap(data), 0);
+    final Pending entry = key != null ? remove(key) : null;
+    if (entry == null) {
+      return false;
+    }
+    try {
+      entry.future.set(factory.parse(data));
+    } catch (final ParseException | IOException | RuntimeException e) {
+      entry.future.setException(e);
+    }
+    return true;
+  }
+
+  /** complete the pending request correlated with the <code>response</code>
+    * @return true if the response completed a pending request */
+  public boolean complete(final Message response) {
+    final Pending entry = remove(keys.of(response));
+    return entry != null && entry.future.set(response);
+  }
+
+  /** @return the number of requests awaiting responses */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /** cancel the pending requests, stopping the timer if not supplied */
+  @Override
+  public void close() {
+    for (final Pending entry : pending.values()) {
+      if (pending.remove(entry.key, entry)) {
+        entry.expiry.cancel();
+        entry.future.cancel(false);
+      }
+    }
+    if (ownTimer) {
+      timer.close();
+    }
+  }
+
+  private Pending remove(final String key) {
+    final Pending entry = pending.remove(key);
+    if (entry != null) {
+      entry.expiry.cancel();
+    }
+    return entry;
+  }
+
+  public static Builder Builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private MessageFactory factory;
+    private int[] keyFields = {11, 37, 41};
+    private long timeout = TimeUnit.SECONDS.toNanos(30);
+    private HashedWheelTimer timer;
+    private MTI reversalType;
+    private ReversalHandler reversalHandler;
+
+    public Builder factory(final MessageFactory factory) {
+      this.factory = factory;
+      return this;
+    }
+
+    /** correlate requests and responses by the values of <code>fields</code> (default: 11, 37, 41) */
+    public Builder keyFields(final int... fields) {
+      this.keyFields = fields;
+      return this;
+    }
+
+    public Builder timeout(final long timeout, final TimeUnit unit) {
+      this.timeout = unit.toNanos(timeout);
+      return this;
+    }
+
+    /** expire requests with <code>timer</code>, which may be shared; by default, the correlator
+      * creates its own timer, with a 10ms tick */
+    public Builder timer(final HashedWheelTimer timer) {
+      this.timer = timer;
+      return this;
+    }
+
+    /** on expiry of a request, transform it to a message of <code>type</code>, and pass it to the <code>handler</code> */
+    public Builder reversal(final MTI type, final ReversalHandler handler) {
+      this.reversalType = type;
+      this.reversalHandler = handler;
+      return this;
+    }
+
+    public Correlator build() {
+      Preconditions.checkNotNull(factory, "Message factory is required");
+      Preconditions.checkArgument(timeout > 0, "Timeout must be positive");
+      Preconditions.checkArgument(reversalType == null || (reversalHandler != null && factory.canBuild(reversalType)),
+          "Reversal requires a handler, and a message type defined by the factory");
+      return new Correlator(this);
+    }
+  }
+}
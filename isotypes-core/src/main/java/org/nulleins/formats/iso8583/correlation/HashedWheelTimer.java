@@ -0,0 +1,217 @@
+package org.nulleins.formats.iso8583.correlation;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+
+/** Timer for large numbers of short timeouts, most of which are cancelled before they expire (such
+  * as request timeouts): timeouts are held in a wheel of buckets, each of the timeouts due in one
+  * tick (modulo the wheel's revolution), so that scheduling, cancelling and expiring a timeout are
+  * O(1), at the cost of timeouts expiring up to one tick late
+  * <p/>
+  * Timeouts are scheduled and cancelled from any thread through lock-free queues, and are moved to
+  * and from the wheel, and expired, by the timer's thread, which runs the tasks of expired timeouts:
+  * tasks should therefore be short, handing off any lengthy work
+  * @author phillipsr */
+public final class HashedWheelTimer implements Closeable {
+  /** maximum number of new timeouts moved to the wheel in one tick, to bound a tick's latency */
+  private static final int TRANSFER_LIMIT = 100000;
+  private static final AtomicInteger timers = new AtomicInteger();
+
+  private final long tickNanos;
+  private final Timeout[] wheel;
+  private final int mask;
+  private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+  private final long start = System.nanoTime();
+  private final Thread worker;
+  private volatile boolean open = true;
+  /** ticks elapsed, accessed only by the worker */
+  private long tick;
+
+  /** A task scheduled to run once its delay has elapsed, unless cancelled */
+  public static final class Timeout {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final HashedWheelTimer timer;
+    private final Runnable task;
+    /** due time, in nanoseconds from the start of the timer */
+    private final long deadline;
+    private volatile int state = PENDING;
+    // accessed only by the worker
+    private long rounds;
+    private int bucket = -1;
+    private Timeout next;
+    private Timeout previous;
+
+    private Timeout(final HashedWheelTimer timer, final Runnable task, final long deadline) {
+      this.timer = timer;
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /** cancel the timeout, if it has not expired
+      * @return true if cancelled, false if already cancelled or expired */
+    public boolean cancel() {
+      if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+        return false;
+      }
+      timer.cancelled.add(this);
+      return true;
+    }
+
+    public boolean isCancelled() {
+      return state == CANCELLED;
+    }
+
+    public boolean isExpired() {
+      return state == EXPIRED;
+    }
+  }
+
+  /** Create a timer with a wheel of (at least) <code>ticksPerWheel</code> buckets, advancing every
+    * <code>tickDuration</code>: the duration determines the precision of the timeouts, and the
+    * wheel's revolution should be at least as long as the typical timeout */
+  public HashedWheelTimer(final long tickDuration, final TimeUnit unit, final int ticksPerWheel) {
+    Preconditions.checkArgument(tickDuration > 0, "Tick duration must be positive");
+    Preconditions.checkArgument(ticksPerWheel > 0 && ticksPerWheel <= 1 << 30, "Ticks per wheel out of range");
+    tickNanos = unit.toNanos(tickDuration);
+    int size = 1;
+    while (size < ticksPerWheel) {
+      size <<= 1;
+    }
+    wheel = new Timeout[size];
+    mask = wheel.length - 1;
+    worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        work();
+      }
+    }, "isotypes-timer-" + timers.incrementAndGet());
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /** @return the timeout that will run <code>task</code> on the timer's thread after <code>delay</code>
+    * @throws IllegalStateException if the timer has been closed */
+  public Timeout schedule(final Runnable task, final long delay, final TimeUnit unit) {
+    Preconditions.checkNotNull(task, "Task cannot be null");
+    Preconditions.checkState(open, "Timer has been closed");
+    final Timeout timeout = new Timeout(this, task, System.nanoTime() - start + unit.toNanos(Math.max(delay, 0)));
+    scheduled.add(timeout);
+    return timeout;
+  }
+
+  /** stop the timer: timeouts that have not expired will not be run */
+  @Override
+  public void close() {
+    open = false;
+    worker.interrupt();
+  }
+
+  private void work() {
+    while (open) {
+      final long deadline = waitForTick();
+      if (deadline < 0) {
+        break;
+      }
+      removeCancelled();
+      transferScheduled();
+      expire(wheel[(int) (tick & mask)], deadline);
+      tick++;
+    }
+  }
+
+  /** @return the time of the next tick, from the start of the timer, having waited for it,
+    * or -1 if interrupted by closing */
+  private long waitForTick() {
+    final long deadline = tickNanos * (tick + 1);
+    for (long wait = deadline - (System.nanoTime() - start); wait > 0; wait = deadline - (System.nanoTime() - start)) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      } catch (final InterruptedException e) {
+        if (!open) {
+          return -1;
+        }
+      }
+    }
+    return deadline;
+  }
+
+  private void transferScheduled() {
+    for (int i = 0; i < TRANSFER_LIMIT; i++) {
+      final Timeout timeout = scheduled.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.isCancelled()) {
+        continue;
+      }
+      final long due = timeout.deadline / tickNanos;
+      timeout.rounds = (due - tick) / wheel.length;
+      add(timeout, (int) (Math.max(due, tick) & mask));
+    }
+  }
+
+  private void removeCancelled() {
+    for (Timeout timeout = cancelled.poll(); timeout != null; timeout = cancelled.poll()) {
+      if (timeout.bucket >= 0) {
+        remove(timeout);
+      }
+    }
+  }
+
+  /** expire the timeouts in the <code>bucket</code> due in this round of the wheel */
+  private void expire(final Timeout bucket, final long deadline) {
+    Timeout timeout = bucket;
+    while (timeout != null) {
+      final Timeout next = timeout.next;
+      if (timeout.rounds > 0) {
+        timeout.rounds--;
+      } else if (timeout.deadline <= deadline) {
+        remove(timeout);
+        if (Timeout.STATE.compareAndSet(timeout, Timeout.PENDING, Timeout.EXPIRED)) {
+          try {
+            timeout.task.run();
+          } catch (final RuntimeException e) {
+            // a failing task must not stop the timer: the task is responsible for its own errors
+          }
+        }
+      }
+      timeout = next;
+    }
+  }
+
+  private void add(final Timeout timeout, final int bucket) {
+    timeout.bucket = bucket;
+    timeout.next = wheel[bucket];
+    if (wheel[bucket] != null) {
+      wheel[bucket].previous = timeout;
+    }
+    wheel[bucket] = timeout;
+  }
+
+  private void remove(final Timeout timeout) {
+    if (timeout.previous != null) {
+      timeout.previous.next = timeout.next;
+    } else {
+      wheel[timeout.bucket] = timeout.next;
+    }
+    if (timeout.next != null) {
+      timeout.next.previous = timeout.previous;
+    }
+    timeout.bucket = -1;
+    timeout.next = null;
+    timeout.previous = null;
+  }
+}
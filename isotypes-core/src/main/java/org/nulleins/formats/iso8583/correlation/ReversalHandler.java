@@ -0,0 +1,14 @@
+package org.nulleins.formats.iso8583.correlation;
+
+import org.nulleins.formats.iso8583.Message;
+
+
+/** Call-back interface through which the reversals of requests that have timed out are
+  * issued; called on the timer's thread, so should hand off any lengthy work
+  * @author phillipsr */
+public interface ReversalHandler {
+
+  /** the <code>request</code> has timed out: the <code>reversal</code> (transformed from the
+    * request) should be sent */
+  void reverse(Message request, Message reversal);
+}
@@ -0,0 +1,177 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.io.MessageLayout;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharTable;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+import org.nulleins.formats.iso8583.types.FieldType;
+
+import java.nio.ByteBuffer;
+
+
+/** Writes field values (with any length prefix) directly into a buffer, encoded and padded as
+  * the message writers would, for the flyweight encoder and patcher
+  * @author phillipsr */
+final class FieldWriter {
+  private final ContentType contentType;
+  private final CharTable chars;
+  private final StringBuilder digits = new StringBuilder(20);
+
+  FieldWriter(final ContentType contentType, final CharTable chars) {
+    this.contentType = contentType;
+    this.chars = chars;
+  }
+
+  /** write <code>value</code> as the value of numeric (n, xn, date, time or exdate) <code>field</code>
+    * at <code>position</code> in <code>buffer</code>
+    * @return the position following the value written */
+  int putLong(final FieldTemplate field, final long value, final ByteBuffer buffer, final int position) {
+    Preconditions.checkArgument(MessageLayout.isBcdNumeric(field.getType()), "Field is not numeric");
+    Preconditions.checkArgument(value != Long.MIN_VALUE, "Value out of range");
+    digits.setLength(0);
+    digits.append(Math.abs(value));
+    return putNumber(field, value < 0, digits, 0, buffer, position);
+  }
+
+  /** write <code>value</code> as the value of <code>field</code> at <code>position</code> in
+    * <code>buffer</code>; the value of a numeric field must be its digits, preceded by C or D if
+    * signed (or - if negative)
+    * @return the position following the value written */
+  int putChars(final FieldTemplate field, final CharSequence value, final ByteBuffer buffer, final int position) {
+    Preconditions.checkNotNull(value, "Value cannot be null");
+    final String type = field.getType();
+    if (MessageLayout.isBcdNumeric(type)) {
+      final char sign = value.length() > 0 ? Character.toUpperCase(value.charAt(0)) : 0;
+      final boolean negative = sign == 'D' || sign == '-';
+      return putNumber(field, negative, value, negative || sign == 'C' || sign == '+' ? 1 : 0, buffer, position);
+    }
+    Preconditions.checkArgument(contentType == ContentType.TEXT || !type.equals(FieldType.TRACKDATA),
+        "Track data not supported for BCD content");
+    final Dimension dimension = field.getDimension();
+    final int length = value.length();
+    Preconditions.checkArgument(length <= dimension.getLength(), "Value exceeds field length");
+    int pos = position;
+    if (dimension.getType() == Dimension.Type.VARIABLE) {
+      pos = putPrefix(dimension.getVSize(), length, buffer, pos);
+    }
+    for (int i = 0; i < length; i++) {
+      buffer.put(pos++, chars.toByte(value.charAt(i)));
+    }
+    if (dimension.getType() == Dimension.Type.FIXED) {
+      final byte space = chars.toByte(' ');
+      for (int i = length; i < dimension.getLength(); i++) {
+        buffer.put(pos++, space);
+      }
+    }
+    return pos;
+  }
+
+  /** write a 64-bit bitmap <code>word</code>, as 8 bytes if binary or 16 (upper case) hex
+    * digits, at <code>position</code> in <code>buffer</code>
+    * @return the position following the bitmap written */
+  int putBitmap(final long word, final BitmapType bitmapType, final ByteBuffer buffer, final int position) {
+    int pos = position;
+    if (bitmapType == BitmapType.BINARY) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer.put(pos++, (byte) (word >>> shift));
+      }
+    } else {
+      for (int shift = 60; shift >= 0; shift -= 4) {
+        buffer.put(pos++, chars.digitByte((int) (word >>> shift) & 0x0f));
+      }
+    }
+    return pos;
+  }
+
+  /** @return the number of bytes holding the length prefix of <code>field</code> (zero if fixed) */
+  int prefixSize(final FieldTemplate field) {
+    final Dimension dimension = field.getDimension();
+    return dimension.getType() == Dimension.Type.FIXED ? 0 : MessageLayout.prefixSize(contentType, dimension.getVSize());
+  }
+
+  /** write the digits of <code>value</code> from <code>start</code>, zero-padded to the field
+    * length if fixed, preceded by the sign if the field is signed */
+  private int putNumber(final FieldTemplate field, final boolean negative, final CharSequence value, final int start,
+                        final ByteBuffer buffer, final int position) {
+    final boolean signed = field.getType().equals(FieldType.NUMSIGNED);
+    Preconditions.checkArgument(signed || !negative, "Negative value for unsigned field");
+    final int count = value.length() - start;
+    Preconditions.checkArgument(count > 0, "Numeric value required");
+    for (int i = start; i < value.length(); i++) {
+      final char digit = value.charAt(i);
+      Preconditions.checkArgument(digit >= '0' && digit <= '9', "Numeric value required");
+    }
+    final Dimension dimension = field.getDimension();
+    final int sign = signed ? 1 : 0;
+    final boolean fixed = dimension.getType() == Dimension.Type.FIXED;
+    // number of digits in the field, less the sign (if any):
+    final int width = fixed ? dimension.getLength() - sign : count;
+    Preconditions.checkArgument(count <= dimension.getLength() - sign, "Value exceeds field length");
+    int pos = position;
+    if (contentType == ContentType.TEXT) {
+      if (!fixed) {
+        pos = putPrefix(dimension.getVSize(), width + sign, buffer, pos);
+      }
+      if (signed) {
+        buffer.put(pos++, chars.toByte(negative ? 'D' : 'C'));
+      }
+      final byte zero = chars.digitByte(0);
+      for (int i = count; i < width; i++) {
+        buffer.put(pos++, zero);
+      }
+      for (int i = start; i < value.length(); i++) {
+        buffer.put(pos++, chars.digitByte(value.charAt(i) - '0'));
+      }
+      return pos;
+    }
+    final int size = fixed ? dimension.getLength() : (width + sign + 1) & ~1;
+    if (!fixed) {
+      pos = putPrefix(dimension.getVSize(), size, buffer, pos);
+    }
+    int nibbles = 2 * MessageLayout.encodedSize(contentType, field.getType(), size);
+    if (signed) {
+      buffer.put(pos++, (byte) (negative ? 0x0d : 0x0c));
+      nibbles -= 2;
+    }
+    Preconditions.checkArgument(count <= nibbles, "Value exceeds field length");
+    // right-align the digits in the packed bytes, padding with leading zero nibbles
+    for (int nibble = 0; nibble < nibbles; nibble += 2) {
+      final int high = digitAt(value, start, nibbles - count, nibble);
+      final int low = digitAt(value, start, nibbles - count, nibble + 1);
+      buffer.put(pos++, (byte) (high << 4 | low));
+    }
+    return pos;
+  }
+
+  private static int digitAt(final CharSequence value, final int start, final int padding, final int nibble) {
+    return nibble < padding ? 0 : value.charAt(start + nibble - padding) - '0';
+  }
+
+  /** write the length of a variable field, as <code>vsize</code> digits, or packed in BCD */
+  private int putPrefix(final int vsize, final int length, final ByteBuffer buffer, final int position) {
+    int pos = position;
+    if (contentType == ContentType.TEXT) {
+      int divisor = 1;
+      for (int i = 1; i < vsize; i++) {
+        divisor *= 10;
+      }
+      for (; divisor > 0; divisor /= 10) {
+        buffer.put(pos++, chars.digitByte(length / divisor % 10));
+      }
+      return pos;
+    }
+    final int bytes = MessageLayout.prefixSize(contentType, vsize);
+    for (int i = bytes - 1; i >= 0; i--) {
+      int value = length;
+      for (int j = 0; j < i; j++) {
+        value /= 100;
+      }
+      value %= 100;
+      buffer.put(pos++, (byte) ((value / 10) << 4 | value % 10));
+    }
+    return pos;
+  }
+}
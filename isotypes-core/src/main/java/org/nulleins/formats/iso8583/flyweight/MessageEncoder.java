@@ -0,0 +1,166 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharTable;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.nio.ByteBuffer;
+
+
+/** Zero-allocation encoder, the companion of {@link MessageFlyweight}, writing a message
+  * directly into a buffer: after {@link #wrap(ByteBuffer, int, MTI)} writes the header and MTI,
+  * field values are written in ascending field number (bitmap) order, and {@link #finish()}
+  * writes the bitmap of the fields written:
+  * <pre>
+  *   final MessageEncoder encoder = new MessageEncoder(factory);
+  *   ...
+  *   final int length = encoder.wrap(buffer, 0, MTI.create(0x0200))
+  *       .putChars(2, pan)
+  *       .putLong(4, amount)
+  *       ...
+  *       .finish();
+  * </pre>
+  * The message layout is defined by the factory's templates, and the data written is that
+  * written by {@link MessageFactory#writeToStream} for the same values; values are encoded
+  * directly as digits or characters, padded as the formatters would, but are not otherwise
+  * validated, and template default and auto-generated values are not applied. An encoder may
+  * be reused for any number of messages, but is not thread-safe
+  * @author phillipsr */
+public final class MessageEncoder {
+  private final ContentType contentType;
+  private final BitmapType bitmapType;
+  private final CharTable chars;
+  private final FieldWriter writer;
+  private final byte[] header;
+  private final TemplateLayout[] layouts;
+
+  private ByteBuffer buffer;
+  private int offset;
+  private int bitmapPosition;
+  private int position;
+  private TemplateLayout layout;
+  private int lastField;
+  private final long[] bitmap = new long[TemplateLayout.BITMAP_WORDS];
+
+  /** Create an encoder to write messages defined by the templates of <code>factory</code> */
+  public MessageEncoder(final MessageFactory factory) {
+    Preconditions.checkNotNull(factory, "Message factory cannot be null");
+    contentType = factory.getContentType();
+    bitmapType = factory.getBitmapType();
+    chars = new CharTable(factory.getCharset());
+    writer = new FieldWriter(contentType, chars);
+    header = factory.getCharset().getBytes(factory.getHeader());
+    layouts = TemplateLayout.of(factory.getTemplates());
+  }
+
+  /** start writing a message of <code>type</code> at <code>offset</code> in <code>buffer</code>,
+    * writing its header and MTI, and reserving space for its bitmap
+    * @throws IllegalArgumentException if the type is not defined by the factory's templates */
+  public MessageEncoder wrap(final ByteBuffer buffer, final int offset, final MTI type) {
+    Preconditions.checkNotNull(buffer, "Buffer cannot be null");
+    final TemplateLayout found = TemplateLayout.find(layouts, type);
+    Preconditions.checkArgument(found != null, "Message type not defined");
+    this.buffer = buffer;
+    this.offset = offset;
+    this.layout = found;
+    this.lastField = 1;
+    for (int i = 0; i < TemplateLayout.BITMAP_WORDS; i++) {
+      bitmap[i] = 0;
+    }
+    position = offset;
+    for (final byte value : header) {
+      buffer.put(position++, value);
+    }
+    if (contentType == ContentType.TEXT) {
+      for (int shift = 12; shift >= 0; shift -= 4) {
+        buffer.put(position++, chars.digitByte(found.code >> shift & 0x0f));
+      }
+    } else {
+      buffer.put(position++, (byte) (found.code >> 8));
+      buffer.put(position++, (byte) found.code);
+    }
+    bitmapPosition = position;
+    position += found.extent * bitmapSize();
+    return this;
+  }
+
+  /** write the value of numeric (n, xn, date, time or exdate) field <code>number</code>
+    * @throws IllegalArgumentException if the field is not numeric, or the value is too long
+    * @throws IllegalStateException if the field is not defined, or does not follow those already written */
+  public MessageEncoder putLong(final int number, final long value) {
+    position = writer.putLong(next(number), value, buffer, position);
+    return this;
+  }
+
+  /** write the value of field <code>number</code>; the value of a numeric field must be its
+    * digits, preceded by C or D if signed (or - if negative)
+    * @throws IllegalArgumentException if the value is too long, or a numeric value is not numeric
+    * @throws IllegalStateException if the field is not defined, or does not follow those already written */
+  public MessageEncoder putChars(final int number, final CharSequence value) {
+    Preconditions.checkNotNull(value, "Value cannot be null");
+    position = writer.putChars(next(number), value, buffer, position);
+    return this;
+  }
+
+  /** write the <code>length</code> bytes at <code>position</code> in <code>source</code> as the
+    * encoded value (including any length prefix) of field <code>number</code>, as is */
+  MessageEncoder putEncoded(final int number, final ByteBuffer source, final int position, final int length) {
+    next(number);
+    for (int i = 0; i < length; i++) {
+      buffer.put(this.position++, source.get(position + i));
+    }
+    return this;
+  }
+
+  /** complete the message, writing the bitmap of the fields written
+    * @return the length of the message written, in bytes
+    * @throws IllegalStateException if a mandatory field of the template has not been written */
+  public int finish() {
+    Preconditions.checkState(layout != null, "Encoder is not wrapped over a buffer");
+    final int missing = layout.template.findMissingField(bitmap);
+    if (missing != 0) {
+      throw new IllegalStateException("Mandatory field #" + missing + " not set");
+    }
+    final int extent = bitmap[2] != 0 ? 3 : bitmap[1] != 0 ? 2 : 1;
+    if (extent > 1) {
+      bitmap[0] |= TemplateLayout.bit(1);
+    }
+    if (extent > 2) {
+      bitmap[1] |= TemplateLayout.bit(65);
+    }
+    final int unused = (layout.extent - extent) * bitmapSize();
+    if (unused > 0) {
+      final int body = bitmapPosition + layout.extent * bitmapSize();
+      for (int i = body; i < position; i++) {
+        buffer.put(i - unused, buffer.get(i));
+      }
+      position -= unused;
+    }
+    int pos = bitmapPosition;
+    for (int word = 0; word < extent; word++) {
+      pos = writer.putBitmap(bitmap[word], bitmapType, buffer, pos);
+    }
+    layout = null;
+    return position - offset;
+  }
+
+  private int bitmapSize() {
+    return bitmapType == BitmapType.BINARY ? 8 : 16;
+  }
+
+  /** @return the template of field <code>number</code>, marking it as written */
+  private FieldTemplate next(final int number) {
+    Preconditions.checkState(layout != null, "Encoder is not wrapped over a buffer");
+    Preconditions.checkState(number > lastField && number < TemplateLayout.FIELDS,
+        "Fields must be written in ascending order");
+    final FieldTemplate result = layout.fields[number];
+    Preconditions.checkState(result != null, "Field not defined for message type");
+    lastField = number;
+    bitmap[TemplateLayout.word(number)] |= TemplateLayout.bit(number);
+    return result;
+  }
+}
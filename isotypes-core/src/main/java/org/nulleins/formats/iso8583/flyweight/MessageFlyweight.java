@@ -0,0 +1,554 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldOffsets;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.ParseResult;
+import org.nulleins.formats.iso8583.ParseResult.ErrorCode;
+import org.nulleins.formats.iso8583.io.MessageLayout;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharTable;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.nio.ByteBuffer;
+
+
+/** Zero-allocation decoder, read over message data in a buffer: {@link #wrap(ByteBuffer, int)}
+  * validates the message structure and computes the offset of each field in a single pass, after
+  * which field values may be read as primitives or as {@link CharSequence} views over the buffer,
+  * without any objects being created per message:
+  * <pre>
+  *   final MessageFlyweight flyweight = new MessageFlyweight(factory);
+  *   ...
+  *   if (flyweight.wrap(buffer, 0)) {
+  *     final long amount = flyweight.getLong(4);
+  *     final CharSequence terminal = flyweight.getCharSequence(41);
+  *   }
+  * </pre>
+  * The message layout is defined by the factory's templates, as for {@link MessageFactory#parse};
+  * values are read as their encoded digits or characters, without invoking the type formatters.
+  * A flyweight may be reused for any number of messages, but is not thread-safe, and the values
+  * it returns are only valid until it is wrapped over another message
+  * @author phillipsr */
+public final class MessageFlyweight {
+  private final ContentType contentType;
+  private final BitmapType bitmapType;
+  private final CharTable chars;
+  private final byte[] header;
+  private final TemplateLayout[] layouts;
+
+  private ByteBuffer buffer;
+  private int offset;
+  private int length;
+  private TemplateLayout layout;
+  private final long[] bitmap = new long[TemplateLayout.BITMAP_WORDS];
+  /** index in the buffer of each field's value, its size in characters or digits and in bytes */
+  private final int[] positions = new int[TemplateLayout.FIELDS];
+  private final int[] sizes = new int[TemplateLayout.FIELDS];
+  private final int[] encoded = new int[TemplateLayout.FIELDS];
+  private final FieldChars[] views = new FieldChars[TemplateLayout.FIELDS];
+  /** the template's fixed prefix offsets, if they apply to the message, and the index of its body */
+  private FieldOffsets prefix;
+  private int body;
+  /** index in the buffer of the (first) bitmap, and the number of bitmaps present */
+  private int bitmapStart;
+  private int bitmapCount;
+  private ErrorCode error;
+  private int errorField;
+  private int errorOffset;
+
+  /** Create a flyweight to read messages defined by the templates of <code>factory</code> */
+  public MessageFlyweight(final MessageFactory factory) {
+    Preconditions.checkNotNull(factory, "Message factory cannot be null");
+    contentType = factory.getContentType();
+    bitmapType = factory.getBitmapType();
+    chars = new CharTable(factory.getCharset());
+    header = factory.getCharset().getBytes(factory.getHeader());
+    layouts = TemplateLayout.of(factory.getTemplates());
+  }
+
+  /** wrap this flyweight over the message starting at <code>offset</code> in <code>buffer</code>,
+    * and ending at or before the buffer's limit
+    * @return true if a well-formed message was found, otherwise false, with the reason
+    * available from {@link #getError()}, {@link #getErrorField()} and {@link #getErrorOffset()} */
+  public boolean wrap(final ByteBuffer buffer, final int offset) {
+    Preconditions.checkNotNull(buffer, "Buffer cannot be null");
+    this.buffer = buffer;
+    this.offset = offset;
+    this.layout = null;
+    this.length = 0;
+    this.prefix = null;
+    error = null;
+    errorField = ParseResult.NO_FIELD;
+    errorOffset = 0;
+    final int end = buffer.limit();
+    int pos = offset;
+
+    if (end - pos < header.length) {
+      return fail(ErrorCode.TRUNCATED, ParseResult.NO_FIELD, pos);
+    }
+    for (int i = 0; i < header.length; i++) {
+      if (buffer.get(pos + i) != header[i]) {
+        return fail(ErrorCode.BAD_HEADER, ParseResult.NO_FIELD, pos + i);
+      }
+    }
+    pos += header.length;
+
+    final int mtiSize = MessageLayout.mtiSize(contentType);
+    if (end - pos < mtiSize) {
+      return fail(ErrorCode.TRUNCATED, ParseResult.NO_FIELD, pos);
+    }
+    final int code = contentType == ContentType.TEXT ? decimalCode(pos) : bcdCode(pos);
+    if (code < 0) {
+      return fail(ErrorCode.BAD_MTI, ParseResult.NO_FIELD, pos);
+    }
+    final TemplateLayout found = TemplateLayout.find(layouts, code);
+    if (found == null) {
+      return fail(ErrorCode.UNKNOWN_MTI, ParseResult.NO_FIELD, pos);
+    }
+    pos += mtiSize;
+
+    final int unit = bitmapType == BitmapType.BINARY ? 8 : 16;
+    bitmapStart = pos;
+    int words = 0;
+    do {
+      if (end - pos < unit) {
+        return fail(ErrorCode.TRUNCATED, ParseResult.NO_FIELD, pos);
+      }
+      if (bitmapType == BitmapType.HEX && !isHexWord(pos)) {
+        return fail(ErrorCode.BAD_BITMAP, ParseResult.NO_FIELD, pos);
+      }
+      bitmap[words++] = bitmapType == BitmapType.BINARY ? binaryWord(pos) : hexWord(pos);
+      pos += unit;
+    } while (words < TemplateLayout.BITMAP_WORDS && bitmap[words - 1] < 0);
+    for (int i = words; i < TemplateLayout.BITMAP_WORDS; i++) {
+      bitmap[i] = 0;
+    }
+    bitmapCount = words;
+    final int missing = found.template.findMissingField(bitmap);
+    if (missing != 0) {
+      return fail(ErrorCode.MISSING_FIELD, missing, bitmapStart);
+    }
+    // fields in the template's fixed prefix are located from their static offsets, if the
+    // message has the template's fields in that region
+    final FieldOffsets offsets = found.template.getFixedOffsets(contentType);
+    if (offsets.getLastField() > 0 && end - pos >= offsets.getSize() && offsets.appliesTo(bitmap)) {
+      prefix = offsets;
+      body = pos;
+      pos += offsets.getSize();
+    }
+
+    for (int word = 0; word < words; word++) {
+      long bits = bitmap[word] & ~TemplateLayout.bit(1);
+      while (bits != 0) {
+        final int number = (word << 6) + Long.numberOfLeadingZeros(bits) + 1;
+        bits &= ~TemplateLayout.bit(number);
+        if (inPrefix(number)) {
+          continue;
+        }
+        final FieldTemplate field = found.fields[number];
+        if (field == null) {
+          return fail(ErrorCode.UNDEFINED_FIELD, number, pos);
+        }
+        final int start = pos;
+        final Dimension dimension = field.getDimension();
+        int size = dimension.getLength();
+        if (dimension.getType() == Dimension.Type.VARIABLE) {
+          final int prefix = MessageLayout.prefixSize(contentType, dimension.getVSize());
+          if (end - pos < prefix) {
+            return fail(ErrorCode.TRUNCATED, number, start);
+          }
+          size = contentType == ContentType.TEXT ? decimal(pos, prefix) : bcdDecimal(pos, prefix);
+          if (size < 0 || size > dimension.getLength()) {
+            return fail(ErrorCode.BAD_LENGTH, number, start);
+          }
+          pos += prefix;
+        }
+        final int bytes = MessageLayout.encodedSize(contentType, field.getType(), size);
+        if (bytes < 0) {
+          return fail(ErrorCode.BAD_LENGTH, number, start);
+        }
+        if (end - pos < bytes) {
+          return fail(ErrorCode.TRUNCATED, number, start);
+        }
+        positions[number] = pos;
+        sizes[number] = size;
+        encoded[number] = bytes;
+        pos += bytes;
+      }
+    }
+    layout = found;
+    length = pos - offset;
+    return true;
+  }
+
+  private boolean fail(final ErrorCode code, final int field, final int position) {
+    error = code;
+    errorField = field;
+    errorOffset = position - offset;
+    return false;
+  }
+
+  /** @return the reason the last message wrapped was not well-formed, or null if it was */
+  public ErrorCode getError() {
+    return error;
+  }
+
+  /** @return the number of the field in error, or {@link ParseResult#NO_FIELD} */
+  public int getErrorField() {
+    return errorField;
+  }
+
+  /** @return the offset of the error from the start of the message */
+  public int getErrorOffset() {
+    return errorOffset;
+  }
+
+  /** @return the number of bytes occupied by the message wrapped */
+  public int getLength() {
+    checkWrapped();
+    return length;
+  }
+
+  public MTI getMTI() {
+    checkWrapped();
+    return layout.template.getMessageType();
+  }
+
+  public MessageTemplate getTemplate() {
+    checkWrapped();
+    return layout.template;
+  }
+
+  /** @return true if field <code>number</code> is present in the message wrapped */
+  public boolean hasField(final int number) {
+    checkWrapped();
+    return number > 1 && number < TemplateLayout.FIELDS && !TemplateLayout.isIndicator(number)
+        && (bitmap[TemplateLayout.word(number)] & TemplateLayout.bit(number)) != 0;
+  }
+
+  /** @return the index in the buffer of the value of field <code>number</code> (after any length prefix) */
+  public int getFieldPosition(final int number) {
+    checkField(number);
+    return position(number);
+  }
+
+  /** @return the number of bytes holding the value of field <code>number</code> */
+  public int getFieldLength(final int number) {
+    checkField(number);
+    return encodedLength(number);
+  }
+
+  /** @return the value of numeric field <code>number</code>
+    * @throws IllegalStateException if the field is not present or its value is not numeric
+    * @throws ArithmeticException if the value does not fit in a long */
+  public long getLong(final int number) {
+    checkField(number);
+    final String type = layout.fields[number].getType();
+    final int start = position(number);
+    final int end = start + encodedLength(number);
+    if (contentType == ContentType.BCD && MessageLayout.isBcdNumeric(type)) {
+      if (type.equals(FieldType.NUMSIGNED)) {
+        final long value = bcdValue(start + 1, end);
+        return buffer.get(start) == 0x0d ? -value : value;
+      }
+      return bcdValue(start, end);
+    }
+    int pos = start;
+    boolean negative = false;
+    if (pos < end) {
+      final char sign = Character.toUpperCase(chars.toChar(buffer.get(pos)));
+      if (sign == 'C' || sign == '+') {
+        pos++;
+      } else if (sign == 'D' || sign == '-') {
+        negative = true;
+        pos++;
+      }
+    }
+    Preconditions.checkState(pos < end, "Field value is not numeric");
+    long result = 0;
+    for (; pos < end; pos++) {
+      final int digit = chars.digit(buffer.get(pos));
+      Preconditions.checkState(digit >= 0, "Field value is not numeric");
+      result = add(result, digit);
+    }
+    return negative ? -result : result;
+  }
+
+  /** @return the value of numeric field <code>number</code>
+    * @throws ArithmeticException if the value does not fit in an int
+    * @see #getLong(int) */
+  public int getInt(final int number) {
+    final long result = getLong(number);
+    if (result != (int) result) {
+      throw new ArithmeticException("Field value exceeds int range");
+    }
+    return (int) result;
+  }
+
+  /** @return a view of the value of field <code>number</code> as characters, with the sign of a
+    * signed numeric field as C or D, and spaces trimmed from non-numeric values (as they are
+    * by the formatters); the view is reused for the field, and is only valid until this
+    * flyweight is next wrapped */
+  public CharSequence getCharSequence(final int number) {
+    return getChars(number, true);
+  }
+
+  /** @return a view of the value of field <code>number</code> as characters, with spaces trimmed
+    * from non-numeric values if <code>trim</code> is true
+    * @see #getCharSequence(int) */
+  CharSequence getChars(final int number, final boolean trim) {
+    checkField(number);
+    if (views[number] == null) {
+      views[number] = new FieldChars();
+    }
+    final FieldChars view = views[number];
+    final String type = layout.fields[number].getType();
+    final int start = position(number);
+    final int end = start + encodedLength(number);
+    if (contentType == ContentType.BCD && (MessageLayout.isBcdNumeric(type) || type.equals(FieldType.TRACKDATA))) {
+      if (type.equals(FieldType.NUMSIGNED)) {
+        // sign byte, followed by the digits of the value less its sign
+        final int digits = size(number) - 2;
+        return view.nibbles(start + 1, 2 * (end - start - 1) - digits, digits, buffer.get(start) == 0x0d ? 'D' : 'C');
+      }
+      return view.nibbles(start, 2 * (end - start) - size(number), size(number), (char) 0);
+    }
+    int first = start;
+    int last = end;
+    if (trim && !MessageLayout.isBcdNumeric(type)) {
+      while (first < last && chars.toChar(buffer.get(first)) == ' ') {
+        first++;
+      }
+      while (last > first && chars.toChar(buffer.get(last - 1)) == ' ') {
+        last--;
+      }
+    }
+    return view.characters(first, last - first);
+  }
+
+  /** copy the encoded value of field <code>number</code> into <code>target</code> at <code>position</code>
+    * @return the number of bytes copied */
+  public int getBytes(final int number, final byte[] target, final int position) {
+    checkField(number);
+    final int start = position(number);
+    for (int i = 0; i < encodedLength(number); i++) {
+      target[position + i] = buffer.get(start + i);
+    }
+    return encodedLength(number);
+  }
+
+  /** @return the index in the buffer of the message wrapped */
+  int getOffset() {
+    checkWrapped();
+    return offset;
+  }
+
+  /** @return the index in the buffer of the message's (first) bitmap */
+  int getBitmapStart() {
+    checkWrapped();
+    return bitmapStart;
+  }
+
+  /** @return the number of bitmaps present in the message (1 to 3) */
+  int getBitmapCount() {
+    checkWrapped();
+    return bitmapCount;
+  }
+
+  /** @return the 64-bit bitmap <code>word</code> (zero if not present), including the indicator bits */
+  long getBitmapWord(final int word) {
+    checkWrapped();
+    return bitmap[word];
+  }
+
+  /** @return the template of field <code>number</code> in the message wrapped, or null if not defined */
+  FieldTemplate getField(final int number) {
+    checkWrapped();
+    return number > 0 && number < TemplateLayout.FIELDS ? layout.fields[number] : null;
+  }
+
+  private void checkWrapped() {
+    Preconditions.checkState(layout != null, "Flyweight is not wrapped over a well-formed message");
+  }
+
+  private void checkField(final int number) {
+    Preconditions.checkState(hasField(number), "Field not present in message");
+  }
+
+  private boolean inPrefix(final int number) {
+    return prefix != null && number <= prefix.getLastField();
+  }
+
+  private int position(final int number) {
+    return inPrefix(number) ? body + prefix.getOffset(number) : positions[number];
+  }
+
+  /** @return the size of field <code>number</code>'s value, in characters or digits */
+  private int size(final int number) {
+    return inPrefix(number) ? layout.fields[number].getDimension().getLength() : sizes[number];
+  }
+
+  private int encodedLength(final int number) {
+    return inPrefix(number) ? prefix.getLength(number) : encoded[number];
+  }
+
+  private static long add(final long value, final int digit) {
+    if (value > (Long.MAX_VALUE - digit) / 10) {
+      throw new ArithmeticException("Field value exceeds long range");
+    }
+    return value * 10 + digit;
+  }
+
+  private long bcdValue(final int start, final int end) {
+    long result = 0;
+    for (int pos = start; pos < end; pos++) {
+      final int value = buffer.get(pos) & 0xff;
+      Preconditions.checkState(value >> 4 <= 9 && (value & 0x0f) <= 9, "Field value is not numeric");
+      result = add(add(result, value >> 4), value & 0x0f);
+    }
+    return result;
+  }
+
+  private int decimalCode(final int pos) {
+    int result = 0;
+    for (int i = 0; i < 4; i++) {
+      final int digit = chars.digit(buffer.get(pos + i));
+      if (digit < 0) {
+        return -1;
+      }
+      result = result << 4 | digit;
+    }
+    return result;
+  }
+
+  private int bcdCode(final int pos) {
+    final int result = (buffer.get(pos) & 0xff) << 8 | buffer.get(pos + 1) & 0xff;
+    for (int shift = 0; shift < 16; shift += 4) {
+      if ((result >> shift & 0x0f) > 9) {
+        return -1;
+      }
+    }
+    return result;
+  }
+
+  private int decimal(final int pos, final int count) {
+    int result = 0;
+    for (int i = 0; i < count; i++) {
+      final int digit = chars.digit(buffer.get(pos + i));
+      if (digit < 0) {
+        return -1;
+      }
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+
+  private int bcdDecimal(final int pos, final int count) {
+    int result = 0;
+    for (int i = 0; i < count; i++) {
+      final int value = buffer.get(pos + i) & 0xff;
+      if (value >> 4 > 9 || (value & 0x0f) > 9) {
+        return -1;
+      }
+      result = result * 100 + (value >> 4) * 10 + (value & 0x0f);
+    }
+    return result;
+  }
+
+  /** @return the bitmap word represented by the 8 bytes at <code>pos</code> (big-endian, whatever the buffer's order) */
+  private long binaryWord(final int pos) {
+    long result = 0;
+    for (int i = 0; i < 8; i++) {
+      result = result << 8 | buffer.get(pos + i) & 0xff;
+    }
+    return result;
+  }
+
+  /** @return the bitmap word represented by the 16 hex digits at <code>pos</code> */
+  private long hexWord(final int pos) {
+    long result = 0;
+    for (int i = 0; i < 16; i++) {
+      result = result << 4 | chars.hexDigit(buffer.get(pos + i));
+    }
+    return result;
+  }
+
+  private boolean isHexWord(final int pos) {
+    for (int i = 0; i < 16; i++) {
+      if (chars.hexDigit(buffer.get(pos + i)) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** reusable character view of a field value, decoding characters or BCD digits from the buffer on access */
+  private final class FieldChars implements CharSequence {
+    private int start;
+    private int length;
+    /** for BCD values: the number of leading (padding) nibbles to skip, and the sign character, if any */
+    private boolean packed;
+    private int skip;
+    private char sign;
+
+    private FieldChars characters(final int start, final int length) {
+      this.start = start;
+      this.length = length;
+      this.packed = false;
+      return this;
+    }
+
+    private FieldChars nibbles(final int start, final int skip, final int digits, final char sign) {
+      this.start = start;
+      this.skip = skip;
+      this.sign = sign;
+      this.length = digits + (sign != 0 ? 1 : 0);
+      this.packed = true;
+      return this;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(final int index) {
+      Preconditions.checkElementIndex(index, length);
+      if (!packed) {
+        return chars.toChar(buffer.get(start + index));
+      }
+      int nibble = index;
+      if (sign != 0) {
+        if (index == 0) {
+          return sign;
+        }
+        nibble--;
+      }
+      nibble += skip;
+      final int value = buffer.get(start + (nibble >> 1));
+      final int digit = (nibble & 1) == 0 ? (value >> 4) & 0x0f : value & 0x0f;
+      return digit == 0x0d ? '=' : (char) ('0' + digit);
+    }
+
+    @Override
+    public CharSequence subSequence(final int start, final int end) {
+      return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder result = new StringBuilder(length);
+      for (int i = 0; i < length; i++) {
+        result.append(charAt(i));
+      }
+      return result.toString();
+    }
+  }
+}
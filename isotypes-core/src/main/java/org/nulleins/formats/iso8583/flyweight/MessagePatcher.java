@@ -0,0 +1,256 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.ParseResult.ErrorCode;
+import org.nulleins.formats.iso8583.io.MessageLayout;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharTable;
+import org.nulleins.formats.iso8583.types.ContentType;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+
+/** Patches the fields of an encoded message in place, using the field offset index of a
+  * {@link MessageFlyweight}: a fixed-width value is overwritten, a variable-width value is
+  * spliced in with a single move of the rest of the message (its length prefix re-written),
+  * and adding or removing a field updates the bitmap in place, adding or removing a secondary
+  * (or tertiary) bitmap as required; e.g., to respond to a request:
+  * <pre>
+  *   if (patcher.wrap(buffer, 0)) {
+  *     final int length = patcher
+  *       .setChars(38, authId)
+  *       .setChars(39, "00")
+  *       .getLength();
+  *   }
+  * </pre>
+  * A message that grows uses the space following it in the buffer, up to the buffer's capacity
+  * (extending its limit if necessary). Values are encoded as by {@link MessageEncoder}; the
+  * message type is not changed. A patcher may be reused for any number of messages, but is not
+  * thread-safe
+  * @author phillipsr */
+public final class MessagePatcher {
+  private final ContentType contentType;
+  private final BitmapType bitmapType;
+  private final FieldWriter writer;
+  private final MessageFlyweight index;
+  /** staging area for encoded values, large enough for any field of the factory's templates */
+  private final ByteBuffer scratch;
+
+  private ByteBuffer buffer;
+  private int offset;
+  private int length;
+  private final long[] bitmap = new long[TemplateLayout.BITMAP_WORDS];
+  private int bitmapCount;
+  /** true if the index must be rebuilt, following a change to the message layout */
+  private boolean stale;
+
+  /** Create a patcher for messages defined by the templates of <code>factory</code> */
+  public MessagePatcher(final MessageFactory factory) {
+    Preconditions.checkNotNull(factory, "Message factory cannot be null");
+    contentType = factory.getContentType();
+    bitmapType = factory.getBitmapType();
+    writer = new FieldWriter(contentType, new CharTable(factory.getCharset()));
+    index = new MessageFlyweight(factory);
+    int largest = 0;
+    for (final MessageTemplate template : factory.getTemplates()) {
+      for (final FieldTemplate field : template.getFields().values()) {
+        largest = Math.max(largest, writer.prefixSize(field)
+            + Math.max(1, MessageLayout.encodedSize(contentType, field.getType(), field.getDimension().getLength())));
+      }
+    }
+    scratch = ByteBuffer.allocate(largest);
+  }
+
+  /** wrap this patcher over the message starting at <code>offset</code> in <code>buffer</code>
+    * @return true if a well-formed message was found, otherwise false, with the reason
+    * available from {@link #getError()} */
+  public boolean wrap(final ByteBuffer buffer, final int offset) {
+    this.buffer = null;
+    if (!index.wrap(buffer, offset)) {
+      return false;
+    }
+    this.buffer = buffer;
+    this.offset = offset;
+    length = index.getLength();
+    bitmapCount = index.getBitmapCount();
+    for (int word = 0; word < TemplateLayout.BITMAP_WORDS; word++) {
+      bitmap[word] = index.getBitmapWord(word);
+    }
+    stale = false;
+    return true;
+  }
+
+  /** @return the reason the last message wrapped was not well-formed, or null if it was */
+  public ErrorCode getError() {
+    return index.getError();
+  }
+
+  /** @return the number of bytes occupied by the (patched) message */
+  public int getLength() {
+    checkWrapped();
+    return length;
+  }
+
+  /** @return a flyweight over the patched message, valid until the message is next patched */
+  public MessageFlyweight getMessage() {
+    return index();
+  }
+
+  /** set the value of numeric field <code>number</code>, adding the field if not present
+    * @throws IllegalArgumentException if the field is not defined for the message, or is not numeric
+    * @throws BufferOverflowException if the patched message would exceed the buffer's capacity */
+  public MessagePatcher setLong(final int number, final long value) {
+    final FieldTemplate field = field(number);
+    scratch.clear();
+    return patch(number, field, writer.putLong(field, value, scratch, 0));
+  }
+
+  /** set the value of field <code>number</code>, adding the field if not present; the value of a
+    * numeric field must be its digits, preceded by C or D if signed (or - if negative)
+    * @throws IllegalArgumentException if the field is not defined for the message, or the value is invalid
+    * @throws BufferOverflowException if the patched message would exceed the buffer's capacity */
+  public MessagePatcher setChars(final int number, final CharSequence value) {
+    final FieldTemplate field = field(number);
+    scratch.clear();
+    return patch(number, field, writer.putChars(field, value, scratch, 0));
+  }
+
+  /** remove field <code>number</code> from the message, if present, removing any secondary
+    * (or tertiary) bitmap no longer required
+    * @throws IllegalArgumentException if the field is mandatory */
+  public MessagePatcher remove(final int number) {
+    final FieldTemplate field = field(number);
+    final MessageFlyweight message = index();
+    if (!message.hasField(number)) {
+      return this;
+    }
+    Preconditions.checkArgument(field.isOptional(), "Cannot remove mandatory field");
+    final int start = message.getFieldPosition(number) - writer.prefixSize(field);
+    splice(start, writer.prefixSize(field) + message.getFieldLength(number), 0);
+    bitmap[TemplateLayout.word(number)] &= ~TemplateLayout.bit(number);
+    putBitmap(TemplateLayout.word(number));
+    // remove trailing bitmaps that no longer have any fields set
+    while (bitmapCount > 1 && (bitmap[bitmapCount - 1] & ~TemplateLayout.bit(1)) == 0) {
+      bitmapCount--;
+      bitmap[bitmapCount] = 0;
+      splice(bitmapStart(bitmapCount), bitmapSize(), 0);
+      bitmap[bitmapCount - 1] &= ~TemplateLayout.bit(1);
+      putBitmap(bitmapCount - 1);
+    }
+    stale = true;
+    return this;
+  }
+
+  /** replace or insert field <code>number</code> with the <code>size</code> bytes staged */
+  private MessagePatcher patch(final int number, final FieldTemplate field, final int size) {
+    final MessageFlyweight message = index();
+    if (message.hasField(number)) {
+      final int start = message.getFieldPosition(number) - writer.prefixSize(field);
+      final int current = writer.prefixSize(field) + message.getFieldLength(number);
+      if (size != current) {
+        splice(start, current, size);
+      }
+      copy(start, size);
+      stale = stale || size != current || writer.prefixSize(field) > 0;
+      return this;
+    }
+    // insert after the preceding field present, or at the start of the body
+    int start = bitmapStart(bitmapCount);
+    for (int previous = number - 1; previous > 1; previous--) {
+      if (message.hasField(previous)) {
+        start = message.getFieldPosition(previous) + message.getFieldLength(previous);
+        break;
+      }
+    }
+    // add any further bitmaps required, before the body
+    final int word = TemplateLayout.word(number);
+    while (bitmapCount <= word) {
+      splice(bitmapStart(bitmapCount), 0, bitmapSize());
+      start += bitmapSize();
+      bitmap[bitmapCount - 1] |= TemplateLayout.bit(1);
+      putBitmap(bitmapCount - 1);
+      bitmap[bitmapCount++] = 0;
+    }
+    splice(start, 0, size);
+    copy(start, size);
+    bitmap[word] |= TemplateLayout.bit(number);
+    putBitmap(word);
+    stale = true;
+    return this;
+  }
+
+  /** @return the template of field <code>number</code> in the message wrapped */
+  private FieldTemplate field(final int number) {
+    checkWrapped();
+    Preconditions.checkArgument(number > 1 && !TemplateLayout.isIndicator(number), "Invalid field number");
+    final FieldTemplate result = index.getField(number);
+    Preconditions.checkArgument(result != null, "Field not defined for message type");
+    return result;
+  }
+
+  /** @return the index over the message, rebuilt if its layout has been changed */
+  private MessageFlyweight index() {
+    checkWrapped();
+    if (stale) {
+      Preconditions.checkState(index.wrap(buffer, offset), "Patched message is not well-formed");
+      stale = false;
+    }
+    return index;
+  }
+
+  private void checkWrapped() {
+    Preconditions.checkState(buffer != null, "Patcher is not wrapped over a well-formed message");
+  }
+
+  private int bitmapSize() {
+    return bitmapType == BitmapType.BINARY ? 8 : 16;
+  }
+
+  /** @return the index in the buffer of bitmap <code>word</code> */
+  private int bitmapStart(final int word) {
+    return index.getBitmapStart() + word * bitmapSize();
+  }
+
+  private void putBitmap(final int word) {
+    writer.putBitmap(bitmap[word], bitmapType, buffer, bitmapStart(word));
+  }
+
+  /** copy <code>size</code> staged bytes to <code>position</code> in the buffer */
+  private void copy(final int position, final int size) {
+    for (int i = 0; i < size; i++) {
+      buffer.put(position + i, scratch.get(i));
+    }
+  }
+
+  /** replace the <code>current</code> bytes at <code>position</code> with <code>size</code> bytes,
+    * moving the rest of the message, and extending the buffer's limit if required */
+  private void splice(final int position, final int current, final int size) {
+    final int end = offset + length;
+    final int delta = size - current;
+    if (end + delta > buffer.capacity()) {
+      throw new BufferOverflowException();
+    }
+    if (end + delta > buffer.limit()) {
+      buffer.limit(end + delta);
+    }
+    final int from = position + current;
+    final int count = end - from;
+    if (buffer.hasArray()) {
+      final int base = buffer.arrayOffset();
+      System.arraycopy(buffer.array(), base + from, buffer.array(), base + from + delta, count);
+    } else if (delta > 0) {
+      for (int i = count - 1; i >= 0; i--) {
+        buffer.put(from + delta + i, buffer.get(from + i));
+      }
+    } else {
+      for (int i = 0; i < count; i++) {
+        buffer.put(from + delta + i, buffer.get(from + i));
+      }
+    }
+    length += delta;
+  }
+}
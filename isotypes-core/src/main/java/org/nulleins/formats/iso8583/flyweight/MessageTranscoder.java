@@ -0,0 +1,201 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.MessageException;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.ParseResult.ErrorCode;
+import org.nulleins.formats.iso8583.io.MessageLayout;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/** Converts messages encoded as defined by a source factory's templates into the encoding
+  * defined by a target factory's templates for the same message types (e.g., from a TEXT/ASCII
+  * partner schema to a BCD/EBCDIC host schema), in one pass, without parsing field values into
+  * objects: the conversion of each field is determined when the transcoder is created:
+  * <ul>
+  * <li>{@link Conversion#COPY}: the encoded value is copied as is (same field definition,
+  *     content type and charset)</li>
+  * <li>{@link Conversion#RECODE}: the value's digits or characters are re-encoded
+  *     (charset mapping, text digits to/from packed BCD, length prefix re-written)</li>
+  * <li>{@link Conversion#FORMAT}: the field definitions differ, so the value is parsed
+  *     by the source formatter and formatted by the target formatter</li>
+  * </ul>
+  * Bitmaps are re-written in the target bitmap type. A transcoder may be reused for any number
+  * of messages, but is not thread-safe
+  * @author phillipsr */
+public final class MessageTranscoder {
+  /** the means by which a field is converted from its source to target definition */
+  public enum Conversion { COPY, RECODE, FORMAT }
+
+  private final ContentType sourceContent;
+  private final CharEncoder sourceCharset;
+  private final MessageFlyweight reader;
+  private final MessageEncoder encoder;
+  private final Plan[] plans;
+  private int sourceLength;
+  private ErrorCode error;
+
+  /** a message type's field conversions, indexed by field number */
+  private static final class Plan {
+    private final MTI type;
+    private final MessageTemplate source;
+    private final MessageTemplate target;
+    private final Conversion[] conversions = new Conversion[TemplateLayout.FIELDS];
+
+    private Plan(final MessageTemplate source, final MessageTemplate target, final ContentType targetContent,
+                 final boolean sameEncoding) {
+      this.type = source.getMessageType();
+      this.source = source;
+      this.target = target;
+      for (final FieldTemplate field : source.getFields().values()) {
+        final FieldTemplate other = target.getFields().get(field.getNumber());
+        if (other == null) {
+          throw new IllegalArgumentException("Field " + field + " not defined for target message type " + type);
+        }
+        conversions[field.getNumber()] = !sameDefinition(field, other) ? Conversion.FORMAT
+            : sameEncoding ? Conversion.COPY : Conversion.RECODE;
+        // the encoder writes track data as text only: packed track data can only be copied
+        if (conversions[field.getNumber()] != Conversion.COPY && targetContent == ContentType.BCD
+            && other.getType().equals(FieldType.TRACKDATA)) {
+          throw new IllegalArgumentException("Field " + other + " of message type " + type
+              + " cannot be converted to track data in BCD content");
+        }
+      }
+    }
+  }
+
+  /** Create a transcoder from messages defined by the <code>source</code> factory's templates, to
+    * those defined by the <code>target</code> factory's templates with the same message types
+    * @throws IllegalArgumentException if a field of a source template is not defined in the
+    *                                  corresponding target template, or is a track data field
+    *                                  that would have to be converted into BCD content */
+  public MessageTranscoder(final MessageFactory source, final MessageFactory target) {
+    Preconditions.checkNotNull(source, "Source message factory cannot be null");
+    Preconditions.checkNotNull(target, "Target message factory cannot be null");
+    sourceContent = source.getContentType();
+    sourceCharset = source.getCharset();
+    reader = new MessageFlyweight(source);
+    encoder = new MessageEncoder(target);
+    final boolean sameEncoding = source.getContentType() == target.getContentType()
+        && source.getCharset().equals(target.getCharset());
+    final List<Plan> result = new ArrayList<>();
+    for (final MessageTemplate template : source.getTemplates()) {
+      if (target.canBuild(template.getMessageType())) {
+        result.add(new Plan(template, target.getTemplate(template.getMessageType()), target.getContentType(),
+            sameEncoding));
+      }
+    }
+    plans = result.toArray(new Plan[result.size()]);
+  }
+
+  /** convert the message at <code>sourceOffset</code> in <code>source</code>, writing the
+    * converted message at <code>targetOffset</code> in <code>target</code>
+    * @return the length of the converted message, or -1 if the source message is not well-formed,
+    * or of a type not defined in the target, with the reason available from {@link #getError()}
+    * @throws IllegalStateException if a mandatory field of the target message is not present
+    * @throws MessageException if a value cannot be converted between differing field definitions */
+  public int transcode(final ByteBuffer source, final int sourceOffset, final ByteBuffer target, final int targetOffset) {
+    sourceLength = 0;
+    error = null;
+    if (!reader.wrap(source, sourceOffset)) {
+      error = reader.getError();
+      return -1;
+    }
+    final Plan plan = find(reader.getMTI());
+    if (plan == null) {
+      error = ErrorCode.UNKNOWN_MTI;
+      return -1;
+    }
+    encoder.wrap(target, targetOffset, plan.type);
+    for (int number = 2; number < TemplateLayout.FIELDS; number++) {
+      if (!reader.hasField(number)) {
+        continue;
+      }
+      switch (plan.conversions[number]) {
+        case COPY:
+          final int prefix = prefixSize(plan.source.getFields().get(number));
+          encoder.putEncoded(number, source,
+              reader.getFieldPosition(number) - prefix, prefix + reader.getFieldLength(number));
+          break;
+        case RECODE:
+          encoder.putChars(number, reader.getChars(number, false));
+          break;
+        default:
+          encoder.putChars(number, format(plan, number));
+      }
+    }
+    sourceLength = reader.getLength();
+    return encoder.finish();
+  }
+
+  /** @return the reason the last message could not be converted, or null if it was */
+  public ErrorCode getError() {
+    return error;
+  }
+
+  /** @return the number of bytes occupied by the source of the last message converted */
+  public int getSourceLength() {
+    return sourceLength;
+  }
+
+  /** @return the conversion of field <code>number</code> of messages of <code>type</code>,
+    * or null if the type or field is not converted */
+  public Conversion getConversion(final MTI type, final int number) {
+    final Plan plan = find(type);
+    return plan != null && number > 0 && number < TemplateLayout.FIELDS ? plan.conversions[number] : null;
+  }
+
+  private Plan find(final MTI type) {
+    for (final Plan plan : plans) {
+      if (plan.type.equals(type)) {
+        return plan;
+      }
+    }
+    return null;
+  }
+
+  private int prefixSize(final FieldTemplate field) {
+    final Dimension dimension = field.getDimension();
+    return dimension.getType() == Dimension.Type.FIXED ? 0 : MessageLayout.prefixSize(sourceContent, dimension.getVSize());
+  }
+
+  /** @return the value of field <code>number</code> parsed with the source field definition,
+    * formatted with the target definition */
+  private String format(final Plan plan, final int number) {
+    final FieldTemplate from = plan.source.getFields().get(number);
+    final FieldTemplate to = plan.target.getFields().get(number);
+    final byte[] data = sourceCharset.getBytes(reader.getChars(number, false).toString());
+    final Object value;
+    try {
+      value = plan.source.getFormatter(from.getType()).parse(from.getType(), from.getDimension(), data.length, data);
+    } catch (final ParseException e) {
+      throw new MessageException("Failed to parse field: " + from + " for conversion", e);
+    }
+    try {
+      // formatters render in the platform charset (see FieldTemplate.format): the encoder writes the target charset
+      return new String(plan.target.getFormatter(to.getType()).format(to.getType(), value, to.getDimension()));
+    } catch (final RuntimeException e) {
+      throw new MessageException("Could not format data [" + value + "] for field " + to, e);
+    }
+  }
+
+  private static boolean sameDefinition(final FieldTemplate field, final FieldTemplate other) {
+    final Dimension dimension = field.getDimension();
+    final Dimension otherDimension = other.getDimension();
+    return field.getType().equals(other.getType())
+        && dimension.getType() == otherDimension.getType()
+        && dimension.getLength() == otherDimension.getLength()
+        && (dimension.getType() == Dimension.Type.FIXED || dimension.getVSize() == otherDimension.getVSize());
+  }
+}
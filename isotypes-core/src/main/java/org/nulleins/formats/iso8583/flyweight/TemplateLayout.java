@@ -0,0 +1,79 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.util.Collection;
+
+
+/** A message template's fields indexed by number, with its MTI code, precomputed for the
+  * flyweight encoder and decoder
+  * @author phillipsr */
+final class TemplateLayout {
+  /** highest field number, plus one */
+  static final int FIELDS = 193;
+  static final int BITMAP_WORDS = 3;
+
+  final MessageTemplate template;
+  final int code;
+  final FieldTemplate[] fields = new FieldTemplate[FIELDS];
+  /** number of bitmaps required for the template's highest numbered field */
+  final int extent;
+
+  private TemplateLayout(final MessageTemplate template) {
+    this.template = template;
+    this.code = template.getMessageType().intValue();
+    int highest = 0;
+    for (final FieldTemplate field : template.getFields().values()) {
+      final int number = field.getNumber();
+      fields[number] = field;
+      highest = Math.max(highest, number);
+    }
+    extent = word(highest) + 1;
+  }
+
+  /** @return the index of the bitmap word holding <code>field</code> */
+  static int word(final int field) {
+    return (field - 1) >> 6;
+  }
+
+  /** @return the bit representing <code>field</code> in its bitmap word */
+  static long bit(final int field) {
+    return 1L << 63 - ((field - 1) & 63);
+  }
+
+  /** @return true if <code>field</code> is a bitmap indicator (1, 65 or 129) rather than a data field */
+  static boolean isIndicator(final int field) {
+    return ((field - 1) & 63) == 0;
+  }
+
+  static TemplateLayout[] of(final Collection<MessageTemplate> templates) {
+    final TemplateLayout[] result = new TemplateLayout[templates.size()];
+    int i = 0;
+    for (final MessageTemplate template : templates) {
+      result[i++] = new TemplateLayout(template);
+    }
+    return result;
+  }
+
+  /** @return the layout for the message type <code>code</code>, or null if not defined */
+  static TemplateLayout find(final TemplateLayout[] layouts, final int code) {
+    for (final TemplateLayout layout : layouts) {
+      if (layout.code == code) {
+        return layout;
+      }
+    }
+    return null;
+  }
+
+  /** @return the layout for the message type <code>type</code>, or null if not defined */
+  static TemplateLayout find(final TemplateLayout[] layouts, final MTI type) {
+    for (final TemplateLayout layout : layouts) {
+      if (layout.template.getMessageType().equals(type)) {
+        return layout;
+      }
+    }
+    return null;
+  }
+}
@@ -1,11 +1,13 @@
 package org.nulleins.formats.iso8583.formatters;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import org.nulleins.formats.iso8583.MessageException;
 import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.FieldType;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -40,6 +42,29 @@ public class AlphaFormatter extends TypeFormatter<String> {
           "Decoding error " + e.getMessage() + " for " + type + " field: " + Arrays.toString(data), position);
     }
 
+    return checkParsed(result, type, dimension, position);
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws ParseException if the data is not valid for the alpha type specified
+   */
+  @Override
+  public String decode(final String type, final Dimension dimension, final ByteBuffer input, final int length)
+      throws ParseException {
+    return checkParsed(decode(input, length).trim(), type, dimension, length);
+  }
+
+  /** @return the value of the <code>length</code> bytes at the position of <code>input</code>, as
+    * {@link #decode(String, Dimension, ByteBuffer, int)}, or null if not valid for the alpha type:
+    * without the cost of an exception, or of a message including the (possibly sensitive) value */
+  public String tryDecode(final String type, final Dimension dimension, final ByteBuffer input, final int length) {
+    final String result = decode(input, length).trim();
+    return isValid(result, type, dimension) ? result : null;
+  }
+
+  private String checkParsed(final String result, final String type, final Dimension dimension, final int position)
+      throws ParseException {
     if (!isValid(result, type, dimension)) {
       throw new ParseException("Invalid data parsed for field (" + type + ") value=[" + result + "]", position);
     }
@@ -51,6 +76,19 @@ public class AlphaFormatter extends TypeFormatter<String> {
    */
   @Override
   public byte[] format(final String type, final Object data, final Dimension dimension) {
+    return render(type, data, dimension).getBytes();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int encode(final String type, final Object data, final Dimension dimension, final ByteBuffer output) {
+    return encode(render(type, data, dimension), output);
+  }
+
+  /** @return the value of <code>data</code>, padded to the field length if fixed */
+  private String render(final String type, final Object data, final Dimension dimension) {
     Preconditions.checkNotNull(data,"Alpha values cannot be null");
     final String value = data instanceof byte[] ? new String((byte[]) data) : data.toString();
 
@@ -66,14 +104,14 @@ public class AlphaFormatter extends TypeFormatter<String> {
             + value.length() + ") exceeds field maximum (" + dimension.getLength() + "): data=[" + value + "]");
       }
       // for fixed width fieldlist, pad right with spaces
-      return String.format("%-" + length + "." + length + "s", value).getBytes();
+      return Strings.padEnd(value, length, ' ');
     }
     // Variable field: dim length is the maximum length:
     if (value.length() > dimension.getLength()) {
       throw new MessageException("Variable field data length ("
           + value.length() + ") exceeds field maximum (" + dimension.getLength() + ")");
     }
-    return value.getBytes();
+    return value;
   }
 
   /* set of pattern matchers for the various alpha-based type fieldlist */
@@ -8,6 +8,7 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
@@ -37,9 +38,7 @@ public class DateFormatter extends TypeFormatter<DateTime> {
   @Override
   public DateTime parse(final String type, final Dimension dim, final int length, final byte[] data)
       throws ParseException {
-    final DateTimeFormatter formatter = Formatters.get(type + ":" + length);
-    Preconditions.checkArgument(formatter != null,
-        "Formatter not found for date field, type=(" + type + ":" + length + ") data=" + data, length);
+    final DateTimeFormatter formatter = getFormatter(type, length, data);
     try {
       return formatter.parseDateTime(decode(data));
     } catch (final Exception e) {
@@ -51,17 +50,56 @@ public class DateFormatter extends TypeFormatter<DateTime> {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * @throws ParseException if the supplied data cannot be parsed as a date value
+   */
+  @Override
+  public DateTime decode(final String type, final Dimension dim, final ByteBuffer input, final int length)
+      throws ParseException {
+    final DateTimeFormatter formatter = getFormatter(type, length, input);
+    final String value = decode(input, length);
+    try {
+      return formatter.parseDateTime(value);
+    } catch (final Exception e) {
+      final ParseException rethrow = new ParseException("Cannot parse date field value, type=("
+          + type + ":" + length + ") [decoded=" + value + "]", length);
+      rethrow.initCause(e);
+      throw rethrow;
+    }
+  }
+
+  private static DateTimeFormatter getFormatter(final String type, final int length, final Object data) {
+    final DateTimeFormatter result = Formatters.get(type + ":" + length);
+    Preconditions.checkArgument(result != null,
+        "Formatter not found for date field, type=(" + type + ":" + length + ") data=" + data, length);
+    return result;
+  }
+
   /**
    * {@inheritDoc}
    * @throws IllegalArgumentException if the data is null or not a valid date value
    */
   @Override
   public byte[] format(final String type, final Object data, final Dimension dimension) {
+    return render(type, data, dimension).getBytes();
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException if the data is null or not a valid date value
+   */
+  @Override
+  public int encode(final String type, final Object data, final Dimension dimension, final ByteBuffer output) {
+    return encode(render(type, data, dimension), output);
+  }
+
+  private String render(final String type, final Object data, final Dimension dimension) {
     Preconditions.checkNotNull(data,"Date value cannot be null");
     final DateTime dateTime = getDateValue(data);
     Preconditions.checkArgument(dateTime != null,
         "Invalid data [" + data + "] expected Date, got a " + data.getClass().getCanonicalName());
-    return Formatters.get(type + ":" + dimension.getLength()).print(dateTime).getBytes();
+    return Formatters.get(type + ":" + dimension.getLength()).print(dateTime);
   }
 
   public static DateTime getDateValue(final Object data) {
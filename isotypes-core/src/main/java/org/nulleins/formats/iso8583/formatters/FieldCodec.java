@@ -0,0 +1,39 @@
+package org.nulleins.formats.iso8583.formatters;
+
+import org.nulleins.formats.iso8583.MessageException;
+import org.nulleins.formats.iso8583.types.Dimension;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/** Byte-oriented definition of a type formatter, encoding field values directly into, and
+  * decoding them directly from, a range of a buffer, in the message's character set
+  * <p/>
+  * {@link TypeFormatter} implements this interface, adapting its <code>format</code> and
+  * <code>parse</code> methods, so custom formatters need not implement it themselves; the
+  * standard formatters implement it without intermediate byte arrays
+  * @author phillipsr */
+public interface FieldCodec<T> {
+
+  /** Write the value supplied, formatted according to the field type and dimension specified,
+    * at the position of <code>output</code>, which is advanced past the value written
+    * @return the number of bytes written
+    * @param type      variant of the type specified for the field
+    * @param value     the object to be formatted
+    * @param dimension specifies if fixed or variable and the required size
+    * @param output    buffer to write the formatted value to
+    * @throws IllegalArgumentException if the value is null or invalid for the field type
+    * @throws MessageException         if the value results in the maximum field length being exceeded
+    * @throws BufferOverflowException  if the formatted value does not fit in the buffer */
+  int encode(String type, Object value, Dimension dimension, ByteBuffer output);
+
+  /** @return the value of the <code>length</code> bytes at the position of <code>input</code>
+    * (which is advanced past them), interpreted according to the field type and dimension specified
+    * @param type      variant of the type specified for the field
+    * @param dimension specifies if fixed or variable and the required size
+    * @param input     buffer holding the field value
+    * @param length    of the field value in the buffer
+    * @throws ParseException if the data cannot be parsed to the specified type */
+  T decode(String type, Dimension dimension, ByteBuffer input, int length) throws ParseException;
+}
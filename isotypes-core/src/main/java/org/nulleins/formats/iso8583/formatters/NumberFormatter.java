@@ -1,14 +1,15 @@
 package org.nulleins.formats.iso8583.formatters;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.FieldType;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
-import java.util.Arrays;
 import java.util.regex.Pattern;
 
 
@@ -30,26 +31,39 @@ public class NumberFormatter
   @Override
   public BigInteger parse(final String type, final Dimension dimension, final int length, final byte[] data)
       throws ParseException {
+    return parseValue(type, length, decode(data));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public BigInteger decode(final String type, final Dimension dimension, final ByteBuffer input, final int length)
+      throws ParseException {
+    return parseValue(type, length, decode(input, length));
+  }
+
+  private BigInteger parseValue(final String type, final int length, final String data)
+      throws ParseException {
     try {
       if (FieldType.NUMSIGNED.equalsIgnoreCase(type)) {
         return parseXNField(type, length, data);
       }
-      return new BigInteger(decode(data));
+      return new BigInteger(data);
     } catch (final Exception e) {
       throw new ParseException("Bad f format " + e.getMessage()
-          + " for type=" + type + " [" + new String(data) + "]", length);
+          + " for type=" + type + " [" + data + "]", length);
     }
   }
 
-  private BigInteger parseXNField(final String type, final int length, final byte[] data)
+  private BigInteger parseXNField(final String type, final int length, final String data)
       throws ParseException {
-    final String sign = decode(Arrays.copyOfRange(data, 0, 1));
-    final char signC = sign.toUpperCase().charAt(0);
+    final char signC = Character.toUpperCase(data.charAt(0));
     if (signC != 'C' && signC != 'D') {
       throw new ParseException("Bad f format for " + type
-          + ": must start with C or D (field data=[" + decode(data) + "])", length);
+          + ": must start with C or D (field data=[" + data + "])", length);
     }
-    final String value = decode(Arrays.copyOfRange(data, 1, data.length));
+    final String value = data.substring(1);
     BigInteger result = new BigInteger(value);
     if (signC == 'D') {
       result = result.negate();
@@ -63,6 +77,20 @@ public class NumberFormatter
    */
   @Override
   public byte[] format(final String type, final Object data, final Dimension dimension) {
+    return render(type, data, dimension).getBytes();
+  }
+
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException if the data is null or not a valid numeric value
+   */
+  @Override
+  public int encode(final String type, final Object data, final Dimension dimension, final ByteBuffer output) {
+    return encode(render(type, data, dimension), output);
+  }
+
+  /** @return the digits of <code>data</code>, zero-padded if fixed, preceded by the sign if signed */
+  private String render(final String type, final Object data, final Dimension dimension) {
     Preconditions.checkNotNull(data,"Numeric value cannot be null");
 
     BigInteger value = getNumericValue(data);
@@ -89,14 +117,11 @@ public class NumberFormatter
     if (FieldType.NUMSIGNED.equalsIgnoreCase(type)) {
       result = (negative ? "D" : "C") + result;
     }
-    return result.getBytes();
+    return result;
   }
 
   private String zeroPad(final String result, final int length) {
-    if (result.length() >= length) {
-      return result;
-    }
-    return String.format("%" + length + "." + length + "s", result).replaceAll(" ", "0");
+    return Strings.padStart(result, length, '0');
   }
 
   /**
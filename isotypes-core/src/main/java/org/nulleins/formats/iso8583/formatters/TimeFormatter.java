@@ -7,6 +7,7 @@ import org.joda.time.LocalTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 
@@ -36,6 +37,21 @@ public class TimeFormatter
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * @throws ParseException if the data cannot be parsed as a valid time value
+   */
+  @Override
+  public LocalTime decode(final String type, final Dimension dimension, final ByteBuffer input, final int length)
+      throws ParseException {
+    final String value = decode(input, length);
+    try {
+      return Formatter.parseLocalTime(value);
+    } catch (final Exception e) {
+      throw new ParseException("Cannot parse time for dim: '" + type + ":" + length + "'", length);
+    }
+  }
+
   /**
    * {@inheritDoc}
    * @throws IllegalArgumentException if the data is null
@@ -46,6 +62,16 @@ public class TimeFormatter
     return Formatter.print(getTime(data)).getBytes();
   }
 
+  /**
+   * {@inheritDoc}
+   * @throws IllegalArgumentException if the data is null
+   */
+  @Override
+  public int encode(final String type, final Object data, final Dimension dimension, final ByteBuffer output) {
+    Preconditions.checkNotNull(data,"Time value cannot be null");
+    return encode(Formatter.print(getTime(data)), output);
+  }
+
   /**
    * Answer with a time representation of the data object supplied
    * @param data to convert to a time
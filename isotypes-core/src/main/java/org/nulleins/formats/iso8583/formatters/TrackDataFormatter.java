@@ -9,6 +9,7 @@ import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.FieldType;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -101,7 +102,21 @@ public class TrackDataFormatter extends TypeFormatter<TrackData> {
   @Override
   public TrackData parse(final String type, final Dimension dim, final int length, final byte[] data)
       throws ParseException {
-    final String value = decode(data);
+    return parseValue(type, length, decode(data));
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p/>Parse Track1 or Track2 data
+   * @throws ParseException if the supplied data does not match Track1 or Track2 data specification
+   */
+  @Override
+  public TrackData decode(final String type, final Dimension dim, final ByteBuffer input, final int length)
+      throws ParseException {
+    return parseValue(type, length, decode(input, length));
+  }
+
+  private TrackData parseValue(final String type, final int length, final String value) throws ParseException {
     final Matcher t1matcher = Track1Matcher.matcher(value);
     if (t1matcher.matches()) {
       return parseTrack1(t1matcher);
@@ -119,6 +134,19 @@ public class TrackDataFormatter extends TypeFormatter<TrackData> {
    */
   @Override
   public byte[] format(final String type, final Object data, final Dimension dimension) {
+    return alphaFormatter.format(FieldType.ALPHANUMSYMBOL, render(type, data, dimension), dimension);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int encode(final String type, final Object data, final Dimension dimension, final ByteBuffer output) {
+    return alphaFormatter.encode(FieldType.ALPHANUMSYMBOL, render(type, data, dimension), dimension, output);
+  }
+
+  /** @return the Track1 or Track2 representation of <code>data</code> */
+  private String render(final String type, final Object data, final Dimension dimension) {
     Preconditions.checkNotNull(data,"TrackData value cannot be null");
     Preconditions.checkArgument (isValid(data, type, dimension),
         "Cannot format invalid value for [" + type + "] field: '"
@@ -134,9 +162,7 @@ public class TrackDataFormatter extends TypeFormatter<TrackData> {
         trackData.getExpirationDate(),
         trackData.getServiceCode(),
         trackData.getDiscretionaryData()));
-    final String result = buffer.toString();
-
-    return alphaFormatter.format(FieldType.ALPHANUMSYMBOL, result, dimension);
+    return buffer.toString();
   }
 
   /**
@@ -5,12 +5,16 @@ import org.nulleins.formats.iso8583.MessageException;
 import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /** Generic definition of a type formatter, defining the format and parse
   * methods that concrete formatters need to support
+  * <p/>
+  * The {@link FieldCodec} methods are implemented in terms of these, writing the formatted
+  * bytes in the configured charset; formatters may override them to avoid the intermediate copies
   * @author phillipsr */
-public abstract class TypeFormatter<T> {
+public abstract class TypeFormatter<T> implements FieldCodec<T> {
   private CharEncoder charset;
 
   /** @return string representation of the data supplied, interpreted according to the
@@ -38,6 +42,32 @@ public abstract class TypeFormatter<T> {
     * @param dimension storage type & size information */
   public abstract boolean isValid(Object value, String type, Dimension dimension);
 
+  /** {@inheritDoc}
+    * <p/>writes the result of {@link #format(String, Object, Dimension)}, in the configured charset */
+  @Override
+  public int encode(final String type, final Object value, final Dimension dimension, final ByteBuffer output) {
+    Preconditions.checkNotNull(charset);
+    final byte[] data = charset.getBytes(format(type, value, dimension));
+    output.put(data);
+    return data.length;
+  }
+
+  /** {@inheritDoc}
+    * <p/>answers with the result of {@link #parse(String, Dimension, int, byte[])} */
+  @Override
+  public T decode(final String type, final Dimension dimension, final ByteBuffer input, final int length)
+      throws ParseException {
+    final byte[] data;
+    if (input.hasArray() && input.arrayOffset() + input.position() == 0 && length == input.array().length) {
+      data = input.array();
+      input.position(length);
+    } else {
+      data = new byte[length];
+      input.get(data);
+    }
+    return parse(type, dimension, length, data);
+  }
+
   /** Specify the charset to be used when reading or writing character data
     * @param charset to be used when formatting alpha-type field values
     *                (see {@link java.nio.charset.Charset})
@@ -55,4 +85,18 @@ public abstract class TypeFormatter<T> {
     return charset.getString(data);
   }
 
+  /** @return A string representation of the <code>length</code> bytes at the position of <code>input</code>,
+    * decoded using the configured charset */
+  protected String decode(final ByteBuffer input, final int length) {
+    Preconditions.checkNotNull(charset);
+    return charset.getString(input, length);
+  }
+
+  /** Write <code>value</code>, encoded using the configured charset, to <code>output</code>
+    * @return the number of bytes written */
+  protected int encode(final CharSequence value, final ByteBuffer output) {
+    Preconditions.checkNotNull(charset);
+    return charset.put(value, output);
+  }
+
 }
@@ -2,7 +2,7 @@ package org.nulleins.formats.iso8583.io;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.nulleins.formats.iso8583.FieldTemplate;
-import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.formatters.FieldCodec;
 import org.nulleins.formats.iso8583.types.BCD;
 import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
@@ -11,6 +11,7 @@ import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -42,41 +43,43 @@ public class BCDMessageWriter
    * {@inheritDoc}
    */
   @Override
-  public void appendField(final TypeFormatter<?> formatter, final FieldTemplate field, final Object data, final DataOutputStream output)
+  public void appendField(final FieldCodec<?> codec, final FieldTemplate field, final Object data, final DataOutputStream output)
       throws IOException {
     final Dimension dim = field.getDimension();
-    final byte[] inputValue = field.format(data, formatter);
-    String fieldValue = charCodec.getString(inputValue);
+    final ByteBuffer inputValue = encode(codec, field, data);
+    if (!(field.getType().equals(FieldType.NUMERIC) ||
+        field.getType().equals(FieldType.NUMSIGNED) ||
+        field.getType().equals(FieldType.DATE) ||
+        field.getType().equals(FieldType.TIME) ||
+        field.getType().equals(FieldType.EXDATE))) {
+      // character data is written as encoded
+      if (dim.getType() == Dimension.Type.VARIABLE) {
+        write(getVarLengthSpecifier(dim.getVSize(), inputValue.remaining()), output);
+      }
+      write(inputValue, output);
+      return;
+    }
+    String fieldValue = charCodec.getString(inputValue, inputValue.remaining());
     if (dim.getType() == Dimension.Type.VARIABLE) {
-      write(getVarLengthSpecifier(dim.getVSize(), fieldValue), output);
+      write(getVarLengthSpecifier(dim.getVSize(), fieldValue.length()), output);
     }
     if (field.getType().equals(FieldType.NUMSIGNED)) {
-      write((byte) (inputValue[0] - 0x37), output); // 'C' => 0xC and 'D' => 0xD
+      write((byte) (fieldValue.charAt(0) - 0x37), output); // 'C' => 0xC and 'D' => 0xD
       fieldValue = fieldValue.substring(1);
       //$FALL-THROUGH$
     }
-    final byte[] encodedValue;
-    if (field.getType().equals(FieldType.NUMERIC) ||
-        field.getType().equals(FieldType.NUMSIGNED) ||
-        field.getType().equals(FieldType.DATE) ||
-        field.getType().equals(FieldType.TIME) ||
-        field.getType().equals(FieldType.EXDATE)) {
-      encodedValue = BCD.valueOf(fieldValue);
-    } else {
-      encodedValue = fieldValue.getBytes();
-    }
-    write(encodedValue, output);
+    write(BCD.valueOf(fieldValue), output);
   }
 
   /**
    * returns a BCD byte array that specifies the length of the
    * supplied value for a variable-width field to the output stream
    * @param vsize size of the variable width specifier (1, 2 or 3)
-   * @param value the value to be stored in the field
+   * @param length of the value to be stored in the field
    * @return field size as a byte array
    */
-  private byte[] getVarLengthSpecifier(final int vsize, final String value) {
-    int length = value.length();
+  private byte[] getVarLengthSpecifier(final int vsize, final int valueLength) {
+    int length = valueLength;
     if (length % 2 != 0) { // is odd
       length++;
     }
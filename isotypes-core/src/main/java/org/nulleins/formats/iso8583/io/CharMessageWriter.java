@@ -1,13 +1,14 @@
 package org.nulleins.formats.iso8583.io;
 
 import org.nulleins.formats.iso8583.FieldTemplate;
-import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.formatters.FieldCodec;
 import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -38,12 +39,12 @@ public class CharMessageWriter
    * {@inheritDoc}
    */
   @Override
-  public void appendField(final TypeFormatter<?> formatter, final FieldTemplate field, final Object data, final DataOutputStream output)
+  public void appendField(final FieldCodec<?> codec, final FieldTemplate field, final Object data, final DataOutputStream output)
       throws IOException {
-    final byte[] fieldValue = charCodec.getBytes(field.format(data, formatter));
+    final ByteBuffer fieldValue = encode(codec, field, data);
     final Dimension dim = field.getDimension();
     if (dim.getType() == Dimension.Type.VARIABLE) {
-      final String vsize = String.format("%0" + dim.getVSize() + "d", fieldValue.length);
+      final String vsize = String.format("%0" + dim.getVSize() + "d", fieldValue.remaining());
       output.write(charCodec.getBytes(vsize));
     }
     write(fieldValue, output);
@@ -0,0 +1,45 @@
+package org.nulleins.formats.iso8583.io;
+
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+
+
+/** The sizes of the parts of a message as encoded by the message readers and writers,
+  * for code that reads or writes message data directly
+  * @author phillipsr */
+public final class MessageLayout {
+  private MessageLayout() { }
+
+  /** @return the number of bytes holding the MTI */
+  public static int mtiSize(final ContentType contentType) {
+    return contentType == ContentType.TEXT ? 4 : 2;
+  }
+
+  /** @return the number of bytes holding the length of a variable field with a
+    * <code>vsize</code> digit length specifier */
+  public static int prefixSize(final ContentType contentType, final int vsize) {
+    return contentType == ContentType.TEXT ? vsize : (vsize + 1) / 2;
+  }
+
+  /** @return the number of bytes holding a field value of <code>size</code> characters or
+    * digits, or -1 if the size is not valid for the type */
+  public static int encodedSize(final ContentType contentType, final String type, final int size) {
+    if (contentType == ContentType.TEXT) {
+      return size;
+    }
+    if (type.equals(FieldType.NUMSIGNED)) {
+      return size < 2 ? -1 : 1 + (size - 1) / 2;
+    }
+    if (isBcdNumeric(type) || type.equals(FieldType.TRACKDATA)) {
+      return (size + 1) / 2;
+    }
+    return size;
+  }
+
+  /** @return true if values of <code>type</code> are packed as BCD digits in a BCD message
+    * (signed values are preceded by a sign byte) */
+  public static boolean isBcdNumeric(final String type) {
+    return type.equals(FieldType.NUMERIC) || type.equals(FieldType.NUMSIGNED) || type.equals(FieldType.DATE)
+        || type.equals(FieldType.TIME) || type.equals(FieldType.EXDATE);
+  }
+}
@@ -1,14 +1,16 @@
 package org.nulleins.formats.iso8583.io;
 
 import org.nulleins.formats.iso8583.FieldTemplate;
-import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.formatters.FieldCodec;
 import org.nulleins.formats.iso8583.types.Bitmap;
 import org.nulleins.formats.iso8583.types.BitmapType;
 import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.Dimension;
 import org.nulleins.formats.iso8583.types.MTI;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -19,6 +21,8 @@ import java.io.IOException;
 public abstract class MessageWriter {
   /** specifies the character encoding for text data (ASCII, EBCDIC) */
   protected CharEncoder charCodec;
+  /** staging buffer for field values, reused for each field written */
+  private ByteBuffer fieldBuffer = ByteBuffer.allocate(64);
 
   protected void write(final String data, final DataOutputStream output) throws IOException {
     write(charCodec.getBytes(data), output);
@@ -32,6 +36,26 @@ public abstract class MessageWriter {
     output.write(data);
   }
 
+  protected void write(final ByteBuffer data, final DataOutputStream output) throws IOException {
+    output.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+  }
+
+  /** @return a buffer holding the value of <code>field</code>, encoded by <code>codec</code>,
+    * ready to be read (valid until the next field is encoded) */
+  protected ByteBuffer encode(final FieldCodec<?> codec, final FieldTemplate field, final Object data) {
+    final Dimension dim = field.getDimension();
+    // large enough for the longest value a field template will accept, at its longest encoding
+    final int bytesPerChar = charCodec != null ? charCodec.maxBytesPerChar() : 1;
+    final int capacity = (dim.getLength() + (dim.getType() == Dimension.Type.VARIABLE ? dim.getVSize() : 0)) * bytesPerChar;
+    if (fieldBuffer.capacity() < capacity) {
+      fieldBuffer = ByteBuffer.allocate(capacity);
+    }
+    fieldBuffer.clear();
+    field.encode(data, codec, fieldBuffer, charCodec);
+    fieldBuffer.flip();
+    return fieldBuffer;
+  }
+
   /**
    * Write the supplied header string to the output stream
    * @param header
@@ -54,13 +78,13 @@ public abstract class MessageWriter {
   /**
    * Write the supplied field to the output stream
    *
-   * @param formatter to render field in output stream
+   * @param codec     to render field in output stream
    * @param field     template describing field to be written
    * @param data      value of the field to output
    * @param output    stream to append data to
    * @throws IOException if the data could not be written tot he output stream
    */
-  public abstract void appendField(final TypeFormatter<?> formatter, FieldTemplate field, Object data, DataOutputStream output) throws IOException;
+  public abstract void appendField(final FieldCodec<?> codec, FieldTemplate field, Object data, DataOutputStream output) throws IOException;
 
   /**
    * Write the supplied bitmap to the output stream
@@ -78,6 +102,32 @@ public abstract class MessageWriter {
     appendHexBitmap(bitmap, output);
   }
 
+  /**
+   * Write the supplied bitmap words to the output stream: the primary bitmap, followed by the
+   * secondary and tertiary bitmaps, if their indicator bits are set
+   * @param bitmap words of the bitmap, with field 1 (or 65, 129) in the most significant bit
+   * @param type   of bitmap, hex or binary
+   * @param output stream to append data to
+   * @throws IOException if the data could not be written tot he output stream
+   */
+  public void appendBitmap(final long[] bitmap, final BitmapType type, final DataOutputStream output)
+      throws IOException {
+    for (int word = 0; word < bitmap.length; word++) {
+      if (type == BitmapType.BINARY) {
+        output.writeLong(bitmap[word]);
+      } else {
+        final char[] digits = new char[16];
+        for (int i = 0; i < 16; i++) {
+          digits[i] = Character.toUpperCase(Character.forDigit((int) (bitmap[word] >>> 60 - 4 * i) & 0x0f, 16));
+        }
+        output.write(charCodec.getBytes(new String(digits)));
+      }
+      if (bitmap[word] >= 0) { // no further bitmap indicated
+        return;
+      }
+    }
+  }
+
   /**
    * Append a binary bitmap to the output stream
    * @param bitmap to be appended
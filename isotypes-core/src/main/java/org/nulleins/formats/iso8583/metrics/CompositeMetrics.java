@@ -0,0 +1,82 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.util.Arrays;
+
+
+/** Metrics SPI implementation that reports to each of a number of others, e.g., to aggregate
+  * metrics in a {@link MetricsRegistry} while sampling with a {@link FieldProfiler}:
+  * <pre>
+  *   MessageFactory.Builder()...metrics(CompositeMetrics.of(registry, profiler)).build();
+  * </pre>
+  * @author phillipsr */
+public final class CompositeMetrics implements MessageMetrics {
+  private final MessageMetrics[] delegates;
+
+  private CompositeMetrics(final MessageMetrics[] delegates) {
+    this.delegates = delegates;
+  }
+
+  /** @return metrics reporting to each of the <code>delegates</code>, in the order given */
+  public static MessageMetrics of(final MessageMetrics... delegates) {
+    Preconditions.checkArgument(delegates.length > 0, "At least one metrics delegate is required");
+    for (final MessageMetrics delegate : delegates) {
+      Preconditions.checkNotNull(delegate, "Metrics delegate cannot be null");
+    }
+    return delegates.length == 1 ? delegates[0] : new CompositeMetrics(Arrays.copyOf(delegates, delegates.length));
+  }
+
+  /** @return the contexts of each delegate, or null if none required one */
+  @Override
+  public Object started(final Operation operation) {
+    Object[] result = null;
+    for (int i = 0; i < delegates.length; i++) {
+      final Object context = delegates[i].started(operation);
+      if (context != null) {
+        if (result == null) {
+          result = new Object[delegates.length];
+        }
+        result[i] = context;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void completed(final Object context, final Operation operation, final MTI type,
+                        final long nanos, final long bytes, final boolean failed) {
+    final Object[] contexts = (Object[]) context;
+    for (int i = 0; i < delegates.length; i++) {
+      delegates[i].completed(contexts != null ? contexts[i] : null, operation, type, nanos, bytes, failed);
+    }
+  }
+
+  @Override
+  public Object fieldStarted(final Object context, final Operation operation, final FieldTemplate field) {
+    final Object[] contexts = (Object[]) context;
+    Object[] result = null;
+    for (int i = 0; i < delegates.length; i++) {
+      final Object fieldContext = delegates[i].fieldStarted(contexts != null ? contexts[i] : null, operation, field);
+      if (fieldContext != null) {
+        if (result == null) {
+          result = new Object[delegates.length];
+        }
+        result[i] = fieldContext;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void fieldCompleted(final Object context, final Operation operation, final MTI type, final FieldTemplate field,
+                             final TypeFormatter<?> formatter, final int bytes, final boolean failed) {
+    final Object[] contexts = (Object[]) context;
+    for (int i = 0; i < delegates.length; i++) {
+      delegates[i].fieldCompleted(contexts != null ? contexts[i] : null, operation, type, field, formatter, bytes, failed);
+    }
+  }
+}
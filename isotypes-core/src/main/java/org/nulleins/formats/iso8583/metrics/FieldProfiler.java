@@ -0,0 +1,243 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** Sampling profiler attributing the cost of parsing and formatting messages to individual
+  * fields: for one in <code>interval</code> messages parsed or written, the time taken and the
+  * heap allocated to process each field is accumulated per operation, MTI, field number and
+  * formatter class, and may be reported ranked by total time
+  * <p/>
+  * Messages not sampled cost one random number; sampled messages allocate a small context, and
+  * the allocation is read from the HotSpot <code>com.sun.management.ThreadMXBean</code> (reported
+  * as zero where unsupported), so a low sampling rate is safe to leave on in production, e.g.:
+  * <pre>
+  *   MessageFactory.Builder()...metrics(new FieldProfiler(1000)).build();
+  * </pre>
+  * @author phillipsr */
+public class FieldProfiler implements MessageMetrics {
+  private final int interval;
+  private final com.sun.management.ThreadMXBean threads;
+  private final ConcurrentMap<Site, FieldCost> costs = new ConcurrentHashMap<>();
+
+  /** @param interval sample one in <code>interval</code> messages (1 samples every message) */
+  public FieldProfiler(final int interval) {
+    Preconditions.checkArgument(interval > 0, "Sampling interval must be > 0");
+    this.interval = interval;
+    this.threads = allocationCounter();
+  }
+
+  /** @return a sample context for one in <code>interval</code> parse or format operations, otherwise null */
+  @Override
+  public Object started(final Operation operation) {
+    if (operation != Operation.PARSE && operation != Operation.FORMAT) {
+      return null;
+    }
+    if (interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0) {
+      return null;
+    }
+    return new Sample(Thread.currentThread().getId());
+  }
+
+  @Override
+  public void completed(final Object context, final Operation operation, final MTI type,
+                        final long nanos, final long bytes, final boolean failed) {
+  }
+
+  @Override
+  public Object fieldStarted(final Object context, final Operation operation, final FieldTemplate field) {
+    if (context == null) {
+      return null;
+    }
+    final Sample sample = (Sample) context;
+    sample.allocated = allocatedBytes(sample.threadId);
+    sample.started = System.nanoTime();
+    return sample;
+  }
+
+  @Override
+  public void fieldCompleted(final Object context, final Operation operation, final MTI type, final FieldTemplate field,
+                             final TypeFormatter<?> formatter, final int bytes, final boolean failed) {
+    if (context == null) {
+      return;
+    }
+    final Sample sample = (Sample) context;
+    final long nanos = System.nanoTime() - sample.started;
+    final long allocated = allocatedBytes(sample.threadId) - sample.allocated;
+    getCost(new Site(operation, type, field.getNumber(), field.getType(), formatter.getClass())).add(nanos, allocated);
+  }
+
+  /** @return the costs accumulated for each field profiled, ranked by total time (highest first) */
+  public List<FieldCost> report() {
+    final List<FieldCost> result = new ArrayList<>(costs.values());
+    Collections.sort(result, new Comparator<FieldCost>() {
+      @Override
+      public int compare(final FieldCost first, final FieldCost second) {
+        return Long.compare(second.getTotalNanos(), first.getTotalNanos());
+      }
+    });
+    return result;
+  }
+
+  /** write the ranked report to <code>output</code>, one line per field profiled, showing its
+    * share of the total time profiled, the number of samples and the mean time and allocation */
+  public void printReport(final Appendable output) throws IOException {
+    final List<FieldCost> report = report();
+    long total = 0;
+    for (final FieldCost cost : report) {
+      total += cost.getTotalNanos();
+    }
+    output.append(String.format("%-7s %-5s %5s %-6s %-50s %7s %9s %10s %10s%n",
+        "Op", "MTI", "Field", "Type", "Formatter", "Share%", "Samples", "Mean ns", "Mean B"));
+    for (final FieldCost cost : report) {
+      final Site site = cost.site;
+      output.append(String.format("%-7s %-5s %5d %-6s %-50s %7.2f %9d %10d %10d%n",
+          site.operation.label(), site.type, site.field, site.fieldType, site.formatter.getName(),
+          total == 0 ? 0.0 : 100.0 * cost.getTotalNanos() / total,
+          cost.getSamples(), cost.getMeanNanos(), cost.getMeanBytes()));
+    }
+  }
+
+  /** discard the costs accumulated so far */
+  public void reset() {
+    costs.clear();
+  }
+
+  private FieldCost getCost(final Site site) {
+    final FieldCost result = costs.get(site);
+    if (result != null) {
+      return result;
+    }
+    final FieldCost created = new FieldCost(site);
+    final FieldCost existing = costs.putIfAbsent(site, created);
+    return existing != null ? existing : created;
+  }
+
+  private long allocatedBytes(final long threadId) {
+    return threads != null ? threads.getThreadAllocatedBytes(threadId) : 0;
+  }
+
+  /** @return the HotSpot thread bean, with allocation measurement enabled, or null if unavailable */
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+      final com.sun.management.ThreadMXBean result = (com.sun.management.ThreadMXBean) threads;
+      result.setThreadAllocatedMemoryEnabled(true);
+      return result;
+    }
+    return null;
+  }
+
+  /** state of a sampled message, holding the start of the field currently being processed */
+  private static final class Sample {
+    private final long threadId;
+    private long started;
+    private long allocated;
+
+    private Sample(final long threadId) {
+      this.threadId = threadId;
+    }
+  }
+
+  /** a field as processed by an operation on a message type, with a specific formatter */
+  private static final class Site {
+    private final Operation operation;
+    private final String type;
+    private final int field;
+    private final String fieldType;
+    private final Class<?> formatter;
+
+    private Site(final Operation operation, final MTI type, final int field, final String fieldType, final Class<?> formatter) {
+      this.operation = operation;
+      this.type = type != null ? type.toString() : MetricsRegistry.UNKNOWN_TYPE;
+      this.field = field;
+      this.fieldType = fieldType;
+      this.formatter = formatter;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Site)) {
+        return false;
+      }
+      final Site that = (Site) other;
+      return field == that.field && operation == that.operation && type.equals(that.type)
+          && fieldType.equals(that.fieldType) && formatter == that.formatter;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(operation, type, field, fieldType, formatter);
+    }
+  }
+
+  /** the cost accumulated for a field, updated lock-free */
+  public static final class FieldCost {
+    private final Site site;
+    private final StripedCounter samples = new StripedCounter();
+    private final StripedCounter nanos = new StripedCounter();
+    private final StripedCounter bytes = new StripedCounter();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    private FieldCost(final Site site) {
+      this.site = site;
+    }
+
+    private void add(final long elapsed, final long allocated) {
+      samples.increment();
+      nanos.add(elapsed);
+      bytes.add(allocated);
+      long current = maxNanos.get();
+      while (elapsed > current && !maxNanos.compareAndSet(current, elapsed)) {
+        current = maxNanos.get();
+      }
+    }
+
+    public Operation getOperation() { return site.operation; }
+    public String getType() { return site.type; }
+    public int getField() { return site.field; }
+    public String getFieldType() { return site.fieldType; }
+    public Class<?> getFormatter() { return site.formatter; }
+    public long getSamples() { return samples.sum(); }
+    public long getTotalNanos() { return nanos.sum(); }
+    public long getTotalBytes() { return bytes.sum(); }
+    public long getMaxNanos() { return maxNanos.get(); }
+
+    public long getMeanNanos() {
+      final long n = getSamples();
+      return n == 0 ? 0 : getTotalNanos() / n;
+    }
+
+    public long getMeanBytes() {
+      final long n = getSamples();
+      return n == 0 ? 0 : getTotalBytes() / n;
+    }
+
+    @Override
+    public String toString() {
+      return site.operation.label() + " " + site.type + " field " + site.field + " (" + site.fieldType + ") "
+          + site.formatter.getSimpleName() + ": samples=" + getSamples()
+          + " meanNanos=" + getMeanNanos() + " meanBytes=" + getMeanBytes();
+    }
+  }
+}
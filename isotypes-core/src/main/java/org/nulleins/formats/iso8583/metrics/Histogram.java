@@ -0,0 +1,105 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/** A compact, lock-free log-linear histogram of non-negative values (e.g., latency in
+  * nanoseconds): each power of two is divided into 16 linear sub-buckets, giving a relative
+  * error of less than 1/16th (6.25%) across the full range of <code>long</code> in 960 buckets
+  * @author phillipsr */
+public final class Histogram {
+  private static final int SUB_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final StripedCounter count = new StripedCounter();
+  private final StripedCounter total = new StripedCounter();
+  private final AtomicLong max = new AtomicLong();
+
+  /** record a single occurrence of <code>value</code>; negative values are recorded as zero */
+  public void record(final long value) {
+    final long recorded = Math.max(0, value);
+    counts.incrementAndGet(bucket(recorded));
+    count.increment();
+    total.add(recorded);
+    long current = max.get();
+    while (recorded > current && !max.compareAndSet(current, recorded)) {
+      current = max.get();
+    }
+  }
+
+  /** @return the number of values recorded */
+  public long getCount() {
+    return count.sum();
+  }
+
+  /** @return the sum of the values recorded */
+  public long getTotal() {
+    return total.sum();
+  }
+
+  /** @return the largest value recorded (zero if none) */
+  public long getMax() {
+    return max.get();
+  }
+
+  /** @return the arithmetic mean of the values recorded (zero if none) */
+  public double getMean() {
+    final long n = getCount();
+    return n == 0 ? 0 : (double) getTotal() / n;
+  }
+
+  /** @return the value below which <code>percentile</code>% of the recorded values fall
+    * (to within the resolution of the histogram), or zero if none have been recorded
+    * @param percentile in the range 0 to 100 */
+  public long getValueAtPercentile(final double percentile) {
+    Preconditions.checkArgument(percentile >= 0 && percentile <= 100, "percentile must be 0-100");
+    long recorded = 0;
+    final long[] snapshot = new long[BUCKETS];
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      snapshot[bucket] = counts.get(bucket);
+      recorded += snapshot[bucket];
+    }
+    if (recorded == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * recorded));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += snapshot[bucket];
+      if (seen >= rank) {
+        return Math.min(highestValue(bucket), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /** @return the index of the bucket into which <code>value</code> falls */
+  static int bucket(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  /** @return the largest value that falls into <code>bucket</code> */
+  static long highestValue(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "Histogram count=" + getCount() + " mean=" + getMean()
+        + " p50=" + getValueAtPercentile(50) + " p99=" + getValueAtPercentile(99) + " max=" + getMax();
+  }
+}
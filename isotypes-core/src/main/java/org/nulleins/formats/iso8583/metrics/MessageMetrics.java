@@ -0,0 +1,64 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.types.MTI;
+
+
+/** Service provider interface through which a message factory reports the operations it
+  * performs: set on <code>MessageFactory.Builder.metrics()</code>; when none is set, the
+  * factory makes no calls at all (nor reads the clock)
+  * <p/>
+  * Each operation, and each field processed within it, is bracketed by a pair of calls: the
+  * context object returned when it starts (which may be null) is passed back when it completes,
+  * allowing implementations that need to (e.g., to time an event themselves) to carry state
+  * from one to the other without thread-locals
+  * <p/>
+  * Implementations are called on the thread performing the operation, and must be thread-safe
+  * and non-blocking; see {@link MetricsRegistry} for the standard implementation
+  * @author phillipsr */
+public interface MessageMetrics {
+
+  /** operations measured by the message factory */
+  enum Operation {
+    PARSE, VALIDATE, FORMAT, TRANSFORM;
+
+    /** @return the name of this operation, as used in exported metric names */
+    public String label() {
+      return name().toLowerCase();
+    }
+  }
+
+  /** @return a context for the <code>operation</code> about to start (may be null), passed
+    * to the <code>fieldStarted</code> calls for each field processed, and to
+    * <code>completed</code> when the operation ends */
+  Object started(Operation operation);
+
+  /** record the completion of an operation
+    * @param context   as returned by <code>started</code> for this operation
+    * @param operation performed
+    * @param type      of the message processed, or null if it could not be determined
+    *                  (e.g., the parse failed before the MTI was read)
+    * @param nanos     elapsed time taken by the operation
+    * @param bytes     number of bytes read or written (zero if not applicable)
+    * @param failed    true if the operation threw an exception (or, for VALIDATE, found
+    *                  the message to be invalid) */
+  void completed(Object context, Operation operation, MTI type, long nanos, long bytes, boolean failed);
+
+  /** @return a context for the processing of <code>field</code> about to start (may be null),
+    * passed to <code>fieldCompleted</code>
+    * @param context of the operation processing the field, as returned by <code>started</code> */
+  Object fieldStarted(Object context, Operation operation, FieldTemplate field);
+
+  /** record that a field has been processed (not called for TRANSFORM)
+    * @param context   as returned by <code>fieldStarted</code> for this field
+    * @param operation processing the field
+    * @param type      of message containing the field
+    * @param field     template of the field processed
+    * @param formatter used to parse, format or validate the field's value
+    * @param bytes     size of the field's data, where read or written (zero for VALIDATE)
+    * @param failed    true if processing the field threw an exception */
+  void fieldCompleted(Object context, Operation operation, MTI type, FieldTemplate field,
+                      TypeFormatter<?> formatter, int bytes, boolean failed);
+
+}
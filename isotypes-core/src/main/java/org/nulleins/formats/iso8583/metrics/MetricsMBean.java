@@ -0,0 +1,104 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import com.google.common.base.Preconditions;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+
+/** Exposes the figures of a metrics registry as the read-only attributes of a JMX MBean,
+  * one per snapshot key (e.g., <code>parse.0200.p99</code>), read live on each request
+  * @author phillipsr */
+public class MetricsMBean implements DynamicMBean {
+  /** JMX domain under which the metrics of message factories are registered */
+  public static final String DOMAIN = "org.nulleins.formats.iso8583";
+
+  private final MetricsRegistry registry;
+
+  public MetricsMBean(final MetricsRegistry registry) {
+    Preconditions.checkNotNull(registry, "Metrics registry cannot be null");
+    this.registry = registry;
+  }
+
+  /** @return the name under which the metrics <code>registry</code> was registered with the
+    * platform MBean server, as type=MessageMetrics,factory=<code>factoryId</code>
+    * @throws JMException if the MBean could not be registered (e.g., the name is already in use) */
+  public static ObjectName register(final MetricsRegistry registry, final String factoryId) throws JMException {
+    final ObjectName name = getObjectName(factoryId);
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(new MetricsMBean(registry), name);
+    return name;
+  }
+
+  /** remove the metrics registered for <code>factoryId</code> from the platform MBean server */
+  public static void unregister(final String factoryId) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName(factoryId));
+  }
+
+  public static ObjectName getObjectName(final String factoryId) throws JMException {
+    return new ObjectName(DOMAIN + ":type=MessageMetrics,factory=" + ObjectName.quote(factoryId));
+  }
+
+  @Override
+  public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+    final Number result = registry.snapshot().get(attribute);
+    if (result == null) {
+      throw new AttributeNotFoundException("No such metric: " + attribute);
+    }
+    return result;
+  }
+
+  @Override
+  public AttributeList getAttributes(final String[] attributes) {
+    final Map<String, Number> snapshot = registry.snapshot();
+    final AttributeList result = new AttributeList();
+    for (final String attribute : attributes) {
+      if (snapshot.containsKey(attribute)) {
+        result.add(new Attribute(attribute, snapshot.get(attribute)));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    final List<MBeanAttributeInfo> attributes = new ArrayList<>();
+    for (final Map.Entry<String, Number> entry : registry.snapshot().entrySet()) {
+      attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+          "ISO8583 message metric " + entry.getKey(), true, false, false));
+    }
+    return new MBeanInfo(getClass().getName(), "ISO8583 message factory metrics",
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+  }
+
+  /** metrics are read-only */
+  @Override
+  public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metric attributes are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(final AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(final String actionName, final Object[] params, final String[] signature)
+      throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName),
+        "No operations defined for message metrics: " + actionName);
+  }
+}
@@ -0,0 +1,159 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/** Standard implementation of the metrics SPI, accumulating a latency histogram, byte count
+  * and error count per operation and MTI, and a count of fields processed per operation and
+  * field type; all updates are lock-free
+  * <p/>
+  * The accumulated figures may be read as a plain map ({@link #snapshot()}), exposed as a JMX
+  * MBean ({@link MetricsMBean}) or rendered for Prometheus ({@link PrometheusExporter})
+  * @author phillipsr */
+public class MetricsRegistry implements MessageMetrics {
+  /** key used for operations on messages whose type could not be determined */
+  public static final String UNKNOWN_TYPE = "unknown";
+  /** percentiles reported in snapshots and exports */
+  static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  private final Map<Operation, ConcurrentMap<String, OperationStats>> operations = new EnumMap<>(Operation.class);
+  private final Map<Operation, ConcurrentMap<String, StripedCounter>> fields = new EnumMap<>(Operation.class);
+
+  public MetricsRegistry() {
+    for (final Operation operation : Operation.values()) {
+      operations.put(operation, new ConcurrentHashMap<String, OperationStats>());
+      fields.put(operation, new ConcurrentHashMap<String, StripedCounter>());
+    }
+  }
+
+  /** no context is required: the time taken is reported on completion */
+  @Override
+  public Object started(final Operation operation) {
+    return null;
+  }
+
+  @Override
+  public void completed(final Object context, final Operation operation, final MTI type,
+                        final long nanos, final long bytes, final boolean failed) {
+    final OperationStats stats = getStats(operation, type != null ? type.toString() : UNKNOWN_TYPE);
+    stats.latency.record(nanos);
+    if (bytes > 0) {
+      stats.bytes.add(bytes);
+    }
+    if (failed) {
+      stats.errors.increment();
+    }
+  }
+
+  @Override
+  public Object fieldStarted(final Object context, final Operation operation, final FieldTemplate field) {
+    return null;
+  }
+
+  /** count the fields processed by type */
+  @Override
+  public void fieldCompleted(final Object context, final Operation operation, final MTI type, final FieldTemplate field,
+                             final TypeFormatter<?> formatter, final int bytes, final boolean failed) {
+    final String fieldType = field.getType();
+    final ConcurrentMap<String, StripedCounter> counters = fields.get(operation);
+    final StripedCounter counter = counters.get(fieldType);
+    if (counter != null) {
+      counter.increment();
+      return;
+    }
+    final StripedCounter created = new StripedCounter();
+    final StripedCounter existing = counters.putIfAbsent(fieldType, created);
+    (existing != null ? existing : created).increment();
+  }
+
+  /** @return the statistics accumulated for <code>operation</code> on each message type
+    * (keyed by MTI), e.g., to render in a specific format */
+  public Map<String, OperationStats> getStats(final Operation operation) {
+    return Collections.unmodifiableMap(operations.get(operation));
+  }
+
+  /** @return the number of fields processed by <code>operation</code>, keyed by field type */
+  public Map<String, Long> getFieldCounts(final Operation operation) {
+    final SortedMap<String, Long> result = new TreeMap<>();
+    for (final Map.Entry<String, StripedCounter> entry : fields.get(operation).entrySet()) {
+      result.put(entry.getKey(), entry.getValue().sum());
+    }
+    return result;
+  }
+
+  /** @return the current figures as a flat map, keyed <code>operation.mti.statistic</code>
+    * (count, errors, bytes, mean, p50, p90, p99, p99.9 and max; times in nanoseconds) and
+    * <code>operation.fields.type</code> (count of fields processed), in key order */
+  public SortedMap<String, Number> snapshot() {
+    final SortedMap<String, Number> result = new TreeMap<>();
+    for (final Operation operation : Operation.values()) {
+      for (final Map.Entry<String, OperationStats> entry : operations.get(operation).entrySet()) {
+        final String prefix = operation.label() + "." + entry.getKey() + ".";
+        final OperationStats stats = entry.getValue();
+        result.put(prefix + "count", stats.latency.getCount());
+        result.put(prefix + "errors", stats.errors.sum());
+        result.put(prefix + "bytes", stats.bytes.sum());
+        result.put(prefix + "mean", stats.latency.getMean());
+        for (final double percentile : PERCENTILES) {
+          result.put(prefix + "p" + percentileLabel(percentile), stats.latency.getValueAtPercentile(percentile));
+        }
+        result.put(prefix + "max", stats.latency.getMax());
+      }
+      for (final Map.Entry<String, Long> entry : getFieldCounts(operation).entrySet()) {
+        result.put(operation.label() + ".fields." + entry.getKey(), entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  /** @return percentile formatted without a redundant fraction, e.g., "99" or "99.9" */
+  static String percentileLabel(final double percentile) {
+    return percentile == Math.rint(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+  }
+
+  private OperationStats getStats(final Operation operation, final String type) {
+    final ConcurrentMap<String, OperationStats> stats = operations.get(operation);
+    final OperationStats result = stats.get(type);
+    if (result != null) {
+      return result;
+    }
+    final OperationStats created = new OperationStats();
+    final OperationStats existing = stats.putIfAbsent(type, created);
+    return existing != null ? existing : created;
+  }
+
+  @Override
+  public String toString() {
+    return "MetricsRegistry " + snapshot();
+  }
+
+  /** statistics accumulated for one operation on one message type */
+  public static final class OperationStats {
+    private final Histogram latency = new Histogram();
+    private final StripedCounter bytes = new StripedCounter();
+    private final StripedCounter errors = new StripedCounter();
+
+    /** @return histogram of the time taken, in nanoseconds */
+    public Histogram getLatency() {
+      return latency;
+    }
+
+    public long getBytes() {
+      return bytes.sum();
+    }
+
+    public long getErrors() {
+      return errors.sum();
+    }
+  }
+}
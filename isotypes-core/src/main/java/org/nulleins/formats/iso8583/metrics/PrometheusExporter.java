@@ -0,0 +1,142 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.nulleins.formats.iso8583.metrics.MessageMetrics.Operation;
+import org.nulleins.formats.iso8583.metrics.MetricsRegistry.OperationStats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/** Renders the metrics of one or more message factories in the Prometheus text exposition
+  * format (version 0.0.4), either on demand ({@link #scrape()}) or from an HTTP endpoint
+  * served by the JDK's built-in <code>HttpServer</code> ({@link #start(InetSocketAddress)})
+  * <p/>
+  * Latency is exported as a summary in seconds, labelled by factory, operation and MTI
+  * @author phillipsr */
+public class PrometheusExporter {
+  /** content type of the Prometheus text format */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  private static final String PREFIX = "isotypes_";
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final ConcurrentMap<String, MetricsRegistry> registries = new ConcurrentHashMap<>();
+  private HttpServer server;
+
+  /** add the metrics <code>registry</code> of the factory identified by <code>factoryId</code>
+    * (used as the value of the <code>factory</code> label) to those exported
+    * @return this exporter, to allow chaining */
+  public PrometheusExporter add(final String factoryId, final MetricsRegistry registry) {
+    Preconditions.checkNotNull(factoryId, "Factory id cannot be null");
+    Preconditions.checkNotNull(registry, "Metrics registry cannot be null");
+    registries.put(factoryId, registry);
+    return this;
+  }
+
+  /** @return the current figures of all the registries added, in the Prometheus text format */
+  public String scrape() {
+    final StringBuilder result = new StringBuilder();
+    header(result, "operation_seconds", "summary", "Time taken by message factory operations");
+    for (final Map.Entry<String, MetricsRegistry> factory : registries.entrySet()) {
+      for (final Operation operation : Operation.values()) {
+        for (final Map.Entry<String, OperationStats> entry : factory.getValue().getStats(operation).entrySet()) {
+          final String labels = labels(factory.getKey(), operation, entry.getKey());
+          final Histogram latency = entry.getValue().getLatency();
+          for (final double percentile : MetricsRegistry.PERCENTILES) {
+            sample(result, "operation_seconds",
+                labels + ",quantile=\"" + quantile(percentile) + "\"", latency.getValueAtPercentile(percentile) / NANOS_PER_SECOND);
+          }
+          sample(result, "operation_seconds_sum", labels, latency.getTotal() / NANOS_PER_SECOND);
+          sample(result, "operation_seconds_count", labels, latency.getCount());
+        }
+      }
+    }
+    header(result, "operation_errors_total", "counter", "Message factory operations that failed");
+    for (final Map.Entry<String, MetricsRegistry> factory : registries.entrySet()) {
+      for (final Operation operation : Operation.values()) {
+        for (final Map.Entry<String, OperationStats> entry : factory.getValue().getStats(operation).entrySet()) {
+          sample(result, "operation_errors_total", labels(factory.getKey(), operation, entry.getKey()), entry.getValue().getErrors());
+        }
+      }
+    }
+    header(result, "operation_bytes_total", "counter", "Message bytes read or written by message factory operations");
+    for (final Map.Entry<String, MetricsRegistry> factory : registries.entrySet()) {
+      for (final Operation operation : Operation.values()) {
+        for (final Map.Entry<String, OperationStats> entry : factory.getValue().getStats(operation).entrySet()) {
+          sample(result, "operation_bytes_total", labels(factory.getKey(), operation, entry.getKey()), entry.getValue().getBytes());
+        }
+      }
+    }
+    header(result, "fields_total", "counter", "Message fields processed by message factory operations, by field type");
+    for (final Map.Entry<String, MetricsRegistry> factory : registries.entrySet()) {
+      for (final Operation operation : Operation.values()) {
+        for (final Map.Entry<String, Long> entry : factory.getValue().getFieldCounts(operation).entrySet()) {
+          sample(result, "fields_total", "factory=\"" + escape(factory.getKey()) + "\",operation=\""
+              + operation.label() + "\",type=\"" + escape(entry.getKey()) + "\"", entry.getValue());
+        }
+      }
+    }
+    return result.toString();
+  }
+
+  /** start serving the metrics on <code>address</code>, at the path <code>/metrics</code>
+    * @return the HTTP server started
+    * @throws IOException if the server cannot be bound to the address given */
+  public synchronized HttpServer start(final InetSocketAddress address) throws IOException {
+    Preconditions.checkState(server == null, "Prometheus endpoint already started");
+    server = HttpServer.create(address, 0);
+    server.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(final HttpExchange exchange) throws IOException {
+        final byte[] body = scrape().getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream output = exchange.getResponseBody()) {
+          output.write(body);
+        }
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  /** stop the HTTP endpoint, if started */
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+  private static void header(final StringBuilder output, final String name, final String type, final String help) {
+    output.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    output.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(final StringBuilder output, final String name, final String labels, final Number value) {
+    output.append(PREFIX).append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  /** @return the <code>percentile</code> as a quantile label value, exactly (e.g., 99.9 as "0.999") */
+  static String quantile(final double percentile) {
+    return BigDecimal.valueOf(percentile).movePointLeft(2).stripTrailingZeros().toPlainString();
+  }
+
+  private static String labels(final String factory, final Operation operation, final String type) {
+    return "factory=\"" + escape(factory) + "\",operation=\"" + operation.label() + "\",mti=\"" + type + "\"";
+  }
+
+  /** @return <code>value</code> escaped for use as a Prometheus label value */
+  private static String escape(final String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
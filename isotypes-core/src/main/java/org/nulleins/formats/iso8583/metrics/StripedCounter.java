@@ -0,0 +1,48 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/** A lock-free counter, spreading updates across a number of cells (selected by thread) so
+  * that concurrent writers rarely contend for the same cache line; reads sum the cells
+  * @author phillipsr */
+public final class StripedCounter {
+  /** longs between cells, so each occupies its own (64 byte) cache line */
+  private static final int PADDING = 8;
+  private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  /** add <code>value</code> to this counter */
+  public void add(final long value) {
+    cells.addAndGet(cell(), value);
+  }
+
+  public void increment() {
+    add(1);
+  }
+
+  /** @return the current total of this counter; not an atomic snapshot if updates are in progress */
+  public long sum() {
+    long result = 0;
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      result += cells.get(stripe * PADDING);
+    }
+    return result;
+  }
+
+  private static int cell() {
+    final long id = Thread.currentThread().getId();
+    return (int) ((id ^ (id >>> 16)) & (STRIPES - 1)) * PADDING;
+  }
+
+  /** @return the smallest power of two at least twice the number of <code>processors</code> */
+  private static int stripes(final int processors) {
+    return Integer.highestOneBit(Math.max(1, processors * 2 - 1)) << 1;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(sum());
+  }
+}
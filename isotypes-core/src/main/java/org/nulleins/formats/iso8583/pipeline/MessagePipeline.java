@@ -0,0 +1,283 @@
+package org.nulleins.formats.iso8583.pipeline;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.ParseResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** Pipeline decoding, handling and encoding messages on a chain of stage threads, which hand
+  * off the messages through a preallocated ring of reusable {@link MessageSlot}s, rather than
+  * queues: each stage publishes the sequence number of the last slot it has processed, and
+  * processes the slots up to the sequence published by the stage before it, in batches, without
+  * locks or allocation per message
+  * <pre>
+  *   final MessagePipeline pipeline = MessagePipeline.Builder()
+  *       .factory(factory)
+  *       .handler(authorizer)
+  *       .output(sender)
+  *       .build();
+  *   ...
+  *   pipeline.publish(data, 0, data.length, connection);
+  * </pre>
+  * The first stage decodes the raw data published with the factory, each handler is run in its
+  * own stage, and the last stage encodes the slot's message with the factory, and passes the
+  * slot to the output handler; a slot that fails is passed over by the later handlers, and to
+  * the output handler with its error (and nothing encoded)
+  * <p/>
+  * The pipeline has a single publisher: only one thread at a time may publish messages
+  * @author phillipsr */
+public final class MessagePipeline implements Closeable {
+  private static final AtomicInteger pipelines = new AtomicInteger();
+
+  private final MessageSlot[] slots;
+  private final int mask;
+  private final WaitStrategy waitStrategy;
+  private final Sequence cursor = new Sequence();
+  private final List<Stage> stages = new ArrayList<>();
+  private final Stage last;
+  private volatile boolean closed;
+  /** the last sequence published, and the last known sequence processed by the last stage */
+  private long published = -1;
+  private long gate = -1;
+
+  private MessagePipeline(final Builder builder) {
+    slots = new MessageSlot[builder.size];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new MessageSlot(builder.slotCapacity);
+    }
+    mask = slots.length - 1;
+    waitStrategy = builder.waitStrategy;
+    final MessageFactory factory = builder.factory;
+    final String name = "isotypes-pipeline-" + pipelines.incrementAndGet();
+
+    Stage stage = new Stage(name + "-decode", null, true, new SlotHandler() {
+      @Override
+      public void handle(final MessageSlot slot) throws ParseException {
+        final ParseResult result = factory.tryParse(slot.getData(), 0, slot.getLength());
+        if (!result.isSuccess()) {
+          throw new ParseException(result.toString(), result.getOffset());
+        }
+        slot.setMessage(result.getMessage());
+      }
+    });
+    stages.add(stage);
+    for (final SlotHandler handler : builder.handlers) {
+      stage = new Stage(name + "-handler-" + stages.size(), stage, false, handler);
+      stages.add(stage);
+    }
+    final SlotHandler output = builder.output;
+    last = new Stage(name + "-encode", stage, true, new SlotHandler() {
+      @Override
+      public void handle(final MessageSlot slot) {
+        if (slot.getError() == null && slot.getMessage() != null) {
+          try {
+            factory.writeToStream(slot.getMessage(), slot.getOutputStream());
+          } catch (final IOException | RuntimeException e) {
+            slot.getOutputStream().reset();
+            slot.fail(e);
+          }
+        }
+        try {
+          output.handle(slot);
+        } catch (final Exception e) {
+          final Thread thread = Thread.currentThread();
+          thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+      }
+    });
+    stages.add(last);
+    for (final Stage each : stages) {
+      each.thread.start();
+    }
+  }
+
+  /** publish a copy of the <code>length</code> bytes of message <code>data</code> at <code>offset</code>,
+    * with its <code>context</code> (passed to the handlers in the slot), waiting while the pipeline is full
+    * @return the sequence number of the message
+    * @throws IllegalStateException if the pipeline has been closed */
+  public long publish(final byte[] data, final int offset, final int length, final Object context) {
+    Preconditions.checkState(!closed, "Pipeline has been closed");
+    Preconditions.checkPositionIndexes(offset, offset + length, data.length);
+    final long next = published + 1;
+    int attempts = 0;
+    while (!hasCapacity(next)) {
+      waitStrategy.idle(attempts++);
+    }
+    return publish(next, data, offset, length, context);
+  }
+
+  /** publish the message data as {@link #publish(byte[], int, int, Object)}, if the pipeline is not full
+    * @return the sequence number of the message, or -1 if the pipeline is full
+    * @throws IllegalStateException if the pipeline has been closed */
+  public long tryPublish(final byte[] data, final int offset, final int length, final Object context) {
+    Preconditions.checkState(!closed, "Pipeline has been closed");
+    Preconditions.checkPositionIndexes(offset, offset + length, data.length);
+    final long next = published + 1;
+    return hasCapacity(next) ? publish(next, data, offset, length, context) : -1;
+  }
+
+  private long publish(final long sequence, final byte[] data, final int offset, final int length, final Object context) {
+    slots[(int) sequence & mask].publish(sequence, data, offset, length, context);
+    published = sequence;
+    cursor.set(sequence);
+    return sequence;
+  }
+
+  /** @return true if the slot of the <code>sequence</code> has been processed by the last stage */
+  private boolean hasCapacity(final long sequence) {
+    final long wrap = sequence - slots.length;
+    if (wrap > gate) {
+      gate = last.sequence.get();
+      return wrap <= gate;
+    }
+    return true;
+  }
+
+  /** @return the number of messages published and not yet processed by the last stage */
+  public int getPendingCount() {
+    return (int) (cursor.get() - last.sequence.get());
+  }
+
+  /** stop accepting messages: those already published pass through the pipeline before the
+    * stage threads terminate; should be called by the publishing thread */
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  /** @return true if the stage threads terminated within the <code>timeout</code>, having been closed */
+  public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (final Stage stage : stages) {
+      final long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remaining > 0) {
+        stage.thread.join(remaining);
+      }
+      if (stage.thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** a stage thread, processing the slots published by the stage before it (or the publisher) */
+  private final class Stage implements Runnable {
+    private final Sequence sequence = new Sequence();
+    private final Stage upstream;
+    private final Sequence barrier;
+    private final boolean always;
+    private final SlotHandler handler;
+    private final Thread thread;
+    private volatile boolean done;
+
+    /** @param always if the handler is to be called for failed slots */
+    private Stage(final String name, final Stage upstream, final boolean always, final SlotHandler handler) {
+      this.upstream = upstream;
+      this.barrier = upstream != null ? upstream.sequence : cursor;
+      this.always = always;
+      this.handler = handler;
+      this.thread = new Thread(this, name);
+      this.thread.setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      long next = 0;
+      int attempts = 0;
+      while (true) {
+        final long available = barrier.get();
+        if (available >= next) {
+          for (; next <= available; next++) {
+            process(slots[(int) next & mask]);
+          }
+          sequence.set(available);
+          attempts = 0;
+        } else if (upstream != null ? upstream.done : closed) {
+          // the upstream has finished: recheck for slots published before it did
+          if (barrier.get() < next) {
+            done = true;
+            return;
+          }
+        } else {
+          waitStrategy.idle(attempts++);
+        }
+      }
+    }
+
+    private void process(final MessageSlot slot) {
+      if (always || slot.getError() == null) {
+        try {
+          handler.handle(slot);
+        } catch (final Exception e) {
+          slot.fail(e);
+        }
+      }
+    }
+  }
+
+  public static Builder Builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private MessageFactory factory;
+    private int size = 1024;
+    private int slotCapacity = 512;
+    private WaitStrategy waitStrategy = WaitStrategy.YIELD;
+    private final List<SlotHandler> handlers = new ArrayList<>();
+    private SlotHandler output;
+
+    public Builder factory(final MessageFactory factory) {
+      this.factory = factory;
+      return this;
+    }
+
+    /** the number of slots in the ring, a power of two (default: 1024) */
+    public Builder size(final int size) {
+      this.size = size;
+      return this;
+    }
+
+    /** the initial capacity of each slot's data buffer, grown to hold larger messages (default: 512) */
+    public Builder slotCapacity(final int capacity) {
+      this.slotCapacity = capacity;
+      return this;
+    }
+
+    /** how the stages wait for messages (default: {@link WaitStrategy#YIELD}) */
+    public Builder waitStrategy(final WaitStrategy waitStrategy) {
+      this.waitStrategy = waitStrategy;
+      return this;
+    }
+
+    /** add a stage running the <code>handler</code>, after those previously added */
+    public Builder handler(final SlotHandler handler) {
+      Preconditions.checkNotNull(handler, "Handler cannot be null");
+      handlers.add(handler);
+      return this;
+    }
+
+    /** pass each slot to the <code>handler</code> once its message has been encoded (or failed) */
+    public Builder output(final SlotHandler handler) {
+      this.output = handler;
+      return this;
+    }
+
+    public MessagePipeline build() {
+      Preconditions.checkNotNull(factory, "Message factory is required");
+      Preconditions.checkNotNull(output, "Output handler is required");
+      Preconditions.checkNotNull(waitStrategy, "Wait strategy is required");
+      Preconditions.checkArgument(size > 0 && Integer.bitCount(size) == 1, "Size must be a power of two");
+      Preconditions.checkArgument(slotCapacity > 0, "Slot capacity must be positive");
+      return new MessagePipeline(this);
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package org.nulleins.formats.iso8583.pipeline;
+
+import org.nulleins.formats.iso8583.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+
+/** A reusable holder of a message passing through a {@link MessagePipeline}: the raw data
+  * published, the message decoded from it (and replaced by the handlers), and the data encoded
+  * from the message at the end of the pipeline
+  * <p/>
+  * The slots of a pipeline are allocated when it is created, and are overwritten when the ring
+  * wraps, so references to the slot or its buffers must not be retained after a handler returns
+  * @author phillipsr */
+public final class MessageSlot {
+  private byte[] data;
+  private int length;
+  private Object context;
+  private Message message;
+  private Exception error;
+  private long sequence;
+  private final Output output = new Output();
+
+  /** an output stream whose buffer is reused, and read in place */
+  private static final class Output extends ByteArrayOutputStream {
+    private Output() {
+      super(256);
+    }
+
+    private byte[] buffer() {
+      return buf;
+    }
+  }
+
+  MessageSlot(final int capacity) {
+    data = new byte[capacity];
+  }
+
+  /** reset the slot to hold a copy of the <code>length</code> bytes of <code>source</code> at <code>offset</code> */
+  void publish(final long sequence, final byte[] source, final int offset, final int length, final Object context) {
+    if (length > data.length) {
+      data = Arrays.copyOf(data, Math.max(length, data.length * 2));
+    }
+    System.arraycopy(source, offset, data, 0, length);
+    this.sequence = sequence;
+    this.length = length;
+    this.context = context;
+    message = null;
+    error = null;
+    output.reset();
+  }
+
+  /** @return the sequence number of the slot's message in the pipeline */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /** @return the buffer holding the raw message data, from offset zero, to be read in place */
+  public byte[] getData() {
+    return data;
+  }
+
+  /** @return the length of the raw message data */
+  public int getLength() {
+    return length;
+  }
+
+  /** @return the context published with the message (e.g., the connection it was received from) */
+  public Object getContext() {
+    return context;
+  }
+
+  /** @return the message decoded from the data, as replaced by the handlers, or null if none */
+  public Message getMessage() {
+    return message;
+  }
+
+  /** replace the slot's message: it is this message (if not null) that is encoded */
+  public void setMessage(final Message message) {
+    this.message = message;
+  }
+
+  /** @return the reason processing of the message failed, or null if it has not */
+  public Exception getError() {
+    return error;
+  }
+
+  void fail(final Exception error) {
+    this.error = error;
+  }
+
+  /** @return the buffer holding the encoded message, from offset zero, to be read in place */
+  public byte[] getOutput() {
+    return output.buffer();
+  }
+
+  /** @return the length of the encoded message, zero if no message was encoded */
+  public int getOutputLength() {
+    return output.size();
+  }
+
+  ByteArrayOutputStream getOutputStream() {
+    return output;
+  }
+}
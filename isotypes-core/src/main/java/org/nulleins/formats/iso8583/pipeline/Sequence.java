@@ -0,0 +1,26 @@
+package org.nulleins.formats.iso8583.pipeline;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+
+/** A sequence number written by one thread and read by others, padded to occupy a cache line
+  * of its own, so that the sequences of adjacent stages are not falsely shared
+  * @author phillipsr */
+@SuppressWarnings("unused")
+final class Sequence {
+  private static final AtomicLongFieldUpdater<Sequence> VALUE = AtomicLongFieldUpdater.newUpdater(Sequence.class, "value");
+
+  private long p1, p2, p3, p4, p5, p6, p7;
+  private volatile long value = -1;
+  private long p9, p10, p11, p12, p13, p14, p15;
+
+  long get() {
+    return value;
+  }
+
+  /** publish the <code>sequence</code> (an ordered write: cheaper than a volatile write, as it
+    * is only read by other threads) */
+  void set(final long sequence) {
+    VALUE.lazySet(this, sequence);
+  }
+}
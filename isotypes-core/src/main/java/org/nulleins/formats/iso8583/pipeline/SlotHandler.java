@@ -0,0 +1,13 @@
+package org.nulleins.formats.iso8583.pipeline;
+
+
+/** A stage of a {@link MessagePipeline}, processing each slot in turn
+  * @author phillipsr */
+public interface SlotHandler {
+
+  /** process the message of the <code>slot</code>, which may be replaced (e.g., by the response)
+    * or cleared, if nothing is to be encoded
+    * @throws Exception to fail the slot: the later handlers are not called, and the failure is
+    *                   passed to the output handler */
+  void handle(MessageSlot slot) throws Exception;
+}
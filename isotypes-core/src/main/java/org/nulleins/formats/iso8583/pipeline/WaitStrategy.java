@@ -0,0 +1,41 @@
+package org.nulleins.formats.iso8583.pipeline;
+
+import java.util.concurrent.locks.LockSupport;
+
+
+/** How a pipeline stage (or the publisher) waits for the slots it needs to become available,
+  * trading the latency of a handoff against the CPU used while waiting
+  * @author phillipsr */
+public enum WaitStrategy {
+  /** spin on the sequence: the lowest latency, occupying a core per stage */
+  BUSY_SPIN {
+    @Override
+    void idle(final int attempts) {
+    }
+  },
+  /** yield the processor between checks: low latency, giving way to other runnable threads */
+  YIELD {
+    @Override
+    void idle(final int attempts) {
+      Thread.yield();
+    }
+  },
+  /** yield for a short time, then park between checks: the least CPU, at a latency of tens of
+    * microseconds when idle */
+  PARK {
+    @Override
+    void idle(final int attempts) {
+      if (attempts < SPINS) {
+        Thread.yield();
+      } else {
+        LockSupport.parkNanos(PARK_NANOS);
+      }
+    }
+  };
+
+  private static final int SPINS = 100;
+  private static final long PARK_NANOS = 20000;
+
+  /** wait, the <code>attempts</code>th time the sequence awaited has been found not to be available */
+  abstract void idle(int attempts);
+}
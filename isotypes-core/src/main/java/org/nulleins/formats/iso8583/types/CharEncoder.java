@@ -2,7 +2,14 @@ package org.nulleins.formats.iso8583.types;
 
 import com.google.common.base.Preconditions;
 
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 
 /** Holds the character set that should be used for text encoding and decoding,
   * and provides the methods for encoding/decoding to/from byte[]/String
@@ -10,6 +17,15 @@ import java.nio.charset.Charset;
 public class CharEncoder {
   public static final CharEncoder ASCII = new CharEncoder("US-ASCII");
   private final Charset charset;
+  /** encoders are stateful, so one is kept per thread */
+  private final ThreadLocal<CharsetEncoder> encoder = new ThreadLocal<CharsetEncoder>() {
+    @Override
+    protected CharsetEncoder initialValue() {
+      return charset.newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+  };
 
   /** Set the charset that should be used for writing text field values
     * @param charsetName JVM name of charset (see {@link java.nio.charset.Charset})
@@ -27,12 +43,58 @@ public class CharEncoder {
     return charset.name();
   }
 
+  /** @return the maximum number of bytes a character is written as, in this character encoding */
+  public int maxBytesPerChar() {
+    return (int) Math.ceil(encoder.get().maxBytesPerChar());
+  }
+
   /** @return a String in this character encoding, initialized from the byte data supplied
     * @param data bytes to be converted */
   public String getString(final byte[] data) {
     return new String(data, charset);
   }
 
+  /** @return a String in this character encoding, initialized from the <code>length</code> bytes
+    * at the position of <code>input</code>, which is advanced past them
+    * @param input buffer holding the bytes to be converted
+    * @throws BufferUnderflowException if fewer than <code>length</code> bytes remain */
+  public String getString(final ByteBuffer input, final int length) {
+    final String result;
+    if (input.hasArray()) {
+      if (input.remaining() < length) {
+        throw new BufferUnderflowException();
+      }
+      result = new String(input.array(), input.arrayOffset() + input.position(), length, charset);
+      input.position(input.position() + length);
+    } else {
+      final byte[] data = new byte[length];
+      input.get(data);
+      result = new String(data, charset);
+    }
+    return result;
+  }
+
+  /** Write the characters of <code>data</code> in this character encoding at the position of
+    * <code>output</code>, which is advanced past them (unmappable characters are replaced,
+    * as by {@link #getBytes(String)})
+    * @return the number of bytes written
+    * @param data characters to be written
+    * @param output buffer to write the encoded characters to
+    * @throws BufferOverflowException if the encoded characters do not fit in the buffer */
+  public int put(final CharSequence data, final ByteBuffer output) {
+    Preconditions.checkNotNull(data, "cannot put a null CharSequence");
+    final int start = output.position();
+    final CharsetEncoder coder = encoder.get().reset();
+    CoderResult result = coder.encode(CharBuffer.wrap(data), output, true);
+    if (!result.isOverflow()) {
+      result = coder.flush(output);
+    }
+    if (result.isOverflow()) {
+      throw new BufferOverflowException();
+    }
+    return output.position() - start;
+  }
+
   /** @return a byte array in this character encoding, initialized from the byte data supplied
     * @param data String to be converted a byte character using this character encoding */
   public byte[] getBytes(final String data) {
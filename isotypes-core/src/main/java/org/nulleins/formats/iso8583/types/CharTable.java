@@ -0,0 +1,64 @@
+package org.nulleins.formats.iso8583.types;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+
+/** Lookup tables mapping between characters and their (single byte) encoding in a charset,
+  * used to read and write digits and text directly from/to message data without creating
+  * intermediate Strings; characters that cannot be encoded in a single byte map to '?'
+  * @author phillipsr */
+public final class CharTable {
+  private static final String HEX = "0123456789ABCDEF";
+
+  private final byte[] digits = new byte[256];
+  private final byte[] hexDigits = new byte[256];
+  private final char[] chars = new char[256];
+  private final byte[] bytes = new byte[256];
+  private final byte unmapped;
+
+  public CharTable(final CharEncoder charset) {
+    Preconditions.checkNotNull(charset, "Charset cannot be null");
+    unmapped = charset.getBytes("?")[0];
+    for (int c = 0; c < 256; c++) {
+      final byte[] encoded = charset.getBytes(String.valueOf((char) c));
+      bytes[c] = encoded.length == 1 ? encoded[0] : unmapped;
+      chars[c] = charset.getString(new byte[]{(byte) c}).charAt(0);
+    }
+    Arrays.fill(digits, (byte) -1);
+    Arrays.fill(hexDigits, (byte) -1);
+    for (int i = 0; i < 16; i++) {
+      if (i < 10) {
+        digits[toByte(HEX.charAt(i)) & 0xff] = (byte) i;
+      }
+      hexDigits[toByte(HEX.charAt(i)) & 0xff] = (byte) i;
+      hexDigits[toByte(Character.toLowerCase(HEX.charAt(i))) & 0xff] = (byte) i;
+    }
+  }
+
+  /** @return the value of <code>value</code> as a decimal digit, or -1 if not a digit */
+  public int digit(final byte value) {
+    return digits[value & 0xff];
+  }
+
+  /** @return the value of <code>value</code> as a hexadecimal digit, or -1 if not a hex digit */
+  public int hexDigit(final byte value) {
+    return hexDigits[value & 0xff];
+  }
+
+  /** @return the encoding of the decimal or (upper case) hexadecimal <code>digit</code> */
+  public byte digitByte(final int digit) {
+    return toByte(HEX.charAt(digit));
+  }
+
+  /** @return the character encoded by <code>value</code> */
+  public char toChar(final byte value) {
+    return chars[value & 0xff];
+  }
+
+  /** @return the single byte encoding of <code>value</code>, or that of '?' if it has none */
+  public byte toByte(final char value) {
+    return value < 256 ? bytes[value] : unmapped;
+  }
+}
@@ -0,0 +1,331 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Optional;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.nulleins.formats.iso8583.config.SampleMessages;
+import org.nulleins.formats.iso8583.io.BCDMessageReader;
+import org.nulleins.formats.iso8583.io.BCDMessageWriter;
+import org.nulleins.formats.iso8583.io.CharMessageReader;
+import org.nulleins.formats.iso8583.io.CharMessageWriter;
+import org.nulleins.formats.iso8583.io.MessageReader;
+import org.nulleins.formats.iso8583.io.MessageWriter;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+
+/** Allocation budget for each sample message: the bytes allocated per parse, per write and per
+  * transform are measured and must not exceed the budgets configured in
+  * <code>allocationBudgets.properties</code> (keyed <code>sample.operation</code>, and which
+  * can be overridden with <code>-Dallocation.budget.sample.operation=bytes</code>)
+  * <p/>
+  * The allocation of each call site involved (header, MTI, bitmap and each field's read/parse
+  * or format/write) is also measured, and a ranked breakdown is written to
+  * <code>build/reports/allocation</code> (or <code>-Dallocation.report.dir</code>) */
+@RunWith(Parameterized.class)
+public class AllocationBudgetTest {
+  private static final String BUDGETS = "/allocationBudgets.properties";
+  private static final String BUDGET_PROPERTY = "allocation.budget.";
+  private static final String REPORT_DIR = "allocation.report.dir";
+
+  private static final AllocationMeter meter = AllocationMeter.create(2000, 500);
+  private static final AllocationMeter siteMeter = AllocationMeter.create(500, 200);
+  private static final List<Row> report = Collections.synchronizedList(new ArrayList<Row>());
+  private static Properties budgets;
+
+  private final String sample;
+  private final MessageFactory factory;
+  private final Message message;
+  private final byte[] data;
+
+  public AllocationBudgetTest(final String sample, final SampleMessages.Sample data) {
+    this.sample = sample;
+    this.factory = data.getFactory();
+    this.message = data.getMessage();
+    this.data = data.getData();
+  }
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> samples() {
+    final List<Object[]> result = new ArrayList<>();
+    for (final SampleMessages.Scenario scenario : SampleMessages.Scenario.values()) {
+      result.add(new Object[]{scenario.name(), SampleMessages.create(scenario)});
+    }
+    return result;
+  }
+
+  @BeforeClass
+  public static void loadBudgets() throws IOException {
+    budgets = new Properties();
+    try (final InputStream input = AllocationBudgetTest.class.getResourceAsStream(BUDGETS)) {
+      assertThat("Allocation budgets " + BUDGETS + " not found", input, notNullValue());
+      budgets.load(input);
+    }
+  }
+
+  @Test
+  public void parseWithinBudget() throws IOException {
+    Assume.assumeTrue(meter.isSupported());
+    final long total = meter.bytesPerOperation(new AllocationMeter.Operation() {
+      @Override
+      public void run() throws Exception {
+        factory.parse(data);
+      }
+    });
+    record("parse", "(total)", total);
+    measureParseSites();
+    checkBudget("parse", total);
+  }
+
+  @Test
+  public void writeWithinBudget() throws IOException {
+    Assume.assumeTrue(meter.isSupported());
+    final long total = meter.bytesPerOperation(new AllocationMeter.Operation() {
+      @Override
+      public void run() {
+        factory.getMessageData(message);
+      }
+    });
+    record("write", "(total)", total);
+    measureWriteSites();
+    checkBudget("write", total);
+  }
+
+  @Test
+  public void transformWithinBudget() {
+    Assume.assumeTrue(meter.isSupported());
+    final MTI response = responseType();
+    final HashMap<String, Object> extraFields = new HashMap<>();
+    final long total = meter.bytesPerOperation(new AllocationMeter.Operation() {
+      @Override
+      public void run() {
+        factory.transform(response, message, extraFields);
+      }
+    });
+    record("transform", "(total)", total);
+    checkBudget("transform", total);
+  }
+
+  /** transform is measured from a request to its response (e.g., 0200 to 0210), or to the
+    * request type itself for schemas that do not define the response */
+  private MTI responseType() {
+    final MTI response = MTI.create(message.getMTI().intValue() + 0x10);
+    return factory.canBuild(response) ? response : message.getMTI();
+  }
+
+  /** measure each of the reads made by the parser, each on a reusable input stream positioned
+    * at the data that the parser would read at that point */
+  private void measureParseSites() throws IOException {
+    final MessageReader reader = factory.getContentType() == ContentType.TEXT
+        ? new CharMessageReader(factory.getCharset()) : new BCDMessageReader(factory.getCharset());
+    final MessageTemplate template = factory.getTemplate(message.getMTI());
+    final int headerLength = factory.getHeader().length();
+    int offset = 0;
+    if (headerLength > 0) {
+      offset = readSite("readHeader", offset, new Read() {
+        @Override
+        public Object read(final DataInputStream input) throws IOException {
+          return reader.readHeader(headerLength, input);
+        }
+      });
+    }
+    offset = readSite("readMTI", offset, new Read() {
+      @Override
+      public Object read(final DataInputStream input) throws IOException {
+        return reader.readMTI(input);
+      }
+    });
+    offset = readSite("readBitmap", offset, new Read() {
+      @Override
+      public Object read(final DataInputStream input) throws IOException {
+        return reader.readBitmap(factory.getBitmapType(), input);
+      }
+    });
+    for (final Integer number : new TreeSet<>(message.getFields().keySet())) {
+      if (!message.getFields().get(number).isPresent()) {
+        continue;
+      }
+      final FieldTemplate field = template.getFields().get(number);
+      final Read readField = new Read() {
+        @Override
+        public Object read(final DataInputStream input) throws IOException {
+          return reader.readField(field, input);
+        }
+      };
+      final byte[] fieldData = (byte[]) readField.read(input(offset));
+      offset = readSite(siteName("readField", field), offset, readField);
+      record("parse", siteName("parse", field), siteMeter.bytesPerOperation(new AllocationMeter.Operation() {
+        @Override
+        public void run() {
+          template.parse(fieldData, field);
+        }
+      }));
+    }
+  }
+
+  /** measure each of the writes made by the factory, onto a reusable output stream */
+  private void measureWriteSites() {
+    final MessageWriter writer = factory.getContentType() == ContentType.TEXT
+        ? new CharMessageWriter(factory.getCharset()) : new BCDMessageWriter(factory.getCharset());
+    final MessageTemplate template = factory.getTemplate(message.getMTI());
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length);
+    final DataOutputStream output = new DataOutputStream(buffer);
+    writeSite("appendHeader", buffer, new AllocationMeter.Operation() {
+      @Override
+      public void run() throws Exception {
+        writer.appendHeader(factory.getHeader(), output);
+      }
+    });
+    writeSite("appendMTI", buffer, new AllocationMeter.Operation() {
+      @Override
+      public void run() throws Exception {
+        writer.appendMTI(message.getMTI(), output);
+      }
+    });
+    writeSite("appendBitmap", buffer, new AllocationMeter.Operation() {
+      @Override
+      public void run() throws Exception {
+        writer.appendBitmap(template.getBitmap(), factory.getBitmapType(), output);
+      }
+    });
+    for (final Integer number : new TreeSet<>(message.getFields().keySet())) {
+      final Optional<Object> value = message.getFields().get(number);
+      if (!value.isPresent()) {
+        continue;
+      }
+      final FieldTemplate field = template.getFields().get(number);
+      writeSite(siteName("appendField", field), buffer, new AllocationMeter.Operation() {
+        @Override
+        public void run() throws Exception {
+          writer.appendField(template.getFormatter(field.getType()), field, value.get(), output);
+        }
+      });
+    }
+  }
+
+  private interface Read {
+    Object read(DataInputStream input) throws IOException;
+  }
+
+  /** @return the offset following the data consumed by <code>read</code>, having recorded
+    * the allocation of reading from <code>offset</code> */
+  private int readSite(final String site, final int offset, final Read read) throws IOException {
+    final ByteArrayInputStream bytes = new ByteArrayInputStream(data, offset, data.length - offset);
+    final DataInputStream input = new DataInputStream(bytes);
+    read.read(input);
+    final int next = data.length - bytes.available();
+    record("parse", site, siteMeter.bytesPerOperation(new AllocationMeter.Operation() {
+      @Override
+      public void run() throws Exception {
+        bytes.reset();
+        read.read(input);
+      }
+    }));
+    return next;
+  }
+
+  private void writeSite(final String site, final ByteArrayOutputStream buffer, final AllocationMeter.Operation write) {
+    record("write", site, siteMeter.bytesPerOperation(new AllocationMeter.Operation() {
+      @Override
+      public void run() throws Exception {
+        buffer.reset();
+        write.run();
+      }
+    }));
+  }
+
+  private DataInputStream input(final int offset) {
+    return new DataInputStream(new ByteArrayInputStream(data, offset, data.length - offset));
+  }
+
+  private static String siteName(final String operation, final FieldTemplate field) {
+    return String.format("%s field %3d (%s %s)", operation, field.getNumber(), field.getType(), field.getDimension());
+  }
+
+  private void record(final String operation, final String site, final long bytes) {
+    report.add(new Row(sample, operation, site, bytes));
+  }
+
+  private void checkBudget(final String operation, final long measured) {
+    final String key = sample + "." + operation;
+    final String budget = System.getProperty(BUDGET_PROPERTY + key, budgets.getProperty(key));
+    assertThat("No allocation budget defined for " + key + " (measured " + measured + " bytes)",
+        budget, notNullValue());
+    assertThat("Bytes allocated per " + key, measured, lessThanOrEqualTo(Long.parseLong(budget.trim())));
+  }
+
+  /** write the per-call-site breakdown, ranked by bytes allocated within each operation */
+  @AfterClass
+  public static void writeReport() throws IOException {
+    if (report.isEmpty()) {
+      return;
+    }
+    final List<Row> rows = new ArrayList<>(report);
+    Collections.sort(rows, new Comparator<Row>() {
+      @Override
+      public int compare(final Row first, final Row second) {
+        int result = first.sample.compareTo(second.sample);
+        if (result == 0) {
+          result = first.operation.compareTo(second.operation);
+        }
+        return result != 0 ? result : Long.compare(second.bytes, first.bytes);
+      }
+    });
+    final File directory = new File(System.getProperty(REPORT_DIR, "build/reports/allocation"));
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create allocation report directory: " + directory);
+    }
+    try (final Writer output = new FileWriter(new File(directory, "allocation-report.txt"))) {
+      output.write(String.format("%-22s %-10s %-48s %10s%n", "Sample", "Operation", "Call site", "Bytes/op"));
+      for (final Row row : rows) {
+        output.write(row.toString());
+      }
+    }
+  }
+
+  private static final class Row {
+    private final String sample;
+    private final String operation;
+    private final String site;
+    private final long bytes;
+
+    private Row(final String sample, final String operation, final String site, final long bytes) {
+      this.sample = sample;
+      this.operation = operation;
+      this.site = site;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-22s %-10s %-48s %10d%n", sample, operation, site, bytes);
+    }
+  }
+
+}
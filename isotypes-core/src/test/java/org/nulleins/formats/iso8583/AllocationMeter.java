@@ -0,0 +1,79 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Preconditions;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/** Measures the heap allocated by the current thread to perform an operation, using the
+  * per-thread allocation counter of the HotSpot <code>com.sun.management.ThreadMXBean</code>
+  * (no profiler or agent is required)
+  * <p/>
+  * Each measurement first runs the operation <code>warmup</code> times, so that the figures
+  * reflect compiled code, then reports the mean over <code>iterations</code> runs */
+public final class AllocationMeter {
+  /** an operation whose allocation is to be measured */
+  public interface Operation {
+    void run() throws Exception;
+  }
+
+  private static final Operation NOTHING = new Operation() {
+    @Override
+    public void run() {}
+  };
+
+  private final com.sun.management.ThreadMXBean threads;
+  private final int warmup;
+  private final int iterations;
+  private final long overhead;
+
+  private AllocationMeter(final com.sun.management.ThreadMXBean threads, final int warmup, final int iterations) {
+    this.threads = threads;
+    this.warmup = warmup;
+    this.iterations = iterations;
+    this.overhead = threads != null ? measure(NOTHING) : 0;
+  }
+
+  /** @return a meter that warms each operation up <code>warmup</code> times, then measures
+    * the mean allocation over <code>iterations</code> runs */
+  public static AllocationMeter create(final int warmup, final int iterations) {
+    Preconditions.checkArgument(warmup >= 0 && iterations > 0, "iterations must be > 0");
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+      final com.sun.management.ThreadMXBean allocating = (com.sun.management.ThreadMXBean) threads;
+      allocating.setThreadAllocatedMemoryEnabled(true);
+      return new AllocationMeter(allocating, warmup, iterations);
+    }
+    return new AllocationMeter(null, warmup, iterations);
+  }
+
+  /** @return true if this JVM can report per-thread allocation */
+  public boolean isSupported() {
+    return threads != null;
+  }
+
+  /** @return the mean number of bytes allocated by one run of <code>operation</code>
+    * @throws IllegalStateException if this JVM cannot report per-thread allocation */
+  public long bytesPerOperation(final Operation operation) {
+    Preconditions.checkState(isSupported(), "Thread allocation measurement not supported by this JVM");
+    return Math.max(0, measure(operation) - overhead);
+  }
+
+  private long measure(final Operation operation) {
+    try {
+      for (int i = 0; i < warmup; i++) {
+        operation.run();
+      }
+      final long threadId = Thread.currentThread().getId();
+      final long start = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < iterations; i++) {
+        operation.run();
+      }
+      return (threads.getThreadAllocatedBytes(threadId) - start) / iterations;
+    } catch (final Exception e) {
+      throw new IllegalStateException("Operation failed during allocation measurement", e);
+    }
+  }
+
+}
@@ -0,0 +1,160 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+
+/** @author phillipsr */
+public class TestAsyncMessageFactory {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MTI RESPONSE = MTI.create(0x0210);
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("asyncTest")
+      .header("ISO")
+      .contentType(ContentType.TEXT)
+      .bitmapType(BitmapType.HEX)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(template(REQUEST))
+      .addTemplate(template(RESPONSE))
+      .build();
+
+  private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+  private static MessageTemplate template(final MTI type) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageTemplate.Builder().header("ISO").type(type).fieldlist(asList(
+        builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+        builder.f(39).type(FieldType.ALPHANUM).dim("fixed(2)").name("responseCode").optional().build(),
+        builder.f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").build())).build();
+  }
+
+  private static Message request(final int stan) {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(11, stan);
+    fields.put(41, "ATM-1010");
+    return factory.createByNumbers(REQUEST, fields);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void testRunsOperationsOnExecutor() throws Exception {
+    final AsyncMessageFactory async = new AsyncMessageFactory(factory, pool);
+    final Message request = request(42);
+    final byte[] data = async.writeAsync(request).get(5, TimeUnit.SECONDS);
+    assertThat(data, is(factory.getMessageData(request)));
+    assertThat(async.parseAsync(data).get(5, TimeUnit.SECONDS), is(request));
+
+    final Map<String, Object> extra = new HashMap<>();
+    extra.put("responseCode", "00");
+    final Message response = async.transformAsync(RESPONSE, request, extra).get(5, TimeUnit.SECONDS);
+    assertThat(response.getMTI(), is(RESPONSE));
+    assertThat(response.getFieldValue(39).get(), is((Object) "00"));
+  }
+
+  @Test
+  public void testFailsWithUncheckedException() throws Exception {
+    final AsyncMessageFactory async = new AsyncMessageFactory(factory, pool);
+    try {
+      async.parseAsync("ISO0200XYZ".getBytes()).get(5, TimeUnit.SECONDS);
+    } catch (final ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(MessageException.class));
+      return;
+    }
+    throw new AssertionError("Malformed message parsed");
+  }
+
+  @Test
+  public void testBatchesOperations() throws Exception {
+    final Queue<Runnable> submitted = new LinkedList<>();
+    final Executor deferred = new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        submitted.add(command);
+      }
+    };
+    final AsyncMessageFactory async = new AsyncMessageFactory(factory, deferred, 2, 64);
+    final List<ListenableFuture<byte[]>> results = new ArrayList<>();
+    for (int stan = 0; stan < 1000; stan++) {
+      results.add(async.writeAsync(request(stan)));
+    }
+    assertThat(submitted.size(), is(2));
+    int handoffs = 0;
+    for (Runnable drain = submitted.poll(); drain != null; drain = submitted.poll()) {
+      drain.run();
+      handoffs++;
+    }
+    // 16 batches, and the second drain finding the queue empty
+    assertThat(handoffs, is(1000 / 64 + 2));
+    for (int stan = 0; stan < 1000; stan++) {
+      assertThat(results.get(stan).get(), is(factory.getMessageData(request(stan))));
+    }
+  }
+
+  @Test
+  public void testRunsRejectedOperationsOnCaller() throws Exception {
+    final AsyncMessageFactory async = new AsyncMessageFactory(factory, pool);
+    pool.shutdown();
+    final ListenableFuture<byte[]> result = async.writeAsync(request(1));
+    assertThat(result.isDone(), is(true));
+    assertThat(result.get(), is(factory.getMessageData(request(1))));
+  }
+
+  @Test
+  public void testDrainsOnRejectionOfHandoff() throws Exception {
+    final Queue<Runnable> submitted = new LinkedList<>();
+    final AtomicBoolean rejecting = new AtomicBoolean();
+    final Executor executor = new Executor() {
+      @Override
+      public void execute(final Runnable command) {
+        if (rejecting.get()) {
+          throw new RejectedExecutionException("Rejected");
+        }
+        submitted.add(command);
+      }
+    };
+    final AsyncMessageFactory async = new AsyncMessageFactory(factory, executor, 1, 1);
+    final List<ListenableFuture<byte[]>> results = new ArrayList<>();
+    for (int stan = 0; stan < 3; stan++) {
+      results.add(async.writeAsync(request(stan)));
+    }
+    assertThat(submitted.size(), is(1));
+    // the drain's hand-off of the remaining operations is rejected
+    rejecting.set(true);
+    submitted.poll().run();
+    for (final ListenableFuture<byte[]> result : results) {
+      assertThat(result.isDone(), is(true));
+    }
+    // the drain count was released: later operations are still run
+    final ListenableFuture<byte[]> later = async.writeAsync(request(4));
+    assertThat(later.isDone(), is(true));
+    assertThat(later.get(), is(factory.getMessageData(request(4))));
+  }
+}
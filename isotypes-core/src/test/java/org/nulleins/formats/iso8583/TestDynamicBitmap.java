@@ -0,0 +1,85 @@
+package org.nulleins.formats.iso8583;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestDynamicBitmap {
+  private static final MTI REQUEST = MTI.create(0x0100);
+
+  private static MessageFactory createFactory(final BitmapType bitmapType) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("bitmapTest")
+        .header("ISO")
+        .bitmapType(bitmapType)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(REQUEST).fieldlist(asList(
+            builder.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+            builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").optional().build(),
+            builder.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build(),
+            builder.f(70).type(FieldType.NUMERIC).dim("fixed(3)").name("networkCode").optional().build(),
+            builder.f(130).type(FieldType.NUMERIC).dim("fixed(6)").name("field130").optional().build())).build())
+        .build();
+  }
+
+  private static final MessageFactory factory = createFactory(BitmapType.HEX);
+
+  @Test
+  public void testBitmapOmitsAbsentFields() throws Exception {
+    final Map<Integer, Object> values = new HashMap<>();
+    values.put(2, new BigInteger("4111111111111111"));
+    values.put(4, new BigInteger("1500"));
+    final byte[] data = factory.getMessageData(factory.createByNumbers(REQUEST, values));
+    assertThat(new String(data), is("ISO0100" + "5000000000000000" + "164111111111111111" + "000000001500"));
+    assertThat(factory.parse(data), is(factory.createByNumbers(REQUEST, values)));
+  }
+
+  @Test
+  public void testBitmapIndicatesFurtherBitmaps() throws Exception {
+    final Map<Integer, Object> values = new HashMap<>();
+    values.put(2, new BigInteger("4111111111111111"));
+    values.put(4, new BigInteger("1500"));
+    values.put(130, new BigInteger("123456"));
+    for (final BitmapType bitmapType : BitmapType.values()) {
+      final MessageFactory factory = createFactory(bitmapType);
+      final byte[] data = factory.getMessageData(factory.createByNumbers(REQUEST, values));
+      final String bitmap = "D000000000000000" + "8000000000000000" + "4000000000000000";
+      if (bitmapType == BitmapType.HEX) {
+        assertThat(new String(data, 7, 48), is(bitmap));
+      } else {
+        assertThat(Arrays.copyOfRange(data, 7, 31), is(hex(bitmap)));
+      }
+      assertThat(factory.parse(data), is(factory.createByNumbers(REQUEST, values)));
+    }
+  }
+
+  @Test
+  public void testRejectsMissingMandatoryField() {
+    final ParseResult result = factory.tryParse(("ISO0100" + "4000000000000000" + "164111111111111111").getBytes());
+    assertThat(result.getError(), is(ParseResult.ErrorCode.MISSING_FIELD));
+    assertThat(result.getField(), is(4));
+  }
+
+  private static byte[] hex(final String value) {
+    final byte[] result = new byte[value.length() / 2];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (byte) Integer.parseInt(value.substring(2 * i, 2 * i + 2), 16);
+    }
+    return result;
+  }
+}
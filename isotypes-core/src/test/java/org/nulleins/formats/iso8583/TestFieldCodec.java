@@ -0,0 +1,109 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.formatters.FieldCodec;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.formatters.TypeFormatters;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestFieldCodec {
+  private static final CharEncoder EBCDIC = new CharEncoder("Cp1047");
+  private final TypeFormatters formatters = new TypeFormatters(EBCDIC);
+
+  @Test
+  public void testEncodesInCharset() {
+    final ByteBuffer output = ByteBuffer.allocate(16);
+    output.position(3);
+    final int length = formatters.getFormatter(FieldType.ALPHANUM)
+        .encode(FieldType.ALPHANUM, "ABC12", Dimension.parse("fixed(8)"), output);
+    assertThat(length, is(8));
+    assertThat(output.position(), is(11));
+    assertThat(Arrays.copyOfRange(output.array(), 3, 11), is(EBCDIC.getBytes("ABC12   ")));
+
+    output.clear();
+    formatters.getFormatter(FieldType.NUMSIGNED)
+        .encode(FieldType.NUMSIGNED, BigInteger.valueOf(-123), Dimension.parse("fixed(7)"), output);
+    assertThat(Arrays.copyOf(output.array(), output.position()), is(EBCDIC.getBytes("D000123")));
+  }
+
+  @Test
+  public void testDecodesBufferRange() throws ParseException {
+    for (final ByteBuffer input : new ByteBuffer[]{ByteBuffer.allocate(32), ByteBuffer.allocateDirect(32)}) {
+      input.put(EBCDIC.getBytes("XXC0001234YYY")).flip();
+      input.position(2);
+      final Object value = formatters.getFormatter(FieldType.NUMSIGNED)
+          .decode(FieldType.NUMSIGNED, Dimension.parse("fixed(8)"), input, 8);
+      assertThat(value, is((Object) BigInteger.valueOf(1234)));
+      assertThat(input.position(), is(10));
+    }
+  }
+
+  @Test
+  public void testAdaptsTypeFormatter() throws ParseException {
+    formatters.setFormatter("UPPER", new TypeFormatter<String>() {
+      @Override
+      public String parse(final String type, final Dimension dimension, final int position, final byte[] data) {
+        return decode(data).toLowerCase();
+      }
+      @Override
+      public byte[] format(final String type, final Object data, final Dimension dimension) {
+        return data.toString().toUpperCase().getBytes();
+      }
+      @Override
+      public boolean isValid(final Object value, final String type, final Dimension dimension) {
+        return value != null;
+      }
+    });
+    final FieldCodec<?> codec = formatters.getFormatter("UPPER");
+    final ByteBuffer buffer = ByteBuffer.allocate(16);
+    assertThat(codec.encode("UPPER", "abc", Dimension.parse("llvar(10)"), buffer), is(3));
+    assertThat(Arrays.copyOf(buffer.array(), 3), is(EBCDIC.getBytes("ABC")));
+    buffer.flip();
+    assertThat(codec.decode("UPPER", Dimension.parse("llvar(10)"), buffer, 3), is((Object) "abc"));
+  }
+
+  @Test(expected = MessageException.class)
+  public void testRejectsOverlongValue() {
+    final FieldTemplate field = FieldTemplate.localBuilder().get()
+        .f(2).type(FieldType.ALPHANUM).dim("fixed(4)").name("code").build();
+    field.encode("ABCDE", formatters.getFormatter(FieldType.ALPHANUM), ByteBuffer.allocate(4));
+  }
+
+  @Test
+  public void testWritesMultiByteCharset() throws Exception {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    final MessageFactory factory = MessageFactory.Builder()
+        .id("codecUtf16Test")
+        .header("")
+        .contentType(ContentType.TEXT)
+        .bitmapType(BitmapType.HEX)
+        .charset(new CharEncoder("UTF-16BE"))
+        .addTemplate(MessageTemplate.Builder().header("").type(MTI.create(0x0200)).fieldlist(Arrays.asList(
+            builder.f(43).type(FieldType.ALPHANUMSYMBOL).dim("fixed(40)").name("location").build(),
+            builder.f(44).type(FieldType.ALPHANUMSYMBOL).dim("lllvar(60)").name("note").build())).build())
+        .build();
+    final String location = "CAFE ELEPHANT, ZURICH";
+    final String note = Strings.repeat("ADDITIONAL ", 5);
+    final byte[] data = factory.getMessageData(factory.createByNumbers(MTI.create(0x0200),
+        ImmutableMap.<Integer, Object>of(43, location, 44, note)));
+    // the length prefix counts the bytes of the value, as written by the format path
+    final String expected = "0200" + "0000000000300000" + Strings.padEnd(location, 40, ' ') + "110" + note;
+    assertThat(new String(data, "UTF-16BE"), is(expected));
+  }
+}
@@ -0,0 +1,125 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.config.SampleMessages;
+import org.nulleins.formats.iso8583.flyweight.MessageFlyweight;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestFieldOffsets {
+  private static final String MESSAGE =
+      "ISO0200" + "3020000100800000" + "001000" + "000000001500" + "123456" + "06123456" + "TERM0001";
+
+  private static final MessageTemplate template = createTemplate();
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("offsetTest")
+      .header("ISO")
+      .bitmapType(BitmapType.HEX)
+      .contentType(ContentType.TEXT)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(template)
+      .build();
+
+  private static MessageTemplate createTemplate() {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageTemplate.Builder().header("ISO").type(MTI.create(0x0200)).fieldlist(asList(
+        builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").build(),
+        builder.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").optional().build(),
+        builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+        builder.f(32).type(FieldType.NUMERIC).dim("llvar(11)").name("acquirer").build(),
+        builder.f(41).type(FieldType.ALPHANUMPAD).dim("fixed(8)").name("terminal").build())).build();
+  }
+
+  @Test
+  public void testTextOffsets() {
+    final FieldOffsets offsets = template.getFixedOffsets(ContentType.TEXT);
+    assertThat(offsets.getLastField(), is(11));
+    assertThat(offsets.getSize(), is(24));
+    assertThat(offsets.getOffset(3), is(0));
+    assertThat(offsets.getOffset(4), is(6));
+    assertThat(offsets.getOffset(11), is(18));
+    assertThat(offsets.getLength(4), is(12));
+    assertThat(offsets.contains(32), is(false));
+    assertThat(offsets.getOffset(41), is(-1));
+  }
+
+  @Test
+  public void testBcdOffsets() {
+    final FieldOffsets offsets = template.getFixedOffsets(ContentType.BCD);
+    assertThat(offsets.getSize(), is(12));
+    assertThat(offsets.getOffset(4), is(3));
+    assertThat(offsets.getOffset(11), is(9));
+    assertThat(offsets.getLength(11), is(3));
+  }
+
+  @Test
+  public void testAppliesToBitmap() {
+    final FieldOffsets offsets = template.getFixedOffsets(ContentType.TEXT);
+    final long full = 0x3020000100800000L;
+    assertThat(offsets.appliesTo(new long[]{full, 0, 0}), is(true));
+    // field 4 absent: offsets of 3 and 4 still apply, but not that of 11
+    final long partial = full & ~(1L << 60);
+    assertThat(offsets.appliesTo(new long[]{partial, 0, 0}), is(false));
+    assertThat(offsets.appliesTo(new long[]{partial, 0, 0}, 4), is(true));
+    assertThat(offsets.appliesTo(new long[]{partial, 0, 0}, 11), is(false));
+    // an undefined field in the prefix region
+    assertThat(offsets.appliesTo(new long[]{full | 1L << 62, 0, 0}), is(false));
+  }
+
+  @Test
+  public void testParseField() throws Exception {
+    assertThat(factory.parseField(MESSAGE.getBytes(), 4), is(Optional.<Object>of(new BigInteger("1500"))));
+    assertThat(factory.parseField(MESSAGE.getBytes(), 11), is(Optional.<Object>of(new BigInteger("123456"))));
+    assertThat(factory.parseField(MESSAGE.getBytes(), 41), is(Optional.<Object>of("TERM0001")));
+    assertThat(factory.parseField(MESSAGE.getBytes(), 2), is(Optional.absent()));
+  }
+
+  /** a field in the fixed prefix is read without parsing the rest of the message */
+  @Test
+  public void testParseFieldSkipsLaterFields() throws Exception {
+    final byte[] data = MESSAGE.replace("06123456", "XX123456").getBytes();
+    assertThat(factory.parseField(data, 11), is(Optional.<Object>of(new BigInteger("123456"))));
+    assertThat(factory.tryParse(data).isSuccess(), is(false));
+  }
+
+  @Test
+  public void testFlyweightUsesOffsets() {
+    final MessageFlyweight flyweight = new MessageFlyweight(factory);
+    assertThat(flyweight.wrap(ByteBuffer.wrap(MESSAGE.getBytes()), 0), is(true));
+    assertThat(flyweight.getFieldPosition(11), is(23 + 18));
+    assertThat(flyweight.getInt(11), is(123456));
+    assertThat(flyweight.getCharSequence(41).toString(), is("TERM0001"));
+    // without field 4, the offsets do not apply
+    final String partial = MESSAGE.replace("3020000100800000", "2020000100800000").replace("000000001500", "");
+    assertThat(flyweight.wrap(ByteBuffer.wrap(partial.getBytes()), 0), is(true));
+    assertThat(flyweight.getFieldPosition(11), is(23 + 6));
+    assertThat(flyweight.getLength(), is(partial.length()));
+  }
+
+  @Test
+  public void testParseFieldMatchesParse() throws Exception {
+    for (final SampleMessages.Scenario scenario : SampleMessages.Scenario.values()) {
+      final SampleMessages.Sample sample = SampleMessages.create(scenario);
+      final Message message = sample.getFactory().parse(sample.getData());
+      final Map<Integer, Optional<Object>> fields = new HashMap<>(message.getFields());
+      for (int number = 2; number <= 192; number++) {
+        final Optional<Object> expected = fields.containsKey(number) ? fields.get(number) : Optional.absent();
+        assertThat(scenario + " #" + number, sample.getFactory().parseField(sample.getData(), number), is(expected));
+      }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package org.nulleins.formats.iso8583;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestGatheringWrite {
+  private static final MTI NETWORK = MTI.create(0x0800);
+  private static final Map<Integer, Object> VALUES = new HashMap<Integer, Object>() {{
+    put(11, 123456);
+  }};
+
+  private static MessageFactory createFactory(final ContentType contentType, final BitmapType bitmapType) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("gatherTest")
+        .header("ISO015000077")
+        .bitmapType(bitmapType)
+        .contentType(contentType)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO015000077").type(NETWORK).fieldlist(asList(
+            builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").defaultValue("990000").build(),
+            builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+            builder.f(44).type(FieldType.ALPHANUMSYMBOL).dim("llvar(25)").name("note").defaultValue("ECHO TEST").build(),
+            builder.f(48).type(FieldType.ALPHANUMSYMBOL).dim("llvar(25)").name("extra").optional().build(),
+            builder.f(70).type(FieldType.NUMERIC).dim("fixed(3)").name("networkCode").defaultValue("301").build())).build())
+        .build();
+  }
+
+  @Test
+  public void testGathersSharedSegments() throws Exception {
+    for (final ContentType contentType : ContentType.values()) {
+      for (final BitmapType bitmapType : BitmapType.values()) {
+        final MessageFactory factory = createFactory(contentType, bitmapType);
+        final Message message = factory.createByNumbers(NETWORK, VALUES);
+        final RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+        final byte[] expected = factory.getMessageData(message);
+        assertThat(factory.writeGathering(message, channel), is((long) expected.length));
+        assertThat(contentType + "/" + bitmapType, channel.getData(), is(expected));
+        assertThat(channel.calls, is(1));
+        // prefix, bitmap, default 3, stan, default 44, default 70
+        assertThat(channel.segments.size(), is(6));
+        assertThat(channel.segments.get(0).isReadOnly(), is(true));
+        assertThat(channel.segments.get(1).isReadOnly(), is(false));
+        assertThat(channel.segments.get(2).isReadOnly(), is(true));
+        assertThat(channel.segments.get(3).isReadOnly(), is(false));
+      }
+    }
+  }
+
+  @Test
+  public void testCompletesPartialWrites() throws Exception {
+    final MessageFactory factory = createFactory(ContentType.TEXT, BitmapType.HEX);
+    final Map<Integer, Object> values = new HashMap<>(VALUES);
+    values.put(48, "EXTRA");
+    final Message message = factory.createByNumbers(NETWORK, values);
+    final RecordingChannel channel = new RecordingChannel(5);
+    factory.writeGathering(message, channel);
+    assertThat(channel.getData(), is(factory.getMessageData(message)));
+    assertThat(channel.calls > 1, is(true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsNonBlockingChannel() throws Exception {
+    final MessageFactory factory = createFactory(ContentType.TEXT, BitmapType.HEX);
+    final Pipe pipe = Pipe.open();
+    try {
+      pipe.sink().configureBlocking(false);
+      factory.writeGathering(factory.createByNumbers(NETWORK, VALUES), pipe.sink());
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+    }
+  }
+
+  /** channel recording the bytes and segments written to it, accepting at most <code>limit</code>
+    * bytes in each write */
+  private static final class RecordingChannel implements GatheringByteChannel {
+    private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final int limit;
+    private int calls;
+
+    private RecordingChannel(final int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] sources, final int offset, final int length) {
+      if (calls++ == 0) {
+        segments.addAll(asList(sources).subList(offset, offset + length));
+      }
+      long written = 0;
+      for (int i = offset; i < offset + length && written < limit; i++) {
+        while (sources[i].hasRemaining() && written < limit) {
+          data.write(sources[i].get());
+          written++;
+        }
+      }
+      return written;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] sources) {
+      return write(sources, 0, sources.length);
+    }
+
+    @Override
+    public int write(final ByteBuffer source) {
+      return (int) write(new ByteBuffer[]{source});
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private byte[] getData() {
+      return data.toByteArray();
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package org.nulleins.formats.iso8583;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.ParseResult.ErrorCode;
+import org.nulleins.formats.iso8583.config.SampleMessages;
+import org.nulleins.formats.iso8583.formatters.AlphaFormatter;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestParseResult {
+  private static final String MESSAGE = "ISO0200" + "7000000000000000" + "164111111111111111" + "001000" + "000000001500";
+
+  private static final MessageFactory factory = createFactory();
+
+  private static MessageFactory createFactory() {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("tryParseTest")
+        .header("ISO")
+        .bitmapType(BitmapType.HEX)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(MTI.create(0x0200)).fieldlist(asList(
+            builder.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+            builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").build(),
+            builder.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build())).build())
+        .build();
+  }
+
+  @Test
+  public void testParsesValidMessage() {
+    final ParseResult result = factory.tryParse(MESSAGE.getBytes());
+    assertThat(result.isSuccess(), is(true));
+    assertThat(result.getError(), is((ErrorCode) null));
+    assertThat(result.getOffset(), is(MESSAGE.length()));
+    final Message message = result.getMessage();
+    assertThat(message.getMTI(), is(MTI.create(0x0200)));
+    assertThat(message.getFieldValue(2).get(), is((Object) new BigInteger("4111111111111111")));
+    assertThat(message.getFieldValue(4).get(), is((Object) new BigInteger("1500")));
+  }
+
+  @Test
+  public void testParsesFromOffset() {
+    final byte[] data = ("XX" + MESSAGE + MESSAGE).getBytes();
+    final ParseResult result = factory.tryParse(data, 2, data.length - 2);
+    assertThat(result.isSuccess(), is(true));
+    assertThat(result.getOffset(), is(MESSAGE.length()));
+  }
+
+  @Test
+  public void testSamplesMatchThrowingParser() throws Exception {
+    for (final SampleMessages.Scenario scenario : SampleMessages.Scenario.values()) {
+      final SampleMessages.Sample sample = SampleMessages.create(scenario);
+      final ParseResult result = sample.getFactory().tryParse(sample.getData());
+      assertThat(scenario + ": " + result, result.isSuccess(), is(true));
+      assertThat(result.getOffset(), is(sample.getData().length));
+      assertThat(result.getMessage(), is(sample.getFactory().parse(sample.getData())));
+    }
+  }
+
+  @Test
+  public void testTruncatedSamples() {
+    for (final SampleMessages.Scenario scenario : SampleMessages.Scenario.values()) {
+      final SampleMessages.Sample sample = SampleMessages.create(scenario);
+      for (int length = 0; length < sample.getData().length; length++) {
+        final ParseResult result = sample.getFactory().tryParse(Arrays.copyOf(sample.getData(), length));
+        assertThat(scenario + " length " + length + ": " + result, result.getError(), is(ErrorCode.TRUNCATED));
+      }
+    }
+  }
+
+  @Test
+  public void testMalformedMessages() {
+    assertFailure("ISX0200", ErrorCode.BAD_HEADER, ParseResult.NO_FIELD, 2);
+    assertFailure("ISO02A0", ErrorCode.BAD_MTI, ParseResult.NO_FIELD, 3);
+    assertFailure("ISO0400", ErrorCode.UNKNOWN_MTI, ParseResult.NO_FIELD, 3);
+    assertFailure("ISO0200700000000000000G", ErrorCode.BAD_BITMAP, ParseResult.NO_FIELD, 7);
+    assertFailure(MESSAGE.replace("7000000000000000", "7800000000000000"), ErrorCode.UNDEFINED_FIELD, 5, 59);
+    assertFailure(MESSAGE.replace("7000000000000000", "5000000000000000").replace("001000", ""),
+        ErrorCode.MISSING_FIELD, 3, 7);
+    assertFailure(MESSAGE.replace("164111", "1X4111"), ErrorCode.BAD_LENGTH, 2, 23);
+    assertFailure(MESSAGE.replace("164111", "204111"), ErrorCode.BAD_LENGTH, 2, 23);
+    assertFailure(MESSAGE.replace("001000", "0010A0"), ErrorCode.BAD_VALUE, 3, 41);
+    assertFailure(MESSAGE.substring(0, 50), ErrorCode.TRUNCATED, 4, 47);
+  }
+
+  @Test
+  public void testRejectsAlphaValueWithoutException() {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    final MessageFactory alpha = MessageFactory.Builder()
+        .id("tryParseAlphaTest")
+        .header("ISO")
+        .bitmapType(BitmapType.HEX)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        // the throwing decode is not used to validate alpha values
+        .addFormatter(FieldType.ALPHANUM, new AlphaFormatter(CharEncoder.ASCII) {
+          @Override
+          public String decode(final String type, final Dimension dimension, final ByteBuffer input, final int length) {
+            throw new AssertionError("Alpha value decoded by throwing parser");
+          }
+        })
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(MTI.create(0x0200)).fieldlist(asList(
+            builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").build(),
+            builder.f(41).type(FieldType.ALPHANUM).dim("fixed(8)").name("terminal").build())).build())
+        .build();
+    final String message = "ISO0200" + "2000000000800000" + "001000";
+    final ParseResult valid = alpha.tryParse((message + "ATM1010 ").getBytes());
+    assertThat(valid.getMessage().getFieldValue(41).get(), is((Object) "ATM1010"));
+    final ParseResult invalid = alpha.tryParse((message + "ATM#1010").getBytes());
+    assertThat(invalid.getError(), is(ErrorCode.BAD_VALUE));
+    assertThat(invalid.getField(), is(41));
+    assertThat(invalid.getOffset(), is(29));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoMessageOnFailure() {
+    factory.tryParse("ISO0400".getBytes()).getMessage();
+  }
+
+  private static void assertFailure(final String data, final ErrorCode error, final int field, final int offset) {
+    final ParseResult result = factory.tryParse(data.getBytes());
+    assertThat(data, result.isSuccess(), is(false));
+    assertThat(data, result.getError(), is(error));
+    assertThat(data, result.getField(), is(field));
+    assertThat(data, result.getOffset(), is(offset));
+  }
+}
@@ -0,0 +1,76 @@
+package org.nulleins.formats.iso8583;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestRenderedTemplate {
+  private static final MTI NETWORK = MTI.create(0x0800);
+
+  private static MessageFactory createFactory(final ContentType contentType, final BitmapType bitmapType) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("renderTest")
+        .header("ISO015000077")
+        .bitmapType(bitmapType)
+        .contentType(contentType)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO015000077").type(NETWORK).fieldlist(asList(
+            builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").defaultValue("990000").build(),
+            builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+            builder.f(44).type(FieldType.ALPHANUMSYMBOL).dim("llvar(25)").name("note").defaultValue("ECHO TEST").build(),
+            builder.f(48).type(FieldType.ALPHANUMSYMBOL).dim("llvar(25)").name("extra").optional().build(),
+            builder.f(70).type(FieldType.NUMERIC).dim("fixed(3)").name("networkCode").defaultValue("301").build())).build())
+        .build();
+  }
+
+  @Test
+  public void testRenderedDefaultsMatchFormattedValues() throws Exception {
+    for (final ContentType contentType : ContentType.values()) {
+      for (final BitmapType bitmapType : BitmapType.values()) {
+        final MessageFactory factory = createFactory(contentType, bitmapType);
+        final Map<Integer, Optional<Object>> explicit = new HashMap<>();
+        explicit.put(3, Optional.<Object>of("990000"));
+        explicit.put(11, Optional.<Object>of(123456));
+        explicit.put(44, Optional.<Object>of("ECHO TEST"));
+        explicit.put(70, Optional.<Object>of("301"));
+        final Map<Integer, Optional<Object>> defaulted = new HashMap<>();
+        defaulted.put(11, Optional.<Object>of(123456));
+        assertThat(contentType + "/" + bitmapType, write(factory, defaulted), is(write(factory, explicit)));
+      }
+    }
+  }
+
+  @Test
+  public void testRenderedPrefix() throws Exception {
+    final MessageFactory factory = createFactory(ContentType.TEXT, BitmapType.HEX);
+    final Map<Integer, Optional<Object>> values = new HashMap<>();
+    values.put(11, Optional.<Object>of(123456));
+    values.put(48, Optional.<Object>of("EXTRA"));
+    final String data = new String(write(factory, values));
+    assertThat(data.substring(0, 48), is("ISO015000077" + "0800" + "A020000000110000" + "0400000000000000"));
+    final Message message = factory.parse(data.getBytes());
+    assertThat(message.getFieldValue(70).get(), is((Object) new BigInteger("301")));
+    assertThat(message.getFieldValue(48).get(), is((Object) "EXTRA"));
+  }
+
+  private static byte[] write(final MessageFactory factory, final Map<Integer, Optional<Object>> values) throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    factory.writeFromNumberMap(NETWORK, values, output);
+    return output.toByteArray();
+  }
+}
@@ -0,0 +1,240 @@
+package org.nulleins.formats.iso8583.audit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.ParseResult;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestAuditLogger {
+  private static final MTI Request = MTI.create(0x0200);
+  private static final String PAN = "4111111111111111";
+
+  private MessageFactory factory;
+  private byte[] data;
+
+  @Before
+  public void setUp() {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    final FieldTemplate pan = builder.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build();
+    final FieldTemplate amount = builder.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build();
+    factory = MessageFactory.Builder()
+        .id("auditTest")
+        .bitmapType(BitmapType.HEX)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("").type(Request).fieldlist(asList(pan, amount)).build())
+        .build();
+    final Message message = factory.createByNumbers(Request, new HashMap<Integer, Object>() {{
+      put(2, new BigInteger(PAN));
+      put(4, 1500);
+    }});
+    data = factory.getMessageData(message);
+  }
+
+  @Test
+  public void testTextAuditMasksPan() throws IOException {
+    final StringWriter output = new StringWriter();
+    final AuditLogger audit = AuditLogger.Builder().factory(factory).writer(new TextAuditWriter(output)).build();
+    assertThat(audit.log(data), is(true));
+    audit.close();
+
+    assertThat(audit.getLogged(), is(1L));
+    assertThat(audit.getWritten(), is(1L));
+    assertThat(audit.getDropped(), is(0L));
+    assertThat(output.toString(), containsString("[411111******1111]"));
+    assertThat(output.toString(), containsString("[1500]"));
+    assertThat(output.toString(), not(containsString(PAN)));
+  }
+
+  @Test
+  public void testBinaryAudit() throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final AuditLogger audit = AuditLogger.Builder().factory(factory).writer(new BinaryAuditWriter(output)).build();
+    audit.log(data);
+    audit.log("0400".getBytes());
+    audit.close();
+    assertThat(audit.getWritten(), is(1L));
+    assertThat(audit.getFailed(), is(1L));
+
+    final DataInputStream input = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+    assertThat(input.readByte(), is(BinaryAuditWriter.MESSAGE));
+    assertThat(input.readLong(), greaterThan(0L));
+    assertThat(input.readUTF(), is("0200"));
+    assertThat(input.readShort(), is((short) 2));
+    assertThat(input.readShort(), is((short) 2));
+    assertThat(input.readUTF(), is("411111******1111"));
+    assertThat(input.readShort(), is((short) 4));
+    assertThat(input.readUTF(), is("1500"));
+
+    assertThat(input.readByte(), is(BinaryAuditWriter.UNPARSED));
+    input.readLong();
+    assertThat(input.readInt(), is(4));
+    assertThat(input.readUTF(), is("UNKNOWN_MTI"));
+    assertThat(input.readShort(), is((short) 0));
+    assertThat(input.readInt(), is(0));
+  }
+
+  @Test
+  public void testUnparsedOmitsFieldValues() throws IOException {
+    // a PAN with a non-numeric digit, rejected by the parser
+    final byte[] invalid = new String(data).replace(PAN, "41111111111111X1").getBytes();
+    final StringWriter text = new StringWriter();
+    final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    for (final AuditWriter writer : asList(new TextAuditWriter(text), new BinaryAuditWriter(binary))) {
+      final AuditLogger audit = AuditLogger.Builder().factory(factory).writer(writer).build();
+      audit.log(invalid);
+      audit.close();
+      assertThat(audit.getFailed(), is(1L));
+    }
+    assertThat(text.toString(), containsString("error=BAD_VALUE field=2"));
+    assertThat(text.toString(), not(containsString("41111111111111X1")));
+    assertThat(text.toString(), not(containsString("11111111")));
+    assertThat(new String(binary.toByteArray(), "ISO-8859-1"), not(containsString("11111111")));
+  }
+
+  @Test
+  public void testDropWhenFull() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final AuditLogger audit = AuditLogger.Builder()
+        .factory(factory).writer(new BlockedWriter(release)).capacity(3).build();
+    assertThat(audit.getCapacity(), is(4));
+    int accepted = 0;
+    for (int i = 0; i < 20; i++) {
+      if (audit.log(data)) {
+        accepted++;
+      }
+    }
+    release.countDown();
+    audit.close();
+    assertThat(audit.getDropped(), greaterThan(0L));
+    assertThat(audit.getDropped() + accepted, is(20L));
+    assertThat(audit.getWritten(), is((long) accepted));
+    assertThat(audit.log(data), is(false));
+  }
+
+  @Test
+  public void testBlockWhenFull() throws Exception {
+    final StringWriter output = new StringWriter();
+    final AuditLogger audit = AuditLogger.Builder()
+        .factory(factory).writer(new TextAuditWriter(output))
+        .capacity(4).policy(AuditLogger.OverflowPolicy.BLOCK).build();
+    final Thread[] producers = new Thread[4];
+    for (int i = 0; i < producers.length; i++) {
+      producers[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 250; j++) {
+            audit.log(data);
+          }
+        }
+      });
+      producers[i].start();
+    }
+    for (final Thread producer : producers) {
+      producer.join();
+    }
+    audit.close();
+    assertThat(audit.getDropped(), is(0L));
+    assertThat(audit.getWritten(), is(1000L));
+    assertThat(audit.getPending(), is(0L));
+  }
+
+  @Test
+  public void testTextAuditMasksTrackData() throws IOException {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    final MessageFactory tracks = MessageFactory.Builder()
+        .id("auditTrackTest")
+        .bitmapType(BitmapType.HEX)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("").type(Request).fieldlist(asList(
+            builder.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+            builder.f(35).type(FieldType.ALPHANUMSYMBOL).dim("llvar(37)").name("track2").build())).build())
+        .build();
+    final String track2 = PAN + "=2512101123";
+    final Message message = tracks.createByNumbers(Request, new HashMap<Integer, Object>() {{
+      put(2, new BigInteger(PAN));
+      put(35, track2);
+    }});
+    final StringWriter output = new StringWriter();
+    final AuditLogger audit = AuditLogger.Builder().factory(tracks).writer(new TextAuditWriter(output)).build();
+    audit.log(tracks.getMessageData(message));
+    audit.close();
+    assertThat(output.toString(), containsString("[411111******1111]"));
+    assertThat(output.toString(), containsString("[" + track2.replaceAll(".", "*") + "]"));
+    assertThat(output.toString(), not(containsString("2512101123")));
+  }
+
+  @Test
+  public void testContinuesAfterWriterFailure() throws IOException {
+    final StringWriter output = new StringWriter();
+    final AuditLogger audit = AuditLogger.Builder()
+        .factory(factory)
+        .writer(new TextAuditWriter(output) {
+          @Override
+          public void writeUnparsed(final long timestamp, final int length, final ParseResult failure) {
+            throw new IllegalStateException("Cannot describe failure");
+          }
+        })
+        .capacity(2).policy(AuditLogger.OverflowPolicy.BLOCK).build();
+    for (int i = 0; i < 10; i++) {
+      audit.log("0400".getBytes());
+      audit.log(data);
+    }
+    audit.close();
+    assertThat(audit.getFailed(), is(10L));
+    assertThat(audit.getWritten(), is(10L));
+    assertThat(audit.getPending(), is(0L));
+  }
+
+  @Test
+  public void testMask() {
+    assertThat(AuditLogger.mask(PAN), is("411111******1111"));
+    assertThat(AuditLogger.mask("123456789"), is("*********"));
+  }
+
+  /** writer that waits on a latch before writing the first message */
+  private static class BlockedWriter extends TextAuditWriter {
+    private final CountDownLatch release;
+
+    private BlockedWriter(final CountDownLatch release) {
+      super(new StringWriter());
+      this.release = release;
+    }
+
+    @Override
+    public void write(final long timestamp, final Message message) throws IOException {
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      super.write(timestamp, message);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestAdmissionController {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MTI RESPONSE = MTI.create(0x0210);
+  private static final MTI ECHO = MTI.create(0x0800);
+
+  private static MessageFactory createFactory(final ContentType contentType, final BitmapType bitmapType) {
+    final FieldTemplate.Builder field = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("admissionTest")
+        .header("ISO")
+        .contentType(contentType)
+        .bitmapType(bitmapType)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(REQUEST).fieldlist(asList(
+            field.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+            field.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build(),
+            field.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+            field.f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").build(),
+            field.f(44).type(FieldType.ALPHANUMSYMBOL).dim("llvar(25)").name("additional").build())).build())
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(RESPONSE).fieldlist(asList(
+            field.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+            field.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build(),
+            field.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+            field.f(39).type(FieldType.ALPHANUM).dim("fixed(2)").name("responseCode").build(),
+            field.f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").build())).build())
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(ECHO).fieldlist(asList(
+            field.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build())).build())
+        .build();
+  }
+
+  private static final MessageFactory factory = createFactory(ContentType.TEXT, BitmapType.HEX);
+
+  private static byte[] request(final MessageFactory factory) {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(2, new BigInteger("5432818929192"));
+    fields.put(4, new BigInteger("1200"));
+    fields.put(11, 4321);
+    fields.put(41, "ATM-1010");
+    fields.put(44, "NOT ECHOED");
+    return factory.getMessageData(factory.createByNumbers(REQUEST, fields));
+  }
+
+  private static byte[] echo() {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(11, 1);
+    return factory.getMessageData(factory.createByNumbers(ECHO, fields));
+  }
+
+  @Test
+  public void testShedsOnDepthWithHysteresis() {
+    final AdmissionController controller = AdmissionController.Builder()
+        .factory(factory)
+        .depthLimit(4)
+        .resumeRatio(0.5)
+        .build();
+    final byte[] data = request(factory);
+    for (int i = 0; i < 5; i++) {
+      assertThat(controller.tryAdmit(data), is(true));
+    }
+    assertThat(controller.tryAdmit(data), is(false));
+    assertThat(controller.tryAdmit(echo()), is(true));
+    for (int i = 0; i < 3; i++) {
+      controller.completed(0);
+    }
+    assertThat(controller.getDepth(), is(3));
+    assertThat(controller.tryAdmit(data), is(false));
+    controller.completed(0);
+    controller.completed(0);
+    assertThat(controller.tryAdmit(data), is(true));
+
+    final Map<String, Number> snapshot = controller.snapshot();
+    assertThat(snapshot.get("admission.admitted"), is((Number) 7L));
+    assertThat(snapshot.get("admission.declined"), is((Number) 2L));
+    assertThat(snapshot.get("admission.transitions"), is((Number) 2L));
+    assertThat(snapshot.get("admission.shedding"), is((Number) 0));
+  }
+
+  @Test
+  public void testShedsOnLatency() {
+    final AtomicLong time = new AtomicLong();
+    final AdmissionController controller = AdmissionController.Builder()
+        .factory(factory)
+        .latencyLimit(10, TimeUnit.MILLISECONDS)
+        .ticker(new Ticker() {
+          @Override
+          public long read() {
+            return time.get();
+          }
+        })
+        .build();
+    final byte[] data = request(factory);
+    assertThat(controller.tryAdmit(data), is(true));
+    assertThat(controller.tryAdmit(data), is(true));
+    controller.completed(TimeUnit.SECONDS.toNanos(1));
+    assertThat(controller.getLatency(), is(TimeUnit.SECONDS.toNanos(1) / 8));
+    assertThat(controller.tryAdmit(data), is(false));
+    assertThat(controller.isShedding(), is(true));
+
+    // with nothing in progress, the stale average keeps the controller shedding, without flapping
+    controller.completed(0);
+    assertThat(controller.getDepth(), is(0));
+    for (int i = 0; i < 10; i++) {
+      assertThat(controller.tryAdmit(data), is(false));
+    }
+    assertThat(controller.snapshot().get("admission.transitions"), is((Number) 1L));
+
+    // the average halves for each latency limit elapsed, until it falls below the resume ratio
+    time.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+    assertThat(controller.isShedding(), is(true));
+    time.addAndGet(TimeUnit.MILLISECONDS.toNanos(20));
+    assertThat(controller.tryAdmit(data), is(true));
+    assertThat(controller.isShedding(), is(false));
+    assertThat(controller.snapshot().get("admission.transitions"), is((Number) 2L));
+  }
+
+  @Test
+  public void testDeclinesWithEchoFields() throws Exception {
+    for (final MessageFactory each : asList(factory, createFactory(ContentType.BCD, BitmapType.BINARY))) {
+      final AdmissionController controller = AdmissionController.Builder().factory(each).build();
+      final Message response = each.parse(controller.decline(request(each)));
+      assertThat(response.getMTI(), is(RESPONSE));
+      assertThat(response.getFieldValue(39).get(), is((Object) "91"));
+      assertThat(response.getFieldValue(2).get(), is((Object) new BigInteger("5432818929192")));
+      assertThat(response.getFieldValue(4).get(), is((Object) new BigInteger("1200")));
+      assertThat(response.getFieldValue(11).get(), is((Object) BigInteger.valueOf(4321)));
+      assertThat(response.getFieldValue(41).get(), is((Object) "ATM-1010"));
+      assertThat(response.getFields().size(), is(5));
+      assertThat(controller.decline(echo()), is((byte[]) null));
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestKeyOrderedExecutor {
+  private final KeyOrderedExecutor executor = new KeyOrderedExecutor(4, 16);
+
+  @After
+  public void tearDown() {
+    executor.close();
+  }
+
+  @Test
+  public void testRunsTasksInOrderPerKey() throws InterruptedException {
+    final int keys = 32;
+    final List<List<Integer>> runs = new ArrayList<>();
+    for (int key = 0; key < keys; key++) {
+      runs.add(new ArrayList<Integer>());
+    }
+    final CountDownLatch done = new CountDownLatch(keys * 1000);
+    for (int sequence = 0; sequence < 1000; sequence++) {
+      for (int key = 0; key < keys; key++) {
+        final List<Integer> run = runs.get(key);
+        final int value = sequence;
+        executor.execute("terminal-" + key, new Runnable() {
+          @Override
+          public void run() {
+            // only one thread runs a key's tasks at a time, so no synchronization is required
+            run.add(value);
+            done.countDown();
+          }
+        });
+      }
+    }
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    executor.close();
+    assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    for (final List<Integer> run : runs) {
+      assertThat(run.size(), is(1000));
+      for (int sequence = 0; sequence < 1000; sequence++) {
+        assertThat(run.get(sequence), is(sequence));
+      }
+    }
+  }
+
+  @Test
+  public void testStealsFromBusyWorker() throws InterruptedException {
+    final KeyOrderedExecutor pair = new KeyOrderedExecutor(2, 4);
+    try {
+      // lanes 0 and 2 have the same home worker
+      final Object blocked = keyOf(pair, 0);
+      final Object other = keyOf(pair, 2);
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch stolen = new CountDownLatch(1);
+      pair.execute(blocked, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await();
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      pair.execute(other, new Runnable() {
+        @Override
+        public void run() {
+          stolen.countDown();
+        }
+      });
+      assertThat(stolen.await(5, TimeUnit.SECONDS), is(true));
+      release.countDown();
+    } finally {
+      pair.close();
+    }
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void testRejectsAfterClose() {
+    executor.close();
+    executor.execute("key", new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+  }
+
+  private static Object keyOf(final KeyOrderedExecutor executor, final int lane) {
+    for (int key = 0; ; key++) {
+      if (executor.laneOf(key) == lane) {
+        return key;
+      }
+    }
+  }
+}
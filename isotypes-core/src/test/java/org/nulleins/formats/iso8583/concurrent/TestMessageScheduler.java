@@ -0,0 +1,135 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestMessageScheduler {
+  private static final byte[] ECHO = "ISO0800".getBytes();
+  private static final byte[] REVERSAL = "ISO0420".getBytes();
+  private static final byte[] REQUEST = "ISO0200".getBytes();
+
+  private static MessageFactory createFactory(final ContentType contentType) {
+    return MessageFactory.Builder()
+        .id("schedulerTest")
+        .header("ISO")
+        .contentType(contentType)
+        .bitmapType(BitmapType.HEX)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(MTI.create(0x0200)).fieldlist(asList(
+            FieldTemplate.localBuilder().get().f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build())).build())
+        .build();
+  }
+
+  private static MessageScheduler.Builder builder(final ContentType contentType) {
+    return MessageScheduler.Builder()
+        .factory(createFactory(contentType))
+        .priorityClass("network", 3, "08xx")
+        .priorityClass("reversal", 2, "0400", "0420")
+        .defaultClass("financial", 1);
+  }
+
+  @Test
+  public void testClassifiesByMti() {
+    final MessageScheduler text = builder(ContentType.TEXT).build();
+    assertThat(text.classOf(ECHO, 0), is("network"));
+    assertThat(text.classOf(REVERSAL, 0), is("reversal"));
+    assertThat(text.classOf(REQUEST, 0), is("financial"));
+    assertThat(text.classOf("ISO04X0".getBytes(), 0), is("financial"));
+    assertThat(text.classOf("IS".getBytes(), 0), is("financial"));
+
+    final MessageScheduler bcd = builder(ContentType.BCD).build();
+    assertThat(bcd.classOf(new byte[]{'I', 'S', 'O', 0x08, 0x10}, 0), is("network"));
+    assertThat(bcd.classOf(new byte[]{'I', 'S', 'O', 0x04, 0x20}, 0), is("reversal"));
+    assertThat(bcd.classOf(new byte[]{'I', 'S', 'O', 0x02, 0x00}, 0), is("financial"));
+  }
+
+  @Test
+  public void testTakesInProportionToWeight() throws InterruptedException {
+    final MessageScheduler scheduler = builder(ContentType.TEXT).maxWait(1, TimeUnit.HOURS).build();
+    for (int i = 0; i < 12; i++) {
+      scheduler.offer(REQUEST);
+      scheduler.offer(REVERSAL);
+      scheduler.offer(ECHO);
+    }
+    assertThat(scheduler.size("network"), is(12));
+    int network = 0;
+    int reversals = 0;
+    for (int i = 0; i < 12; i++) {
+      final byte[] data = scheduler.take();
+      network += data == ECHO ? 1 : 0;
+      reversals += data == REVERSAL ? 1 : 0;
+    }
+    assertThat(network, is(6));
+    assertThat(reversals, is(4));
+    assertThat(scheduler.size(), is(24));
+  }
+
+  @Test
+  public void testKeepsPriorityOverStaleBacklog() throws InterruptedException {
+    final MessageScheduler scheduler = builder(ContentType.TEXT).maxWait(1, TimeUnit.MILLISECONDS).build();
+    for (int i = 0; i < 100; i++) {
+      scheduler.offer(REQUEST);
+    }
+    // the financial backlog has waited beyond the maximum, as it would under saturation
+    Thread.sleep(10);
+    for (int i = 0; i < 10; i++) {
+      scheduler.offer(ECHO);
+    }
+    int taken = 0;
+    while (scheduler.size("network") > 0) {
+      scheduler.poll();
+      taken++;
+    }
+    // behind the backlog, taken first-in first-out, the echoes would be taken last
+    assertThat(taken < 30, is(true));
+    assertThat(scheduler.poll(), is(REQUEST));
+  }
+
+  @Test
+  public void testServesStarvedClass() throws InterruptedException {
+    final MessageScheduler scheduler = builder(ContentType.TEXT).maxWait(1, TimeUnit.MILLISECONDS).build();
+    scheduler.offer(REQUEST);
+    Thread.sleep(5);
+    for (int i = 0; i < 50; i++) {
+      scheduler.offer(ECHO);
+    }
+    // the request's boosted weight (four times its own) is taken ahead of the fresh echoes
+    assertThat(scheduler.poll(), is(REQUEST));
+
+    final MessageScheduler fresh = builder(ContentType.TEXT).maxWait(1, TimeUnit.HOURS).build();
+    fresh.offer(REQUEST);
+    for (int i = 0; i < 50; i++) {
+      fresh.offer(ECHO);
+    }
+    // without a boost, the request is still served in its share: one in four
+    int taken = 1;
+    while (fresh.poll() != REQUEST) {
+      taken++;
+    }
+    assertThat(taken <= 4, is(true));
+    assertThat(fresh.poll(10, TimeUnit.MILLISECONDS), is(ECHO));
+  }
+
+  @Test
+  public void testRefusesWhenClassFull() {
+    final MessageScheduler scheduler = builder(ContentType.TEXT).capacity(2).build();
+    assertThat(scheduler.offer(REQUEST), is(true));
+    assertThat(scheduler.offer(REQUEST), is(true));
+    assertThat(scheduler.offer(REQUEST), is(false));
+    assertThat(scheduler.offer(ECHO), is(true));
+  }
+}
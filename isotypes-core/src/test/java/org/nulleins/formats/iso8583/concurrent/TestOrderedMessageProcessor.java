@@ -0,0 +1,84 @@
+package org.nulleins.formats.iso8583.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestOrderedMessageProcessor {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("orderedTest")
+      .header("ISO")
+      .contentType(ContentType.TEXT)
+      .bitmapType(BitmapType.HEX)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(MessageTemplate.Builder().header("ISO").type(REQUEST).fieldlist(asList(
+          FieldTemplate.localBuilder().get().f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+          FieldTemplate.localBuilder().get().f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").build())).build())
+      .build();
+
+  private final KeyOrderedExecutor executor = new KeyOrderedExecutor(4, 16);
+
+  @After
+  public void tearDown() {
+    executor.close();
+  }
+
+  @Test
+  public void testProcessesInOrderPerTerminal() throws InterruptedException {
+    final OrderedMessageProcessor processor = new OrderedMessageProcessor(factory, executor, 41);
+    final Map<Object, List<Object>> received = new ConcurrentHashMap<>();
+    final CountDownLatch done = new CountDownLatch(2000);
+    final MessageConsumer consumer = new MessageConsumer() {
+      @Override
+      public void accept(final Message message) {
+        received.get(message.getFieldValue(41).get()).add(message.getFieldValue(11).get());
+        done.countDown();
+      }
+
+      @Override
+      public void failed(final byte[] data, final Exception cause) {
+        throw new AssertionError(cause);
+      }
+    };
+    for (int terminal = 0; terminal < 20; terminal++) {
+      received.put("ATM-" + terminal, new ArrayList<>());
+    }
+    for (int stan = 0; stan < 100; stan++) {
+      for (int terminal = 0; terminal < 20; terminal++) {
+        final Map<Integer, Object> fields = new HashMap<>();
+        fields.put(11, stan);
+        fields.put(41, "ATM-" + terminal);
+        processor.submit(factory.getMessageData(factory.createByNumbers(REQUEST, fields)), consumer);
+      }
+    }
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    for (final List<Object> stans : received.values()) {
+      for (int stan = 0; stan < 100; stan++) {
+        assertThat(stans.get(stan), is((Object) BigInteger.valueOf(stan)));
+      }
+    }
+  }
+}
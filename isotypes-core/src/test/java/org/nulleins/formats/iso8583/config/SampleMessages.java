@@ -0,0 +1,204 @@
+package org.nulleins.formats.iso8583.config;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.schema.MessageConfig;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+
+/** Sample messages, built from the test schemas (<code>streamedMessageTest.conf</code>,
+  * <code>BankMessageConfiguration</code>, <code>BinaryMessageConfiguration</code>) and the
+  * field values used in their tests, covering each combination of content type, bitmap type
+  * and bitmap extent; used as representative input by the allocation tests and benchmarks */
+public final class SampleMessages {
+  private static final DateTimeFormatter DATE4 = DateTimeFormat.forPattern("MMdd");
+  private static final DateTimeFormatter TIME6 = DateTimeFormat.forPattern("HHmmss");
+  private static final DateTimeFormatter DATE10 = DateTimeFormat.forPattern("MMddHHmmss");
+
+  /** the combinations of content type, bitmap type and bitmap extent measured */
+  public enum Scenario {
+    TEXT_HEX_PRIMARY, TEXT_HEX_SECONDARY, TEXT_HEX_TERTIARY, TEXT_BINARY_TERTIARY,
+    BCD_BINARY_PRIMARY, BCD_BINARY_SECONDARY
+  }
+
+  /** a message factory, with a message it can write and that message's encoded form */
+  public static final class Sample {
+    private final MessageFactory factory;
+    private final Message message;
+    private final byte[] data;
+
+    private Sample(final MessageFactory factory, final MTI type, final Map<Integer, Object> fields) {
+      this.factory = factory;
+      this.message = factory.createByNumbers(type, fields);
+      this.data = factory.getMessageData(message);
+    }
+
+    public MessageFactory getFactory() { return factory; }
+    public Message getMessage() { return message; }
+    public byte[] getData() { return data; }
+  }
+
+  /** @return the sample message defined for <code>scenario</code> */
+  public static Sample create(final Scenario scenario) {
+    switch (scenario) {
+      case TEXT_HEX_PRIMARY:
+        return new Sample(MessageConfig.configure("streamedMessageTest.conf"), MTI.create(0x0200), paymentRequest());
+      case TEXT_HEX_SECONDARY:
+        return new Sample(BankMessageConfiguration.createMessageFactory(), MTI.create(0x0210), bankResponse());
+      case TEXT_HEX_TERTIARY:
+        return new Sample(tertiaryFactory(BitmapType.HEX), MTI.create(0x0200), tertiaryRequest());
+      case TEXT_BINARY_TERTIARY:
+        return new Sample(tertiaryFactory(BitmapType.BINARY), MTI.create(0x0200), tertiaryRequest());
+      case BCD_BINARY_PRIMARY:
+        return new Sample(BinaryMessageConfiguration.createMessageFactory(), MTI.create(0x0220), bcdAdvice());
+      case BCD_BINARY_SECONDARY:
+        return new Sample(BinaryMessageConfiguration.createMessageFactory(), MTI.create(0x0200), bcdRequest());
+      default:
+        throw new IllegalArgumentException("No sample defined for " + scenario);
+    }
+  }
+
+  /** @return a bank (0200) transaction request, as used to exercise <code>transform</code> */
+  public static Message bankRequest(final MessageFactory factory) {
+    final Map<Integer, Object> fields = bankResponse();
+    fields.remove(54);
+    fields.remove(102);
+    fields.put(37, "34522937166");
+    return factory.createByNumbers(MTI.create(0x0200), fields);
+  }
+
+  /** field values of the streamed message test payment request */
+  private static Map<Integer, Object> paymentRequest() {
+    return new HashMap<Integer, Object>() {{
+      put(2, 5264391220494002L);
+      put(3, 305700);
+      put(4, new BigInteger("32000"));
+      put(7, DATE10.parseDateTime("1210220213"));
+      put(11, 937166);
+      put(12, TIME6.parseLocalTime("000213"));
+      put(13, DATE4.parseDateTime("1211"));
+      put(32, 81800601368L);
+      put(37, 34522937166L);
+      put(41, "CIB08520263");
+      put(43, "CIB-57357HOSPITAL     CAIRO          EG0");
+      put(48, 20167124377L);
+      put(49, 818);
+    }};
+  }
+
+  /** field values of a bank transaction response, with primary and secondary bitmaps */
+  private static Map<Integer, Object> bankResponse() {
+    return new HashMap<Integer, Object>() {{
+      put(2, 5264391220494002L);
+      put(3, 1000);
+      put(4, new BigInteger("45600"));
+      put(7, DATE10.parseDateTime("1210220213"));
+      put(11, 937166);
+      put(12, TIME6.parseLocalTime("000213"));
+      put(13, DATE4.parseDateTime("1211"));
+      put(17, DATE4.parseDateTime("1211"));
+      put(28, BigInteger.valueOf(-1000));
+      put(30, BigInteger.valueOf(1000));
+      put(32, 81800601368L);
+      put(33, 27271711098L);
+      put(37, "345229371660");
+      put(41, "CIB08520");
+      put(42, "CIB-57357HOSP01");
+      put(43, "CIB-57357HOSPITAL     CAIRO          EG0");
+      put(49, 818);
+      put(54, "1001818C000000032000");
+      put(60, "4000012001");
+      put(102, "01191817233372");
+    }};
+  }
+
+  /** field values of the binary/BCD test request, with primary and secondary bitmaps */
+  private static Map<Integer, Object> bcdRequest() {
+    return new HashMap<Integer, Object>() {{
+      put(2, 5432818929192L);
+      put(3, 1010);
+      put(4, new BigInteger("1200"));
+      put(7, DATE10.parseDateTime("1212121200"));
+      put(11, 666666);
+      put(12, TIME6.parseLocalTime("121200"));
+      put(13, DATE4.parseDateTime("1212"));
+      put(32, 1029);
+      put(37, 937278626262L);
+      put(41, "ATM-10101");
+      put(43, "DUB87");
+      put(48, 353863579271L);
+      put(49, 840);
+      put(90, BigInteger.TEN);
+    }};
+  }
+
+  /** field values of the binary/BCD test advice, with a primary bitmap only */
+  private static Map<Integer, Object> bcdAdvice() {
+    return new HashMap<Integer, Object>() {{
+      put(2, "1234567890123456");
+      put(7, "0609173030");
+      put(22, "ABC123");
+      put(63, "012345678901234567890123456789012345678901234567890"
+          + "1234567890123456789012345678901234567890123456789");
+    }};
+  }
+
+  private static Map<Integer, Object> tertiaryRequest() {
+    return new HashMap<Integer, Object>() {{
+      put(2, "Field 2");
+      put(3, 123456);
+      put(4, 789101);
+      put(7, DATE10.parseDateTime("1120123000"));
+      put(11, 100001);
+      put(64, 200001);
+      put(66, 300001);
+      put(128, 400001);
+      put(130, 500001);
+      put(192, 600001);
+    }};
+  }
+
+  /** @return a factory whose single (0200) template has fields in all three bitmaps */
+  private static MessageFactory tertiaryFactory(final BitmapType bitmapType) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    final MessageTemplate template = MessageTemplate.Builder()
+        .header("ISO015000077")
+        .type(MTI.create(0x0200))
+        .fieldlist(asList(
+            builder.f(2).type(FieldType.ALPHANUMSYMBOL).dim("llvar(10)").name("field2").build(),
+            builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").build(),
+            builder.f(4).type(FieldType.NUMERIC).dim("fixed(6)").name("amount").build(),
+            builder.f(7).type(FieldType.DATE).dim("fixed(10)").name("transDateTime").build(),
+            builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+            builder.f(64).type(FieldType.NUMERIC).dim("fixed(6)").name("field64").build(),
+            builder.f(66).type(FieldType.NUMERIC).dim("fixed(6)").name("field66").build(),
+            builder.f(128).type(FieldType.NUMERIC).dim("fixed(6)").name("field128").build(),
+            builder.f(130).type(FieldType.NUMERIC).dim("fixed(6)").name("field130").build(),
+            builder.f(192).type(FieldType.NUMERIC).dim("fixed(6)").name("field192").build()))
+        .build();
+    return MessageFactory.Builder()
+        .id("tertiaryMessages")
+        .header("ISO015000077")
+        .contentType(ContentType.TEXT)
+        .bitmapType(bitmapType)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(template)
+        .build();
+  }
+
+  private SampleMessages() {}
+
+}
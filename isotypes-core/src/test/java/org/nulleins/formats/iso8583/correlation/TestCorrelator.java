@@ -0,0 +1,159 @@
+package org.nulleins.formats.iso8583.correlation;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+
+/** @author phillipsr */
+public class TestCorrelator {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MTI RESPONSE = MTI.create(0x0210);
+  private static final MTI REVERSAL = MTI.create(0x0400);
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("correlatorTest")
+      .header("ISO")
+      .contentType(ContentType.BCD)
+      .bitmapType(BitmapType.BINARY)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(template(REQUEST))
+      .addTemplate(template(RESPONSE))
+      .addTemplate(template(REVERSAL))
+      .build();
+
+  private final HashedWheelTimer timer = new HashedWheelTimer(5, TimeUnit.MILLISECONDS, 64);
+
+  private static MessageTemplate template(final MTI type) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageTemplate.Builder().header("ISO").type(type).fieldlist(asList(
+        builder.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build(),
+        builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+        builder.f(37).type(FieldType.ALPHANUM).dim("fixed(12)").name("rrn").build(),
+        builder.f(39).type(FieldType.ALPHANUM).dim("fixed(2)").name("responseCode").optional().build(),
+        builder.f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").build())).build();
+  }
+
+  private static Message message(final MTI type, final int stan, final String responseCode) {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(4, BigInteger.valueOf(1500));
+    fields.put(11, stan);
+    fields.put(37, "RRN" + stan);
+    fields.put(41, "ATM-1010");
+    if (responseCode != null) {
+      fields.put(39, responseCode);
+    }
+    return factory.createByNumbers(type, fields);
+  }
+
+  @After
+  public void tearDown() {
+    timer.close();
+  }
+
+  @Test
+  public void testCompletesByKeyFields() throws Exception {
+    final Correlator correlator = Correlator.Builder().factory(factory).timer(timer).build();
+    final ListenableFuture<Message> first = correlator.register(message(REQUEST, 1, null));
+    final ListenableFuture<Message> second = correlator.register(message(REQUEST, 2, null));
+    assertThat(correlator.getPendingCount(), is(2));
+
+    final Message response = message(RESPONSE, 2, "00");
+    assertThat(correlator.complete(factory.getMessageData(response)), is(true));
+    assertThat(second.get(), is(response));
+    assertThat(first.isDone(), is(false));
+    assertThat(correlator.complete(message(RESPONSE, 1, "05")), is(true));
+    assertThat(first.get().getFieldValue(39).get(), is((Object) "05"));
+    // unmatched and duplicate responses
+    assertThat(correlator.complete(factory.getMessageData(response)), is(false));
+    assertThat(correlator.complete(message(RESPONSE, 3, "00")), is(false));
+    assertThat(correlator.getPendingCount(), is(0));
+  }
+
+  @Test
+  public void testCompletesByDataInEbcdic() throws Exception {
+    final MessageFactory ebcdic = MessageFactory.Builder()
+        .id("correlatorEbcdicTest")
+        .header("ISO")
+        .contentType(ContentType.TEXT)
+        .bitmapType(BitmapType.HEX)
+        .charset(new CharEncoder("Cp1047"))
+        .addTemplate(template(REQUEST))
+        .addTemplate(template(RESPONSE))
+        .build();
+    final Correlator correlator = Correlator.Builder().factory(ebcdic).timer(timer).build();
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(4, BigInteger.valueOf(1500));
+    fields.put(11, 123);
+    fields.put(37, "RRN123");
+    fields.put(41, "ATM1");
+    final Message request = ebcdic.createByNumbers(REQUEST, fields);
+    final ListenableFuture<Message> response = correlator.register(request);
+    fields.put(39, "00");
+    final Message answer = ebcdic.createByNumbers(RESPONSE, fields);
+    assertThat(correlator.complete(ebcdic.getMessageData(answer)), is(true));
+    assertThat(response.get(5, TimeUnit.SECONDS), is(answer));
+  }
+
+  @Test
+  public void testRejectsDuplicateRequest() throws Exception {
+    final Correlator correlator = Correlator.Builder().factory(factory).timer(timer).build();
+    correlator.register(message(REQUEST, 1, null));
+    try {
+      correlator.register(message(REQUEST, 1, null)).get();
+    } catch (final ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+      return;
+    }
+    throw new AssertionError("Duplicate request accepted");
+  }
+
+  @Test
+  public void testTimesOutWithReversal() throws Exception {
+    final BlockingQueue<Message> reversals = new LinkedBlockingQueue<>();
+    final Correlator correlator = Correlator.Builder().factory(factory).timer(timer)
+        .timeout(20, TimeUnit.MILLISECONDS)
+        .reversal(REVERSAL, new ReversalHandler() {
+          @Override
+          public void reverse(final Message request, final Message reversal) {
+            reversals.add(reversal);
+          }
+        }).build();
+    final Message request = message(REQUEST, 7, null);
+    final ListenableFuture<Message> response = correlator.register(request);
+    try {
+      response.get(5, TimeUnit.SECONDS);
+      throw new AssertionError("Request did not time out");
+    } catch (final ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(TimeoutException.class));
+    }
+    final Message reversal = reversals.poll(5, TimeUnit.SECONDS);
+    assertThat(reversal.getMTI(), is(REVERSAL));
+    assertThat(reversal.getFieldValue(11).get(), is((Object) 7));
+    assertThat(reversal.getFieldValue(37).get(), is((Object) "RRN7"));
+    assertThat(correlator.getPendingCount(), is(0));
+    // a late response is not correlated
+    assertThat(correlator.complete(message(RESPONSE, 7, "00")), is(false));
+  }
+}
@@ -0,0 +1,72 @@
+package org.nulleins.formats.iso8583.correlation;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestHashedWheelTimer {
+  private final HashedWheelTimer timer = new HashedWheelTimer(5, TimeUnit.MILLISECONDS, 8);
+
+  @After
+  public void tearDown() {
+    timer.close();
+  }
+
+  @Test
+  public void testExpiresAfterDelay() throws InterruptedException {
+    final CountDownLatch expired = new CountDownLatch(2);
+    final long start = System.nanoTime();
+    // longer than a revolution of the wheel (40ms)
+    final HashedWheelTimer.Timeout timeout = timer.schedule(new CountDown(expired), 100, TimeUnit.MILLISECONDS);
+    timer.schedule(new CountDown(expired), 10, TimeUnit.MILLISECONDS);
+    assertThat(expired.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 100, is(true));
+    assertThat(timeout.isExpired(), is(true));
+    assertThat(timeout.cancel(), is(false));
+  }
+
+  @Test
+  public void testCancelledTimeoutsDoNotExpire() throws InterruptedException {
+    final AtomicInteger count = new AtomicInteger();
+    final Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        count.incrementAndGet();
+      }
+    };
+    final HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[1000];
+    for (int i = 0; i < timeouts.length; i++) {
+      timeouts[i] = timer.schedule(task, 20 + i % 50, TimeUnit.MILLISECONDS);
+    }
+    for (int i = 0; i < timeouts.length; i += 2) {
+      timeouts[i].cancel();
+    }
+    final CountDownLatch last = new CountDownLatch(1);
+    timer.schedule(new CountDown(last), 100, TimeUnit.MILLISECONDS);
+    assertThat(last.await(5, TimeUnit.SECONDS), is(true));
+    for (int i = 1; i < timeouts.length; i += 2) {
+      assertThat(timeouts[i].isExpired(), is(true));
+    }
+    assertThat(count.get(), is(timeouts.length / 2));
+  }
+
+  private static final class CountDown implements Runnable {
+    private final CountDownLatch latch;
+
+    private CountDown(final CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Override
+    public void run() {
+      latch.countDown();
+    }
+  }
+}
@@ -0,0 +1,174 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.ParseResult;
+import org.nulleins.formats.iso8583.ParseResult.ErrorCode;
+import org.nulleins.formats.iso8583.config.SampleMessages;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestMessageFlyweight {
+  private static final String MESSAGE = "ISO0200" + "7000000000000000" + "164111111111111111" + "001000" + "000000001500";
+
+  private static final MessageFactory factory = createFactory();
+
+  private static MessageFactory createFactory() {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("flyweightTest")
+        .header("ISO")
+        .bitmapType(BitmapType.HEX)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(MTI.create(0x0200)).fieldlist(asList(
+            builder.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+            builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").build(),
+            builder.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build(),
+            builder.f(42).type(FieldType.ALPHANUMPAD).dim("fixed(15)").name("merchant").optional().build())).build())
+        .build();
+  }
+
+  @Test
+  public void testReadsSamples() throws Exception {
+    for (final SampleMessages.Scenario scenario : SampleMessages.Scenario.values()) {
+      final SampleMessages.Sample sample = SampleMessages.create(scenario);
+      final MessageFlyweight reader = new MessageFlyweight(sample.getFactory());
+      assertThat(scenario + ": " + reader.getError(), reader.wrap(ByteBuffer.wrap(sample.getData()), 0), is(true));
+      assertThat(reader.getLength(), is(sample.getData().length));
+      final Message message = sample.getFactory().parse(sample.getData());
+      assertThat(reader.getMTI(), is(message.getMTI()));
+      for (int number = 2; number <= 192; number++) {
+        assertThat(scenario + " #" + number, reader.hasField(number), is(message.getFields().containsKey(number)));
+        if (!reader.hasField(number)) {
+          continue;
+        }
+        final Object value = message.getFieldValue(number).get();
+        if (value instanceof Number) {
+          assertThat(scenario + " #" + number, reader.getLong(number), is(((Number) value).longValue()));
+        } else if (value instanceof String) {
+          assertThat(scenario + " #" + number, reader.getCharSequence(number).toString(), is(value));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReadsFromOffset() {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+    buffer.put(("XX" + MESSAGE + MESSAGE).getBytes()).flip();
+    final MessageFlyweight flyweight = new MessageFlyweight(factory);
+    assertThat(flyweight.wrap(buffer, 2), is(true));
+    assertThat(flyweight.getLength(), is(MESSAGE.length()));
+    assertThat(flyweight.wrap(buffer, 2 + flyweight.getLength()), is(true));
+    assertThat(flyweight.getLong(2), is(4111111111111111L));
+    assertThat(flyweight.getInt(3), is(1000));
+    assertThat(flyweight.getCharSequence(4).toString(), is("000000001500"));
+    assertThat(flyweight.getFieldPosition(4), is(2 + 2 * MESSAGE.length() - 12));
+    assertThat(flyweight.hasField(42), is(false));
+  }
+
+  @Test
+  public void testReportsErrors() {
+    final MessageFlyweight flyweight = new MessageFlyweight(factory);
+    assertError(flyweight, "ISO0400", ErrorCode.UNKNOWN_MTI, ParseResult.NO_FIELD, 3);
+    assertError(flyweight, "ISO0200700000000000000G", ErrorCode.BAD_BITMAP, ParseResult.NO_FIELD, 7);
+    assertError(flyweight, MESSAGE.replace("164111", "204111"), ErrorCode.BAD_LENGTH, 2, 23);
+    assertError(flyweight, MESSAGE.substring(0, 50), ErrorCode.TRUNCATED, 4, 47);
+    for (final SampleMessages.Scenario scenario : SampleMessages.Scenario.values()) {
+      final SampleMessages.Sample sample = SampleMessages.create(scenario);
+      final MessageFlyweight reader = new MessageFlyweight(sample.getFactory());
+      for (int length = 0; length < sample.getData().length; length++) {
+        assertThat(scenario + " length " + length,
+            reader.wrap(ByteBuffer.wrap(Arrays.copyOf(sample.getData(), length)), 0), is(false));
+        assertThat(reader.getError(), is(ErrorCode.TRUNCATED));
+      }
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoValuesAfterError() {
+    final MessageFlyweight flyweight = new MessageFlyweight(factory);
+    flyweight.wrap(ByteBuffer.wrap("ISO0400".getBytes()), 0);
+    flyweight.getMTI();
+  }
+
+  @Test
+  public void testEncodesAsWriter() {
+    final MessageEncoder encoder = new MessageEncoder(factory);
+    final ByteBuffer buffer = ByteBuffer.allocate(256);
+    for (int i = 0; i < 2; i++) {
+      final int length = encoder.wrap(buffer, 0, MTI.create(0x0200))
+          .putLong(2, 4111111111111111L)
+          .putChars(3, "1000")
+          .putLong(4, 1500)
+          .finish();
+      assertThat(new String(buffer.array(), 0, length), is(MESSAGE));
+    }
+    final int length = encoder.wrap(buffer, 0, MTI.create(0x0200))
+        .putLong(2, 4111111111111111L)
+        .putLong(3, 1000)
+        .putLong(4, 1500)
+        .putChars(42, "M01")
+        .finish();
+    assertThat(new String(buffer.array(), 0, length),
+        is(MESSAGE.replace("7000000000000000", "7000000000400000") + "M01            "));
+  }
+
+  @Test
+  public void testEncodesSamples() {
+    for (final SampleMessages.Scenario scenario : SampleMessages.Scenario.values()) {
+      final SampleMessages.Sample sample = SampleMessages.create(scenario);
+      final MessageFlyweight reader = new MessageFlyweight(sample.getFactory());
+      reader.wrap(ByteBuffer.wrap(sample.getData()), 0);
+      final MessageEncoder encoder = new MessageEncoder(sample.getFactory());
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+      encoder.wrap(buffer, 0, reader.getMTI());
+      for (int number = 2; number <= 192; number++) {
+        if (reader.hasField(number)) {
+          encoder.putChars(number, reader.getCharSequence(number));
+        }
+      }
+      final byte[] data = new byte[encoder.finish()];
+      buffer.get(data);
+      assertThat(scenario.toString(), data, is(sample.getData()));
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testFieldsInOrder() {
+    new MessageEncoder(factory).wrap(ByteBuffer.allocate(256), 0, MTI.create(0x0200))
+        .putLong(3, 1000)
+        .putLong(2, 4111111111111111L);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMandatoryFields() {
+    new MessageEncoder(factory).wrap(ByteBuffer.allocate(256), 0, MTI.create(0x0200))
+        .putLong(2, 4111111111111111L)
+        .putLong(4, 1500)
+        .finish();
+  }
+
+  private static void assertError(
+      final MessageFlyweight flyweight, final String data, final ErrorCode error, final int field, final int offset) {
+    assertThat(data, flyweight.wrap(ByteBuffer.wrap(data.getBytes()), 0), is(false));
+    assertThat(data, flyweight.getError(), is(error));
+    assertThat(data, flyweight.getErrorField(), is(field));
+    assertThat(data, flyweight.getErrorOffset(), is(offset));
+  }
+}
@@ -0,0 +1,172 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.config.SampleMessages;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestMessagePatcher {
+  private static final MTI REQUEST = MTI.create(0x0200);
+
+  private static MessageFactory createFactory(final ContentType contentType, final BitmapType bitmapType) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("patcherTest")
+        .header("ISO")
+        .bitmapType(bitmapType)
+        .contentType(contentType)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(REQUEST).fieldlist(asList(
+            builder.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+            builder.f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build(),
+            builder.f(38).type(FieldType.ALPHANUM).dim("fixed(6)").name("authId").optional().build(),
+            builder.f(39).type(FieldType.ALPHANUM).dim("fixed(2)").name("response").optional().build(),
+            builder.f(44).type(FieldType.ALPHANUMSYMBOL).dim("llvar(25)").name("additional").optional().build(),
+            builder.f(70).type(FieldType.NUMERIC).dim("fixed(3)").name("networkCode").optional().build(),
+            builder.f(130).type(FieldType.NUMERIC).dim("fixed(6)").name("field130").optional().build())).build())
+        .build();
+  }
+
+  @Test
+  public void testTextHex() {
+    verifyPatches(createFactory(ContentType.TEXT, BitmapType.HEX), ByteBuffer.allocate(512));
+  }
+
+  @Test
+  public void testBcdBinary() {
+    verifyPatches(createFactory(ContentType.BCD, BitmapType.BINARY), ByteBuffer.allocateDirect(512));
+  }
+
+  /** apply a sequence of patches, comparing each result with the message encoded from scratch */
+  private static void verifyPatches(final MessageFactory factory, final ByteBuffer buffer) {
+    final Map<Integer, String> fields = new TreeMap<>();
+    fields.put(2, "4111111111111111");
+    fields.put(4, "000000001500");
+    encode(factory, fields, buffer);
+    final MessagePatcher patcher = new MessagePatcher(factory);
+    assertThat(patcher.wrap(buffer, 0), is(true));
+
+    patcher.setChars(39, "00").setChars(38, "ABC123");
+    verify(factory, patcher, buffer, fields, 39, "00", 38, "ABC123");
+    patcher.setLong(4, 2500);
+    verify(factory, patcher, buffer, fields, 4, "000000002500");
+    patcher.setChars(2, "5432818929192");
+    verify(factory, patcher, buffer, fields, 2, "5432818929192");
+    patcher.setChars(44, "ADDITIONAL DATA");
+    verify(factory, patcher, buffer, fields, 44, "ADDITIONAL DATA");
+    patcher.setChars(44, "SHORT");
+    verify(factory, patcher, buffer, fields, 44, "SHORT");
+
+    // promote to secondary, then tertiary bitmap, and demote again
+    patcher.setLong(70, 301);
+    verify(factory, patcher, buffer, fields, 70, "301");
+    patcher.setLong(130, 123456);
+    verify(factory, patcher, buffer, fields, 130, "123456");
+    patcher.remove(70);
+    verify(factory, patcher, buffer, fields, 70, null);
+    patcher.remove(130);
+    verify(factory, patcher, buffer, fields, 130, null);
+    patcher.setLong(130, 654321);
+    verify(factory, patcher, buffer, fields, 130, "654321");
+    patcher.remove(130).remove(44).remove(38);
+    verify(factory, patcher, buffer, fields, 130, null, 44, null, 38, null);
+    assertThat(patcher.getMessage().getCharSequence(39).toString(), is("00"));
+  }
+
+  @Test
+  public void testPatchSample() throws Exception {
+    final SampleMessages.Sample sample = SampleMessages.create(SampleMessages.Scenario.TEXT_HEX_SECONDARY);
+    final ByteBuffer buffer = ByteBuffer.allocate(sample.getData().length + 16);
+    buffer.put(sample.getData()).flip();
+    final MessagePatcher patcher = new MessagePatcher(sample.getFactory());
+    assertThat(patcher.wrap(buffer, 0), is(true));
+    final int length = patcher.setLong(4, 12345).setChars(2, "4111111111111111111").getLength();
+    assertThat(length, is(sample.getData().length + 3));
+    final Message patched = sample.getFactory().parse(Arrays.copyOf(buffer.array(), length));
+    assertThat(patched.getFieldValue(4).get(), is((Object) new BigInteger("12345")));
+    assertThat(patched.getFieldValue(2).get(), is((Object) new BigInteger("4111111111111111111")));
+    assertThat(patched.getFieldValue(102), is(sample.getMessage().getFieldValue(102)));
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void testCapacityExceeded() {
+    final MessageFactory factory = createFactory(ContentType.TEXT, BitmapType.HEX);
+    final Map<Integer, String> fields = new TreeMap<>();
+    fields.put(2, "4111111111111111");
+    fields.put(4, "000000001500");
+    final ByteBuffer encoded = ByteBuffer.allocate(512);
+    // a buffer holding just the message, with no space to grow
+    final ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(encoded.array(), encode(factory, fields, encoded)));
+    final MessagePatcher patcher = new MessagePatcher(factory);
+    patcher.wrap(buffer, 0);
+    patcher.setChars(39, "00");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRemoveMandatory() {
+    final MessageFactory factory = createFactory(ContentType.TEXT, BitmapType.HEX);
+    final Map<Integer, String> fields = new TreeMap<>();
+    fields.put(2, "4111111111111111");
+    fields.put(4, "000000001500");
+    final ByteBuffer buffer = ByteBuffer.allocate(512);
+    encode(factory, fields, buffer);
+    final MessagePatcher patcher = new MessagePatcher(factory);
+    patcher.wrap(buffer, 0);
+    patcher.remove(4);
+  }
+
+  /** update <code>fields</code> with the (number, value) <code>changes</code>, a null value
+    * removing the field, and check the patched message matches the message encoded with them */
+  private static void verify(final MessageFactory factory, final MessagePatcher patcher, final ByteBuffer buffer,
+                             final Map<Integer, String> fields, final Object... changes) {
+    for (int i = 0; i < changes.length; i += 2) {
+      if (changes[i + 1] == null) {
+        fields.remove(changes[i]);
+      } else {
+        fields.put((Integer) changes[i], (String) changes[i + 1]);
+      }
+    }
+    final ByteBuffer expected = ByteBuffer.allocate(512);
+    final int length = encode(factory, fields, expected);
+    assertThat(fields.toString(), patcher.getLength(), is(length));
+    assertThat(fields.toString(), bytes(buffer, length), is(Arrays.copyOf(expected.array(), length)));
+    assertThat(patcher.getMessage().getLength(), is(length));
+  }
+
+  private static int encode(final MessageFactory factory, final Map<Integer, String> fields, final ByteBuffer buffer) {
+    final MessageEncoder encoder = new MessageEncoder(factory).wrap(buffer, 0, REQUEST);
+    for (final Map.Entry<Integer, String> field : fields.entrySet()) {
+      encoder.putChars(field.getKey(), field.getValue());
+    }
+    final int result = encoder.finish();
+    buffer.limit(result);
+    return result;
+  }
+
+  private static byte[] bytes(final ByteBuffer buffer, final int length) {
+    final byte[] result = new byte[length];
+    for (int i = 0; i < length; i++) {
+      result[i] = buffer.get(i);
+    }
+    return result;
+  }
+}
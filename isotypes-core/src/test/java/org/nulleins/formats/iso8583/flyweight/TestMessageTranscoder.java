@@ -0,0 +1,163 @@
+package org.nulleins.formats.iso8583.flyweight;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.ParseResult.ErrorCode;
+import org.nulleins.formats.iso8583.flyweight.MessageTranscoder.Conversion;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestMessageTranscoder {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final Map<Integer, Object> VALUES = new HashMap<Integer, Object>() {{
+    put(2, new BigInteger("5432818929192"));
+    put(3, 1010);
+    put(4, new BigInteger("1200"));
+    put(11, 666666);
+    put(28, BigInteger.valueOf(-1000));
+    put(41, "ATM-1010");
+    put(44, "ADDITIONAL DATA1");
+    put(70, 301);
+  }};
+
+  private static MessageFactory createFactory(
+      final ContentType contentType, final BitmapType bitmapType, final CharEncoder charset, final String amount) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("transcoderTest")
+        .header("ISO")
+        .bitmapType(bitmapType)
+        .contentType(contentType)
+        .charset(charset)
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(REQUEST).fieldlist(asList(
+            builder.f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+            builder.f(3).type(FieldType.NUMERIC).dim("fixed(6)").name("processingCode").build(),
+            builder.f(4).type(FieldType.NUMERIC).dim(amount).name("amount").build(),
+            builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+            builder.f(28).type(FieldType.NUMSIGNED).dim("fixed(9)").name("fee").build(),
+            builder.f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").build(),
+            builder.f(44).type(FieldType.ALPHANUMSYMBOL).dim("llvar(25)").name("additional").build(),
+            builder.f(70).type(FieldType.NUMERIC).dim("fixed(3)").name("networkCode").build())).build())
+        .build();
+  }
+
+  private static final MessageFactory text =
+      createFactory(ContentType.TEXT, BitmapType.HEX, CharEncoder.ASCII, "fixed(12)");
+
+  @Test
+  public void testTextToBcd() {
+    final MessageFactory bcd = createFactory(ContentType.BCD, BitmapType.BINARY, CharEncoder.ASCII, "fixed(12)");
+    final MessageTranscoder transcoder = new MessageTranscoder(text, bcd);
+    assertThat(transcoder.getConversion(REQUEST, 2), is(Conversion.RECODE));
+    assertThat(transcode(transcoder, text), is(bcd.getMessageData(bcd.createByNumbers(REQUEST, VALUES))));
+  }
+
+  @Test
+  public void testBcdToText() throws Exception {
+    final MessageFactory bcd = createFactory(ContentType.BCD, BitmapType.BINARY, CharEncoder.ASCII, "fixed(12)");
+    final byte[] result = transcode(new MessageTranscoder(bcd, text), bcd);
+    assertThat(text.parse(result), is(bcd.parse(bcd.getMessageData(bcd.createByNumbers(REQUEST, VALUES)))));
+  }
+
+  @Test
+  public void testAsciiToEbcdic() {
+    final MessageFactory ebcdic =
+        createFactory(ContentType.TEXT, BitmapType.HEX, new CharEncoder("Cp1047"), "fixed(12)");
+    final byte[] result = transcode(new MessageTranscoder(text, ebcdic), text);
+    assertThat(result, is(ebcdic.getMessageData(ebcdic.createByNumbers(REQUEST, VALUES))));
+  }
+
+  @Test
+  public void testCopiesSameEncoding() {
+    final MessageFactory binary = createFactory(ContentType.TEXT, BitmapType.BINARY, CharEncoder.ASCII, "fixed(12)");
+    final MessageTranscoder transcoder = new MessageTranscoder(text, binary);
+    assertThat(transcoder.getConversion(REQUEST, 44), is(Conversion.COPY));
+    assertThat(transcode(transcoder, text), is(binary.getMessageData(binary.createByNumbers(REQUEST, VALUES))));
+  }
+
+  @Test
+  public void testFormatsDifferingDefinitions() {
+    final MessageFactory narrow = createFactory(ContentType.BCD, BitmapType.BINARY, CharEncoder.ASCII, "fixed(10)");
+    final MessageTranscoder transcoder = new MessageTranscoder(text, narrow);
+    assertThat(transcoder.getConversion(REQUEST, 4), is(Conversion.FORMAT));
+    assertThat(transcoder.getConversion(REQUEST, 3), is(Conversion.RECODE));
+    assertThat(transcode(transcoder, text), is(narrow.getMessageData(narrow.createByNumbers(REQUEST, VALUES))));
+  }
+
+  @Test
+  public void testFormatsIntoEbcdic() throws Exception {
+    final MessageFactory ebcdic =
+        createFactory(ContentType.TEXT, BitmapType.HEX, new CharEncoder("Cp1047"), "fixed(10)");
+    final MessageTranscoder transcoder = new MessageTranscoder(text, ebcdic);
+    assertThat(transcoder.getConversion(REQUEST, 4), is(Conversion.FORMAT));
+    assertThat(transcode(transcoder, text), is(ebcdic.getMessageData(ebcdic.createByNumbers(REQUEST, VALUES))));
+
+    final byte[] result = transcode(new MessageTranscoder(ebcdic, text), ebcdic);
+    assertThat(text.parse(result), is(text.parse(text.getMessageData(text.createByNumbers(REQUEST, VALUES)))));
+  }
+
+  @Test
+  public void testRejectsTrackDataIntoBcd() {
+    final MessageFactory textTracks = createTrackFactory(ContentType.TEXT, BitmapType.HEX);
+    final MessageFactory bcdTracks = createTrackFactory(ContentType.BCD, BitmapType.BINARY);
+    assertThat(new MessageTranscoder(bcdTracks, textTracks).getConversion(REQUEST, 35), is(Conversion.RECODE));
+    assertThat(new MessageTranscoder(bcdTracks, bcdTracks).getConversion(REQUEST, 35), is(Conversion.COPY));
+    try {
+      new MessageTranscoder(textTracks, bcdTracks);
+      throw new AssertionError("Track data converted into BCD content");
+    } catch (final IllegalArgumentException e) {
+      assertThat(e.getMessage().contains("track data in BCD content"), is(true));
+    }
+  }
+
+  private static MessageFactory createTrackFactory(final ContentType contentType, final BitmapType bitmapType) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageFactory.Builder()
+        .id("transcoderTrackTest")
+        .header("ISO")
+        .bitmapType(bitmapType)
+        .contentType(contentType)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("ISO").type(REQUEST).fieldlist(asList(
+            builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+            builder.f(35).type(FieldType.TRACKDATA).dim("llvar(37)").name("track2").build())).build())
+        .build();
+  }
+
+  @Test
+  public void testRejectsMalformedSource() {
+    final MessageTranscoder transcoder = new MessageTranscoder(text, text);
+    final byte[] data = text.getMessageData(text.createByNumbers(REQUEST, VALUES));
+    final ByteBuffer source = ByteBuffer.wrap(Arrays.copyOf(data, data.length - 1));
+    assertThat(transcoder.transcode(source, 0, ByteBuffer.allocate(512), 0), is(-1));
+    assertThat(transcoder.getError(), is(ErrorCode.TRUNCATED));
+  }
+
+  /** @return the message of VALUES, encoded by <code>source</code>, transcoded */
+  private static byte[] transcode(final MessageTranscoder transcoder, final MessageFactory source) {
+    final Message message = source.createByNumbers(REQUEST, VALUES);
+    final byte[] data = source.getMessageData(message);
+    final ByteBuffer target = ByteBuffer.allocate(512);
+    final int length = transcoder.transcode(ByteBuffer.wrap(data), 0, target, 0);
+    assertThat(transcoder.getError(), is((ErrorCode) null));
+    assertThat(transcoder.getSourceLength(), is(data.length));
+    return Arrays.copyOf(target.array(), length);
+  }
+}
@@ -0,0 +1,145 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.formatters.NumberFormatter;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestFieldProfiler {
+  private static final MTI Request = MTI.create(0x0200);
+  private static final String SLOW = "slow";
+  private static final HashMap<Integer, Object> FIELDS = new HashMap<Integer, Object>() {{
+    put(2, BigInteger.TEN);
+    put(3, "ABC");
+  }};
+
+  /** formatter taking a measurable time to parse a value */
+  private static class SlowFormatter extends TypeFormatter<String> {
+    @Override
+    public String parse(final String type, final Dimension dimension, final int position, final byte[] data) {
+      try {
+        Thread.sleep(2);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new String(data);
+    }
+
+    @Override
+    public byte[] format(final String type, final Object data, final Dimension dimension) {
+      return data.toString().getBytes();
+    }
+
+    @Override
+    public boolean isValid(final Object value, final String type, final Dimension dimension) {
+      return value != null;
+    }
+  }
+
+  private MessageFactory createFactory(final MessageMetrics metrics) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    final FieldTemplate number = builder.f(2).type(FieldType.NUMERIC).dim("fixed(6)").name("number").build();
+    final FieldTemplate slow = builder.f(3).type(SLOW).dim("fixed(3)").name("slow").build();
+    return MessageFactory.Builder()
+        .id("profilerTest")
+        .bitmapType(BitmapType.HEX)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        .addFormatter(SLOW, new SlowFormatter())
+        .addTemplate(MessageTemplate.Builder().header("").type(Request).fieldlist(asList(number, slow)).build())
+        .metrics(metrics)
+        .build();
+  }
+
+  private FieldProfiler profiler;
+  private MessageFactory factory;
+
+  @Before
+  public void setUp() {
+    profiler = new FieldProfiler(1);
+    factory = createFactory(profiler);
+  }
+
+  @Test
+  public void testSlowFieldRankedFirst() throws Exception {
+    final Message message = factory.createByNumbers(Request, FIELDS);
+    for (int i = 0; i < 5; i++) {
+      factory.parse(factory.getMessageData(message));
+    }
+    final List<FieldProfiler.FieldCost> report = profiler.report();
+    assertThat(report.size(), is(4)); // parse and format of each field
+
+    final FieldProfiler.FieldCost slowest = report.get(0);
+    assertThat(slowest.getOperation(), is(MessageMetrics.Operation.PARSE));
+    assertThat(slowest.getType(), is("0200"));
+    assertThat(slowest.getField(), is(3));
+    assertThat(slowest.getFormatter(), is((Object) SlowFormatter.class));
+    assertThat(slowest.getSamples(), is(5L));
+    assertThat(slowest.getMeanNanos(), greaterThanOrEqualTo(2000000L));
+
+    for (final FieldProfiler.FieldCost cost : report) {
+      if (cost.getFormatter() == NumberFormatter.class && cost.getOperation() == MessageMetrics.Operation.FORMAT) {
+        assertThat(cost.getMeanBytes(), greaterThan(0L));
+      }
+    }
+
+    final StringBuilder output = new StringBuilder();
+    profiler.printReport(output);
+    assertThat(output.toString(), containsString(SlowFormatter.class.getName()));
+
+    profiler.reset();
+    assertThat(profiler.report().isEmpty(), is(true));
+  }
+
+  @Test
+  public void testSampling() throws Exception {
+    final FieldProfiler sampling = new FieldProfiler(10);
+    final MessageFactory sampled = createFactory(sampling);
+    final byte[] data = sampled.getMessageData(sampled.createByNumbers(Request, FIELDS));
+    for (int i = 0; i < 200; i++) {
+      sampled.parse(data);
+    }
+    long samples = 0;
+    for (final FieldProfiler.FieldCost cost : sampling.report()) {
+      if (cost.getOperation() == MessageMetrics.Operation.PARSE && cost.getField() == 2) {
+        samples = cost.getSamples();
+      }
+    }
+    assertThat(samples, greaterThan(0L));
+    assertThat(samples, lessThan(100L));
+  }
+
+  @Test
+  public void testCompositeReportsToAll() throws Exception {
+    final MetricsRegistry registry = new MetricsRegistry();
+    final FieldProfiler profiled = new FieldProfiler(1);
+    final MessageFactory composite = createFactory(CompositeMetrics.of(registry, profiled));
+    composite.parse(composite.getMessageData(composite.createByNumbers(Request, FIELDS)));
+    assertThat(registry.snapshot().get("parse.0200.count").longValue(), is(1L));
+    assertThat(registry.snapshot().get("parse.fields.slow").longValue(), is(1L));
+    assertThat(profiled.report().size(), is(4));
+  }
+}
@@ -0,0 +1,188 @@
+package org.nulleins.formats.iso8583.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageException;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestMetrics {
+  private static final MTI Request = MTI.create(0x0200);
+  private static final MTI Response = MTI.create(0x0210);
+  private static final HashMap<Integer, Object> FIELDS = new HashMap<Integer, Object>() {{
+    put(2, BigInteger.TEN);
+    put(3, "ABC");
+  }};
+
+  private MetricsRegistry metrics;
+  private MessageFactory factory;
+
+  @Before
+  public void createFactory() {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    final FieldTemplate number = builder.f(2).type(FieldType.NUMERIC).dim("fixed(6)").name("number").build();
+    final FieldTemplate text = builder.f(3).type(FieldType.ALPHA).dim("fixed(3)").name("text").build();
+    metrics = new MetricsRegistry();
+    factory = MessageFactory.Builder()
+        .id("metricsTest")
+        .bitmapType(BitmapType.HEX)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("").type(Request).fieldlist(asList(number, text)).build())
+        .addTemplate(MessageTemplate.Builder().header("").type(Response).fieldlist(asList(number)).build())
+        .metrics(metrics)
+        .build();
+  }
+
+  @Test
+  public void testOperationsRecorded() throws Exception {
+    final Message message = factory.createByNumbers(Request, FIELDS);
+    final byte[] data = factory.getMessageData(message);
+    factory.parse(data);
+    factory.parse(data);
+    assertThat(message.isValid(), is(true));
+    factory.transform(Response, message, new HashMap<String, Object>());
+
+    final Map<String, Number> snapshot = metrics.snapshot();
+    assertThat(snapshot.get("format.0200.count").longValue(), is(1L));
+    assertThat(snapshot.get("format.0200.bytes").longValue(), is((long) data.length));
+    assertThat(snapshot.get("parse.0200.count").longValue(), is(2L));
+    assertThat(snapshot.get("parse.0200.bytes").longValue(), is(2L * data.length));
+    assertThat(snapshot.get("parse.0200.errors").longValue(), is(0L));
+    assertThat(snapshot.get("validate.0200.count").longValue(), is(1L));
+    assertThat(snapshot.get("transform.0210.count").longValue(), is(1L));
+    assertThat(snapshot.get("parse.fields.n").longValue(), is(2L));
+    assertThat(snapshot.get("parse.fields.a").longValue(), is(2L));
+    assertThat(snapshot.get("format.fields.n").longValue(), is(1L));
+    assertThat(snapshot.get("parse.0200.max").longValue(), greaterThan(0L));
+    assertThat(snapshot.get("parse.0200.p50").longValue(), lessThanOrEqualTo(snapshot.get("parse.0200.max").longValue()));
+  }
+
+  @Test
+  public void testParseErrorRecorded() throws Exception {
+    try {
+      factory.parse("0400".getBytes());
+    } catch (final MessageException e) {
+      assertThat(metrics.snapshot().get("parse.unknown.errors").longValue(), is(1L));
+      return;
+    }
+    throw new AssertionError("Parse of undefined message type should fail");
+  }
+
+  @Test
+  public void testInvalidMessageRecorded() {
+    final Message message = factory.createByNumbers(Request, new HashMap<Integer, Object>() {{
+      put(2, BigInteger.TEN);
+    }});
+    assertThat(message.isValid(), is(false));
+    assertThat(metrics.snapshot().get("validate.0200.errors").longValue(), is(1L));
+  }
+
+  @Test
+  public void testPrometheusExport() {
+    factory.getMessageData(factory.createByNumbers(Request, FIELDS));
+    final String scrape = new PrometheusExporter().add("metricsTest", metrics).scrape();
+    assertThat(scrape, containsString("# TYPE isotypes_operation_seconds summary\n"));
+    assertThat(scrape, containsString(
+        "isotypes_operation_seconds_count{factory=\"metricsTest\",operation=\"format\",mti=\"0200\"} 1\n"));
+    assertThat(scrape, containsString(
+        "isotypes_operation_seconds{factory=\"metricsTest\",operation=\"format\",mti=\"0200\",quantile=\"0.99\"}"));
+    assertThat(scrape, containsString(
+        "isotypes_operation_seconds{factory=\"metricsTest\",operation=\"format\",mti=\"0200\",quantile=\"0.999\"}"));
+    assertThat(scrape, containsString(
+        "isotypes_operation_seconds{factory=\"metricsTest\",operation=\"format\",mti=\"0200\",quantile=\"0.5\"}"));
+    assertThat(scrape, containsString(
+        "isotypes_fields_total{factory=\"metricsTest\",operation=\"format\",type=\"a\"} 1\n"));
+  }
+
+  @Test
+  public void testMBeanExport() throws Exception {
+    factory.getMessageData(factory.createByNumbers(Request, FIELDS));
+    final ObjectName name = MetricsMBean.register(metrics, "metricsTest");
+    try {
+      assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "format.0200.count"), is((Object) 1L));
+      try {
+        ManagementFactory.getPlatformMBeanServer().invoke(name, "reset", new Object[0], new String[0]);
+        throw new AssertionError("Undefined operation invoked");
+      } catch (final ReflectionException e) {
+        assertThat(e.getTargetException() instanceof NoSuchMethodException, is(true));
+      }
+    } finally {
+      MetricsMBean.unregister("metricsTest");
+    }
+  }
+
+  @Test
+  public void testHistogramPercentiles() {
+    final Histogram histogram = new Histogram();
+    for (int value = 1; value <= 1000; value++) {
+      histogram.record(value * 1000L);
+    }
+    assertThat(histogram.getCount(), is(1000L));
+    assertThat(histogram.getMax(), is(1000000L));
+    assertThat(histogram.getMean(), is(500500.0));
+    assertPercentile(histogram.getValueAtPercentile(50), 500000L);
+    assertPercentile(histogram.getValueAtPercentile(99), 990000L);
+    assertThat(histogram.getValueAtPercentile(100), is(1000000L));
+    assertThat(new Histogram().getValueAtPercentile(99), is(0L));
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE}) {
+      final int bucket = Histogram.bucket(value);
+      assertThat(Histogram.highestValue(bucket), greaterThanOrEqualTo(value));
+      assertThat(bucket == 0 || Histogram.highestValue(bucket - 1) < value, is(true));
+    }
+  }
+
+  @Test
+  public void testStripedCounter() throws InterruptedException {
+    final StripedCounter counter = new StripedCounter();
+    final Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int n = 0; n < 10000; n++) {
+            counter.increment();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(counter.sum(), is(40000L));
+  }
+
+  /** percentiles are accurate to within 1/16th of the value */
+  private static void assertPercentile(final long actual, final long expected) {
+    assertThat(actual, greaterThanOrEqualTo(expected));
+    assertThat(actual, lessThanOrEqualTo(expected + expected / 16));
+  }
+}
@@ -0,0 +1,154 @@
+package org.nulleins.formats.iso8583.pipeline;
+
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+
+/** @author phillipsr */
+public class TestMessagePipeline {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MTI RESPONSE = MTI.create(0x0210);
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("pipelineTest")
+      .header("ISO")
+      .contentType(ContentType.TEXT)
+      .bitmapType(BitmapType.HEX)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(template(REQUEST))
+      .addTemplate(template(RESPONSE))
+      .build();
+
+  private static MessageTemplate template(final MTI type) {
+    return MessageTemplate.Builder().header("ISO").type(type).fieldlist(asList(
+        FieldTemplate.localBuilder().get().f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+        FieldTemplate.localBuilder().get().f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").build())).build();
+  }
+
+  private static byte[] request(final int stan) {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(11, stan);
+    fields.put(41, "ATM-1010");
+    return factory.getMessageData(factory.createByNumbers(REQUEST, fields));
+  }
+
+  /** a handler replacing each request with its response */
+  private static final SlotHandler RESPOND = new SlotHandler() {
+    @Override
+    public void handle(final MessageSlot slot) {
+      slot.setMessage(factory.transform(RESPONSE, slot.getMessage(), new HashMap<String, Object>()));
+    }
+  };
+
+  @Test
+  public void testDecodesHandlesAndEncodesInOrder() throws Exception {
+    final List<Message> responses = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(5000);
+    final MessagePipeline pipeline = MessagePipeline.Builder()
+        .factory(factory)
+        .size(64)
+        .waitStrategy(WaitStrategy.PARK)
+        .handler(RESPOND)
+        .output(new SlotHandler() {
+          @Override
+          public void handle(final MessageSlot slot) throws Exception {
+            assertThat(slot.getError(), is((Exception) null));
+            responses.add(factory.parse(Arrays.copyOf(slot.getOutput(), slot.getOutputLength())));
+            done.countDown();
+          }
+        })
+        .build();
+    for (int stan = 0; stan < 5000; stan++) {
+      final byte[] data = request(stan);
+      assertThat(pipeline.publish(data, 0, data.length, null), is((long) stan));
+    }
+    assertThat(done.await(10, TimeUnit.SECONDS), is(true));
+    pipeline.close();
+    assertThat(pipeline.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    for (int stan = 0; stan < 5000; stan++) {
+      assertThat(responses.get(stan).getMTI(), is(RESPONSE));
+      assertThat(responses.get(stan).getFieldValue(11).get(), is((Object) BigInteger.valueOf(stan)));
+    }
+  }
+
+  @Test
+  public void testPassesFailureToOutput() throws Exception {
+    final List<Object> results = new ArrayList<>();
+    final CountDownLatch done = new CountDownLatch(3);
+    final MessagePipeline pipeline = MessagePipeline.Builder()
+        .factory(factory)
+        .size(8)
+        .handler(new SlotHandler() {
+          @Override
+          public void handle(final MessageSlot slot) {
+            if (slot.getContext() != null) {
+              throw new IllegalStateException("declined");
+            }
+          }
+        })
+        .output(new SlotHandler() {
+          @Override
+          public void handle(final MessageSlot slot) {
+            results.add(slot.getError() != null ? slot.getError() : slot.getOutputLength());
+            done.countDown();
+          }
+        })
+        .build();
+    final byte[] data = request(1);
+    pipeline.publish(data, 0, data.length - 1, null);
+    pipeline.publish(data, 0, data.length, "decline");
+    pipeline.publish(data, 0, data.length, null);
+    assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+    pipeline.close();
+    assertThat(results.get(0), instanceOf(ParseException.class));
+    assertThat(results.get(1), instanceOf(IllegalStateException.class));
+    assertThat(results.get(2), is((Object) data.length));
+  }
+
+  @Test
+  public void testRefusesWhenFull() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final MessagePipeline pipeline = MessagePipeline.Builder()
+        .factory(factory)
+        .size(4)
+        .output(new SlotHandler() {
+          @Override
+          public void handle(final MessageSlot slot) throws InterruptedException {
+            release.await();
+          }
+        })
+        .build();
+    final byte[] data = request(1);
+    for (int i = 0; i < 4; i++) {
+      assertThat(pipeline.tryPublish(data, 0, data.length, null), is((long) i));
+    }
+    assertThat(pipeline.tryPublish(data, 0, data.length, null), is(-1L));
+    assertThat(pipeline.getPendingCount(), is(4));
+    release.countDown();
+    assertThat(pipeline.publish(data, 0, data.length, null), is(4L));
+    pipeline.close();
+    assertThat(pipeline.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    assertThat(pipeline.getPendingCount(), is(0));
+  }
+}
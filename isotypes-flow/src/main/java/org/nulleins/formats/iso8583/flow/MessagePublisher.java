@@ -0,0 +1,175 @@
+package org.nulleins.formats.iso8583.flow;
+
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageException;
+import org.nulleins.formats.iso8583.MessageFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.text.ParseException;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** Publisher of the messages parsed from a stream of message data, as written by
+  * {@link MessageFactory#writeToStream}, to a single subscriber: messages are only parsed as
+  * they are requested, up to the subscriber's outstanding demand, in batches run on an executor,
+  * reading the stream through a bounded buffer:
+  * <pre>
+  *   new MessagePublisher(factory, socketChannel, executor).subscribe(scorer);
+  * </pre>
+  * The publisher completes at the end of the stream, and fails if a message cannot be parsed
+  * (with a {@link MessageException}) or the stream read; the stream is not closed
+  * @author phillipsr */
+public final class MessagePublisher implements Flow.Publisher<Message> {
+  private static final int BUFFER_SIZE = 8192;
+  private final MessageFactory factory;
+  private final PushbackInputStream input;
+  private final Executor executor;
+  private final int batchSize;
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  /** Create a publisher of the messages read from <code>input</code>, parsed on the <code>executor</code>
+    * in batches of up to 64 messages */
+  public MessagePublisher(final MessageFactory factory, final InputStream input, final Executor executor) {
+    this(factory, input, executor, 64);
+  }
+
+  /** Create a publisher of the messages read from the <code>channel</code>, parsed on the
+    * <code>executor</code> in batches of up to 64 messages */
+  public MessagePublisher(final MessageFactory factory, final ReadableByteChannel channel, final Executor executor) {
+    this(factory, Channels.newInputStream(channel), executor, 64);
+  }
+
+  /** Create a publisher of the messages read from <code>input</code>, parsed on the <code>executor</code>
+    * in batches of up to <code>batchSize</code> messages, before the executor's thread is yielded */
+  public MessagePublisher(final MessageFactory factory, final InputStream input, final Executor executor, final int batchSize) {
+    this.factory = Objects.requireNonNull(factory, "Message factory cannot be null");
+    this.input = new PushbackInputStream(new BufferedInputStream(Objects.requireNonNull(input, "Input cannot be null"), BUFFER_SIZE));
+    this.executor = Objects.requireNonNull(executor, "Executor cannot be null");
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.batchSize = batchSize;
+  }
+
+  /** subscribe the <code>subscriber</code> to the messages: only one subscriber is accepted */
+  @Override
+  public void subscribe(final Flow.Subscriber<? super Message> subscriber) {
+    Objects.requireNonNull(subscriber, "Subscriber cannot be null");
+    if (!subscribed.compareAndSet(false, true)) {
+      subscriber.onSubscribe(new Flow.Subscription() {
+        @Override
+        public void request(final long n) { }
+
+        @Override
+        public void cancel() { }
+      });
+      subscriber.onError(new IllegalStateException("Message publisher supports only one subscriber"));
+      return;
+    }
+    subscriber.onSubscribe(new MessageSubscription(subscriber));
+  }
+
+  /** the subscription, serializing the parsing and delivery of messages in a drain loop */
+  private final class MessageSubscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super Message> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger work = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+
+    private MessageSubscription(final Flow.Subscriber<? super Message> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(final long n) {
+      if (n <= 0) {
+        // signalled from the drain loop, so it is never concurrent with onNext
+        invalidRequest = new IllegalArgumentException("Request for " + n + " messages: must be positive");
+      } else {
+        demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+      }
+      if (work.getAndIncrement() == 0) {
+        executor.execute(this::drain);
+      }
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+    }
+
+    /** parse and deliver up to a batch of the messages requested, until there is no demand */
+    private void drain() {
+      int missed = 1;
+      do {
+        if (rejectedRequest()) {
+          return;
+        }
+        final long requested = demand.get();
+        long emitted = 0;
+        while (emitted < requested && emitted < batchSize) {
+          if (cancelled || rejectedRequest()) {
+            return;
+          }
+          final Message message;
+          try {
+            if (endOfStream()) {
+              cancelled = true;
+              subscriber.onComplete();
+              return;
+            }
+            message = factory.parse(new DataInputStream(input));
+          } catch (final ParseException | IOException | RuntimeException e) {
+            cancelled = true;
+            subscriber.onError(e instanceof MessageException ? e
+                : new MessageException("Failed to read message: " + e.getMessage(), e));
+            return;
+          }
+          subscriber.onNext(message);
+          emitted++;
+        }
+        if (requested != Long.MAX_VALUE) {
+          demand.addAndGet(-emitted);
+        }
+        if (emitted == batchSize && demand.get() > 0 && !cancelled) {
+          // yield the executor's thread, continuing in a new task
+          executor.execute(this::drain);
+          return;
+        }
+        missed = work.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    /** @return true if a non-positive request was made, having terminated the subscription with its error */
+    private boolean rejectedRequest() {
+      final Throwable failure = invalidRequest;
+      if (failure == null || cancelled) {
+        return false;
+      }
+      cancelled = true;
+      subscriber.onError(failure);
+      return true;
+    }
+
+    private boolean endOfStream() throws IOException {
+      final int next = input.read();
+      if (next < 0) {
+        return true;
+      }
+      input.unread(next);
+      return false;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package org.nulleins.formats.iso8583.flow;
+
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+
+/** Subscriber writing the messages it receives to a stream or channel, requesting them in batches
+  * (initially, <code>batchSize</code> messages, then each half consumed), so that no more than a
+  * batch is outstanding, and writing them through a bounded buffer, flushed as each half-batch
+  * is written and on completion: the stream is not closed
+  * <p/>
+  * The completion of the subscriber, with the number of messages written, is available from
+  * {@link #getCompletion()}
+  * @author phillipsr */
+public final class MessageSubscriber implements Flow.Subscriber<Message> {
+  private static final int BUFFER_SIZE = 8192;
+  private final MessageFactory factory;
+  private final OutputStream output;
+  private final int batchSize;
+  private final int replenish;
+  private final CompletableFuture<Long> completion = new CompletableFuture<>();
+  private Flow.Subscription subscription;
+  private int consumed;
+  private long written;
+
+  /** Create a subscriber writing the messages to the <code>channel</code>, in batches of up to 64 */
+  public MessageSubscriber(final MessageFactory factory, final WritableByteChannel channel) {
+    this(factory, Channels.newOutputStream(channel), 64);
+  }
+
+  /** Create a subscriber writing the messages to <code>output</code>, in batches of up to <code>batchSize</code> */
+  public MessageSubscriber(final MessageFactory factory, final OutputStream output, final int batchSize) {
+    this.factory = Objects.requireNonNull(factory, "Message factory cannot be null");
+    this.output = new BufferedOutputStream(Objects.requireNonNull(output, "Output cannot be null"), BUFFER_SIZE);
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("Batch size must be positive");
+    }
+    this.batchSize = batchSize;
+    this.replenish = batchSize - batchSize / 2;
+  }
+
+  /** @return the future completed with the number of messages written when the publisher completes,
+    * or completed exceptionally if the publisher fails or a message cannot be written */
+  public CompletableFuture<Long> getCompletion() {
+    return completion;
+  }
+
+  @Override
+  public void onSubscribe(final Flow.Subscription subscription) {
+    if (this.subscription != null) {
+      subscription.cancel();
+      return;
+    }
+    this.subscription = subscription;
+    subscription.request(batchSize);
+  }
+
+  @Override
+  public void onNext(final Message message) {
+    if (completion.isDone()) {
+      return;
+    }
+    try {
+      factory.writeToStream(message, output);
+      written++;
+      if (++consumed == replenish) {
+        consumed = 0;
+        output.flush();
+        subscription.request(replenish);
+      }
+    } catch (final IOException | RuntimeException e) {
+      subscription.cancel();
+      completion.completeExceptionally(e);
+    }
+  }
+
+  @Override
+  public void onError(final Throwable failure) {
+    try {
+      output.flush();
+    } catch (final IOException e) {
+      failure.addSuppressed(e);
+    }
+    completion.completeExceptionally(failure);
+  }
+
+  @Override
+  public void onComplete() {
+    try {
+      output.flush();
+      completion.complete(written);
+    } catch (final IOException e) {
+      completion.completeExceptionally(e);
+    }
+  }
+}
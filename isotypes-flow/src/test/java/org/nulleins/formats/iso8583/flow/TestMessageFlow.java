@@ -0,0 +1,166 @@
+package org.nulleins.formats.iso8583.flow;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageException;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNot.not;
+
+/** @author phillipsr */
+public class TestMessageFlow {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("flowTest")
+      .header("ISO")
+      .contentType(ContentType.TEXT)
+      .bitmapType(BitmapType.HEX)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(MessageTemplate.Builder().header("ISO").type(REQUEST).fieldlist(asList(
+          FieldTemplate.localBuilder().get().f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+          FieldTemplate.localBuilder().get().f(44).type(FieldType.ALPHANUMSYMBOL).dim("llvar(25)").name("note").build())).build())
+      .build();
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  private static Message message(final int stan) {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(11, stan);
+    fields.put(44, "NOTE " + stan);
+    return factory.createByNumbers(REQUEST, fields);
+  }
+
+  /** @return the data of <code>count</code> messages, written to a stream */
+  private static byte[] stream(final int count) throws IOException {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    for (int stan = 0; stan < count; stan++) {
+      factory.writeToStream(message(stan), output);
+    }
+    return output.toByteArray();
+  }
+
+  @Test
+  public void testPublishesOnDemand() throws Exception {
+    final MessagePublisher publisher = new MessagePublisher(factory, new ByteArrayInputStream(stream(10)), executor, 4);
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(3);
+    for (int stan = 0; stan < 3; stan++) {
+      assertThat(subscriber.events.poll(5, TimeUnit.SECONDS), is((Object) message(stan)));
+    }
+    // nothing is parsed beyond the demand
+    assertThat(subscriber.events.poll(50, TimeUnit.MILLISECONDS), is((Object) null));
+    subscriber.subscription.request(Long.MAX_VALUE);
+    for (int stan = 3; stan < 10; stan++) {
+      assertThat(subscriber.events.poll(5, TimeUnit.SECONDS), is((Object) message(stan)));
+    }
+    assertThat(subscriber.events.poll(5, TimeUnit.SECONDS), is((Object) "complete"));
+  }
+
+  @Test
+  public void testFailsOnMalformedMessage() throws Exception {
+    final byte[] data = stream(2);
+    final MessagePublisher publisher = new MessagePublisher(
+        factory, new ByteArrayInputStream(Arrays.copyOf(data, data.length - 3)), executor);
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(5);
+    assertThat(subscriber.events.poll(5, TimeUnit.SECONDS), is((Object) message(0)));
+    assertThat(subscriber.events.poll(5, TimeUnit.SECONDS), instanceOf(MessageException.class));
+  }
+
+  @Test
+  public void testFailsOnNonPositiveRequestFromDrain() throws Exception {
+    final MessagePublisher publisher = new MessagePublisher(factory, new ByteArrayInputStream(stream(10)), executor, 4);
+    final RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.subscription.request(2);
+    for (int stan = 0; stan < 2; stan++) {
+      assertThat(subscriber.events.poll(5, TimeUnit.SECONDS), is((Object) message(stan)));
+    }
+    subscriber.subscription.request(0);
+    assertThat(subscriber.events.poll(5, TimeUnit.SECONDS), instanceOf(IllegalArgumentException.class));
+    assertThat(subscriber.errorThread, is(not(Thread.currentThread())));
+    // the subscription is terminated: no further messages are delivered
+    subscriber.subscription.request(5);
+    assertThat(subscriber.events.poll(50, TimeUnit.MILLISECONDS), is((Object) null));
+  }
+
+  @Test
+  public void testRejectsSecondSubscriber() throws Exception {
+    final MessagePublisher publisher = new MessagePublisher(factory, new ByteArrayInputStream(stream(1)), executor);
+    publisher.subscribe(new RecordingSubscriber());
+    final RecordingSubscriber second = new RecordingSubscriber();
+    publisher.subscribe(second);
+    assertThat(second.events.poll(5, TimeUnit.SECONDS), instanceOf(IllegalStateException.class));
+  }
+
+  @Test
+  public void testCopiesStreamThroughSubscriber() throws Exception {
+    final byte[] data = stream(500);
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final MessageSubscriber subscriber = new MessageSubscriber(factory, Channels.newChannel(output));
+    new MessagePublisher(factory, Channels.newChannel(new ByteArrayInputStream(data)), executor).subscribe(subscriber);
+    assertThat(subscriber.getCompletion().get(5, TimeUnit.SECONDS), is(500L));
+    assertThat(output.toByteArray(), is(data));
+  }
+
+  /** subscriber recording the messages, completion and error signalled to it, requesting none itself */
+  private static final class RecordingSubscriber implements Flow.Subscriber<Message> {
+    private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+    private volatile Flow.Subscription subscription;
+    private volatile Thread errorThread;
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(final Message message) {
+      events.add(message);
+    }
+
+    @Override
+    public void onError(final Throwable failure) {
+      errorThread = Thread.currentThread();
+      events.add(failure);
+    }
+
+    @Override
+    public void onComplete() {
+      events.add("complete");
+    }
+  }
+}
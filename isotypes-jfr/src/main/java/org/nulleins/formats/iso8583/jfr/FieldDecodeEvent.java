@@ -0,0 +1,48 @@
+package org.nulleins.formats.iso8583.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/** Recorded for each field whose read and parse takes longer than the threshold (100 us
+  * by default), identifying the formatter responsible
+  * <p/>
+  * Being raised per field, this event is disabled unless enabled in the recording's settings
+  * (e.g., <code>isotypes.jfc</code>, provided in this package)
+  * @author phillipsr */
+@Name(FieldDecodeEvent.NAME)
+@Label("ISO8583 Slow Field Decode")
+@Description("Read and parse of a single field of an ISO8583 message")
+@Category({"ISO8583", "Field"})
+@Enabled(false)
+@Threshold("100 us")
+@StackTrace(false)
+public class FieldDecodeEvent extends Event {
+  public static final String NAME = "org.nulleins.formats.iso8583.FieldDecode";
+
+  @Label("MTI")
+  String mti;
+
+  @Label("Field Number")
+  int field;
+
+  @Label("Field Type")
+  String type;
+
+  @Label("Formatter")
+  @Description("Type formatter used to parse the field's value")
+  Class<?> formatter;
+
+  @Label("Bytes")
+  @DataAmount
+  int bytes;
+
+  @Label("Outcome")
+  String outcome;
+}
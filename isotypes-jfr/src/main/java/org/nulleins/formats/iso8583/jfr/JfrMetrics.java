@@ -0,0 +1,94 @@
+package org.nulleins.formats.iso8583.jfr;
+
+import jdk.jfr.EventType;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.formatters.TypeFormatter;
+import org.nulleins.formats.iso8583.metrics.MessageMetrics;
+import org.nulleins.formats.iso8583.types.MTI;
+
+/** Metrics SPI implementation that raises Java Flight Recorder events for message parse,
+  * write and transform operations, and for slow field decodes, e.g.:
+  * <pre>
+  *   MessageFactory.Builder()...metrics(new JfrMetrics()).build();
+  * </pre>
+  * The events are enabled, and their thresholds set, by the standard JFR settings of the
+  * recording (see <code>isotypes.jfc</code>); when an event is not enabled, no event object is
+  * created, and the cost is that of checking its enabled state
+  * @author phillipsr */
+public class JfrMetrics implements MessageMetrics {
+  private static final EventType PARSE = EventType.getEventType(MessageParseEvent.class);
+  private static final EventType WRITE = EventType.getEventType(MessageWriteEvent.class);
+  private static final EventType TRANSFORM = EventType.getEventType(MessageTransformEvent.class);
+  private static final EventType FIELD_DECODE = EventType.getEventType(FieldDecodeEvent.class);
+  private static final String UNKNOWN_TYPE = "unknown";
+
+  /** @return the event begun for <code>operation</code>, or null if it is not enabled
+    * (validations do not raise events) */
+  @Override
+  public Object started(final Operation operation) {
+    final MessageEvent result;
+    switch (operation) {
+      case PARSE:
+        result = PARSE.isEnabled() ? new MessageParseEvent() : null;
+        break;
+      case FORMAT:
+        result = WRITE.isEnabled() ? new MessageWriteEvent() : null;
+        break;
+      case TRANSFORM:
+        result = TRANSFORM.isEnabled() ? new MessageTransformEvent() : null;
+        break;
+      default:
+        result = null;
+    }
+    if (result != null) {
+      result.begin();
+    }
+    return result;
+  }
+
+  @Override
+  public void completed(final Object context, final Operation operation, final MTI type,
+                        final long nanos, final long bytes, final boolean failed) {
+    if (context == null) {
+      return;
+    }
+    final MessageEvent event = (MessageEvent) context;
+    event.end();
+    if (event.shouldCommit()) {
+      event.mti = type != null ? type.toString() : UNKNOWN_TYPE;
+      event.bytes = bytes;
+      event.outcome = failed ? MessageEvent.FAILURE : MessageEvent.SUCCESS;
+      event.commit();
+    }
+  }
+
+  /** @return the event begun for a field being parsed, or null if not enabled */
+  @Override
+  public Object fieldStarted(final Object context, final Operation operation, final FieldTemplate field) {
+    if (operation != Operation.PARSE || !FIELD_DECODE.isEnabled()) {
+      return null;
+    }
+    final FieldDecodeEvent result = new FieldDecodeEvent();
+    result.begin();
+    return result;
+  }
+
+  @Override
+  public void fieldCompleted(final Object context, final Operation operation, final MTI type, final FieldTemplate field,
+                             final TypeFormatter<?> formatter, final int bytes, final boolean failed) {
+    if (context == null) {
+      return;
+    }
+    final FieldDecodeEvent event = (FieldDecodeEvent) context;
+    event.end();
+    if (event.shouldCommit()) {
+      event.mti = type != null ? type.toString() : UNKNOWN_TYPE;
+      event.field = field.getNumber();
+      event.type = field.getType();
+      event.formatter = formatter.getClass();
+      event.bytes = bytes;
+      event.outcome = failed ? MessageEvent.FAILURE : MessageEvent.SUCCESS;
+      event.commit();
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package org.nulleins.formats.iso8583.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/** Fields common to the flight recorder events of a message operation
+  * @author phillipsr */
+@Category({"ISO8583", "Message"})
+@StackTrace(false)
+public abstract class MessageEvent extends Event {
+  /** outcome of an operation that completed normally */
+  public static final String SUCCESS = "success";
+  /** outcome of an operation that threw an exception */
+  public static final String FAILURE = "failure";
+
+  @Label("MTI")
+  @Description("Message type indicator, or 'unknown' if it could not be read")
+  String mti;
+
+  @Label("Bytes")
+  @Description("Size of the message data read or written")
+  @DataAmount
+  long bytes;
+
+  @Label("Outcome")
+  @Description("success, or failure if the operation threw an exception")
+  String outcome;
+}
@@ -0,0 +1,16 @@
+package org.nulleins.formats.iso8583.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/** Recorded for each message parse taking longer than the threshold (1 ms by default)
+  * @author phillipsr */
+@Name(MessageParseEvent.NAME)
+@Label("ISO8583 Message Parse")
+@Description("Parse of an ISO8583 message from its byte representation")
+@Threshold("1 ms")
+public class MessageParseEvent extends MessageEvent {
+  public static final String NAME = "org.nulleins.formats.iso8583.MessageParse";
+}
@@ -0,0 +1,17 @@
+package org.nulleins.formats.iso8583.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/** Recorded for each message transform (e.g., request to response) taking longer than the
+  * threshold (1 ms by default); the MTI is that of the message produced
+  * @author phillipsr */
+@Name(MessageTransformEvent.NAME)
+@Label("ISO8583 Message Transform")
+@Description("Transformation of an ISO8583 message to another message type")
+@Threshold("1 ms")
+public class MessageTransformEvent extends MessageEvent {
+  public static final String NAME = "org.nulleins.formats.iso8583.MessageTransform";
+}
@@ -0,0 +1,16 @@
+package org.nulleins.formats.iso8583.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/** Recorded for each message write taking longer than the threshold (1 ms by default)
+  * @author phillipsr */
+@Name(MessageWriteEvent.NAME)
+@Label("ISO8583 Message Write")
+@Description("Formatting of an ISO8583 message to its byte representation")
+@Threshold("1 ms")
+public class MessageWriteEvent extends MessageEvent {
+  public static final String NAME = "org.nulleins.formats.iso8583.MessageWrite";
+}
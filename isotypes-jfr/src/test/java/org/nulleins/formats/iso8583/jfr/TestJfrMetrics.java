@@ -0,0 +1,159 @@
+package org.nulleins.formats.iso8583.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Before;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.formatters.NumberFormatter;
+import org.nulleins.formats.iso8583.metrics.MessageMetrics;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestJfrMetrics {
+  private static final MTI Request = MTI.create(0x0200);
+  private static final MTI Response = MTI.create(0x0210);
+  private static final HashMap<Integer, Object> FIELDS = new HashMap<Integer, Object>() {{
+    put(2, BigInteger.TEN);
+    put(3, "ABC");
+  }};
+
+  private MessageFactory factory;
+
+  @Before
+  public void createFactory() {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    final FieldTemplate number = builder.f(2).type(FieldType.NUMERIC).dim("fixed(6)").name("number").build();
+    final FieldTemplate text = builder.f(3).type(FieldType.ALPHA).dim("fixed(3)").name("text").build();
+    factory = MessageFactory.Builder()
+        .id("jfrTest")
+        .bitmapType(BitmapType.HEX)
+        .contentType(ContentType.TEXT)
+        .charset(CharEncoder.ASCII)
+        .addTemplate(MessageTemplate.Builder().header("").type(Request).fieldlist(asList(number, text)).build())
+        .addTemplate(MessageTemplate.Builder().header("").type(Response).fieldlist(asList(number)).build())
+        .metrics(new JfrMetrics())
+        .build();
+  }
+
+  @Test
+  public void testEventsRecorded() throws Exception {
+    final List<RecordedEvent> events = record(() -> {
+      final Message message = factory.createByNumbers(Request, FIELDS);
+      final byte[] data = factory.getMessageData(message);
+      factory.parse(data);
+      factory.transform(Response, message, new HashMap<>());
+    });
+
+    final RecordedEvent parse = single(events, MessageParseEvent.NAME);
+    assertThat(parse.getString("mti"), is("0200"));
+    assertThat(parse.getLong("bytes"), is(29L));
+    assertThat(parse.getString("outcome"), is(MessageEvent.SUCCESS));
+    assertThat(single(events, MessageWriteEvent.NAME).getLong("bytes"), is(29L));
+    assertThat(single(events, MessageTransformEvent.NAME).getString("mti"), is("0210"));
+
+    final List<RecordedEvent> fields = named(events, FieldDecodeEvent.NAME);
+    assertThat(fields.size(), is(2));
+    assertThat(fields.get(0).getInt("field"), is(2));
+    assertThat(fields.get(0).getInt("bytes"), is(6));
+    assertThat(fields.get(0).getClass("formatter").getName(), is(NumberFormatter.class.getName()));
+    assertThat(fields.get(1).getString("type"), is(FieldType.ALPHA));
+  }
+
+  @Test
+  public void testFailedParseRecorded() throws Exception {
+    final List<RecordedEvent> events = record(() -> {
+      try {
+        factory.parse("0400".getBytes());
+      } catch (final RuntimeException expected) {
+        // unknown message type
+      }
+    });
+    final RecordedEvent parse = single(events, MessageParseEvent.NAME);
+    assertThat(parse.getString("mti"), is("unknown"));
+    assertThat(parse.getString("outcome"), is(MessageEvent.FAILURE));
+  }
+
+  @Test
+  public void testNoEventsWhenNotRecording() {
+    final JfrMetrics metrics = new JfrMetrics();
+    assertThat(metrics.started(MessageMetrics.Operation.PARSE), is(nullValue()));
+    assertThat(metrics.fieldStarted(null, MessageMetrics.Operation.PARSE, null), is(nullValue()));
+  }
+
+  private interface Action {
+    void run() throws Exception;
+  }
+
+  /** @return the isotypes events recorded while performing <code>action</code>, using the
+    * settings provided in isotypes.jfc, with thresholds removed */
+  private static List<RecordedEvent> record(final Action action) throws Exception {
+    final Configuration settings;
+    try (final Reader reader = new InputStreamReader(
+        TestJfrMetrics.class.getResourceAsStream("isotypes.jfc"), StandardCharsets.UTF_8)) {
+      settings = Configuration.create(reader);
+    }
+    final Path file = Files.createTempFile("isotypes", ".jfr");
+    try (final Recording recording = new Recording(settings)) {
+      for (final String name : asList(MessageParseEvent.NAME, MessageWriteEvent.NAME,
+          MessageTransformEvent.NAME, FieldDecodeEvent.NAME)) {
+        recording.enable(name).withThreshold(Duration.ZERO);
+      }
+      recording.start();
+      action.run();
+      recording.stop();
+      recording.dump(file);
+      final List<RecordedEvent> result = new ArrayList<>();
+      for (final RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        if (event.getEventType().getName().startsWith("org.nulleins.formats.iso8583.")) {
+          result.add(event);
+        }
+      }
+      return result;
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static List<RecordedEvent> named(final List<RecordedEvent> events, final String name) {
+    final List<RecordedEvent> result = new ArrayList<>();
+    for (final RecordedEvent event : events) {
+      if (event.getEventType().getName().equals(name)) {
+        result.add(event);
+      }
+    }
+    result.sort((first, second) -> first.getStartTime().compareTo(second.getStartTime()));
+    return result;
+  }
+
+  private static RecordedEvent single(final List<RecordedEvent> events, final String name) {
+    final List<RecordedEvent> result = named(events, name);
+    assertThat(name + " events recorded", result.size(), is(1));
+    return result.get(0);
+  }
+}
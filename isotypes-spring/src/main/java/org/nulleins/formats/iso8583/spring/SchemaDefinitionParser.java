@@ -32,6 +32,10 @@ public class SchemaDefinitionParser extends AbstractBeanDefinitionParser {
     if (autogen != null) {
       factory.addPropertyReference("autogen", autogen.getTextContent().trim());
     }
+    final Element metrics = DomUtils.getChildElementByTagName(element, "metrics");
+    if (metrics != null) {
+      factory.addPropertyReference("metrics", metrics.getTextContent().trim());
+    }
 
     final Element formatters = DomUtils.getChildElementByTagName(element, "formatters");
     if (formatters != null) {
@@ -4,6 +4,7 @@ import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Iterables;
 import org.nulleins.formats.iso8583.*;
+import org.nulleins.formats.iso8583.metrics.MessageMetrics;
 import org.nulleins.formats.iso8583.types.CharEncoder;
 import org.nulleins.formats.iso8583.types.MTI;
 import org.springframework.beans.factory.FactoryBean;
@@ -22,6 +23,7 @@ public class SchemaFactoryBean implements FactoryBean<MessageFactory> {
   private final Map<String, List<SpringFieldTemplate>> fields = new HashMap<>();
   private String description;
   private AutoGenerator autogen;
+  private MessageMetrics metrics;
   private final List<FormatterSpec> formatters = new ArrayList<>();
   private SpringMessageSchema schema;
 
@@ -60,6 +62,10 @@ public class SchemaFactoryBean implements FactoryBean<MessageFactory> {
   public void setAutogen(final AutoGenerator autogen) {
     this.autogen = autogen;
   }
+  /** @param metrics to which the factory's operations are reported (<code>&lt;iso:metrics&gt;</code> bean) */
+  public void setMetrics(final MessageMetrics metrics) {
+    this.metrics = metrics;
+  }
 
   /** @return the message factory object, with its state fields assigned from the
     *   values previously set, providing the required type conversions */
@@ -72,7 +78,8 @@ public class SchemaFactoryBean implements FactoryBean<MessageFactory> {
         .contentType (schema.getContentType ())
         .header (schema.getHeader ())
         .description (description)
-        .autogen (new AutoGeneratorFactory (autogen));
+        .autogen (new AutoGeneratorFactory (autogen))
+        .metrics (metrics);
 
     for (final FormatterSpec item : formatters) {
       builder = builder.addFormatter(item.getType(), item.getFormatter());
@@ -0,0 +1,348 @@
+package org.nulleins.formats.iso8583.transport;
+
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** A non-blocking connection over which framed messages are exchanged, served by an event loop:
+  * messages sent (from any thread) are queued and written by the loop in gathering writes;
+  * messages received are framed, parsed and handled on the loop, or handed off to the configured
+  * executor (in which case they may be handled out of order)
+  * <p/>
+  * Backpressure is applied by suspending reading from the connection (clearing its read
+  * interest) while the bytes queued for writing exceed the high water mark, or the messages
+  * handed off but not yet handled reach the configured maximum
+  * @author phillipsr */
+public final class Connection implements Selectable {
+  /** maximum number of queued frames written in one gathering write */
+  private static final int GATHER = 64;
+
+  /** notified of the closing of a connection, by the server or client that opened it */
+  interface Listener {
+    void closed(Connection connection, Throwable cause);
+  }
+
+  private final EventLoop loop;
+  private final SocketChannel channel;
+  private final TransportConfig config;
+  private final MessageFactory factory;
+  private final Framing framing;
+  private final MessageHandler handler;
+  private final Listener listener;
+  private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+  private final AtomicLong pendingBytes = new AtomicLong();
+  private final AtomicInteger pendingMessages = new AtomicInteger();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private volatile boolean open = true;
+
+  // accessed only on the loop
+  private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+  private ByteBuffer input;
+  private SelectionKey key;
+  private boolean outputBlocked;
+  private boolean handoffBlocked;
+
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flushScheduled.set(false);
+      if (key != null && open && channel.isConnected()) {
+        try {
+          flush();
+        } catch (final IOException e) {
+          close(e);
+        }
+      }
+    }
+  };
+
+  private final Runnable resumeTask = new Runnable() {
+    @Override
+    public void run() {
+      if (handoffBlocked && open && pendingMessages.get() <= config.getMaxPendingMessages() / 2) {
+        handoffBlocked = false;
+        try {
+          frames();
+        } catch (final IOException e) {
+          close(e);
+        }
+      }
+    }
+  };
+
+  Connection(final EventLoop loop, final SocketChannel channel, final TransportConfig config,
+             final MessageHandler handler, final Listener listener) {
+    this.loop = loop;
+    this.channel = channel;
+    this.config = config;
+    this.factory = config.getFactory();
+    this.framing = config.getFraming();
+    this.handler = handler;
+    this.listener = listener;
+    this.input = ByteBuffer.allocate(config.getBufferSize());
+  }
+
+  /** register the connection with its loop, connecting to the <code>remote</code> address
+    * if specified, otherwise, as an accepted connection, reporting it connected */
+  void open(final SocketAddress remote) {
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (remote != null && !channel.connect(remote)) {
+            key = loop.register(channel, SelectionKey.OP_CONNECT, Connection.this);
+          } else {
+            key = loop.register(channel, 0, Connection.this);
+            established();
+          }
+        } catch (final IOException e) {
+          close(e);
+        }
+      }
+    });
+  }
+
+  /** Queue the <code>message</code> to be written to the connection
+    * @throws IllegalStateException if the connection is closed
+    * @throws org.nulleins.formats.iso8583.MessageException if the message cannot be written
+    * @throws IllegalArgumentException if the message is too long to be framed */
+  public void send(final Message message) {
+    if (!open) {
+      throw new IllegalStateException("Connection closed: " + this);
+    }
+    final byte[] data = factory.getMessageData(message);
+    final ByteBuffer frame = ByteBuffer.allocate(framing.headerSize() + data.length);
+    framing.writeLength(frame, 0, data.length);
+    frame.position(framing.headerSize());
+    frame.put(data).flip();
+    output.add(frame);
+    pendingBytes.addAndGet(frame.remaining());
+    if (flushScheduled.compareAndSet(false, true)) {
+      loop.execute(flushTask);
+    }
+  }
+
+  /** @return true if the bytes queued for writing are below the high water mark: producers
+    * should stop sending to the connection while it is not writable */
+  public boolean isWritable() {
+    return pendingBytes.get() < config.getHighWaterMark();
+  }
+
+  /** @return the number of bytes queued for writing but not yet written */
+  public long getPendingBytes() {
+    return pendingBytes.get();
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+
+  /** @return the address of the remote end of the connection, or null if not connected */
+  public SocketAddress getRemoteAddress() {
+    return channel.socket().getRemoteSocketAddress();
+  }
+
+  /** close the connection, discarding any messages not yet written */
+  @Override
+  public void close() {
+    close(null);
+  }
+
+  @Override
+  public void ready(final SelectionKey key) {
+    try {
+      if (key.isConnectable()) {
+        if (channel.finishConnect()) {
+          established();
+        }
+        return;
+      }
+      if (key.isWritable()) {
+        flush();
+      }
+      if (key.isValid() && key.isReadable()) {
+        read();
+      }
+    } catch (final IOException | RuntimeException e) {
+      close(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Connection " + channel.socket().getLocalSocketAddress() + "->" + getRemoteAddress();
+  }
+
+  private void established() throws IOException {
+    handler.connected(this);
+    flush();
+  }
+
+  private void read() throws IOException {
+    if (channel.read(input) < 0) {
+      close(null);
+      return;
+    }
+    frames();
+  }
+
+  /** handle the complete frames in the input buffer, unless handing off is blocked, growing
+    * the buffer if it cannot hold the next frame */
+  private void frames() throws IOException {
+    final int headerSize = framing.headerSize();
+    int required = 0;
+    input.flip();
+    while (open && !handoffBlocked && input.remaining() >= headerSize) {
+      final int position = input.position();
+      final int length = framing.readLength(input, position);
+      if (length < 0) {
+        throw new IOException("Invalid frame header received on " + this);
+      }
+      if (length > config.getMaxFrameLength()) {
+        throw new IOException("Frame of " + length + " bytes received on " + this
+            + " exceeds the maximum of " + config.getMaxFrameLength());
+      }
+      if (input.remaining() < headerSize + length) {
+        required = headerSize + length;
+        break;
+      }
+      final byte[] frame = new byte[length];
+      input.position(position + headerSize);
+      input.get(frame);
+      dispatch(frame);
+    }
+    input.compact();
+    if (required > input.capacity()) {
+      input.flip();
+      input = ByteBuffer.allocate(required).put(input);
+    }
+    interest();
+  }
+
+  private void dispatch(final byte[] frame) {
+    if (!config.getExecutor().isPresent()) {
+      deliver(frame);
+      return;
+    }
+    if (pendingMessages.incrementAndGet() >= config.getMaxPendingMessages()) {
+      handoffBlocked = true;
+    }
+    final Executor executor = config.getExecutor().get();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            deliver(frame);
+          } catch (final RuntimeException e) {
+            close(e);
+          } finally {
+            if (pendingMessages.decrementAndGet() == config.getMaxPendingMessages() / 2) {
+              loop.execute(resumeTask);
+            }
+          }
+        }
+      });
+    } catch (final RejectedExecutionException e) {
+      pendingMessages.decrementAndGet();
+      close(e);
+    }
+  }
+
+  /** parse the <code>frame</code> received and pass the message to the handler */
+  private void deliver(final byte[] frame) {
+    final Message message;
+    try {
+      message = factory.parse(frame);
+    } catch (final ParseException | IOException | RuntimeException e) {
+      handler.failed(this, frame, e);
+      return;
+    }
+    handler.received(this, message);
+  }
+
+  /** write as much of the queued output as the channel accepts */
+  private void flush() throws IOException {
+    while (!output.isEmpty()) {
+      int count = 0;
+      for (final ByteBuffer frame : output) {
+        gather[count++] = frame;
+        if (count == GATHER) {
+          break;
+        }
+      }
+      pendingBytes.addAndGet(-channel.write(gather, 0, count));
+      final boolean complete = !gather[count - 1].hasRemaining();
+      Arrays.fill(gather, 0, count, null);
+      while (!output.isEmpty() && !output.peek().hasRemaining()) {
+        output.poll();
+      }
+      if (!complete) {
+        break;
+      }
+    }
+    final long pending = pendingBytes.get();
+    if (pending >= config.getHighWaterMark()) {
+      outputBlocked = true;
+    } else if (outputBlocked && pending <= config.getHighWaterMark() / 2) {
+      outputBlocked = false;
+      frames();
+      return;
+    }
+    interest();
+  }
+
+  /** set the operations of interest: reading, unless blocked, and writing, if output is queued */
+  private void interest() {
+    if (open && key.isValid()) {
+      key.interestOps((outputBlocked || handoffBlocked ? 0 : SelectionKey.OP_READ)
+          | (output.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+    }
+  }
+
+  /** close the connection (on the loop), notifying the handler and listener */
+  private void close(final Throwable cause) {
+    if (!loop.inLoop()) {
+      loop.execute(new Runnable() {
+        @Override
+        public void run() {
+          close(cause);
+        }
+      });
+      return;
+    }
+    if (!open) {
+      return;
+    }
+    open = false;
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch (final IOException e) {
+      // nothing to be done on closing
+    }
+    output.clear();
+    try {
+      handler.closed(this, cause);
+    } finally {
+      listener.closed(this, cause);
+    }
+  }
+}
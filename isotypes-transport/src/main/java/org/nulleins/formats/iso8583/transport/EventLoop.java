@@ -0,0 +1,138 @@
+package org.nulleins.formats.iso8583.transport;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/** A thread selecting the channels registered with it, handling their readiness, and running
+  * the tasks submitted to it, in turn; channels are only registered, read and written on their
+  * loop, so need no synchronization
+  * @author phillipsr */
+final class EventLoop implements Runnable {
+  private final Selector selector;
+  private final Thread thread;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  /** tasks scheduled to run after a delay, only accessed on the loop */
+  private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+  private volatile boolean open = true;
+
+  private static final class Timer implements Comparable<Timer> {
+    private final long due;
+    private final Runnable task;
+
+    private Timer(final long due, final Runnable task) {
+      this.due = due;
+      this.task = task;
+    }
+
+    @Override
+    public int compareTo(final Timer other) {
+      return Long.compare(due, other.due);
+    }
+  }
+
+  EventLoop(final String name) throws IOException {
+    selector = Selector.open();
+    thread = new Thread(this, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** @return true if called on this loop's thread */
+  boolean inLoop() {
+    return Thread.currentThread() == thread;
+  }
+
+  /** run the <code>task</code> on this loop */
+  void execute(final Runnable task) {
+    tasks.add(task);
+    if (!inLoop()) {
+      selector.wakeup();
+    }
+  }
+
+  /** run the <code>task</code> on this loop, after <code>delay</code> milliseconds */
+  void schedule(final Runnable task, final long delay) {
+    final long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+    execute(new Runnable() {
+      @Override
+      public void run() {
+        timers.add(new Timer(due, task));
+      }
+    });
+  }
+
+  /** @return the key registering the <code>channel</code> with this loop (called on the loop) */
+  SelectionKey register(final SelectableChannel channel, final int ops, final Selectable attachment)
+      throws ClosedChannelException {
+    return channel.register(selector, ops, attachment);
+  }
+
+  @Override
+  public void run() {
+    while (open) {
+      try {
+        select();
+      } catch (final IOException e) {
+        // the selector has failed: nothing can be selected
+        break;
+      }
+      for (final Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext(); ) {
+        final SelectionKey key = keys.next();
+        keys.remove();
+        if (key.isValid()) {
+          ((Selectable) key.attachment()).ready(key);
+        }
+      }
+      runTasks();
+    }
+    for (final SelectionKey key : selector.keys()) {
+      ((Selectable) key.attachment()).close();
+    }
+    try {
+      selector.close();
+    } catch (final IOException e) {
+      // nothing to be done on closing
+    }
+  }
+
+  /** wait for a channel to be ready, a task to be submitted or the next timer to be due */
+  private void select() throws IOException {
+    if (!tasks.isEmpty()) {
+      selector.selectNow();
+    } else if (timers.isEmpty()) {
+      selector.select();
+    } else {
+      final long wait = TimeUnit.NANOSECONDS.toMillis(timers.peek().due - System.nanoTime());
+      if (wait > 0) {
+        selector.select(wait);
+      } else {
+        selector.selectNow();
+      }
+    }
+  }
+
+  private void runTasks() {
+    for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+      task.run();
+    }
+    final long now = System.nanoTime();
+    while (!timers.isEmpty() && timers.peek().due - now <= 0) {
+      timers.poll().task.run();
+    }
+  }
+
+  /** close the loop, closing the channels registered with it */
+  void close() {
+    open = false;
+    selector.wakeup();
+  }
+}
@@ -0,0 +1,60 @@
+package org.nulleins.formats.iso8583.transport;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** A set of event loops, each a thread selecting the connections assigned to it, across which the
+  * connections of servers and clients sharing the group are distributed, so that any number of
+  * connections is served by a fixed number of threads (by default, one per available processor)
+  * @author phillipsr */
+public final class EventLoopGroup implements Closeable {
+  private static final AtomicInteger groups = new AtomicInteger();
+  private final EventLoop[] loops;
+  private final AtomicInteger next = new AtomicInteger();
+
+  /** Create a group of one event loop per available processor
+    * @throws IOException if a selector cannot be opened */
+  public EventLoopGroup() throws IOException {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Create a group of <code>size</code> event loops
+    * @throws IOException if a selector cannot be opened */
+  public EventLoopGroup(final int size) throws IOException {
+    Preconditions.checkArgument(size > 0, "Event loop group must have at least one loop");
+    final int group = groups.incrementAndGet();
+    loops = new EventLoop[size];
+    try {
+      for (int i = 0; i < size; i++) {
+        loops[i] = new EventLoop("isotypes-loop-" + group + "-" + i);
+      }
+    } catch (final IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /** @return the number of event loops in the group */
+  public int size() {
+    return loops.length;
+  }
+
+  /** @return the loop to which the next connection is assigned */
+  EventLoop next() {
+    return loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+  }
+
+  /** close the event loops, closing all of their connections */
+  @Override
+  public void close() {
+    for (final EventLoop loop : loops) {
+      if (loop != null) {
+        loop.close();
+      }
+    }
+  }
+}
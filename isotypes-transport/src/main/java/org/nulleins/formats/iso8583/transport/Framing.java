@@ -0,0 +1,25 @@
+package org.nulleins.formats.iso8583.transport;
+
+import java.nio.ByteBuffer;
+
+
+/** Definition of the frame header delimiting each message on a stream connection: a message of
+  * <code>length</code> bytes is sent as the frame header followed by the message data
+  * @author phillipsr */
+public interface Framing {
+
+  /** @return the number of bytes in the frame header */
+  int headerSize();
+
+  /** @return the maximum message length that can be specified in the frame header */
+  int maxLength();
+
+  /** @return the length of the message following the frame header at <code>position</code>
+    * in <code>buffer</code> (the buffer's position is not changed), or -1 if the header is not valid */
+  int readLength(ByteBuffer buffer, int position);
+
+  /** write the frame header for a message of <code>length</code> bytes at <code>position</code>
+    * in <code>buffer</code> (the buffer's position is not changed)
+    * @throws IllegalArgumentException if the length exceeds the maximum specified by the header */
+  void writeLength(ByteBuffer buffer, int position, int length);
+}
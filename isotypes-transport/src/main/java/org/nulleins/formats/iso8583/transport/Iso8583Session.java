@@ -0,0 +1,281 @@
+package org.nulleins.formats.iso8583.transport;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageException;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.correlation.CorrelationKeys;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/** Blocking session over a socket connection, for straight-line code running a thread per
+  * connection: where supported (Java 21 or later), the session's reader, and the threads of the
+  * code using it (see {@link SessionThreads}), are virtual threads, so that a session per
+  * connection scales to very high connection counts:
+  * <pre>
+  *   try (final Iso8583Session session = Iso8583Session.connect(address, config)) {
+  *     final Message response = session.request(authorization, 30, TimeUnit.SECONDS);
+  *     ...
+  *   }
+  * </pre>
+  * Messages are written and parsed by the configured factory, and framed by the configured framing;
+  * the session fails on receiving a frame longer than the configured maximum frame length.
+  * The session's reader thread completes the {@link #request requests} awaiting responses with the
+  * same correlation key, and queues any other message received, to be {@link #receive received};
+  * only those other messages count towards the configured maximum of pending messages, and
+  * reading is suspended while that maximum are queued, until one is received or the session closed
+  * @author phillipsr */
+public final class Iso8583Session implements Link {
+  private static final ThreadFactory readers = SessionThreads.factory("isotypes-session");
+  /** marks the end of the messages received */
+  private static final Inbound END = new Inbound(null, null);
+
+  private final Socket socket;
+  private final MessageFactory factory;
+  private final Framing framing;
+  private final int maxFrameLength;
+  private final CorrelationKeys keys;
+  private final OutputStream output;
+  private final DataInputStream input;
+  private final BlockingQueue<Inbound> inbound = new LinkedBlockingQueue<>();
+  /** permits to queue messages received, bounding those not yet taken */
+  private final Semaphore capacity;
+  private final ConcurrentMap<String, SettableFuture<Message>> pending = new ConcurrentHashMap<>();
+  private final Thread reader;
+  private volatile IOException failure;
+
+  /** a message received, or the failure to parse it */
+  private static final class Inbound {
+    private final Message message;
+    private final RuntimeException error;
+
+    private Inbound(final Message message, final RuntimeException error) {
+      this.message = message;
+      this.error = error;
+    }
+  }
+
+  /** Create a session over the connected <code>socket</code>, correlating requests and responses
+    * by the <code>keys</code> extracted from them
+    * @throws IOException if the socket's streams cannot be opened */
+  public Iso8583Session(final Socket socket, final TransportConfig config, final CorrelationKeys keys) throws IOException {
+    Preconditions.checkNotNull(socket, "Socket cannot be null");
+    Preconditions.checkNotNull(config, "Transport configuration is required");
+    Preconditions.checkNotNull(keys, "Correlation keys are required");
+    this.socket = socket;
+    this.factory = config.getFactory();
+    this.framing = config.getFraming();
+    this.maxFrameLength = config.getMaxFrameLength();
+    this.keys = keys;
+    this.capacity = new Semaphore(config.getMaxPendingMessages());
+    socket.setTcpNoDelay(true);
+    output = socket.getOutputStream();
+    input = new DataInputStream(socket.getInputStream());
+    reader = readers.newThread(new Runnable() {
+      @Override
+      public void run() {
+        read();
+      }
+    });
+    reader.start();
+  }
+
+  /** @return a session over the connected <code>socket</code>, correlating requests and responses
+    * by their STAN, RRN and terminal ID (fields 11, 37 and 41) */
+  public static Iso8583Session open(final Socket socket, final TransportConfig config) throws IOException {
+    return new Iso8583Session(socket, config, new CorrelationKeys(config.getFactory(), 11, 37, 41));
+  }
+
+  /** @return a session connected to the remote <code>address</code>, correlating requests and
+    * responses by their STAN, RRN and terminal ID (fields 11, 37 and 41)
+    * @throws IOException if the connection cannot be established */
+  public static Iso8583Session connect(final SocketAddress address, final TransportConfig config) throws IOException {
+    final Socket socket = new Socket();
+    try {
+      socket.connect(address);
+      return open(socket, config);
+    } catch (final IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /** write the <code>message</code>, framed, to the connection
+    * @throws IOException if the message cannot be written
+    * @throws MessageException if the message cannot be formatted */
+  public void send(final Message message) throws IOException {
+    final byte[] data = factory.getMessageData(message);
+    final byte[] frame = new byte[framing.headerSize() + data.length];
+    framing.writeLength(ByteBuffer.wrap(frame), 0, data.length);
+    System.arraycopy(data, 0, frame, framing.headerSize(), data.length);
+    synchronized (output) {
+      output.write(frame);
+      output.flush();
+    }
+  }
+
+  /** @return the next message received, other than responses to requests, waiting for it if required
+    * @throws EOFException if the connection has been closed, with the cause of any failure
+    * @throws MessageException if the message received could not be parsed */
+  public Message receive() throws IOException, InterruptedException {
+    return take(inbound.take());
+  }
+
+  /** @return the next message received, other than responses to requests, waiting up to
+    * <code>timeout</code> for it, or null if none is received within the timeout
+    * @see #receive() */
+  public Message receive(final long timeout, final TimeUnit unit) throws IOException, InterruptedException {
+    final Inbound next = inbound.poll(timeout, unit);
+    return next != null ? take(next) : null;
+  }
+
+  /** @return the response to the <code>request</code>, being the message received with the same
+    * correlation key, having sent the request and waited up to <code>timeout</code> for it
+    * @throws TimeoutException if no response is received within the timeout
+    * @throws IllegalStateException if a request with the same key is awaiting its response
+    * @throws IOException if the request cannot be written, or the connection is closed
+    * @throws MessageException if the request cannot be formatted, or the response parsed */
+  @Override
+  public Message request(final Message request, final long timeout, final TimeUnit unit)
+      throws IOException, InterruptedException, TimeoutException {
+    final String key = keys.of(request);
+    final SettableFuture<Message> response = SettableFuture.create();
+    if (pending.putIfAbsent(key, response) != null) {
+      throw new IllegalStateException("Request already pending for key [" + key + "]");
+    }
+    try {
+      checkOpen();
+      send(request);
+      return response.get(timeout, unit);
+    } catch (final ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw new IOException(e.getCause().getMessage(), e.getCause());
+      }
+      throw (RuntimeException) e.getCause();
+    } finally {
+      pending.remove(key, response);
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return failure == null && !socket.isClosed();
+  }
+
+  /** @return the address of the remote end of the connection */
+  public InetSocketAddress getRemoteAddress() {
+    return (InetSocketAddress) socket.getRemoteSocketAddress();
+  }
+
+  /** close the connection: requests awaiting responses fail, and messages received but not
+    * yet taken remain available */
+  @Override
+  public void close() throws IOException {
+    try {
+      socket.close();
+    } finally {
+      // the reader may be waiting to queue a message, rather than reading from the socket
+      reader.interrupt();
+      final EOFException closed = new EOFException("Session closed");
+      for (final SettableFuture<Message> response : pending.values()) {
+        response.setException(closed);
+      }
+    }
+  }
+
+  /** read messages until the connection is closed, completing requests or queuing them */
+  private void read() {
+    final byte[] header = new byte[framing.headerSize()];
+    try {
+      while (true) {
+        input.readFully(header);
+        final int length = framing.readLength(ByteBuffer.wrap(header), 0);
+        if (length < 0) {
+          throw new IOException("Invalid frame header received from " + getRemoteAddress());
+        }
+        if (length > maxFrameLength) {
+          throw new IOException("Frame of " + length + " bytes received from " + getRemoteAddress()
+              + " exceeds the maximum of " + maxFrameLength);
+        }
+        final byte[] data = new byte[length];
+        input.readFully(data);
+        final String key = keys.of(ByteBuffer.wrap(data), 0);
+        final SettableFuture<Message> response = key != null ? pending.remove(key) : null;
+        Message message = null;
+        RuntimeException error = null;
+        try {
+          message = factory.parse(data);
+        } catch (final ParseException | IOException | RuntimeException e) {
+          error = new MessageException("Failed to parse message received: " + e.getMessage(), e);
+        }
+        if (response != null) {
+          if (error == null) {
+            response.set(message);
+          } else {
+            response.setException(error);
+          }
+        } else {
+          // only the messages queued to be received take capacity, not the responses to requests
+          capacity.acquire();
+          inbound.add(new Inbound(message, error));
+        }
+      }
+    } catch (final IOException e) {
+      failure = socket.isClosed() ? new EOFException("Session closed") : e;
+    } catch (final InterruptedException e) {
+      failure = socket.isClosed() ? new EOFException("Session closed") : new EOFException("Session reader interrupted");
+    } finally {
+      if (failure == null) {
+        failure = new EOFException("Session closed");
+      }
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        // nothing to be done on closing
+      }
+      for (final SettableFuture<Message> response : pending.values()) {
+        response.setException(failure);
+      }
+      inbound.add(END);
+    }
+  }
+
+  /** @return the message received, or throw its failure, or that of the connection */
+  private Message take(final Inbound next) throws IOException {
+    if (next == END) {
+      inbound.add(END);
+      checkOpen();
+    }
+    capacity.release();
+    if (next.error != null) {
+      throw next.error;
+    }
+    return next.message;
+  }
+
+  private void checkOpen() throws IOException {
+    final IOException cause = failure;
+    if (cause != null) {
+      throw cause instanceof EOFException ? cause : (IOException) new EOFException("Session closed").initCause(cause);
+    }
+  }
+}
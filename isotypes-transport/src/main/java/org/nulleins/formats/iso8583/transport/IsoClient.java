@@ -0,0 +1,107 @@
+package org.nulleins.formats.iso8583.transport;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+
+
+/** Client connecting to a remote address on a loop of an {@link EventLoopGroup}, re-establishing the
+  * connection, after the configured delay, whenever it cannot be established or is lost, until closed
+  * @author phillipsr */
+public final class IsoClient implements Closeable {
+  private final EventLoop loop;
+  private final TransportConfig config;
+  private final MessageHandler handler;
+  private final SocketAddress address;
+  private volatile Connection connection;
+  private volatile boolean started;
+  private volatile boolean closed;
+
+  private final Connection.Listener listener = new Connection.Listener() {
+    @Override
+    public void closed(final Connection closing, final Throwable cause) {
+      connection = null;
+      if (!closed) {
+        loop.schedule(connectTask, config.getReconnectDelay());
+      }
+    }
+  };
+
+  private final Runnable connectTask = new Runnable() {
+    @Override
+    public void run() {
+      if (closed) {
+        return;
+      }
+      final SocketChannel channel;
+      try {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+      } catch (final IOException e) {
+        handler.closed(null, e);
+        loop.schedule(connectTask, config.getReconnectDelay());
+        return;
+      }
+      final Connection result = new Connection(loop, channel, config, handler, listener);
+      connection = result;
+      if (closed) {
+        // closed while connecting, having seen no connection to close
+        result.close();
+        return;
+      }
+      result.open(address);
+    }
+  };
+
+  public IsoClient(final EventLoopGroup group, final TransportConfig config, final MessageHandler handler,
+                   final SocketAddress address) {
+    Preconditions.checkNotNull(group, "Event loop group is required");
+    Preconditions.checkNotNull(config, "Transport configuration is required");
+    Preconditions.checkNotNull(handler, "Message handler is required");
+    Preconditions.checkNotNull(address, "Remote address is required");
+    this.loop = group.next();
+    this.config = config;
+    this.handler = handler;
+    this.address = address;
+  }
+
+  /** start connecting to the remote address: the handler is notified when connected
+    * @throws IllegalStateException if the client has already been started or has been closed */
+  public synchronized void connect() {
+    Preconditions.checkState(!started && !closed, "Client already started");
+    started = true;
+    loop.execute(connectTask);
+  }
+
+  /** @return the current connection, or null if not connected */
+  public Connection getConnection() {
+    final Connection current = connection;
+    return current != null && current.isOpen() ? current : null;
+  }
+
+  /** Queue the <code>message</code> to be written to the current connection (if still connecting,
+    * it is written once the connection is established)
+    * @throws IllegalStateException if there is no current connection */
+  public void send(final Message message) {
+    final Connection current = getConnection();
+    if (current == null) {
+      throw new IllegalStateException("Not connected to " + address);
+    }
+    current.send(message);
+  }
+
+  /** close the client and its connection, ending any reconnection */
+  @Override
+  public void close() {
+    closed = true;
+    final Connection current = connection;
+    if (current != null) {
+      current.close();
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package org.nulleins.formats.iso8583.transport;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/** Server accepting connections on a local address, and distributing them across the loops of an
+  * {@link EventLoopGroup}, exchanging messages framed and formatted as configured:
+  * <pre>
+  *   final IsoServer server = new IsoServer(group, TransportConfig.Builder().factory(factory).build(), handler);
+  *   server.bind(new InetSocketAddress(8583));
+  * </pre>
+  * @author phillipsr */
+public final class IsoServer implements Closeable {
+  private static final int BACKLOG = 1024;
+  /** milliseconds to stop accepting after a failed accept, e.g., while out of file descriptors */
+  private static final long ACCEPT_BACKOFF = 100;
+  private final EventLoopGroup group;
+  private final TransportConfig config;
+  private final MessageHandler handler;
+  private final Set<Connection> connections = Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+  private final Connection.Listener listener = new Connection.Listener() {
+    @Override
+    public void closed(final Connection connection, final Throwable cause) {
+      connections.remove(connection);
+    }
+  };
+  private ServerSocketChannel server;
+  private Acceptor acceptor;
+
+  public IsoServer(final EventLoopGroup group, final TransportConfig config, final MessageHandler handler) {
+    Preconditions.checkNotNull(group, "Event loop group is required");
+    Preconditions.checkNotNull(config, "Transport configuration is required");
+    Preconditions.checkNotNull(handler, "Message handler is required");
+    this.group = group;
+    this.config = config;
+    this.handler = handler;
+  }
+
+  /** @return the local address to which the server has been bound, accepting connections on
+    * the <code>address</code> specified (e.g., with port 0, on an ephemeral port)
+    * @throws IOException if the address cannot be bound
+    * @throws IllegalStateException if the server has already been bound */
+  public synchronized InetSocketAddress bind(final SocketAddress address) throws IOException {
+    Preconditions.checkState(server == null, "Server already bound");
+    server = ServerSocketChannel.open();
+    try {
+      server.configureBlocking(false);
+      server.socket().setReuseAddress(true);
+      server.socket().bind(address, BACKLOG);
+    } catch (final IOException e) {
+      server.close();
+      throw e;
+    }
+    acceptor = new Acceptor(group.next());
+    acceptor.loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          acceptor.loop.register(server, SelectionKey.OP_ACCEPT, acceptor);
+        } catch (final IOException e) {
+          acceptor.close();
+        }
+      }
+    });
+    return (InetSocketAddress) server.socket().getLocalSocketAddress();
+  }
+
+  /** @return the number of connections currently open */
+  public int getConnectionCount() {
+    return connections.size();
+  }
+
+  /** stop accepting connections, and close those open */
+  @Override
+  public synchronized void close() {
+    if (acceptor != null) {
+      acceptor.loop.execute(new Runnable() {
+        @Override
+        public void run() {
+          acceptor.close();
+        }
+      });
+    }
+    for (final Connection connection : connections) {
+      connection.close();
+    }
+  }
+
+  /** accepts the connections to the server, assigning each to the group's next loop */
+  private final class Acceptor implements Selectable {
+    private final EventLoop loop;
+
+    private Acceptor(final EventLoop loop) {
+      this.loop = loop;
+    }
+
+    @Override
+    public void ready(final SelectionKey key) {
+      SocketChannel channel;
+      while ((channel = accept(key)) != null) {
+        final Connection connection;
+        try {
+          channel.configureBlocking(false);
+          channel.socket().setTcpNoDelay(true);
+          connection = new Connection(group.next(), channel, config, handler, listener);
+        } catch (final IOException | RuntimeException e) {
+          discard(channel);
+          continue;
+        }
+        connections.add(connection);
+        connection.open(null);
+      }
+    }
+
+    /** @return the next pending connection, or null if there is none, or it could not be accepted
+      * (e.g., no file descriptors), in which case accepting is suspended for a while, rather than
+      * the loop selecting the still pending connection again immediately */
+    private SocketChannel accept(final SelectionKey key) {
+      try {
+        return server.accept();
+      } catch (final IOException e) {
+        if (key.isValid()) {
+          key.interestOps(0);
+          loop.schedule(new Runnable() {
+            @Override
+            public void run() {
+              if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_ACCEPT);
+              }
+            }
+          }, ACCEPT_BACKOFF);
+        }
+        return null;
+      }
+    }
+
+    private void discard(final SocketChannel channel) {
+      try {
+        channel.close();
+      } catch (final IOException e) {
+        // nothing to be done on closing
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        server.close();
+      } catch (final IOException e) {
+        // nothing to be done on closing
+      }
+    }
+  }
+}
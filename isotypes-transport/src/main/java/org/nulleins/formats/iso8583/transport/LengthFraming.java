@@ -0,0 +1,87 @@
+package org.nulleins.formats.iso8583.transport;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+
+
+/** The frame headers commonly used on ISO8583 links, specifying the length of the message
+  * (excluding the header) as:
+  * <dl>
+  * <dt>BINARY2</dt><dd>two byte, unsigned big-endian binary integer</dd>
+  * <dt>BINARY4</dt><dd>four byte, big-endian binary integer</dd>
+  * <dt>ASCII4</dt><dd>four ASCII decimal digits, zero-padded</dd>
+  * </dl>
+  * @author phillipsr */
+public enum LengthFraming implements Framing {
+  BINARY2(2, 0xffff) {
+    @Override
+    public int readLength(final ByteBuffer buffer, final int position) {
+      return buffer.getShort(position) & 0xffff;
+    }
+    @Override
+    void putLength(final ByteBuffer buffer, final int position, final int length) {
+      buffer.putShort(position, (short) length);
+    }
+  },
+  BINARY4(4, Integer.MAX_VALUE) {
+    @Override
+    public int readLength(final ByteBuffer buffer, final int position) {
+      final int length = buffer.getInt(position);
+      return length >= 0 ? length : -1;
+    }
+    @Override
+    void putLength(final ByteBuffer buffer, final int position, final int length) {
+      buffer.putInt(position, length);
+    }
+  },
+  ASCII4(4, 9999) {
+    @Override
+    public int readLength(final ByteBuffer buffer, final int position) {
+      int length = 0;
+      for (int i = 0; i < 4; i++) {
+        final int digit = buffer.get(position + i) - '0';
+        if (digit < 0 || digit > 9) {
+          return -1;
+        }
+        length = length * 10 + digit;
+      }
+      return length;
+    }
+    @Override
+    void putLength(final ByteBuffer buffer, final int position, final int length) {
+      int value = length;
+      for (int i = 3; i >= 0; i--) {
+        buffer.put(position + i, (byte) ('0' + value % 10));
+        value /= 10;
+      }
+    }
+  };
+
+  private final int headerSize;
+  private final int maxLength;
+
+  LengthFraming(final int headerSize, final int maxLength) {
+    this.headerSize = headerSize;
+    this.maxLength = maxLength;
+  }
+
+  @Override
+  public int headerSize() {
+    return headerSize;
+  }
+
+  @Override
+  public int maxLength() {
+    return maxLength;
+  }
+
+  @Override
+  public void writeLength(final ByteBuffer buffer, final int position, final int length) {
+    Preconditions.checkArgument(length >= 0 && length <= maxLength,
+        "Message length " + length + " cannot be framed by " + this);
+    putLength(buffer, position, length);
+  }
+
+  abstract void putLength(ByteBuffer buffer, int position, int length);
+}
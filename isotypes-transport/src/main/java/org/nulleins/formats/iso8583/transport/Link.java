@@ -0,0 +1,24 @@
+package org.nulleins.formats.iso8583.transport;
+
+import org.nulleins.formats.iso8583.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+/** A connection to an endpoint over which requests are exchanged for their responses, as
+  * pooled by a {@link LinkPool}; implemented by {@link Iso8583Session}, and by adapters of
+  * other framed transports
+  * @author phillipsr */
+public interface Link extends Closeable {
+
+  /** @return the response to the <code>request</code>, having sent it and waited up to <code>timeout</code>
+    * @throws TimeoutException if no response is received within the timeout
+    * @throws IOException if the request cannot be sent, or the link fails */
+  Message request(Message request, long timeout, TimeUnit unit) throws IOException, InterruptedException, TimeoutException;
+
+  /** @return true if the link is open, and requests may be sent over it */
+  boolean isOpen();
+}
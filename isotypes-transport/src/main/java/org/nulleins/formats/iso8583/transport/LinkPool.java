@@ -0,0 +1,290 @@
+package org.nulleins.formats.iso8583.transport;
+
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/** Pool of parallel links to the same endpoint (e.g., the links provided by a card scheme),
+  * sending each request over the healthy link with the fewest requests outstanding:
+  * <pre>
+  *   final LinkPool pool = LinkPool.Builder()
+  *       .factory(factory)
+  *       .link(Iso8583Session.connect(primary, config))
+  *       .link(Iso8583Session.connect(secondary, config))
+  *       .echo(MTI.create(0x0800), echoFields)
+  *       .build();
+  *   ...
+  *   final Message response = pool.request(authorization, 30, TimeUnit.SECONDS);
+  * </pre>
+  * The pool tracks the moving averages of the latency and error rate (I/O failures and timeouts)
+  * of each link, and ejects a link that has closed, or whose average latency or error rate
+  * exceeds its limit; ejected links are tested periodically with an echo request, built by the
+  * factory (with a STAN, field 11, generated by the pool, if its template defines it), and
+  * readmitted once the echo is answered
+  * @author phillipsr */
+public final class LinkPool implements Closeable {
+  /** the weight of each request in the moving averages, as a shift (1/8) */
+  private static final int SMOOTHING = 3;
+  /** the scale of the error rate: the rate of a link whose requests all fail */
+  private static final long FAILED = 1 << 16;
+
+  private final MessageFactory factory;
+  private final List<Member> members = new ArrayList<>();
+  private final long latencyLimit;
+  private final long errorLimit;
+  private final MTI echoType;
+  private final Map<Integer, Object> echoFields;
+  private final long echoTimeout;
+  private final ScheduledExecutorService echoes;
+  private final AtomicInteger stan = new AtomicInteger();
+  private final AtomicInteger next = new AtomicInteger();
+
+  /** a link, with its figures */
+  private static final class Member {
+    private final Link link;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong latency = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile boolean healthy = true;
+
+    private Member(final Link link) {
+      this.link = link;
+    }
+
+    private boolean isAvailable() {
+      return healthy && link.isOpen();
+    }
+
+    /** add the <code>sample</code> to the moving <code>average</code> */
+    private static void record(final AtomicLong average, final long sample) {
+      long current;
+      do {
+        current = average.get();
+      } while (!average.compareAndSet(current, current + (sample - current >> SMOOTHING)));
+    }
+  }
+
+  private LinkPool(final Builder builder) {
+    factory = builder.factory;
+    for (final Link link : builder.links) {
+      members.add(new Member(link));
+    }
+    latencyLimit = builder.latencyLimit;
+    errorLimit = (long) (builder.errorLimit * FAILED);
+    echoType = builder.echoType;
+    echoFields = builder.echoFields;
+    echoTimeout = builder.echoTimeout;
+    echoes = Executors.newSingleThreadScheduledExecutor(SessionThreads.factory("isotypes-links"));
+    echoes.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        testEjected();
+      }
+    }, builder.echoInterval, builder.echoInterval, TimeUnit.NANOSECONDS);
+  }
+
+  /** @return the response to the <code>request</code>, sent over the available link with the fewest
+    * requests outstanding, having waited up to <code>timeout</code> for it; only the link's failures
+    * (an <code>IOException</code> or timeout) count towards its error rate, not a request that fails
+    * otherwise (e.g., with a <code>MessageException</code>, as it cannot be formatted), or is interrupted
+    * @throws IOException if no link is available, or the request cannot be sent
+    * @throws TimeoutException if no response is received within the timeout
+    * @see Link#request(Message, long, TimeUnit) */
+  public Message request(final Message request, final long timeout, final TimeUnit unit)
+      throws IOException, InterruptedException, TimeoutException {
+    final Member member = select();
+    if (member == null) {
+      throw new IOException("No link available");
+    }
+    member.outstanding.incrementAndGet();
+    final long start = System.nanoTime();
+    boolean completed = false;
+    boolean failed = false;
+    try {
+      final Message response = member.link.request(request, timeout, unit);
+      completed = true;
+      return response;
+    } catch (final IOException | TimeoutException e) {
+      failed = true;
+      throw e;
+    } finally {
+      member.outstanding.decrementAndGet();
+      if (completed || failed) {
+        Member.record(member.latency, System.nanoTime() - start);
+        Member.record(member.errors, failed ? FAILED : 0);
+        if (member.healthy && (member.latency.get() > latencyLimit || member.errors.get() > errorLimit)) {
+          member.healthy = false;
+        }
+      }
+    }
+  }
+
+  /** @return the available link with the fewest requests outstanding, the first found from a
+    * rotating start, so that links equally loaded are used in turn; null if none is available */
+  private Member select() {
+    final int size = members.size();
+    final int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+    Member result = null;
+    int least = Integer.MAX_VALUE;
+    for (int i = 0; i < size; i++) {
+      final Member member = members.get((start + i) % size);
+      if (member.isAvailable()) {
+        final int outstanding = member.outstanding.get();
+        if (outstanding < least) {
+          result = member;
+          least = outstanding;
+        }
+      }
+    }
+    return result;
+  }
+
+  /** send an echo request over each open link ejected, readmitting those answered */
+  private void testEjected() {
+    for (final Member member : members) {
+      if (member.healthy || !member.link.isOpen()) {
+        continue;
+      }
+      final Map<Integer, Object> fields = new HashMap<>(echoFields);
+      if (factory.getTemplate(echoType).getFields().containsKey(11) && !fields.containsKey(11)) {
+        fields.put(11, stan.incrementAndGet() % 1000000);
+      }
+      try {
+        member.link.request(factory.createByNumbers(echoType, fields), echoTimeout, TimeUnit.NANOSECONDS);
+      } catch (final IOException | TimeoutException | RuntimeException e) {
+        continue;
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      member.latency.set(0);
+      member.errors.set(0);
+      member.healthy = true;
+    }
+  }
+
+  /** @return the number of links pooled */
+  public int getLinkCount() {
+    return members.size();
+  }
+
+  /** @return the number of links available: open, and not ejected */
+  public int getAvailableCount() {
+    int result = 0;
+    for (final Member member : members) {
+      result += member.isAvailable() ? 1 : 0;
+    }
+    return result;
+  }
+
+  /** @return true if the link <code>index</code> (in the order added) is available */
+  public boolean isAvailable(final int index) {
+    return members.get(index).isAvailable();
+  }
+
+  /** @return the number of requests outstanding over the link <code>index</code> */
+  public int getOutstanding(final int index) {
+    return members.get(index).outstanding.get();
+  }
+
+  /** @return the moving average of the latency of the link <code>index</code>, in nanoseconds */
+  public long getLatency(final int index) {
+    return members.get(index).latency.get();
+  }
+
+  /** stop testing ejected links, and close all the links */
+  @Override
+  public void close() throws IOException {
+    echoes.shutdownNow();
+    IOException failure = null;
+    for (final Member member : members) {
+      try {
+        member.link.close();
+      } catch (final IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  public static Builder Builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private MessageFactory factory;
+    private final List<Link> links = new ArrayList<>();
+    private long latencyLimit = TimeUnit.SECONDS.toNanos(5);
+    private double errorLimit = 0.5;
+    private MTI echoType = MTI.create(0x0800);
+    private Map<Integer, Object> echoFields = new HashMap<>();
+    private long echoInterval = TimeUnit.SECONDS.toNanos(10);
+    private long echoTimeout = TimeUnit.SECONDS.toNanos(5);
+
+    public Builder factory(final MessageFactory factory) {
+      this.factory = factory;
+      return this;
+    }
+
+    /** add the <code>link</code> to the pool */
+    public Builder link(final Link link) {
+      Preconditions.checkNotNull(link, "Link cannot be null");
+      links.add(link);
+      return this;
+    }
+
+    /** eject a link whose average latency exceeds <code>latency</code> (default: 5s) */
+    public Builder latencyLimit(final long latency, final TimeUnit unit) {
+      this.latencyLimit = unit.toNanos(latency);
+      return this;
+    }
+
+    /** eject a link whose average rate of failed requests exceeds <code>rate</code> (default: 0.5) */
+    public Builder errorLimit(final double rate) {
+      this.errorLimit = rate;
+      return this;
+    }
+
+    /** test ejected links with a request of <code>type</code> (default: 0800) with the <code>fields</code> specified */
+    public Builder echo(final MTI type, final Map<Integer, Object> fields) {
+      this.echoType = type;
+      this.echoFields = new HashMap<>(fields);
+      return this;
+    }
+
+    /** test ejected links every <code>interval</code> (default: 10s), waiting up to <code>timeout</code>
+      * for the response (default: 5s) */
+    public Builder echoInterval(final long interval, final long timeout, final TimeUnit unit) {
+      this.echoInterval = unit.toNanos(interval);
+      this.echoTimeout = unit.toNanos(timeout);
+      return this;
+    }
+
+    public LinkPool build() {
+      Preconditions.checkNotNull(factory, "Message factory is required");
+      Preconditions.checkArgument(!links.isEmpty(), "At least one link is required");
+      Preconditions.checkArgument(latencyLimit > 0, "Latency limit must be positive");
+      Preconditions.checkArgument(errorLimit > 0 && errorLimit <= 1, "Error limit must be in (0, 1]");
+      Preconditions.checkArgument(echoInterval > 0 && echoTimeout > 0, "Echo interval and timeout must be positive");
+      Preconditions.checkArgument(factory.canBuild(echoType), "Echo type " + echoType + " not defined by the factory");
+      return new LinkPool(this);
+    }
+  }
+}
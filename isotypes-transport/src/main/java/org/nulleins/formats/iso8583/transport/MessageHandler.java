@@ -0,0 +1,25 @@
+package org.nulleins.formats.iso8583.transport;
+
+import org.nulleins.formats.iso8583.Message;
+
+
+/** Call-back interface through which the events of connections are reported: called on the
+  * connection's event loop, or, for <code>received</code> and <code>failed</code>, on the
+  * executor, if configured; a handler must not block the event loop
+  * @author phillipsr */
+public interface MessageHandler {
+
+  /** the <code>connection</code> has been established */
+  void connected(Connection connection);
+
+  /** <code>message</code> has been received on the <code>connection</code> */
+  void received(Connection connection, Message message);
+
+  /** the <code>frame</code> received on the <code>connection</code> could not be parsed */
+  void failed(Connection connection, byte[] frame, Exception cause);
+
+  /** the <code>connection</code> has been closed (or could not be established)
+    * @param connection the connection closed, or null if a client's channel could not be opened
+    * @param cause      the failure that closed the connection, or null if closed normally */
+  void closed(Connection connection, Throwable cause);
+}
@@ -0,0 +1,15 @@
+package org.nulleins.formats.iso8583.transport;
+
+import java.nio.channels.SelectionKey;
+
+
+/** A channel registered with an event loop, which handles its readiness
+  * @author phillipsr */
+interface Selectable {
+
+  /** handle the readiness of the channel's <code>key</code> for its ready operations */
+  void ready(SelectionKey key);
+
+  /** close the channel, as the event loop is closing */
+  void close();
+}
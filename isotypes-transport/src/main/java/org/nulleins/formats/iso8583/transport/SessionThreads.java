@@ -0,0 +1,68 @@
+package org.nulleins.formats.iso8583.transport;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/** Creates the threads of blocking sessions: virtual threads, where the JVM supports them
+  * (Java 21 or later), so that a thread per connection scales to very high connection counts,
+  * otherwise daemon platform threads
+  * @author phillipsr */
+public final class SessionThreads {
+  /** <code>Thread.ofVirtual()</code> and <code>Thread.Builder.unstarted(Runnable)</code>, if supported */
+  private static final Method ofVirtual;
+  private static final Method unstarted;
+
+  static {
+    Method builder = null;
+    Method create = null;
+    try {
+      builder = Thread.class.getMethod("ofVirtual");
+      create = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+      // a preview feature before Java 21: present, but failing unless preview features are enabled
+      create.invoke(builder.invoke(null), new Runnable() {
+        @Override
+        public void run() { }
+      });
+    } catch (final ReflectiveOperationException | RuntimeException e) {
+      builder = null;
+      create = null;
+    }
+    ofVirtual = builder;
+    unstarted = create;
+  }
+
+  private SessionThreads() { }
+
+  /** @return true if the threads created are virtual threads */
+  public static boolean isVirtual() {
+    return ofVirtual != null;
+  }
+
+  /** @return a factory of (unstarted) session threads, named <code>prefix</code>-<i>n</i> */
+  public static ThreadFactory factory(final String prefix) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable task) {
+        final Thread thread = create(task);
+        thread.setName(prefix + "-" + count.incrementAndGet());
+        return thread;
+      }
+    };
+  }
+
+  private static Thread create(final Runnable task) {
+    if (ofVirtual != null) {
+      try {
+        return (Thread) unstarted.invoke(ofVirtual.invoke(null), task);
+      } catch (final ReflectiveOperationException e) {
+        throw new IllegalStateException("Failed to create virtual thread", e);
+      }
+    }
+    final Thread thread = new Thread(task);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
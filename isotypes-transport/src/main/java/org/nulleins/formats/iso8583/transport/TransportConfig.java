@@ -0,0 +1,184 @@
+package org.nulleins.formats.iso8583.transport;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.io.MessageLayout;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.Dimension;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+
+/** Configuration of the connections of an {@link IsoServer} or {@link IsoClient}:
+  * <dl>
+  * <dt>factory</dt><dd>message factory used to write and parse the messages exchanged (required)</dd>
+  * <dt>framing</dt><dd>frame header preceding each message (default: {@link LengthFraming#BINARY2})</dd>
+  * <dt>executor</dt><dd>executor to which the parsing and handling of messages received is handed
+  * off; by default, messages are parsed and handled on the connection's event loop</dd>
+  * <dt>maxFrameLength</dt><dd>length of the longest message accepted: a connection receiving a frame
+  * header specifying a longer message is closed (default: the longest message the factory's templates
+  * define, or 64KiB if greater, limited to the maximum the framing can specify)</dd>
+  * <dt>bufferSize</dt><dd>initial size of each connection's read buffer (default: the frame header
+  * plus the longest message the factory's templates define, up to the maximum frame length); grown
+  * for any longer message</dd>
+  * <dt>highWaterMark</dt><dd>number of bytes queued for writing to a connection at which reading from
+  * it is suspended, until half have been written (default: 64KiB)</dd>
+  * <dt>maxPendingMessages</dt><dd>number of messages received on a connection and handed off to
+  * the executor, but not yet handled, at which reading from it is suspended (default: 256)</dd>
+  * <dt>reconnectDelay</dt><dd>delay before a client re-establishes a lost connection (default: 1s)</dd>
+  * </dl>
+  * @author phillipsr */
+public final class TransportConfig {
+  private static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024;
+  private final MessageFactory factory;
+  private final Framing framing;
+  private final Optional<Executor> executor;
+  private final int maxFrameLength;
+  private final int bufferSize;
+  private final int highWaterMark;
+  private final int maxPendingMessages;
+  private final long reconnectDelay;
+
+  private TransportConfig(final Builder builder) {
+    this.factory = builder.factory;
+    this.framing = builder.framing;
+    this.executor = Optional.fromNullable(builder.executor);
+    final int maxMessageSize = maxMessageSize(factory);
+    this.maxFrameLength = builder.maxFrameLength > 0 ? builder.maxFrameLength
+        : Math.min(framing.maxLength(), Math.max(maxMessageSize, DEFAULT_MAX_FRAME_LENGTH));
+    this.bufferSize = builder.bufferSize > 0 ? builder.bufferSize
+        : (int) Math.min((long) framing.headerSize() + Math.min(maxMessageSize, maxFrameLength), Integer.MAX_VALUE);
+    this.highWaterMark = builder.highWaterMark;
+    this.maxPendingMessages = builder.maxPendingMessages;
+    this.reconnectDelay = builder.reconnectDelay;
+  }
+
+  public MessageFactory getFactory() {
+    return factory;
+  }
+
+  public Framing getFraming() {
+    return framing;
+  }
+
+  public Optional<Executor> getExecutor() {
+    return executor;
+  }
+
+  /** @return the length of the longest message accepted, excluding the frame header */
+  public int getMaxFrameLength() {
+    return maxFrameLength;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public int getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  public int getMaxPendingMessages() {
+    return maxPendingMessages;
+  }
+
+  /** @return the reconnect delay, in milliseconds */
+  public long getReconnectDelay() {
+    return reconnectDelay;
+  }
+
+  /** @return the maximum length of the messages defined by the <code>factory</code>'s templates:
+    * header, MTI, bitmap and all fields at their maximum length */
+  static int maxMessageSize(final MessageFactory factory) {
+    final ContentType contentType = factory.getContentType();
+    int result = 0;
+    for (final MessageTemplate template : factory.getTemplates()) {
+      int size = factory.getCharset().getBytes(factory.getHeader()).length + MessageLayout.mtiSize(contentType);
+      int words = 1;
+      for (final FieldTemplate field : template.getFields().values()) {
+        final Dimension dimension = field.getDimension();
+        final int length = dimension.getLength();
+        size += Math.max(length, MessageLayout.encodedSize(contentType, field.getType(), length));
+        if (dimension.getType() != Dimension.Type.FIXED) {
+          size += MessageLayout.prefixSize(contentType, dimension.getVSize());
+        }
+        words = Math.max(words, 1 + (field.getNumber() - 1) / 64);
+      }
+      size += words * (factory.getBitmapType() == BitmapType.BINARY ? 8 : 16);
+      result = Math.max(result, size);
+    }
+    return result;
+  }
+
+  public static Builder Builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+    private MessageFactory factory;
+    private Framing framing = LengthFraming.BINARY2;
+    private Executor executor;
+    private int maxFrameLength;
+    private int bufferSize;
+    private int highWaterMark = 64 * 1024;
+    private int maxPendingMessages = 256;
+    private long reconnectDelay = 1000;
+
+    public Builder factory(final MessageFactory factory) {
+      this.factory = factory;
+      return this;
+    }
+
+    public Builder framing(final Framing framing) {
+      this.framing = framing;
+      return this;
+    }
+
+    public Builder executor(final Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    public Builder maxFrameLength(final int maxFrameLength) {
+      this.maxFrameLength = maxFrameLength;
+      return this;
+    }
+
+    public Builder bufferSize(final int bufferSize) {
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    public Builder highWaterMark(final int highWaterMark) {
+      this.highWaterMark = highWaterMark;
+      return this;
+    }
+
+    public Builder maxPendingMessages(final int maxPendingMessages) {
+      this.maxPendingMessages = maxPendingMessages;
+      return this;
+    }
+
+    public Builder reconnectDelay(final long delay, final TimeUnit unit) {
+      this.reconnectDelay = unit.toMillis(delay);
+      return this;
+    }
+
+    public TransportConfig build() {
+      Preconditions.checkNotNull(factory, "Message factory is required");
+      Preconditions.checkNotNull(framing, "Framing is required");
+      Preconditions.checkArgument(maxFrameLength >= 0 && maxFrameLength <= framing.maxLength()
+          && (long) framing.headerSize() + maxFrameLength <= Integer.MAX_VALUE,
+          "Maximum frame length cannot be negative or exceed the maximum the framing can specify");
+      Preconditions.checkArgument(highWaterMark > 0, "High water mark must be positive");
+      Preconditions.checkArgument(maxPendingMessages > 0, "Maximum pending messages must be positive");
+      Preconditions.checkArgument(reconnectDelay >= 0, "Reconnect delay cannot be negative");
+      return new TransportConfig(this);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+package org.nulleins.formats.iso8583.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestIso8583Session {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MTI RESPONSE = MTI.create(0x0210);
+  private static final MTI NOTICE = MTI.create(0x0800);
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("sessionTest")
+      .header("ISO")
+      .contentType(ContentType.BCD)
+      .bitmapType(BitmapType.BINARY)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(template(REQUEST))
+      .addTemplate(template(RESPONSE))
+      .addTemplate(template(NOTICE))
+      .build();
+  private static final TransportConfig config = TransportConfig.Builder().factory(factory).build();
+
+  private final ExecutorService threads = Executors.newCachedThreadPool(SessionThreads.factory("test"));
+  private ServerSocket server;
+
+  private static MessageTemplate template(final MTI type) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageTemplate.Builder().header("ISO").type(type).fieldlist(asList(
+        builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+        builder.f(37).type(FieldType.ALPHANUM).dim("fixed(12)").name("rrn").build(),
+        builder.f(39).type(FieldType.ALPHANUM).dim("fixed(2)").name("responseCode").optional().build(),
+        builder.f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").build())).build();
+  }
+
+  private static Message message(final MTI type, final int stan) {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(11, stan);
+    fields.put(37, "RRN" + stan);
+    fields.put(41, "ATM-1010");
+    return factory.createByNumbers(type, fields);
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    threads.shutdownNow();
+    server.close();
+  }
+
+  /** @return the future server session accepted, answering each request with an approval
+    * (in reverse order of receipt, for each pair), unless <code>respond</code> is false */
+  private Future<Iso8583Session> serve(final boolean respond) {
+    return threads.submit(new Callable<Iso8583Session>() {
+      @Override
+      public Iso8583Session call() throws Exception {
+        final Iso8583Session session = Iso8583Session.open(server.accept(), config);
+        if (respond) {
+          threads.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              while (true) {
+                final Message first = session.receive();
+                final Message second = session.receive();
+                for (final Message request : asList(second, first)) {
+                  final HashMap<String, Object> extra = new HashMap<>();
+                  extra.put("responseCode", "00");
+                  session.send(factory.transform(RESPONSE, request, extra));
+                }
+              }
+            }
+          });
+        }
+        return session;
+      }
+    });
+  }
+
+  @Test
+  public void testCorrelatesConcurrentRequests() throws Exception {
+    serve(true);
+    try (final Iso8583Session session = Iso8583Session.connect(server.getLocalSocketAddress(), config)) {
+      final List<Future<Message>> responses = new ArrayList<>();
+      for (int stan = 1; stan <= 8; stan++) {
+        final Message request = message(REQUEST, stan);
+        responses.add(threads.submit(new Callable<Message>() {
+          @Override
+          public Message call() throws Exception {
+            return session.request(request, 5, TimeUnit.SECONDS);
+          }
+        }));
+      }
+      for (int stan = 1; stan <= 8; stan++) {
+        final Message response = responses.get(stan - 1).get(10, TimeUnit.SECONDS);
+        assertThat(response.getMTI(), is(RESPONSE));
+        assertThat(response.getFieldValue(37).get(), is((Object) ("RRN" + stan)));
+        assertThat(response.getFieldValue(39).get(), is((Object) "00"));
+      }
+    }
+  }
+
+  @Test
+  public void testReceivesUncorrelatedMessages() throws Exception {
+    final Future<Iso8583Session> accepted = serve(false);
+    try (final Iso8583Session session = Iso8583Session.connect(server.getLocalSocketAddress(), config)) {
+      final Iso8583Session remote = accepted.get(5, TimeUnit.SECONDS);
+      remote.send(message(NOTICE, 99));
+      assertThat(session.receive(5, TimeUnit.SECONDS), is(message(NOTICE, 99)));
+      assertThat(session.receive(10, TimeUnit.MILLISECONDS), is((Message) null));
+      try {
+        session.request(message(REQUEST, 1), 50, TimeUnit.MILLISECONDS);
+        throw new AssertionError("Request without response did not time out");
+      } catch (final TimeoutException e) {
+        // expected
+      }
+      remote.close();
+      try {
+        session.receive();
+        throw new AssertionError("Closed session received");
+      } catch (final EOFException e) {
+        assertThat(session.isOpen(), is(false));
+      }
+    }
+  }
+
+  @Test
+  public void testCloseFailsRequestsWhileQueueFull() throws Exception {
+    final TransportConfig limited = TransportConfig.Builder().factory(factory).maxPendingMessages(1).build();
+    final Future<Iso8583Session> accepted = threads.submit(new Callable<Iso8583Session>() {
+      @Override
+      public Iso8583Session call() throws Exception {
+        return Iso8583Session.open(server.accept(), limited);
+      }
+    });
+    final Iso8583Session session = Iso8583Session.connect(server.getLocalSocketAddress(), limited);
+    final Iso8583Session remote = accepted.get(5, TimeUnit.SECONDS);
+    try {
+      // the second notice leaves the reader waiting to queue it
+      remote.send(message(NOTICE, 1));
+      remote.send(message(NOTICE, 2));
+      final Future<Message> response = threads.submit(new Callable<Message>() {
+        @Override
+        public Message call() throws Exception {
+          return session.request(message(REQUEST, 3), 30, TimeUnit.SECONDS);
+        }
+      });
+      Thread.sleep(100);
+      session.close();
+      try {
+        response.get(5, TimeUnit.SECONDS);
+        throw new AssertionError("Request completed after close");
+      } catch (final ExecutionException e) {
+        assertThat(e.getCause() instanceof IOException, is(true));
+      }
+      assertThat(session.receive(5, TimeUnit.SECONDS), is(message(NOTICE, 1)));
+      try {
+        session.receive(5, TimeUnit.SECONDS);
+        throw new AssertionError("Closed session received");
+      } catch (final EOFException e) {
+        assertThat(session.isOpen(), is(false));
+      }
+    } finally {
+      remote.close();
+    }
+  }
+
+  @Test
+  public void testFailsOnOversizedFrame() throws Exception {
+    final TransportConfig limited = TransportConfig.Builder().factory(factory).maxFrameLength(64).build();
+    final Future<Socket> accepted = threads.submit(new Callable<Socket>() {
+      @Override
+      public Socket call() throws Exception {
+        return server.accept();
+      }
+    });
+    try (final Iso8583Session session = Iso8583Session.connect(server.getLocalSocketAddress(), limited);
+         final Socket remote = accepted.get(5, TimeUnit.SECONDS)) {
+      final OutputStream output = remote.getOutputStream();
+      output.write(new byte[]{(byte) 0xff, (byte) 0xff});
+      output.flush();
+      try {
+        session.receive(5, TimeUnit.SECONDS);
+        throw new AssertionError("Oversized frame received");
+      } catch (final EOFException e) {
+        assertThat(e.getCause().getMessage().contains("exceeds the maximum of 64"), is(true));
+      }
+      assertThat(session.isOpen(), is(false));
+    }
+  }
+}
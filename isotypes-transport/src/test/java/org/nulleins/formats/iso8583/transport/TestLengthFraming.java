@@ -0,0 +1,38 @@
+package org.nulleins.formats.iso8583.transport;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestLengthFraming {
+
+  @Test
+  public void testWritesAndReadsLength() {
+    final ByteBuffer buffer = ByteBuffer.allocate(8);
+    LengthFraming.ASCII4.writeLength(buffer, 2, 187);
+    assertThat(Arrays.copyOfRange(buffer.array(), 2, 6), is("0187".getBytes()));
+    assertThat(LengthFraming.ASCII4.readLength(buffer, 2), is(187));
+
+    LengthFraming.BINARY2.writeLength(buffer, 0, 0xfffe);
+    assertThat(LengthFraming.BINARY2.readLength(buffer, 0), is(0xfffe));
+    LengthFraming.BINARY4.writeLength(buffer, 4, 70000);
+    assertThat(LengthFraming.BINARY4.readLength(buffer, 4), is(70000));
+    assertThat(buffer.position(), is(0));
+  }
+
+  @Test
+  public void testRejectsInvalidHeader() {
+    assertThat(LengthFraming.ASCII4.readLength(ByteBuffer.wrap("01A7".getBytes()), 0), is(-1));
+    assertThat(LengthFraming.BINARY4.readLength(ByteBuffer.wrap(new byte[]{(byte) 0x80, 0, 0, 0}), 0), is(-1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsOverlongMessage() {
+    LengthFraming.ASCII4.writeLength(ByteBuffer.allocate(4), 0, 10000);
+  }
+}
@@ -0,0 +1,267 @@
+package org.nulleins.formats.iso8583.transport;
+
+import org.junit.After;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageException;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestLinkPool {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MTI RESPONSE = MTI.create(0x0210);
+  private static final MTI ECHO = MTI.create(0x0800);
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("linkPoolTest")
+      .header("ISO")
+      .contentType(ContentType.TEXT)
+      .bitmapType(BitmapType.HEX)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(template(REQUEST))
+      .addTemplate(template(RESPONSE))
+      .addTemplate(template(ECHO))
+      .build();
+
+  private final ExecutorService threads = Executors.newCachedThreadPool(SessionThreads.factory("test"));
+
+  private static MessageTemplate template(final MTI type) {
+    final FieldTemplate.Builder builder = FieldTemplate.localBuilder().get();
+    return MessageTemplate.Builder().header("ISO").type(type).fieldlist(asList(
+        builder.f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+        builder.f(41).type(FieldType.ALPHANUMSYMBOL).dim("fixed(8)").name("terminal").optional().build())).build();
+  }
+
+  private static Message message(final MTI type, final int stan) {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(11, stan);
+    fields.put(41, "ATM-1010");
+    return factory.createByNumbers(type, fields);
+  }
+
+  /** stand-in link, answering each request once released, or failing while <code>failing</code>,
+    * or throwing <code>fault</code>, if set */
+  private static final class StandInLink implements Link {
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private volatile boolean failing;
+    private volatile RuntimeException fault;
+    private final List<Message> requests = new ArrayList<>();
+
+    @Override
+    public Message request(final Message request, final long timeout, final TimeUnit unit)
+        throws IOException, InterruptedException, TimeoutException {
+      synchronized (requests) {
+        requests.add(request);
+      }
+      if (failing) {
+        throw new IOException("Link down");
+      }
+      if (fault != null) {
+        throw fault;
+      }
+      if (!release.await(timeout, unit)) {
+        throw new TimeoutException();
+      }
+      return factory.transform(RESPONSE, request, new HashMap<String, Object>());
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  @After
+  public void tearDown() {
+    threads.shutdownNow();
+  }
+
+  @Test
+  public void testSelectsLeastOutstanding() throws Exception {
+    final List<StandInLink> links = asList(new StandInLink(), new StandInLink(), new StandInLink());
+    final CountDownLatch release = new CountDownLatch(1);
+    final LinkPool.Builder builder = LinkPool.Builder().factory(factory);
+    for (final StandInLink link : links) {
+      link.release = release;
+      builder.link(link);
+    }
+    try (final LinkPool pool = builder.build()) {
+      final List<Future<Message>> responses = new ArrayList<>();
+      for (int stan = 0; stan < 6; stan++) {
+        responses.add(request(pool, stan));
+        while (outstanding(pool) <= stan) {
+          Thread.sleep(1);
+        }
+      }
+      for (int i = 0; i < 3; i++) {
+        assertThat(pool.getOutstanding(i), is(2));
+      }
+      release.countDown();
+      for (final Future<Message> response : responses) {
+        assertThat(response.get(5, TimeUnit.SECONDS).getMTI(), is(RESPONSE));
+      }
+      assertThat(outstanding(pool), is(0));
+    }
+  }
+
+  @Test
+  public void testEjectsAndReadmitsLink() throws Exception {
+    final StandInLink failing = new StandInLink();
+    final StandInLink working = new StandInLink();
+    failing.failing = true;
+    try (final LinkPool pool = LinkPool.Builder()
+        .factory(factory)
+        .link(failing)
+        .link(working)
+        .errorLimit(0.1)
+        .echoInterval(20, 1000, TimeUnit.MILLISECONDS)
+        .build()) {
+      for (int stan = 0; stan < 2; stan++) {
+        try {
+          pool.request(message(REQUEST, stan), 1, TimeUnit.SECONDS);
+        } catch (final IOException e) {
+          // the failing link was selected
+        }
+      }
+      assertThat(pool.isAvailable(0), is(false));
+      assertThat(pool.getAvailableCount(), is(1));
+      for (int stan = 2; stan < 6; stan++) {
+        assertThat(pool.request(message(REQUEST, stan), 1, TimeUnit.SECONDS).getMTI(), is(RESPONSE));
+      }
+      assertThat(working.requests.size(), is(5));
+
+      failing.failing = false;
+      final long deadline = System.currentTimeMillis() + 5000;
+      while (!pool.isAvailable(0) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(5);
+      }
+      assertThat(pool.isAvailable(0), is(true));
+      synchronized (failing.requests) {
+        final Message echo = failing.requests.get(failing.requests.size() - 1);
+        assertThat(echo.getMTI(), is(ECHO));
+        assertThat(echo.getFieldValue(11).isPresent(), is(true));
+      }
+    }
+  }
+
+  @Test
+  public void testKeepsLinkOnRequestErrorAndInterrupt() throws Exception {
+    final StandInLink link = new StandInLink();
+    link.fault = new MessageException("Unknown message type");
+    try (final LinkPool pool = LinkPool.Builder().factory(factory).link(link).errorLimit(0.1).build()) {
+      for (int stan = 0; stan < 4; stan++) {
+        try {
+          pool.request(message(REQUEST, stan), 1, TimeUnit.SECONDS);
+          throw new AssertionError("Faulty request answered");
+        } catch (final MessageException e) {
+          // the request could not be processed, not the link's failure
+        }
+      }
+      assertThat(pool.isAvailable(0), is(true));
+      link.fault = null;
+      link.release = new CountDownLatch(1);
+      Thread.currentThread().interrupt();
+      try {
+        pool.request(message(REQUEST, 4), 1, TimeUnit.SECONDS);
+        throw new AssertionError("Interrupted request answered");
+      } catch (final InterruptedException e) {
+        // interrupted awaiting the response
+      }
+      assertThat(pool.isAvailable(0), is(true));
+      assertThat(pool.getOutstanding(0), is(0));
+      link.release.countDown();
+      assertThat(pool.request(message(REQUEST, 5), 1, TimeUnit.SECONDS).getMTI(), is(RESPONSE));
+    }
+  }
+
+  @Test
+  public void testBalancesLoopbackSessions() throws Exception {
+    final TransportConfig config = TransportConfig.Builder().factory(factory).build();
+    final LinkPool.Builder builder = LinkPool.Builder().factory(factory);
+    final List<ServerSocket> servers = new ArrayList<>();
+    try {
+      for (int i = 0; i < 2; i++) {
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        servers.add(server);
+        serve(server, config);
+        builder.link(Iso8583Session.connect(server.getLocalSocketAddress(), config));
+      }
+      try (final LinkPool pool = builder.build()) {
+        final List<Future<Message>> responses = new ArrayList<>();
+        for (int stan = 1; stan <= 20; stan++) {
+          responses.add(request(pool, stan));
+        }
+        for (int stan = 1; stan <= 20; stan++) {
+          assertThat(responses.get(stan - 1).get(5, TimeUnit.SECONDS).getFieldValue(11).get(),
+              is((Object) BigInteger.valueOf(stan)));
+        }
+        assertThat(pool.getAvailableCount(), is(2));
+      }
+    } finally {
+      for (final ServerSocket server : servers) {
+        server.close();
+      }
+    }
+  }
+
+  /** answer each request received by the <code>server</code>'s session with its response */
+  private void serve(final ServerSocket server, final TransportConfig config) {
+    threads.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        try (final Iso8583Session session = Iso8583Session.open(server.accept(), config)) {
+          while (true) {
+            session.send(factory.transform(RESPONSE, session.receive(), new HashMap<String, Object>()));
+          }
+        }
+      }
+    });
+  }
+
+  private Future<Message> request(final LinkPool pool, final int stan) {
+    return threads.submit(new Callable<Message>() {
+      @Override
+      public Message call() throws Exception {
+        return pool.request(message(REQUEST, stan), 5, TimeUnit.SECONDS);
+      }
+    });
+  }
+
+  private static int outstanding(final LinkPool pool) {
+    int result = 0;
+    for (int i = 0; i < pool.getLinkCount(); i++) {
+      result += pool.getOutstanding(i);
+    }
+    return result;
+  }
+}
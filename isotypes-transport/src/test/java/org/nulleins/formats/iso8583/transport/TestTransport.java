@@ -0,0 +1,264 @@
+package org.nulleins.formats.iso8583.transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nulleins.formats.iso8583.FieldTemplate;
+import org.nulleins.formats.iso8583.Message;
+import org.nulleins.formats.iso8583.MessageFactory;
+import org.nulleins.formats.iso8583.MessageTemplate;
+import org.nulleins.formats.iso8583.types.BitmapType;
+import org.nulleins.formats.iso8583.types.CharEncoder;
+import org.nulleins.formats.iso8583.types.ContentType;
+import org.nulleins.formats.iso8583.types.FieldType;
+import org.nulleins.formats.iso8583.types.MTI;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+/** @author phillipsr */
+public class TestTransport {
+  private static final MTI REQUEST = MTI.create(0x0200);
+  private static final MessageFactory factory = MessageFactory.Builder()
+      .id("transportTest")
+      .header("ISO015000077")
+      .bitmapType(BitmapType.BINARY)
+      .contentType(ContentType.TEXT)
+      .charset(CharEncoder.ASCII)
+      .addTemplate(MessageTemplate.Builder().header("ISO015000077").type(REQUEST).fieldlist(asList(
+          FieldTemplate.localBuilder().get().f(2).type(FieldType.NUMERIC).dim("llvar(19)").name("pan").build(),
+          FieldTemplate.localBuilder().get().f(4).type(FieldType.NUMERIC).dim("fixed(12)").name("amount").build(),
+          FieldTemplate.localBuilder().get().f(11).type(FieldType.NUMERIC).dim("fixed(6)").name("stan").build(),
+          FieldTemplate.localBuilder().get().f(44).type(FieldType.ALPHANUMSYMBOL).dim("lllvar(999)").name("note").build())).build())
+      .build();
+  private static final InetSocketAddress LOOPBACK = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+  private EventLoopGroup group;
+
+  @Before
+  public void setUp() throws Exception {
+    group = new EventLoopGroup(2);
+  }
+
+  @After
+  public void tearDown() {
+    group.close();
+  }
+
+  private static Message request(final int stan) {
+    final Map<Integer, Object> fields = new HashMap<>();
+    fields.put(2, new BigInteger("5432818929192"));
+    fields.put(4, BigInteger.valueOf(stan * 100));
+    fields.put(11, stan);
+    fields.put(44, "TERMINAL " + stan);
+    return factory.createByNumbers(REQUEST, fields);
+  }
+
+  @Test
+  public void testExchangesMessagesOnLoop() throws Exception {
+    exchange(TransportConfig.Builder().factory(factory).build());
+  }
+
+  @Test
+  public void testExchangesMessagesOnExecutor() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      exchange(TransportConfig.Builder().factory(factory).framing(LengthFraming.ASCII4)
+          .executor(executor).maxPendingMessages(8).build());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testExchangesMessagesWithBinary4Framing() throws Exception {
+    final TransportConfig config = TransportConfig.Builder().factory(factory).framing(LengthFraming.BINARY4).build();
+    assertThat(config.getMaxFrameLength(), is(64 * 1024));
+    assertThat(config.getBufferSize(), is(4 + TransportConfig.maxMessageSize(factory)));
+    exchange(config);
+  }
+
+  /** send messages from several clients to a server echoing them, checking all are returned */
+  private void exchange(final TransportConfig config) throws Exception {
+    final IsoServer server = new IsoServer(group, config, new RecordingHandler(true));
+    final InetSocketAddress address = server.bind(LOOPBACK);
+    final RecordingHandler handler = new RecordingHandler(false);
+    final IsoClient[] clients = new IsoClient[4];
+    for (int i = 0; i < clients.length; i++) {
+      clients[i] = new IsoClient(group, config, handler, address);
+      clients[i].connect();
+      handler.connections.poll(5, TimeUnit.SECONDS);
+    }
+    for (int stan = 0; stan < 1000; stan++) {
+      clients[stan % clients.length].send(request(stan));
+    }
+    final Map<Object, Message> received = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      final Message message = handler.messages.poll(5, TimeUnit.SECONDS);
+      received.put(message.getFieldValue(11).get(), message);
+    }
+    for (int stan = 0; stan < 1000; stan++) {
+      assertThat(received.get(BigInteger.valueOf(stan)), is(request(stan)));
+    }
+    assertThat(server.getConnectionCount(), is(clients.length));
+    for (final IsoClient client : clients) {
+      client.close();
+    }
+    server.close();
+  }
+
+  @Test
+  public void testReassemblesFragmentedFrames() throws Exception {
+    final RecordingHandler handler = new RecordingHandler(false);
+    final IsoServer server = new IsoServer(group, TransportConfig.Builder().factory(factory).bufferSize(16).build(), handler);
+    final InetSocketAddress address = server.bind(LOOPBACK);
+    final byte[] data = factory.getMessageData(request(42));
+    final ByteBuffer frame = ByteBuffer.allocate(2 * (data.length + 2));
+    for (int i = 0; i < 2; i++) {
+      frame.putShort((short) data.length).put(data);
+    }
+    frame.flip();
+    try (final SocketChannel channel = SocketChannel.open(address)) {
+      for (final int split : new int[]{1, 20, data.length + 3, frame.limit()}) {
+        final ByteBuffer part = frame.duplicate();
+        part.limit(split);
+        channel.write(part);
+        frame.position(split);
+        Thread.sleep(20);
+      }
+      assertThat(handler.messages.poll(5, TimeUnit.SECONDS), is(request(42)));
+      assertThat(handler.messages.poll(5, TimeUnit.SECONDS), is(request(42)));
+    }
+    server.close();
+  }
+
+  @Test
+  public void testClosesConnectionOnOversizedFrame() throws Exception {
+    final RecordingHandler handler = new RecordingHandler(false);
+    final IsoServer server = new IsoServer(group,
+        TransportConfig.Builder().factory(factory).framing(LengthFraming.BINARY4).build(), handler);
+    final InetSocketAddress address = server.bind(LOOPBACK);
+    try (final SocketChannel channel = SocketChannel.open(address)) {
+      final ByteBuffer header = ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE);
+      header.flip();
+      channel.write(header);
+      assertThat(channel.read(ByteBuffer.allocate(1)), is(-1));
+    }
+    // the loop survives to serve further connections
+    final byte[] data = factory.getMessageData(request(3));
+    try (final SocketChannel channel = SocketChannel.open(address)) {
+      final ByteBuffer frame = ByteBuffer.allocate(data.length + 4).putInt(data.length).put(data);
+      frame.flip();
+      channel.write(frame);
+      assertThat(handler.messages.poll(5, TimeUnit.SECONDS), is(request(3)));
+    }
+    server.close();
+  }
+
+  @Test
+  public void testReconnects() throws Exception {
+    final RecordingHandler serverHandler = new RecordingHandler(false);
+    final TransportConfig config = TransportConfig.Builder().factory(factory)
+        .reconnectDelay(10, TimeUnit.MILLISECONDS).build();
+    final IsoServer server = new IsoServer(group, config, serverHandler);
+    final InetSocketAddress address = server.bind(LOOPBACK);
+    final RecordingHandler handler = new RecordingHandler(false);
+    final IsoClient client = new IsoClient(group, config, handler, address);
+    client.connect();
+    final Connection first = handler.connections.poll(5, TimeUnit.SECONDS);
+    serverHandler.connections.poll(5, TimeUnit.SECONDS).close();
+    final Connection second = handler.connections.poll(5, TimeUnit.SECONDS);
+    assertThat(first.isOpen(), is(false));
+    assertThat(second.isOpen(), is(true));
+    client.send(request(7));
+    assertThat(serverHandler.messages.poll(5, TimeUnit.SECONDS), is(request(7)));
+    client.close();
+    server.close();
+  }
+
+  @Test
+  public void testSuspendsReadingWhenBacklogged() throws Exception {
+    final RecordingHandler handler = new RecordingHandler(false);
+    final IsoServer server = new IsoServer(group,
+        TransportConfig.Builder().factory(factory).highWaterMark(64 * 1024).build(), handler);
+    final InetSocketAddress address = server.bind(LOOPBACK);
+    try (final SocketChannel channel = SocketChannel.open()) {
+      channel.socket().setReceiveBufferSize(4096);
+      channel.connect(address);
+      final Connection connection = handler.connections.poll(5, TimeUnit.SECONDS);
+      // the peer does not read, so the messages queue once the socket buffers are full
+      final Message message = request(1);
+      final int length = 2 + factory.getMessageData(message).length;
+      long sent = 0;
+      while (connection.isWritable()) {
+        connection.send(message);
+        sent += length;
+        Thread.yield();
+      }
+      assertThat(connection.getPendingBytes() > 0, is(true));
+      // the server stops reading from the backlogged connection
+      final byte[] data = factory.getMessageData(request(9));
+      final ByteBuffer frame = ByteBuffer.allocate(data.length + 2).putShort((short) data.length).put(data);
+      frame.flip();
+      channel.write(frame);
+      assertThat(handler.messages.poll(200, TimeUnit.MILLISECONDS), is((Message) null));
+      final ByteBuffer input = ByteBuffer.allocate(64 * 1024);
+      while (sent > 0) {
+        sent -= channel.read(input);
+        input.clear();
+      }
+      assertThat(connection.getPendingBytes(), is(0L));
+      assertThat(connection.isWritable(), is(true));
+      assertThat(handler.messages.poll(5, TimeUnit.SECONDS), is(request(9)));
+    }
+    server.close();
+  }
+
+  /** handler recording the connections established and messages received, echoing them if required */
+  private static final class RecordingHandler implements MessageHandler {
+    private final boolean echo;
+    private final BlockingQueue<Connection> connections = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+
+    private RecordingHandler(final boolean echo) {
+      this.echo = echo;
+    }
+
+    @Override
+    public void connected(final Connection connection) {
+      connections.add(connection);
+    }
+
+    @Override
+    public void received(final Connection connection, final Message message) {
+      if (echo) {
+        connection.send(message);
+      } else {
+        messages.add(message);
+      }
+    }
+
+    @Override
+    public void failed(final Connection connection, final byte[] frame, final Exception cause) {
+      throw new AssertionError(cause);
+    }
+
+    @Override
+    public void closed(final Connection connection, final Throwable cause) {
+    }
+  }
+}